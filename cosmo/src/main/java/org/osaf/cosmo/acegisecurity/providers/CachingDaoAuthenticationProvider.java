@@ -0,0 +1,96 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.acegisecurity.providers;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.security.AuthenticationCache;
+import org.springframework.security.Authentication;
+import org.springframework.security.AuthenticationException;
+import org.springframework.security.providers.UsernamePasswordAuthenticationToken;
+import org.springframework.security.providers.dao.DaoAuthenticationProvider;
+import org.springframework.security.userdetails.UserDetails;
+import org.springframework.security.userdetails.UsernameNotFoundException;
+
+/**
+ * <code>DaoAuthenticationProvider</code> that skips verifying a
+ * username and password that were verified recently.
+ * <p>
+ * The user details are still loaded for each request, so that
+ * the user belongs to the request's session and a user that has
+ * been locked or disabled is noticed immediately.
+ *
+ * @see AuthenticationCache
+ */
+public class CachingDaoAuthenticationProvider extends DaoAuthenticationProvider {
+    private static final Log log =
+        LogFactory.getLog(CachingDaoAuthenticationProvider.class);
+
+    private static final String TYPE_BASIC = "basic";
+
+    private AuthenticationCache authenticationCache;
+
+    public Authentication authenticate(Authentication authentication)
+        throws AuthenticationException {
+        if (authenticationCache == null ||
+            ! (authentication instanceof UsernamePasswordAuthenticationToken) ||
+            authentication.getCredentials() == null)
+            return super.authenticate(authentication);
+
+        String username = authentication.getName();
+        String key = AuthenticationCache.key(TYPE_BASIC, username,
+                authentication.getCredentials().toString());
+
+        if (authenticationCache.get(key) != null) {
+            UserDetails user = loadUser(username);
+            if (user != null && user.isEnabled() &&
+                user.isAccountNonLocked() && user.isAccountNonExpired() &&
+                user.isCredentialsNonExpired()) {
+                if (log.isDebugEnabled())
+                    log.debug("using recently verified credentials for " +
+                              username);
+                return createSuccessAuthentication(user, authentication,
+                                                   user);
+            }
+            // let the full check report the problem
+            authenticationCache.remove(key);
+        }
+
+        Authentication result = super.authenticate(authentication);
+        authenticationCache.put(key, username, username);
+        return result;
+    }
+
+    private UserDetails loadUser(String username) {
+        try {
+            return getUserDetailsService().loadUserByUsername(username);
+        } catch (UsernameNotFoundException e) {
+            return null;
+        }
+    }
+
+    public AuthenticationCache getAuthenticationCache() {
+        return authenticationCache;
+    }
+
+    /**
+     * Cache of recently verified credentials.  Optional.
+     * @param authenticationCache
+     */
+    public void setAuthenticationCache(AuthenticationCache authenticationCache) {
+        this.authenticationCache = authenticationCache;
+    }
+}
@@ -25,6 +25,7 @@ import org.apache.commons.logging.LogFactory;
 import org.osaf.cosmo.dao.ContentDao;
 import org.osaf.cosmo.model.Item;
 import org.osaf.cosmo.model.Ticket;
+import org.osaf.cosmo.security.AuthenticationCache;
 import org.osaf.cosmo.server.CollectionPath;
 import org.osaf.cosmo.server.ItemPath;
 import org.springframework.dao.DataAccessException;
@@ -36,7 +37,10 @@ public class TicketAuthenticationProvider
     private static final Log log =
         LogFactory.getLog(TicketAuthenticationProvider.class);
 
+    private static final String TYPE_TICKET = "ticket";
+
     private ContentDao contentDao;
+    private AuthenticationCache authenticationCache;
 
     // AuthenticationProvider methods
 
@@ -78,6 +82,19 @@ public class TicketAuthenticationProvider
         this.contentDao = contentDao;
     }
 
+    /** */
+    public AuthenticationCache getAuthenticationCache() {
+        return authenticationCache;
+    }
+
+    /**
+     * Cache of recently verified tickets.  Optional.
+     * @param authenticationCache
+     */
+    public void setAuthenticationCache(AuthenticationCache authenticationCache) {
+        this.authenticationCache = authenticationCache;
+    }
+
     private Ticket findTicket(String path,
                               String key) {
         try {
@@ -85,6 +102,22 @@ public class TicketAuthenticationProvider
                 log.debug("authenticating ticket " + key +
                           " for resource at path " + path);
 
+            // the item a ticket was recently found on is remembered,
+            // so the path needn't be resolved again
+            String cacheKey = null;
+            if (authenticationCache != null) {
+                cacheKey = AuthenticationCache.key(TYPE_TICKET, path, key);
+                String uid = authenticationCache.get(cacheKey);
+                if (uid != null) {
+                    Item item = contentDao.findItemByUid(uid);
+                    Ticket ticket = item != null ?
+                        contentDao.getTicket(item, key) : null;
+                    if (ticket != null && ! ticket.hasTimedOut())
+                        return ticket;
+                    authenticationCache.remove(cacheKey);
+                }
+            }
+
             Item item = findItem(path);
             Ticket ticket = contentDao.getTicket(item, key);
             if (ticket == null)
@@ -97,6 +130,8 @@ public class TicketAuthenticationProvider
                 return null;
             }
 
+            if (cacheKey != null)
+                authenticationCache.put(cacheKey, key, item.getUid());
             return ticket;
         } catch (DataAccessException e) {
             throw new AuthenticationServiceException(e.getMessage(), e);
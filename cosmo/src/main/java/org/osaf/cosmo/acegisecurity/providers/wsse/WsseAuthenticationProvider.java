@@ -27,6 +27,7 @@ import org.apache.commons.logging.LogFactory;
 import org.osaf.cosmo.acegisecurity.userdetails.CosmoUserDetails;
 import org.osaf.cosmo.dao.UserDao;
 import org.osaf.cosmo.model.User;
+import org.osaf.cosmo.security.AuthenticationCache;
 import org.osaf.cosmo.util.DateUtil;
 import org.osaf.cosmo.wsse.UsernameToken;
 import org.osaf.cosmo.wsse.WsseUtils;
@@ -69,7 +70,10 @@ public class WsseAuthenticationProvider
     // 2 hour timeout (in seconds)
     private static int DEFAULT_WSSE_TOKEN_TIMEOUT = 60*60*2;
 
+    private static final String TYPE_WSSE = "wsse";
+
     private UserDao userDao;
+    private AuthenticationCache authenticationCache;
     
     // Used for testing purposes
     private Date currentTime = null;
@@ -117,10 +121,25 @@ public class WsseAuthenticationProvider
         // TODO: cache nonces and reject nonces that have already been
         // used
         
+        // a token that was verified recently needn't be digested again
+        String key = null;
+        if(authenticationCache!=null) {
+            key = AuthenticationCache.key(TYPE_WSSE, wsseToken.getUsername(),
+                    wsseToken.getNonce(), wsseToken.getCreated(),
+                    wsseToken.getPasswordDigest());
+            if(authenticationCache.get(key)!=null) {
+                token.setUserDetails(new CosmoUserDetails(user));
+                token.setAuthenticated(true);
+                return token;
+            }
+        }
+        
         String passwordDigest = WsseUtils.calculatePasswordDigest(user
                 .getPassword(), wsseToken.getNonce(), wsseToken.getCreated());
         
         if(passwordDigest.equals(wsseToken.getPasswordDigest())) {
+            if(key!=null)
+                authenticationCache.put(key, user.getUsername(), user.getUsername());
             token.setUserDetails(new CosmoUserDetails(user));
             token.setAuthenticated(true);
             return token;
@@ -146,6 +165,18 @@ public class WsseAuthenticationProvider
         this.userDao = userDao;
     }
     
+    public AuthenticationCache getAuthenticationCache() {
+        return authenticationCache;
+    }
+
+    /**
+     * Cache of recently verified tokens.  Optional.
+     * @param authenticationCache
+     */
+    public void setAuthenticationCache(AuthenticationCache authenticationCache) {
+        this.authenticationCache = authenticationCache;
+    }
+    
     public int getTokenTimeout() {
         return tokenTimeout;
     }
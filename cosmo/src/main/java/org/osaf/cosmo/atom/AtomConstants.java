@@ -61,6 +61,7 @@ public interface AtomConstants {
     public static final String REL_MASTER = "master";
     public static final String REL_DETACHED = "detached";
     public static final String REL_TICKET = "ticket";
+    public static final String REL_NEXT = "next";
 
     // projection constants
 
@@ -105,6 +106,12 @@ public interface AtomConstants {
     /** */
     public static final QName QN_EXISTS =
         new QName(NS_COSMO, "exists", PRE_COSMO);
+    /** */
+    public static final QName QN_CURSOR =
+        new QName(NS_COSMO, "cursor", PRE_COSMO);
+    /** */
+    public static final QName QN_ACTION =
+        new QName(NS_COSMO, "action", PRE_COSMO);
 
     // URI constants
 
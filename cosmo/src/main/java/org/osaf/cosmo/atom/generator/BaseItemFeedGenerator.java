@@ -17,6 +17,7 @@ package org.osaf.cosmo.atom.generator;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -32,11 +33,13 @@ import org.osaf.cosmo.icalendar.ICalendarConstants;
 import org.osaf.cosmo.model.AuditableComparator;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemChangeRecord;
 import org.osaf.cosmo.model.ModificationUid;
 import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.NoteOccurrence;
 import org.osaf.cosmo.model.Ticket;
 import org.osaf.cosmo.model.filter.NoteItemFilter;
+import org.osaf.cosmo.model.filter.TextSearchFilter;
 import org.osaf.cosmo.server.ServiceLocator;
 
 /**
@@ -91,22 +94,58 @@ public abstract class BaseItemFeedGenerator
         return feed;
     }
 
-    public Feed generateSearchFeed(CollectionItem collection, NoteItemFilter[] bodyFilters, NoteItemFilter[] titleFilters)
-    	throws GeneratorException {
-    	Feed feed = createFeed(collection);
-    	for(int i = 0;i < bodyFilters.length;i++){
-    		this.setFilter(bodyFilters[i]);
-		
-    		for (NoteItem item : this.findContents(collection))
-    			feed.addEntry(createEntry(item));
-    		this.setFilter(titleFilters[i]);
-    		for (NoteItem item : this.findContents(collection))
-    			feed.addEntry(createEntry(item));
-    	}
-    	
-    	return feed;
+    /**
+     * Generates an Atom feed containing entries for each child item
+     * of the collection that matches a text search.
+     *
+     * @param collection the collection on which the feed is based
+     * @param filter the search terms
+     * @throws GeneratorException
+     */
+    public Feed generateSearchFeed(CollectionItem collection,
+                                   TextSearchFilter filter)
+        throws GeneratorException {
+        Feed feed = createFeed(collection);
+
+        this.setFilter(filter);
+        for (NoteItem item : this.findContents(collection))
+            feed.addEntry(createEntry(item));
+
+        return feed;
     }
-    
+
+    /**
+     * Generates an Atom feed containing an entry for each change to
+     * a collection, oldest first.  The feed and each entry carry a
+     * cursor extension, and the feed links to the changes that
+     * follow the last one included.
+     *
+     * @param collection the collection on which the feed is based
+     * @param changes changes logged after the cursor
+     * @param cursor the cursor the changes were found after
+     * @param max the maximum number of changes in a feed
+     * @throws GeneratorException
+     */
+    public Feed generateChangesFeed(CollectionItem collection,
+                                    List<ItemChangeRecord> changes,
+                                    long cursor,
+                                    int max)
+        throws GeneratorException {
+        Feed feed = createFeed(collection);
+
+        long last = cursor;
+        for (ItemChangeRecord change : changes) {
+            feed.addEntry(createEntry(change));
+            last = change.getEntryId();
+        }
+
+        feed.addSimpleExtension(QN_CURSOR, Long.toString(last));
+        feed.addLink(newLink(REL_NEXT, MEDIA_TYPE_ATOM,
+                             changesIri(collection, last, max)));
+
+        return feed;
+    }
+
     /**
      * Generates an Atom feed containing entries for each child item
      * of the collections.
@@ -307,6 +346,28 @@ public abstract class BaseItemFeedGenerator
         return entry;
     }
 
+    /**
+     * Creates a <code>Entry</code> describing a change to an item.
+     *
+     * @param change the change on which the entry is based
+     * @throws GeneratorException
+     */
+    protected Entry createEntry(ItemChangeRecord change)
+        throws GeneratorException {
+        Entry entry = newEntry(change.getItemUuid(), false);
+
+        entry.setTitle(change.getItemDisplayName() != null ?
+                       change.getItemDisplayName() : "");
+        entry.setUpdated(change.getDate());
+        if (change.getModifiedBy() != null)
+            entry.addAuthor(change.getModifiedBy());
+        entry.addSimpleExtension(QN_ACTION, change.getAction().toString());
+        entry.addSimpleExtension(QN_CURSOR,
+                                 Long.toString(change.getEntryId()));
+
+        return entry;
+    }
+
     /**
      * Returns the projection name that this generator provides.
      */
@@ -520,6 +581,20 @@ public abstract class BaseItemFeedGenerator
         return iri.toString();
     }
 
+    /**
+     * Returns the IRI of the changes to a collection logged after a
+     * cursor.
+     *
+     * @param collection the collection
+     * @param cursor the cursor
+     * @param max the maximum number of changes
+     */
+    protected String changesIri(CollectionItem collection,
+                                long cursor,
+                                int max) {
+        return selfIri(collection) + "?changes=" + cursor + "&max=" + max;
+    }
+
     /**
      * Returns the expanded IRI of the given item including path info.
      *
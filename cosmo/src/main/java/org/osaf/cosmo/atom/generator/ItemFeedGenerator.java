@@ -15,9 +15,12 @@
  */
 package org.osaf.cosmo.atom.generator;
 
+import java.util.List;
+
 import org.apache.abdera.model.Entry;
 import org.apache.abdera.model.Feed;
 import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.ItemChangeRecord;
 import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.filter.NoteItemFilter;
 
@@ -51,6 +54,23 @@ public interface ItemFeedGenerator {
     public Feed generateFeed(CollectionItem item)
         throws GeneratorException;
 
+    /**
+     * Generates an Atom feed containing an entry for each change to
+     * a collection, oldest first, and a link to the feed of the
+     * changes that follow them.
+     *
+     * @param collection the collection on which the feed is based
+     * @param changes changes logged after the cursor
+     * @param cursor the cursor the changes were found after
+     * @param max the maximum number of changes in a feed
+     * @throws GeneratorException
+     */
+    public Feed generateChangesFeed(CollectionItem collection,
+                                    List<ItemChangeRecord> changes,
+                                    long cursor,
+                                    int max)
+        throws GeneratorException;
+
     /**
      * Generates an Atom feed containing entries for an expanded
      * recurring item. Requires a query filter to have been set.
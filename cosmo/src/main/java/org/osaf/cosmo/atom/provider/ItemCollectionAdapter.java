@@ -23,6 +23,7 @@ import java.net.URL;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.activation.MimeType;
@@ -75,6 +76,7 @@ import org.osaf.cosmo.model.EventStamp;
 import org.osaf.cosmo.model.HomeCollectionItem;
 import org.osaf.cosmo.model.IcalUidInUseException;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemChangeRecord;
 import org.osaf.cosmo.model.ItemSecurityException;
 import org.osaf.cosmo.model.ModelValidationException;
 import org.osaf.cosmo.model.ModificationUid;
@@ -85,7 +87,7 @@ import org.osaf.cosmo.model.UidInUseException;
 import org.osaf.cosmo.model.User;
 import org.osaf.cosmo.model.filter.EventStampFilter;
 import org.osaf.cosmo.model.filter.NoteItemFilter;
-import org.osaf.cosmo.model.filter.Restrictions;
+import org.osaf.cosmo.model.filter.TextSearchFilter;
 import org.osaf.cosmo.model.text.XhtmlCollectionFormat;
 import org.osaf.cosmo.security.CosmoSecurityException;
 import org.osaf.cosmo.server.ServiceLocator;
@@ -99,6 +101,9 @@ public class ItemCollectionAdapter extends BaseCollectionAdapter implements Atom
     private ContentService contentService;
 
     // Provider methods
+    private static final int DEFAULT_MAX_CHANGES = 100;
+    private static final int MAX_CHANGES = 1000;
+    
     private static final String[] ALLOWED_COLL_METHODS =
         new String[] { "GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS" };
     private static final String[] ALLOWED_ENTRY_METHODS =
@@ -360,7 +365,11 @@ public class ItemCollectionAdapter extends BaseCollectionAdapter implements Atom
             // check if it is a search
             Feed feed;
             String searchType = getNonEmptyParameter(request, "searchType");
-            if (searchType == null) { // not a search, continue as per usual
+            String changes = getNonEmptyParameter(request, "changes");
+            if (changes != null) { // changes logged after a cursor
+                feed = getChangesFeed(changes, request, target, locator,
+                        collection);
+            } else if (searchType == null) { // not a search, continue as per usual
                 ItemFeedGenerator generator = createItemFeedGenerator(target,
                         locator);
                 generator.setFilter(createQueryFilter(request));
@@ -386,6 +395,37 @@ public class ItemCollectionAdapter extends BaseCollectionAdapter implements Atom
         }
     }
 
+    /**
+     * Returns a feed of the changes to a collection logged after the
+     * cursor given by the <code>changes</code> parameter, at most
+     * <code>max</code> changes at a time.
+     */
+    public Feed getChangesFeed(String changes, RequestContext request,
+            CollectionTarget target, ServiceLocator locator,
+            CollectionItem collection) throws InvalidQueryException,
+            UnsupportedProjectionException, UnsupportedFormatException,
+            GeneratorException {
+        long cursor;
+        int max = DEFAULT_MAX_CHANGES;
+        try {
+            cursor = Long.parseLong(changes);
+            String maxParam = getNonEmptyParameter(request, "max");
+            if (maxParam != null)
+                max = Integer.parseInt(maxParam);
+        } catch (NumberFormatException e) {
+            throw new InvalidQueryException("Error parsing changes parameters: " + e.getMessage(), e);
+        }
+        if (cursor < 0 || max < 1)
+            throw new InvalidQueryException("Cursor must not be negative and max must be positive");
+        if (max > MAX_CHANGES)
+            max = MAX_CHANGES;
+
+        List<ItemChangeRecord> records =
+            contentService.findChangesForCollection(collection, cursor, max);
+        ItemFeedGenerator generator = createItemFeedGenerator(target, locator);
+        return generator.generateChangesFeed(collection, records, cursor, max);
+    }
+
     public Feed getSearchFeed(String searchType, RequestContext request,
             CollectionTarget target, ServiceLocator locator,
             CollectionItem collection) throws InvalidQueryException,
@@ -454,23 +494,13 @@ public class ItemCollectionAdapter extends BaseCollectionAdapter implements Atom
                 }
             }
 
-            int queryCount = queryStrings.length - nullCount;
             if(log.isDebugEnabled())
                 log.debug("nullCount = " + nullCount + ", queryCount = "
-                    + queryCount);
-            NoteItemFilter[] bodyFilters = new NoteItemFilter[queryCount];
-            NoteItemFilter[] titleFilters = new NoteItemFilter[queryCount];
-            for (int j = 0; j < queryStrings.length; j++) {
-                if (queryStrings[j] != null) {
-                    bodyFilters[j] = new NoteItemFilter();
-                    titleFilters[j] = new NoteItemFilter();
-                    bodyFilters[j].setBody(Restrictions.ilike(queryStrings[j]));
-                    titleFilters[j].setDisplayName(Restrictions
-                            .ilike(queryStrings[j]));
-                }
-            }
-            feed = searchGenerator.generateSearchFeed(collection, bodyFilters,
-                    titleFilters);
+                    + (queryStrings.length - nullCount));
+            TextSearchFilter searchFilter = new TextSearchFilter();
+            for (int j = 0; j < queryStrings.length; j++)
+                searchFilter.addTerm(queryStrings[j]);
+            feed = searchGenerator.generateSearchFeed(collection, searchFilter);
         } else { // coming from the the advanced search widget
             feed = null;// placeholder
             log.warn("Error -- invalid searchType");
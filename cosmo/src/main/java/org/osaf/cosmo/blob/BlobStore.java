@@ -0,0 +1,85 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.blob;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.osaf.cosmo.io.BufferedContent;
+
+/**
+ * Store of content kept outside the database, addressed by a digest
+ * of the content.
+ * <p>
+ * Storing the same content twice stores it once and returns the
+ * same id; the store counts the references to each blob and
+ * removes a blob once its last reference is released.
+ *
+ * @see org.osaf.cosmo.hibernate.BlobStoreInterceptor
+ */
+public interface BlobStore {
+
+    /**
+     * Store content, or add a reference to it if it is already
+     * stored.
+     * @param content content to store
+     * @return id of the stored content
+     * @throws IOException if the content can't be read or stored
+     */
+    public String put(BufferedContent content) throws IOException;
+
+    /**
+     * Open stored content.  Each call returns a new stream, which
+     * the caller must close.
+     * @param id id of the content
+     * @return stream positioned at the start of the content
+     * @throws IOException if the content isn't stored
+     */
+    public InputStream getInputStream(String id) throws IOException;
+
+    /**
+     * @param id id of the content
+     * @return length of the content in bytes, or -1 if the content
+     *         isn't stored
+     */
+    public long getLength(String id);
+
+    /**
+     * Release a reference to stored content, removing the content
+     * once no references are left.
+     * @param id id of the content
+     * @throws IOException if the content can't be removed
+     */
+    public void release(String id) throws IOException;
+
+    /**
+     * Correct the reference counts of stored content to the number
+     * of references that actually exist, removing content that is no
+     * longer referenced.  References can be lost when content is
+     * deleted without the store being told, for example by a bulk
+     * delete.  Content whose references changed less than
+     * <code>minAge</code> milliseconds ago is left alone, since the
+     * transaction that changed them may not have committed yet.
+     * @param references number of references to each stored content
+     *                   id; content that isn't listed has none
+     * @param minAge milliseconds since the references last changed
+     * @return number of reference counts that were corrected
+     * @throws IOException if the store can't be read or updated
+     */
+    public int reconcile(Map<String, Integer> references, long minAge)
+        throws IOException;
+}
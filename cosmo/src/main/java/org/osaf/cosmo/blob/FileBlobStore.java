@@ -0,0 +1,325 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.blob;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.io.BufferedContent;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * <code>BlobStore</code> that keeps content in files below a local
+ * directory, named by the SHA-256 digest of the content.
+ * <p>
+ * Content is streamed into a temporary file in the store while it is
+ * digested, and then moved into place, so it is never held in memory.
+ * Blobs are spread over two levels of subdirectories named by the
+ * first four digits of their id.  The number of references to a blob
+ * is kept in a <code>.refs</code> file next to it.
+ * <p>
+ * Reference counts are only kept consistent within one process, so
+ * the directory should not be shared by several nodes.  The directory
+ * is created when the first blob is stored, so a store that is only
+ * installed to read existing blobs doesn't create it.
+ */
+@ManagedResource(objectName="cosmo:name=blobStore", description="Cosmo Blob Store")
+public class FileBlobStore implements BlobStore {
+    private static final Log log = LogFactory.getLog(FileBlobStore.class);
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String SUFFIX_REFS = ".refs";
+    private static final String DIR_TMP = "tmp";
+    private static final int LOCK_STRIPES = 64;
+
+    private File directory;
+    private File tmpDirectory;
+    private Object[] locks = new Object[LOCK_STRIPES];
+
+    private AtomicLong stored = new AtomicLong();
+    private AtomicLong deduplicated = new AtomicLong();
+    private AtomicLong removed = new AtomicLong();
+    private AtomicLong bytesWritten = new AtomicLong();
+    private AtomicLong corrected = new AtomicLong();
+
+    public FileBlobStore() {
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new Object();
+    }
+
+    /**
+     * Removes temporary files left behind by an earlier run.
+     */
+    public void init() {
+        if (directory == null)
+            directory = new File(System.getProperty("user.home"),
+                                 ".cosmo" + File.separator + "blobs");
+        tmpDirectory = new File(directory, DIR_TMP);
+
+        File[] leftovers = tmpDirectory.listFiles();
+        for (int i = 0; leftovers != null && i < leftovers.length; i++)
+            leftovers[i].delete();
+
+        log.info("storing blobs in " + directory.getAbsolutePath());
+    }
+
+    // BlobStore methods
+
+    public String put(BufferedContent content) throws IOException {
+        MessageDigest digest = createDigest();
+        if (! tmpDirectory.isDirectory() && ! tmpDirectory.mkdirs())
+            throw new IOException("unable to create blob store directory " + tmpDirectory);
+        File tmpFile = File.createTempFile("blob", ".tmp", tmpDirectory);
+        try {
+            InputStream in =
+                new DigestInputStream(content.getInputStream(), digest);
+            OutputStream out = new FileOutputStream(tmpFile);
+            try {
+                IOUtils.copy(in, out);
+            } finally {
+                IOUtils.closeQuietly(in);
+                out.close();
+            }
+
+            String id = new String(Hex.encodeHex(digest.digest()));
+            synchronized (getLock(id)) {
+                File file = getFile(id);
+                if (file.exists()) {
+                    deduplicated.incrementAndGet();
+                } else {
+                    moveFile(tmpFile, file);
+                    stored.incrementAndGet();
+                    bytesWritten.addAndGet(file.length());
+                }
+                writeReferences(id, readReferences(id) + 1);
+            }
+            return id;
+        } finally {
+            if (tmpFile.exists())
+                tmpFile.delete();
+        }
+    }
+
+    public InputStream getInputStream(String id) throws IOException {
+        return new FileInputStream(getFile(id));
+    }
+
+    public long getLength(String id) {
+        File file = getFile(id);
+        return file.exists() ? file.length() : -1;
+    }
+
+    public void release(String id) throws IOException {
+        synchronized (getLock(id)) {
+            int references = readReferences(id) - 1;
+            if (references > 0) {
+                writeReferences(id, references);
+                return;
+            }
+
+            File file = getFile(id);
+            if (file.exists() && ! file.delete())
+                throw new IOException("unable to delete blob " + file);
+            getReferencesFile(id).delete();
+            removed.incrementAndGet();
+            if (log.isDebugEnabled())
+                log.debug("removed blob " + id);
+        }
+    }
+
+    public int reconcile(Map<String, Integer> references, long minAge)
+        throws IOException {
+        long changedBefore = System.currentTimeMillis() - minAge;
+        int count = 0;
+
+        File[] dirs1 = directory.listFiles();
+        for (int i = 0; dirs1 != null && i < dirs1.length; i++) {
+            if (dirs1[i].getName().equals(DIR_TMP))
+                continue;
+            File[] dirs2 = dirs1[i].listFiles();
+            for (int j = 0; dirs2 != null && j < dirs2.length; j++) {
+                File[] files = dirs2[j].listFiles();
+                for (int k = 0; files != null && k < files.length; k++) {
+                    // skip reference counts and temporary files
+                    String id = files[k].getName();
+                    if (id.length() != 64 || ! id.matches("[0-9a-f]+"))
+                        continue;
+                    Integer actual = references.get(id);
+                    if (reconcile(id, actual != null ? actual.intValue() : 0,
+                                  changedBefore))
+                        count++;
+                }
+            }
+        }
+
+        corrected.addAndGet(count);
+        if (count > 0)
+            log.info("corrected reference counts of " + count + " blobs");
+        return count;
+    }
+
+    // our methods
+
+    /**
+     * @param directory directory blobs are kept in; defaults to
+     *                  <code>~/.cosmo/blobs</code>
+     */
+    public void setDirectory(String directory) {
+        this.directory = new File(directory);
+    }
+
+    @ManagedAttribute(description="Directory blobs are kept in")
+    public String getDirectory() {
+        return directory != null ? directory.getAbsolutePath() : null;
+    }
+
+    @ManagedAttribute(description="Number of blobs written")
+    public long getStored() {
+        return stored.get();
+    }
+
+    @ManagedAttribute(description="Number of blobs that were already stored")
+    public long getDeduplicated() {
+        return deduplicated.get();
+    }
+
+    @ManagedAttribute(description="Number of blobs removed")
+    public long getRemoved() {
+        return removed.get();
+    }
+
+    @ManagedAttribute(description="Number of bytes written")
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @ManagedAttribute(description="Number of reference counts corrected by reconciling")
+    public long getCorrected() {
+        return corrected.get();
+    }
+
+    /**
+     * @return number of references to a blob
+     */
+    int getReferences(String id) throws IOException {
+        synchronized (getLock(id)) {
+            return readReferences(id);
+        }
+    }
+
+    /**
+     * Set the reference count of a blob that hasn't changed since
+     * <code>changedBefore</code>, removing it if it has no references.
+     * @return true if the count was corrected
+     */
+    private boolean reconcile(String id, int references, long changedBefore)
+        throws IOException {
+        synchronized (getLock(id)) {
+            File file = getFile(id);
+            File refsFile = getReferencesFile(id);
+            long changed = refsFile.exists() ?
+                refsFile.lastModified() : file.lastModified();
+            if (changed >= changedBefore ||
+                readReferences(id) == references)
+                return false;
+
+            if (references > 0) {
+                writeReferences(id, references);
+                return true;
+            }
+
+            if (file.exists() && ! file.delete())
+                throw new IOException("unable to delete blob " + file);
+            refsFile.delete();
+            removed.incrementAndGet();
+            return true;
+        }
+    }
+
+    private File getFile(String id) {
+        if (id == null || id.length() != 64 ||
+            ! id.matches("[0-9a-f]+"))
+            throw new IllegalArgumentException("invalid blob id " + id);
+        File dir = new File(new File(directory, id.substring(0, 2)),
+                            id.substring(2, 4));
+        return new File(dir, id);
+    }
+
+    private File getReferencesFile(String id) {
+        File file = getFile(id);
+        return new File(file.getParentFile(), id + SUFFIX_REFS);
+    }
+
+    private int readReferences(String id) throws IOException {
+        File file = getReferencesFile(id);
+        if (! file.exists())
+            return 0;
+        try {
+            return Integer.parseInt(FileUtils.readFileToString(file, "US-ASCII").trim());
+        } catch (NumberFormatException e) {
+            log.warn("unreadable reference count for blob " + id);
+            return 1;
+        }
+    }
+
+    private void writeReferences(String id, int references)
+        throws IOException {
+        File file = getReferencesFile(id);
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileUtils.writeStringToFile(tmpFile, Integer.toString(references),
+                                    "US-ASCII");
+        moveFile(tmpFile, file);
+    }
+
+    private void moveFile(File from, File to) throws IOException {
+        File parent = to.getParentFile();
+        if (! parent.isDirectory() && ! parent.mkdirs())
+            throw new IOException("unable to create directory " + parent);
+        if (to.exists())
+            to.delete();
+        if (! from.renameTo(to)) {
+            FileUtils.copyFile(from, to);
+            from.delete();
+        }
+    }
+
+    private Object getLock(String id) {
+        return locks[(id.hashCode() & 0x7fffffff) % locks.length];
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(DIGEST_ALGORITHM + " digest not available", e);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.calendar;
+
+import java.util.BitSet;
+import java.util.Iterator;
+
+import net.fortuna.ical4j.model.Date;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.TimeZone;
+
+/**
+ * Compact list of the occurrences of a recurring component within a
+ * window of time.  Unlike an <code>InstanceList</code>, occurrences
+ * are held as arrays of epoch times and bitmaps, so a list is cheap
+ * to keep, slice and merge; ical4j dates are only created for the
+ * recurrence ids that are asked for.
+ * <p>
+ * Occurrences are ordered by recurrence id, as the instances of an
+ * <code>InstanceList</code> are.  Floating dates are pinned to the
+ * timezone the occurrences were expanded with.
+ * <p>
+ * Lists are immutable and may be shared between threads.
+ */
+public class OccurrenceList {
+
+    private long windowStart;
+    private long windowEnd;
+    private int size;
+    private long[] starts;
+    private long[] ends;
+    private long[] rids;
+    private BitSet overridden;
+    private BitSet dateRids;
+    private BitSet floatingRids;
+
+    private OccurrenceList(long windowStart, long windowEnd, int size) {
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.size = size;
+        starts = new long[size];
+        ends = new long[size];
+        rids = new long[size];
+        overridden = new BitSet(size);
+        dateRids = new BitSet(size);
+        floatingRids = new BitSet(size);
+    }
+
+    /**
+     * Create a list from the instances of an expanded component.
+     * @param instances instances expanded for the window
+     * @param windowStart start of the window
+     * @param windowEnd end of the window
+     * @return occurrence list
+     */
+    public static OccurrenceList fromInstances(InstanceList instances,
+                                               long windowStart,
+                                               long windowEnd) {
+        OccurrenceList list =
+            new OccurrenceList(windowStart, windowEnd, instances.size());
+        TimeZone timezone = instances.getTimezone();
+        int i = 0;
+        for (Iterator<Instance> it = instances.values().iterator(); it.hasNext(); i++) {
+            Instance instance = it.next();
+            Date rid = instance.getRid();
+            list.starts[i] = getTime(instance.getStart(), timezone);
+            list.ends[i] = getTime(instance.getEnd(), timezone);
+            list.rids[i] = rid.getTime();
+            list.overridden.set(i, instance.isOverridden());
+            if (rid instanceof DateTime)
+                list.floatingRids.set(i, ICalendarUtils.isFloating(rid));
+            else
+                list.dateRids.set(i);
+        }
+        return list;
+    }
+
+    /**
+     * @return number of occurrences
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return start of the window the occurrences were expanded for
+     */
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    /**
+     * @return end of the window the occurrences were expanded for
+     */
+    public long getWindowEnd() {
+        return windowEnd;
+    }
+
+    /**
+     * @return true if the list holds all occurrences within a window
+     */
+    public boolean covers(long from, long to) {
+        return windowStart <= from && windowEnd >= to;
+    }
+
+    /**
+     * @return start of an occurrence in milliseconds
+     */
+    public long getStart(int index) {
+        return starts[index];
+    }
+
+    /**
+     * @return end of an occurrence in milliseconds
+     */
+    public long getEnd(int index) {
+        return ends[index];
+    }
+
+    /**
+     * @return true if an occurrence is an overridden instance
+     */
+    public boolean isOverridden(int index) {
+        return overridden.get(index);
+    }
+
+    /**
+     * Return the recurrence id of an occurrence, as the
+     * <code>Instance</code> expanded for it would.
+     * @return recurrence id of an occurrence
+     */
+    public Date getRecurrenceId(int index) {
+        if (dateRids.get(index))
+            return new Date(rids[index]);
+        DateTime rid = new DateTime(rids[index]);
+        if (!floatingRids.get(index))
+            rid.setUtc(true);
+        return rid;
+    }
+
+    /**
+     * Return the occurrences that overlap a window.  As when a
+     * recurrence rule is expanded, an occurrence that ends when the
+     * window starts overlaps it.
+     * @param from start of the window
+     * @param to end of the window
+     * @return occurrences within the window
+     */
+    public OccurrenceList subList(long from, long to) {
+        BitSet matches = new BitSet(size);
+        for (int i = 0; i < size; i++)
+            if (starts[i] < to && ends[i] >= from)
+                matches.set(i);
+
+        int count = matches.cardinality();
+        if (count == size && from <= windowStart && to >= windowEnd)
+            return this;
+
+        OccurrenceList list = new OccurrenceList(Math.max(from, windowStart),
+                Math.min(to, windowEnd), count);
+        int j = 0;
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1))
+            list.copy(j++, this, i);
+        return list;
+    }
+
+    /**
+     * Combine the occurrences of two windows that overlap or touch.
+     * An occurrence in both lists is taken from this list.
+     * @param other occurrences of the other window
+     * @return occurrences of both windows
+     */
+    public OccurrenceList merge(OccurrenceList other) {
+        if (other.windowStart > windowEnd || other.windowEnd < windowStart)
+            throw new IllegalArgumentException("windows are not contiguous");
+
+        // count the occurrences of the union first
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            int cmp = compareRids(other, i, j);
+            if (cmp <= 0)
+                i++;
+            if (cmp >= 0)
+                j++;
+            count++;
+        }
+
+        OccurrenceList list = new OccurrenceList(
+                Math.min(windowStart, other.windowStart),
+                Math.max(windowEnd, other.windowEnd), count);
+        i = 0;
+        j = 0;
+        int k = 0;
+        while (i < size || j < other.size) {
+            int cmp = compareRids(other, i, j);
+            if (cmp <= 0)
+                list.copy(k++, this, i++);
+            else
+                list.copy(k++, other, j);
+            if (cmp >= 0)
+                j++;
+        }
+        return list;
+    }
+
+    private int compareRids(OccurrenceList other, int i, int j) {
+        if (i >= size)
+            return 1;
+        if (j >= other.size)
+            return -1;
+        if (rids[i] == other.rids[j])
+            return 0;
+        return rids[i] < other.rids[j] ? -1 : 1;
+    }
+
+    private void copy(int index, OccurrenceList from, int fromIndex) {
+        starts[index] = from.starts[fromIndex];
+        ends[index] = from.ends[fromIndex];
+        rids[index] = from.rids[fromIndex];
+        overridden.set(index, from.overridden.get(fromIndex));
+        dateRids.set(index, from.dateRids.get(fromIndex));
+        floatingRids.set(index, from.floatingRids.get(fromIndex));
+    }
+
+    private static long getTime(Date date, TimeZone timezone) {
+        // floating dates compare in the timezone of the expansion
+        if (timezone != null && ICalendarUtils.isFloating(date))
+            return ICalendarUtils.pinFloatingTime(date, timezone).getTime();
+        return date.getTime();
+    }
+}
@@ -49,6 +49,9 @@ import net.fortuna.ical4j.util.Dates;
 public class RecurrenceExpander {
     
     private static Date MAX_EXPAND_DATE = null;
+    
+    // properties that determine the occurrences of a recurring event
+    private static volatile RecurrenceExpansionCache expansionCache = null;
    
     static {
         try {
@@ -315,6 +318,79 @@ public class RecurrenceExpander {
     }
     
     
+    /**
+     * Expand recurring component for given time-range into a compact
+     * list of occurrences.  If an expansion cache is set, expansions
+     * are cached by key and timezone, and a cached expansion is
+     * extended to cover the time-range rather than expanded again.
+     * A cached expansion is only used if it was expanded from the same
+     * revision, which must change whenever the component, its
+     * modifications or the timezones they refer to change.
+     * @param key key identifying the recurring component, such as the
+     *        uid of its item, or null to not cache the expansion
+     * @param revision revision of the component and its modifications,
+     *        such as <code>StampUtils.getEventRevision()</code>, or
+     *        null to not cache the expansion
+     * @param component recurring component to expand
+     * @param modifications modifications to recurring component
+     * @param rangeStart expand start date
+     * @param rangeEnd expand end date
+     * @param timezone Optional timezone to use for floating dates.  If null, the
+     *        system default is used.
+     * @return OccurrenceList containing all occurences of recurring event during
+     *         time range
+     */
+    public OccurrenceList getOccurrenceList(String key, String revision,
+            Component component, List<Component> modifications,
+            Date rangeStart, Date rangeEnd, TimeZone timezone) {
+        RecurrenceExpansionCache cache = expansionCache;
+        if (cache == null || key == null || revision == null)
+            return expand(component, modifications, rangeStart, rangeEnd, timezone);
+        
+        long from = rangeStart.getTime();
+        long to = rangeEnd.getTime();
+        key = key + ":" + (timezone != null ? timezone.getID() : "");
+        
+        OccurrenceList occurrences = cache.get(key, revision);
+        if (occurrences != null && occurrences.covers(from, to)) {
+            cache.recordHit();
+            return occurrences.subList(from, to);
+        }
+        
+        if (occurrences != null && cache.isExtensible(occurrences, from, to)) {
+            // only expand the parts of the time-range not yet covered
+            if (from < occurrences.getWindowStart())
+                occurrences = occurrences.merge(expand(component, modifications,
+                        rangeStart, toUTC(occurrences.getWindowStart()), timezone));
+            if (to > occurrences.getWindowEnd())
+                occurrences = occurrences.merge(expand(component, modifications,
+                        toUTC(occurrences.getWindowEnd()), rangeEnd, timezone));
+            cache.recordExtension();
+        } else {
+            occurrences = expand(component, modifications, rangeStart, rangeEnd, timezone);
+            cache.recordMiss();
+        }
+        
+        cache.put(key, revision, occurrences);
+        return occurrences.subList(from, to);
+    }
+    
+    /**
+     * Set the cache of expansions used by all instances of this class.
+     * Expansions are not cached if this is null.
+     * @param cache expansion cache
+     */
+    public static void setExpansionCache(RecurrenceExpansionCache cache) {
+        expansionCache = cache;
+    }
+    
+    /**
+     * @return cache of expansions, or null if expansions are not cached
+     */
+    public static RecurrenceExpansionCache getExpansionCache() {
+        return expansionCache;
+    }
+    
     /**
      * Determine if date is a valid occurence in recurring calendar component
      * @param calendar recurring calendar component
@@ -348,6 +424,21 @@ public class RecurrenceExpander {
         return false;
     }
     
+    private OccurrenceList expand(Component component,
+            List<Component> modifications, Date rangeStart, Date rangeEnd,
+            TimeZone timezone) {
+        InstanceList instances = getOcurrences(component, modifications,
+                rangeStart, rangeEnd, timezone);
+        return OccurrenceList.fromInstances(instances, rangeStart.getTime(),
+                rangeEnd.getTime());
+    }
+    
+    private DateTime toUTC(long time) {
+        DateTime dt = new DateTime(time);
+        dt.setUtc(true);
+        return dt;
+    }
+    
     private Date getStartDate(Component comp) {
         DtStart prop = (DtStart) comp.getProperties().getProperty(
                 Property.DTSTART);
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.calendar;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Bounded, least-recently-used cache of expanded recurring events,
+ * keyed by event and timezone.
+ * <p>
+ * Each entry remembers the revision of the event and its
+ * modifications it was expanded from, and is only used when the
+ * revision of the event being expanded is the same, so a stale
+ * expansion is never returned even if the event was updated by
+ * another node.  Entries cover a window of time that
+ * <code>RecurrenceExpander</code> extends as later expansions of the
+ * same event ask for more of it.
+ *
+ * @see RecurrenceExpander#getOccurrenceList(String, String, net.fortuna.ical4j.model.Component, java.util.List, net.fortuna.ical4j.model.Date, net.fortuna.ical4j.model.Date, net.fortuna.ical4j.model.TimeZone)
+ */
+@ManagedResource(objectName="cosmo:name=recurrenceExpansionCache", description="Cosmo Recurrence Expansion Cache")
+public class RecurrenceExpansionCache {
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private int maxSize = 1000;
+    private int maxWindowDays = 800;
+    private int maxOccurrences = 5000;
+    private LinkedHashMap<String, Entry> entries;
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong extensions = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+
+    public RecurrenceExpansionCache() {
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Return the occurrences cached for an event, if they were
+     * expanded from the same revision of the event.
+     * @param key event and timezone key
+     * @param revision revision of the event and its modifications
+     * @return cached occurrences, or null
+     */
+    public OccurrenceList get(String key, String revision) {
+        Entry entry = null;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && !entry.revision.equals(revision)) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        return entry != null ? entry.occurrences : null;
+    }
+
+    /**
+     * Cache the occurrences of an event.  Occurrences of more than
+     * <code>maxOccurrences</code> are not cached.
+     * @param key event and timezone key
+     * @param revision revision of the event and its modifications
+     * @param occurrences occurrences of the event
+     */
+    public void put(String key, String revision,
+                    OccurrenceList occurrences) {
+        if (occurrences.size() > maxOccurrences)
+            return;
+        synchronized (entries) {
+            entries.put(key, new Entry(revision, occurrences));
+        }
+    }
+
+    /**
+     * @return true if occurrences of an event may be extended to a
+     *         window without exceeding <code>maxWindowDays</code>
+     */
+    public boolean isExtensible(OccurrenceList occurrences, long from,
+                                long to) {
+        long start = Math.min(from, occurrences.getWindowStart());
+        long end = Math.max(to, occurrences.getWindowEnd());
+        return end - start <= maxWindowDays * MILLIS_PER_DAY;
+    }
+
+    void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    void recordExtension() {
+        extensions.incrementAndGet();
+    }
+
+    /**
+     * Remove all cached expansions.
+     */
+    @ManagedOperation
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Clear hit, miss, extension and eviction counts.
+     */
+    @ManagedOperation
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        extensions.set(0);
+        evictions.set(0);
+    }
+
+    @ManagedAttribute
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize maximum number of expansions to cache
+     */
+    @ManagedAttribute
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    @ManagedAttribute
+    public int getMaxWindowDays() {
+        return maxWindowDays;
+    }
+
+    /**
+     * @param maxWindowDays maximum number of days an expansion is
+     *                      extended to
+     */
+    @ManagedAttribute
+    public void setMaxWindowDays(int maxWindowDays) {
+        this.maxWindowDays = maxWindowDays;
+    }
+
+    @ManagedAttribute
+    public int getMaxOccurrences() {
+        return maxOccurrences;
+    }
+
+    /**
+     * @param maxOccurrences maximum number of occurrences of a cached
+     *                       expansion
+     */
+    @ManagedAttribute
+    public void setMaxOccurrences(int maxOccurrences) {
+        this.maxOccurrences = maxOccurrences;
+    }
+
+    @ManagedAttribute
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @ManagedAttribute
+    public long getHits() {
+        return hits.get();
+    }
+
+    @ManagedAttribute
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @ManagedAttribute
+    public long getExtensions() {
+        return extensions.get();
+    }
+
+    @ManagedAttribute
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private static class Entry {
+        String revision;
+        OccurrenceList occurrences;
+
+        Entry(String revision, OccurrenceList occurrences) {
+            this.revision = revision;
+            this.occurrences = occurrences;
+        }
+    }
+}
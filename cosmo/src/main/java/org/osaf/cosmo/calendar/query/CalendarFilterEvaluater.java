@@ -308,19 +308,36 @@ public class CalendarFilterEvaluater {
     }
     
     private boolean evaluate(ComponentList comps, TimeRangeFilter filter) {
+        TimeZone timezone = null;
+        if(filter.getTimezone()!=null)
+            timezone = new TimeZone(filter.getTimezone());
+        Component parent = stack.isEmpty() ? null : stack.peek();
+        return evaluateTimeRange(comps, filter.getPeriod(), timezone, parent);
+    }
+    
+    /**
+     * Evaluate a time range against a set of components of the
+     * same type.
+     * @param comps components to evaluate
+     * @param period time range
+     * @param timezone timezone used to resolve floating times, or null
+     * @param parent component enclosing the components, or null
+     */
+    static boolean evaluateTimeRange(ComponentList comps, Period period,
+                                     TimeZone timezone, Component parent) {
         
         Component comp = (Component) comps.get(0);
         
         if(comp instanceof VEvent)
-            return evaluateVEventTimeRange(comps, filter);
+            return evaluateVEventTimeRange(comps, period, timezone);
         else if(comp instanceof VFreeBusy)
-            return evaulateVFreeBusyTimeRange((VFreeBusy) comp, filter);
+            return evaulateVFreeBusyTimeRange((VFreeBusy) comp, period, timezone);
         else if(comp instanceof VToDo)
-            return evaulateVToDoTimeRange(comps, filter);
+            return evaulateVToDoTimeRange(comps, period, timezone);
         else if(comp instanceof VJournal)
-            return evaluateVJournalTimeRange((VJournal) comp, filter);
+            return evaluateVJournalTimeRange((VJournal) comp, period, timezone);
         else if(comp instanceof VAlarm)
-            return evaluateVAlarmTimeRange(comps, filter);
+            return evaluateVAlarmTimeRange(comps, period, parent);
         else
             return false;
     }
@@ -330,25 +347,28 @@ public class CalendarFilterEvaluater {
         // If any property matches, then evaluation succeeds.
         // This is basically a big OR
         for(Iterator<Property> it = props.iterator(); it.hasNext();) {
-            if(evaluate(it.next(),filter)==true)
+            if(evaluateTimeRange(it.next(),filter.getPeriod())==true)
                 return true;
         }
         return false;
     }
     
-    private boolean evaluate(Property property, TimeRangeFilter filter) {
+    /**
+     * Evaluate a time range against a date property.
+     */
+    static boolean evaluateTimeRange(Property property, Period period) {
         if(!(property instanceof DateProperty) )
             return false;
         
         DateProperty dateProp = (DateProperty) property;
         Date date = dateProp.getDate();
         
-        return (  (date.before(filter.getPeriod().getEnd()) &&
-              date.after(filter.getPeriod().getStart())) ||
-              date.equals(filter.getPeriod().getStart()) );
+        return (  (date.before(period.getEnd()) &&
+              date.after(period.getStart())) ||
+              date.equals(period.getStart()) );
     }
     
-    private ComponentList getSubComponents(Component component) {
+    static ComponentList getSubComponents(Component component) {
         if(component instanceof VEvent)
             return ((VEvent) component).getAlarms();
         else if(component instanceof VTimeZone)
@@ -393,23 +413,23 @@ public class CalendarFilterEvaluater {
         | N | N | N | N | (start <  DTSTART+P1D AND end > DTSTART)      |
         +---+---+---+---+-----------------------------------------------+
      */
-    private boolean evaluateVEventTimeRange(ComponentList comps, TimeRangeFilter filter) {
+    private static boolean evaluateVEventTimeRange(ComponentList comps, Period period, TimeZone timezone) {
         
         InstanceList instances = new InstanceList();
-        if(filter.getTimezone()!=null)
-            instances.setTimezone(new TimeZone(filter.getTimezone()));
+        if(timezone!=null)
+            instances.setTimezone(timezone);
         ArrayList<Component> mods = new ArrayList<Component>();
         
         for(Iterator<Component> it=comps.iterator();it.hasNext();) {
             Component comp = it.next();
             // Add master first
             if(comp.getProperty(Property.RECURRENCE_ID)==null)
-                instances.addComponent(comp, filter.getPeriod().getStart(), filter.getPeriod().getEnd());
+                instances.addComponent(comp, period.getStart(), period.getEnd());
         }
         
         // Add overides after master has been added
         for(Component mod : mods)
-            instances.addOverride(mod, filter.getPeriod().getStart(), filter.getPeriod().getEnd());
+            instances.addOverride(mod, period.getStart(), period.getEnd());
         
         if(instances.size()>0)
             return true;
@@ -447,16 +467,16 @@ public class CalendarFilterEvaluater {
         | N | N | FALSE                                        |
         +---+---+----------------------------------------------+
      */
-    private boolean evaulateVFreeBusyTimeRange(VFreeBusy freeBusy, TimeRangeFilter filter) {
+    private static boolean evaulateVFreeBusyTimeRange(VFreeBusy freeBusy, Period filterPeriod, TimeZone timezone) {
         DtStart start = freeBusy.getStartDate();
         DtEnd end = freeBusy.getEndDate();
          
         if (start != null && end != null) {
             InstanceList instances = new InstanceList();
-            if (filter.getTimezone() != null)
-                instances.setTimezone(new TimeZone(filter.getTimezone()));
-            instances.addComponent(freeBusy, filter.getPeriod().getStart(),
-                    filter.getPeriod().getEnd());
+            if (timezone != null)
+                instances.setTimezone(timezone);
+            instances.addComponent(freeBusy, filterPeriod.getStart(),
+                    filterPeriod.getEnd());
             return instances.size() > 0;
         }
         
@@ -471,8 +491,8 @@ public class CalendarFilterEvaluater {
             Iterator<Period> periodIt = periods.iterator();
             while(periodIt.hasNext()) {
                 Period period = periodIt.next();
-                if(filter.getPeriod().getStart().before(period.getEnd()) &&
-                   filter.getPeriod().getEnd().after(period.getStart()))
+                if(filterPeriod.getStart().before(period.getEnd()) &&
+                   filterPeriod.getEnd().after(period.getStart()))
                     return true;
             }
         }
@@ -502,17 +522,17 @@ public class CalendarFilterEvaluater {
         +---+---+--------------------------------------------+
         | N | * | FALSE                                      |
         +---+---+--------------------------------------------+ */      
-    private boolean evaluateVJournalTimeRange(VJournal journal, TimeRangeFilter filter) {
+    private static boolean evaluateVJournalTimeRange(VJournal journal, Period period, TimeZone timezone) {
         DtStart start = journal.getStartDate();
       
         if(start==null)
             return false;
         
         InstanceList instances = new InstanceList();
-        if (filter.getTimezone() != null)
-            instances.setTimezone(new TimeZone(filter.getTimezone()));
-        instances.addComponent(journal, filter.getPeriod().getStart(),
-                filter.getPeriod().getEnd());
+        if (timezone != null)
+            instances.setTimezone(timezone);
+        instances.addComponent(journal, period.getStart(),
+                period.getEnd());
         return instances.size() > 0;
     }
     
@@ -561,7 +581,7 @@ public class CalendarFilterEvaluater {
      | N | N | N | N | N | TRUE                                          |
      +---+---+---+---+---+-----------------------------------------------+
      */
-    private boolean evaulateVToDoTimeRange(ComponentList comps, TimeRangeFilter filter) {
+    private static boolean evaulateVToDoTimeRange(ComponentList comps, Period period, TimeZone timezone) {
         ArrayList<Component> mods = new ArrayList<Component>();
         VToDo master = null;
         
@@ -576,7 +596,7 @@ public class CalendarFilterEvaluater {
         // listed in the nice state table above
         if(mods.size()==0) {        
             if(master.getStartDate()==null)
-                return isVToDoInRange(master, filter.getPeriod());
+                return isVToDoInRange(master, period);
         }
         
         // Otherwise use standard InstantList, which relies on
@@ -584,15 +604,14 @@ public class CalendarFilterEvaluater {
         // TODO: Handle case of no DURATION and instead DUE
         // DUE is kind of like DTEND
         InstanceList instances = new InstanceList();
-        if(filter.getTimezone()!=null)
-            instances.setTimezone(new TimeZone(filter.getTimezone()));
+        if(timezone!=null)
+            instances.setTimezone(timezone);
         
-        instances.addComponent(master, filter.getPeriod().getStart(), filter
-                .getPeriod().getEnd());
+        instances.addComponent(master, period.getStart(), period.getEnd());
         
         // Add overides after master has been added
         for(Component mod : mods)
-            instances.addOverride(mod, filter.getPeriod().getStart(), filter.getPeriod().getEnd());
+            instances.addOverride(mod, period.getStart(), period.getEnd());
         
         if(instances.size()>0)
             return true;
@@ -605,7 +624,7 @@ public class CalendarFilterEvaluater {
      * has no DTSTART, using the state table defined in RFC-4791
      * Sec 9.9.
      */
-    private boolean isVToDoInRange(VToDo vtodo, Period period) {
+    private static boolean isVToDoInRange(VToDo vtodo, Period period) {
         
         if(vtodo.getDue() != null) {
             //(start  <  DUE)      AND (end >= DUE)
@@ -649,10 +668,9 @@ public class CalendarFilterEvaluater {
        least one of its triggers overlaps the time range.
      */
             
-    private boolean evaluateVAlarmTimeRange(ComponentList comps, TimeRangeFilter filter) {
+    private static boolean evaluateVAlarmTimeRange(ComponentList comps, Period period, Component parent) {
         
         // VALARAM must have parent VEVENT or VTODO
-        Component parent = stack.peek();
         if(parent==null)
             return false;
        
@@ -666,8 +684,8 @@ public class CalendarFilterEvaluater {
             List<Date> triggerDates = ICalendarUtils.getTriggerDates(alarm, parent);
             
             for(Date triggerDate: triggerDates) {
-                if(filter.getPeriod().getStart().compareTo(triggerDate)<=0 &&
-                   filter.getPeriod().getEnd().after(triggerDate))
+                if(period.getStart().compareTo(triggerDate)<=0 &&
+                   period.getEnd().after(triggerDate))
                    return true;
             }
         }
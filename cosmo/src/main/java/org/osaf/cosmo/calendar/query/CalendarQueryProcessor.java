@@ -15,6 +15,7 @@
  */
 package org.osaf.cosmo.calendar.query;
 
+import java.util.List;
 import java.util.Set;
 
 import net.fortuna.ical4j.model.Period;
@@ -72,6 +73,15 @@ public interface CalendarQueryProcessor {
      */
     public VFreeBusy freeBusyQuery(User user, Period period);
 
+    /**
+     * <p>
+     * Executes a free-busy query against several users at once. Returns
+     * a <code>VFREEBUSY</code> component for each user, in the order of
+     * the given users.
+     * </p>
+     */
+    public List<VFreeBusy> freeBusyQuery(List<User> users, Period period);
+
     /**
      * <p>
      * Executes a free-busy query against a collection. Returns a
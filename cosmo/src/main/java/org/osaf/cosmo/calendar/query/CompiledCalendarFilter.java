@@ -0,0 +1,307 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.calendar.query;
+
+import java.util.Iterator;
+import java.util.List;
+
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.ComponentList;
+import net.fortuna.ical4j.model.Parameter;
+import net.fortuna.ical4j.model.ParameterList;
+import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.PropertyList;
+import net.fortuna.ical4j.model.TimeZone;
+
+/**
+ * A <code>CalendarFilter</code> compiled into a predicate that can be
+ * evaluated against many calendars.
+ * <p>
+ * Everything that <code>CalendarFilterEvaluater</code> works out from
+ * the filter for each calendar is worked out once when the filter is
+ * compiled: component names are upper-cased, case-insensitive match
+ * values are lower-cased, and time range timezones are converted.
+ * Text is matched without copying property and parameter values.
+ * <p>
+ * A compiled filter matches exactly the calendars that
+ * <code>CalendarFilterEvaluater</code> matches.  It does not change
+ * once compiled, even if the filter it was compiled from does.
+ * Compiling is cheap; a compiled filter should only be used by one
+ * thread at a time, since the timezones it holds cache offsets as
+ * they are used.
+ */
+public class CompiledCalendarFilter {
+
+    private static final String COMP_VCALENDAR = "VCALENDAR";
+
+    private boolean vcalendar;
+    private CompNode[] comps;
+
+    public CompiledCalendarFilter(CalendarFilter filter) {
+        ComponentFilter rootFilter = filter.getFilter();
+
+        // root filter must be "VCALENDAR"
+        vcalendar = COMP_VCALENDAR.equalsIgnoreCase(rootFilter.getName());
+        comps = compileComps(rootFilter.getComponentFilters());
+    }
+
+    /**
+     * Evaluate the filter against a calendar.
+     * @param calendar calendar to evaluate against
+     * @return true if the calendar matches the filter
+     */
+    public boolean evaluate(Calendar calendar) {
+        if (! vcalendar)
+            return false;
+
+        // If any component filter fails to match, then the calendar
+        // filter does not match
+        ComponentList components = calendar.getComponents();
+        for (CompNode comp : comps) {
+            if (! comp.matches(components, null))
+                return false;
+        }
+
+        return true;
+    }
+
+    private static CompNode[] compileComps(List filters) {
+        CompNode[] nodes = new CompNode[filters.size()];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = new CompNode((ComponentFilter) filters.get(i));
+        return nodes;
+    }
+
+    private static TimeZone compileTimezone(TimeRangeFilter filter) {
+        if (filter == null || filter.getTimezone() == null)
+            return null;
+        return new TimeZone(filter.getTimezone());
+    }
+
+    private static Period compilePeriod(TimeRangeFilter filter) {
+        return filter != null ? filter.getPeriod() : null;
+    }
+
+    private static TextMatch compileTextMatch(TextMatchFilter filter) {
+        return filter != null ? new TextMatch(filter) : null;
+    }
+
+    private static class CompNode {
+        private String name;
+        private boolean isNotDefined;
+        private boolean existsOnly;
+        private Period period;
+        private TimeZone timezone;
+        private CompNode[] comps;
+        private PropNode[] props;
+
+        CompNode(ComponentFilter filter) {
+            name = filter.getName().toUpperCase();
+            isNotDefined = filter.getIsNotDefinedFilter() != null;
+            existsOnly = filter.getComponentFilters().size() == 0 &&
+                filter.getPropFilters().size() == 0 &&
+                filter.getTimeRangeFilter() == null && ! isNotDefined;
+            period = compilePeriod(filter.getTimeRangeFilter());
+            timezone = compileTimezone(filter.getTimeRangeFilter());
+            comps = compileComps(filter.getComponentFilters());
+
+            List propFilters = filter.getPropFilters();
+            props = new PropNode[propFilters.size()];
+            for (int i = 0; i < props.length; i++)
+                props[i] = new PropNode((PropertyFilter) propFilters.get(i));
+        }
+
+        /**
+         * Matches the components of this node's type within a scope.
+         */
+        boolean matches(ComponentList components, Component parent) {
+            ComponentList matching = components.getComponents(name);
+            if (existsOnly)
+                return matching.size() > 0;
+            if (isNotDefined)
+                return matching.size() == 0;
+            if (matching.size() == 0)
+                return false;
+
+            if (period != null &&
+                ! CalendarFilterEvaluater.evaluateTimeRange(matching, period,
+                                                            timezone, parent))
+                return false;
+
+            // a sub-component filter matches if the sub-components of
+            // any matching component match
+            for (CompNode comp : comps) {
+                if (! comp.matchesAny(matching))
+                    return false;
+            }
+
+            // a property filter matches if any matching component
+            // matches
+            for (PropNode prop : props) {
+                if (! prop.matchesAny(matching))
+                    return false;
+            }
+
+            return true;
+        }
+
+        private boolean matchesAny(ComponentList parents) {
+            for (Iterator<Component> it = parents.iterator(); it.hasNext();) {
+                Component parent = it.next();
+                if (matches(CalendarFilterEvaluater.getSubComponents(parent),
+                            parent))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private static class PropNode {
+        private String name;
+        private boolean isNotDefined;
+        private boolean existsOnly;
+        private Period period;
+        private TextMatch textMatch;
+        private ParamNode[] params;
+
+        PropNode(PropertyFilter filter) {
+            name = filter.getName();
+            isNotDefined = filter.getIsNotDefinedFilter() != null;
+            existsOnly = filter.getParamFilters().size() == 0 &&
+                filter.getTimeRangeFilter() == null &&
+                filter.getTextMatchFilter() == null && ! isNotDefined;
+            period = compilePeriod(filter.getTimeRangeFilter());
+            textMatch = compileTextMatch(filter.getTextMatchFilter());
+
+            List paramFilters = filter.getParamFilters();
+            params = new ParamNode[paramFilters.size()];
+            for (int i = 0; i < params.length; i++)
+                params[i] = new ParamNode((ParamFilter) paramFilters.get(i));
+        }
+
+        boolean matchesAny(ComponentList components) {
+            for (Iterator<Component> it = components.iterator(); it.hasNext();) {
+                if (matches(it.next()))
+                    return true;
+            }
+            return false;
+        }
+
+        private boolean matches(Component component) {
+            PropertyList props = component.getProperties(name);
+            if (existsOnly)
+                return props.size() > 0;
+            if (isNotDefined)
+                return props.size() == 0;
+            if (props.size() == 0)
+                return false;
+
+            if (period != null) {
+                boolean overlaps = false;
+                for (Iterator<Property> it = props.iterator(); it.hasNext() && ! overlaps;)
+                    overlaps = CalendarFilterEvaluater.
+                        evaluateTimeRange(it.next(), period);
+                if (! overlaps)
+                    return false;
+            }
+
+            // param filters only apply to the properties that
+            // match the text
+            if (textMatch != null) {
+                PropertyList matching = new PropertyList();
+                for (Iterator<Property> it = props.iterator(); it.hasNext();) {
+                    Property prop = it.next();
+                    if (textMatch.matches(prop.getValue()))
+                        matching.add(prop);
+                }
+                if (matching.size() == 0)
+                    return false;
+                props = matching;
+            }
+
+            for (ParamNode param : params) {
+                if (! param.matchesAny(props))
+                    return false;
+            }
+
+            return true;
+        }
+    }
+
+    private static class ParamNode {
+        private String name;
+        private boolean isNotDefined;
+        private TextMatch textMatch;
+
+        ParamNode(ParamFilter filter) {
+            name = filter.getName();
+            isNotDefined = filter.getIsNotDefinedFilter() != null;
+            textMatch = compileTextMatch(filter.getTextMatchFilter());
+        }
+
+        boolean matchesAny(PropertyList props) {
+            for (Iterator<Property> it = props.iterator(); it.hasNext();) {
+                if (matches(it.next()))
+                    return true;
+            }
+            return false;
+        }
+
+        private boolean matches(Property property) {
+            ParameterList params = property.getParameters(name);
+            if (isNotDefined)
+                return params.size() == 0;
+            if (textMatch == null)
+                return params.size() > 0;
+
+            for (Iterator<Parameter> it = params.iterator(); it.hasNext();) {
+                if (textMatch.matches(it.next().getValue()))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private static class TextMatch {
+        private String value;
+        private boolean caseless;
+        private boolean negate;
+
+        TextMatch(TextMatchFilter filter) {
+            caseless = filter.isCaseless();
+            negate = filter.isNegateCondition();
+            value = caseless ? filter.getValue().toLowerCase() :
+                filter.getValue();
+        }
+
+        boolean matches(String text) {
+            boolean matched = caseless ?
+                containsIgnoreCase(text, value) : text.contains(value);
+            return negate ? ! matched : matched;
+        }
+
+        private static boolean containsIgnoreCase(String text, String value) {
+            int last = text.length() - value.length();
+            for (int i = 0; i <= last; i++) {
+                if (text.regionMatches(true, i, value, 0, value.length()))
+                    return true;
+            }
+            return false;
+        }
+    }
+}
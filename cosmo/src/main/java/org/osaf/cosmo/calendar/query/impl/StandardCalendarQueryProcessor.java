@@ -15,9 +15,22 @@
  */
 package org.osaf.cosmo.calendar.query.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.sql.DataSource;
 
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.Component;
@@ -37,10 +50,15 @@ import net.fortuna.ical4j.model.property.Status;
 import net.fortuna.ical4j.model.property.Transp;
 import net.fortuna.ical4j.model.property.Uid;
 
+import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.commons.id.uuid.VersionFourGenerator;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 import org.osaf.cosmo.calendar.EntityConverter;
+import org.osaf.cosmo.calendar.FreeBusyUtils;
 import org.osaf.cosmo.calendar.Instance;
 import org.osaf.cosmo.calendar.InstanceList;
 import org.osaf.cosmo.calendar.query.CalendarFilter;
@@ -58,9 +76,24 @@ import org.osaf.cosmo.model.ICalendarItem;
 import org.osaf.cosmo.model.Item;
 import org.osaf.cosmo.model.StampUtils;
 import org.osaf.cosmo.model.User;
+import org.springframework.orm.hibernate3.SessionFactoryUtils;
+import org.springframework.orm.hibernate3.SessionHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * CalendarQueryProcessor implementation that uses CalendarDao.
+ * <p>
+ * If <code>freeBusyThreads</code> is greater than 1, free-busy
+ * queries against users compute the free-busy periods of each
+ * calendar concurrently, each calendar in its own read-only
+ * Hibernate session.  Calendars whose periods are not computed
+ * within <code>freeBusyTimeout</code> are computed one after another
+ * in the calling thread instead.
+ * <p>
+ * Each free-busy thread holds a database connection of its own while
+ * the calling thread holds another, so if <code>dataSource</code> is
+ * set and reports its maximum number of active connections, the
+ * number of threads is limited to a quarter of it.
  */
 public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
 
@@ -73,6 +106,11 @@ public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
     private CalendarDao calendarDao = null;
     private ContentDao contentDao = null;
     private EntityConverter entityConverter = new EntityConverter(null);
+    private SessionFactory sessionFactory = null;
+    private int freeBusyThreads = 0;
+    private long freeBusyTimeout = 30000;
+    private ExecutorService freeBusyExecutor = null;
+    private DataSource dataSource = null;
     
     /* (non-Javadoc)
      * @see org.osaf.cosmo.calendar.query.CalendarQueryProcessor#filterQuery(org.osaf.cosmo.model.CollectionItem, org.osaf.cosmo.calendar.query.CalendarFilter)
@@ -106,10 +144,48 @@ public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
      * @see org.osaf.cosmo.calendar.query.CalendarQueryProcessor#freeBusyQuery(org.osaf.cosmo.model.User, net.fortuna.ical4j.model.Period)
      */
     public VFreeBusy freeBusyQuery(User user, Period period) {
-        PeriodList busyPeriods = new PeriodList();
-        PeriodList busyTentativePeriods = new PeriodList();
-        PeriodList busyUnavailablePeriods = new PeriodList();
+        return freeBusyQuery(Collections.singletonList(user), period).get(0);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.calendar.query.CalendarQueryProcessor#freeBusyQuery(java.util.List, net.fortuna.ical4j.model.Period)
+     */
+    public List<VFreeBusy> freeBusyQuery(List<User> users, Period period) {
+        ArrayList<List<CollectionItem>> calendars =
+            new ArrayList<List<CollectionItem>>(users.size());
+        int count = 0;
+        for(User user: users) {
+            List<CollectionItem> userCalendars = getFreeBusyCalendars(user);
+            calendars.add(userCalendars);
+            count += userCalendars.size();
+        }
+        
+        if(freeBusyExecutor!=null && count > 1)
+            return doParallelFreeBusyQuery(calendars, period);
+        
+        ArrayList<VFreeBusy> results = new ArrayList<VFreeBusy>(users.size());
+        for(List<CollectionItem> userCalendars: calendars) {
+            PeriodList busyPeriods = new PeriodList();
+            PeriodList busyTentativePeriods = new PeriodList();
+            PeriodList busyUnavailablePeriods = new PeriodList();
+            
+            for(CollectionItem collection: userCalendars)
+                doFreeBusyQuery(busyPeriods, busyTentativePeriods,
+                        busyUnavailablePeriods, collection, period);
+            
+            results.add(createVFreeBusy(busyPeriods, busyTentativePeriods,
+                    busyUnavailablePeriods, period));
+        }
         
+        return results;
+    }
+    
+    /**
+     * Returns the calendar collections in a user's home collection
+     * that are included in the user's free-busy.
+     */
+    private List<CollectionItem> getFreeBusyCalendars(User user) {
+        ArrayList<CollectionItem> calendars = new ArrayList<CollectionItem>();
         HomeCollectionItem home = contentDao.getRootItem(user);
         for(Item item: home.getChildren()) {
             if(! (item instanceof CollectionItem))
@@ -119,12 +195,71 @@ public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
             if(StampUtils.getCalendarCollectionStamp(collection)==null || collection.isExcludeFreeBusyRollup())
                 continue;
             
-            doFreeBusyQuery(busyPeriods, busyTentativePeriods, busyUnavailablePeriods,
-                    collection, period);  
+            calendars.add(collection);
+        }
+        return calendars;
+    }
+    
+    /**
+     * Computes the free-busy of each calendar on the free-busy
+     * threads and merges the results for each user.
+     */
+    private List<VFreeBusy> doParallelFreeBusyQuery(
+            List<List<CollectionItem>> calendars, Period period) {
+        ArrayList<List<Future<VFreeBusy>>> futures =
+            new ArrayList<List<Future<VFreeBusy>>>(calendars.size());
+        for(List<CollectionItem> userCalendars: calendars) {
+            ArrayList<Future<VFreeBusy>> userFutures =
+                new ArrayList<Future<VFreeBusy>>(userCalendars.size());
+            for(CollectionItem collection: userCalendars)
+                userFutures.add(freeBusyExecutor.submit(
+                        new FreeBusyTask(collection.getUid(), period)));
+            futures.add(userFutures);
+        }
+        
+        long deadline = System.currentTimeMillis() + freeBusyTimeout;
+        ArrayList<VFreeBusy> results = new ArrayList<VFreeBusy>(calendars.size());
+        for(int i=0; i<calendars.size(); i++) {
+            ArrayList<VFreeBusy> components = new ArrayList<VFreeBusy>();
+            for(int j=0; j<futures.get(i).size(); j++) {
+                Future<VFreeBusy> future = futures.get(i).get(j);
+                VFreeBusy vfb = getFreeBusyResult(future,
+                        calendars.get(i).get(j), period, deadline);
+                if(vfb!=null)
+                    components.add(vfb);
+            }
+            results.add(FreeBusyUtils.mergeComponents(components, period));
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Waits for the free-busy of a calendar computed on a free-busy
+     * thread.  If it isn't computed by the deadline, it is computed
+     * in the calling thread, so that a busy calendar is never
+     * reported as free.
+     */
+    private VFreeBusy getFreeBusyResult(Future<VFreeBusy> future,
+            CollectionItem collection, Period period, long deadline) {
+        try {
+            long remaining = deadline - System.currentTimeMillis();
+            return future.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            log.warn("free-busy of collection " + collection.getUid()
+                    + " not computed within " + freeBusyTimeout
+                    + " ms; computing it in the calling thread");
+            return freeBusyQuery(collection, period);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted computing free-busy", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException("error computing free-busy", e.getCause());
         }
-
-        return createVFreeBusy(busyPeriods, busyTentativePeriods,
-                busyUnavailablePeriods, period);
     }
     
     /* (non-Javadoc)
@@ -171,11 +306,16 @@ public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
         HashSet<ContentItem> results = new HashSet<ContentItem>();
         TimeZone tz = ccs.getTimezone();
         
-        // For the time being, use CalendarFilters to get relevant
+        // Events have their busy periods precomputed when they are
+        // saved, so only events that don't have busy periods covering
+        // the range need to be expanded.
+        results.addAll(calendarDao.findBusyPeriods(collection, period,
+                busyPeriods, busyTentativePeriods));
+        
+        // For the time being, use a CalendarFilter to get VFREEBUSY
         // items.
-        CalendarFilter[] filters = createQueryFilters(collection, period);
-        for(CalendarFilter filter: filters)
-            results.addAll(calendarDao.findCalendarItems(collection, filter));
+        results.addAll(calendarDao.findCalendarItems(collection,
+                createFreeBusyFilter(collection, period)));
         
         for(ContentItem content: results) {
             Calendar calendar = entityConverter.convertContent(content);
@@ -295,21 +435,17 @@ public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
         }
     }
     
-    private CalendarFilter[] createQueryFilters(CollectionItem collection, Period period) {
+    private CalendarFilter createFreeBusyFilter(CollectionItem collection,
+            Period period) {
         DateTime start = period.getStart();
         DateTime end = period.getEnd();
-        CalendarFilter[] filters = new CalendarFilter[2];
         TimeZone tz = null;
 
-        // Create calendar-filter elements designed to match
-        // VEVENTs/VFREEBUSYs within the specified time range.
+        // Create calendar-filter element designed to match
+        // VFREEBUSYs within the specified time range.
         //
         // <C:filter>
         // <C:comp-filter name="VCALENDAR">
-        // <C:comp-filter name="VEVENT">
-        // <C:time-range start="20051124T000000Z"
-        // end="20051125T000000Z"/>
-        // </C:comp-filter>
         // <C:comp-filter name="VFREEBUSY">
         // <C:time-range start="20051124T000000Z"
         // end="20051125T000000Z"/>
@@ -324,36 +460,20 @@ public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
             tz = ccs.getTimezone();
         }
 
-        ComponentFilter eventFilter = new ComponentFilter(Component.VEVENT);
-        eventFilter.setTimeRangeFilter(new TimeRangeFilter(start, end));
-        if(tz!=null)
-            eventFilter.getTimeRangeFilter().setTimezone(tz.getVTimeZone());
-
-        ComponentFilter calFilter = new ComponentFilter(
-                net.fortuna.ical4j.model.Calendar.VCALENDAR);
-        calFilter.getComponentFilters().add(eventFilter);
-
-        CalendarFilter filter = new CalendarFilter();
-        filter.setFilter(calFilter);
-
-        filters[0] = filter;
-
         ComponentFilter freebusyFilter = new ComponentFilter(
                 Component.VFREEBUSY);
         freebusyFilter.setTimeRangeFilter(new TimeRangeFilter(start, end));
         if(tz!=null)
             freebusyFilter.getTimeRangeFilter().setTimezone(tz.getVTimeZone());
 
-        calFilter = new ComponentFilter(
+        ComponentFilter calFilter = new ComponentFilter(
                 net.fortuna.ical4j.model.Calendar.VCALENDAR);
         calFilter.getComponentFilters().add(freebusyFilter);
 
-        filter = new CalendarFilter();
+        CalendarFilter filter = new CalendarFilter();
         filter.setFilter(calFilter);
 
-        filters[1] = filter;
-
-        return filters;
+        return filter;
     }
     
     protected VFreeBusy createVFreeBusy(PeriodList busyPeriods,
@@ -397,4 +517,130 @@ public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
         this.contentDao = contentDao;
     }
 
+    /**
+     * @param sessionFactory session factory used to open a session
+     *                       for each calendar computed concurrently
+     */
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * @param dataSource data source the sessions of the free-busy
+     *                   threads use, consulted for its maximum number
+     *                   of active connections
+     */
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @param freeBusyThreads maximum number of calendars whose
+     *                        free-busy is computed at once; 1 or
+     *                        less computes them one after another
+     *                        in the calling thread
+     */
+    public void setFreeBusyThreads(int freeBusyThreads) {
+        this.freeBusyThreads = freeBusyThreads;
+    }
+
+    /**
+     * @param freeBusyTimeout milliseconds a free-busy query waits for
+     *                        the calendars computed concurrently
+     */
+    public void setFreeBusyTimeout(long freeBusyTimeout) {
+        this.freeBusyTimeout = freeBusyTimeout;
+    }
+
+    /**
+     * Starts the free-busy threads, if any.
+     */
+    public void init() {
+        int maxActive = getMaxActiveConnections();
+        if (maxActive > 0 && freeBusyThreads > maxActive / 4) {
+            log.info("limiting free-busy threads to " + (maxActive / 4)
+                    + " of " + maxActive + " database connections");
+            freeBusyThreads = maxActive / 4;
+        }
+        if (freeBusyThreads <= 1)
+            return;
+        freeBusyExecutor = Executors.newFixedThreadPool(freeBusyThreads,
+                new ThreadFactory() {
+                    private int count = 0;
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "free-busy-" + (++count));
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Returns the maximum number of active connections of the data
+     * source, if it is a connection pool that reports it.
+     */
+    private int getMaxActiveConnections() {
+        if (dataSource == null)
+            return 0;
+        try {
+            Object maxActive = PropertyUtils.getProperty(dataSource, "maxActive");
+            return maxActive instanceof Number ? ((Number) maxActive).intValue() : 0;
+        } catch (Exception e) {
+            log.debug("unable to determine maximum active connections of "
+                    + dataSource.getClass().getName());
+            return 0;
+        }
+    }
+
+    /**
+     * Stops the free-busy threads.
+     */
+    public void destroy() {
+        if (freeBusyExecutor != null)
+            freeBusyExecutor.shutdownNow();
+    }
+
+    /**
+     * Computes the free-busy of a single calendar in a read-only
+     * session of its own.
+     */
+    private class FreeBusyTask implements Callable<VFreeBusy> {
+        private String uid;
+        private Period period;
+
+        FreeBusyTask(String uid, Period period) {
+            this.uid = uid;
+            this.period = period;
+        }
+
+        public VFreeBusy call() {
+            if (sessionFactory != null)
+                bindSession();
+            try {
+                CollectionItem collection =
+                    (CollectionItem) contentDao.findItemByUid(uid);
+                if (collection == null)
+                    return null;
+                return freeBusyQuery(collection, period);
+            } finally {
+                if (sessionFactory != null)
+                    releaseSession();
+            }
+        }
+
+        private void bindSession() {
+            Session session = SessionFactoryUtils.getSession(sessionFactory, true);
+            session.setFlushMode(FlushMode.MANUAL);
+            TransactionSynchronizationManager.bindResource(sessionFactory,
+                    new SessionHolder(session));
+        }
+
+        private void releaseSession() {
+            SessionHolder holder = (SessionHolder) TransactionSynchronizationManager
+                    .getResource(sessionFactory);
+            Session s = holder.getSession();
+            TransactionSynchronizationManager.unbindResource(sessionFactory);
+            SessionFactoryUtils.closeSession(s);
+        }
+    }
 }
@@ -15,6 +15,9 @@
  */
 package org.osaf.cosmo.calendar.util;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
 import net.fortuna.ical4j.model.Date;
 import net.fortuna.ical4j.model.DateTime;
 
@@ -53,4 +56,32 @@ public class Dates {
         } else
             return new Date(date);
     }
+    
+    /**
+     * Returns the local (wall clock) time of a date as the number of
+     * milliseconds since the epoch, as if the local time were UTC.
+     * This allows floating times to be compared numerically 
+     * independent of the timezone they are eventually resolved in.  For
+     * a date with a timezone, the local time in that timezone is used.
+     * For a UTC date-time, the UTC time is used.
+     * 
+     * @param date date to convert
+     * @return floating time in milliseconds
+     */
+    public static long getFloatingTime(Date date) {
+        String str = date.toString();
+        if (str.endsWith("Z"))
+            str = str.substring(0, str.length() - 1);
+        
+        SimpleDateFormat format = new SimpleDateFormat(
+                str.length() > 8 ? "yyyyMMdd'T'HHmmss" : "yyyyMMdd");
+        format.setTimeZone(java.util.TimeZone.getTimeZone("UTC"));
+        format.setLenient(false);
+        try {
+            return format.parse(str).getTime();
+        } catch (ParseException e) {
+            log.error("unable to parse date: " + str);
+            throw new IllegalArgumentException("invalid date: " + str);
+        }
+    }
 }
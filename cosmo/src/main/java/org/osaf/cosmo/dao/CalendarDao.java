@@ -18,6 +18,8 @@ package org.osaf.cosmo.dao;
 import java.util.Set;
 
 import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.PeriodList;
 
 import org.osaf.cosmo.calendar.query.CalendarFilter;
 import org.osaf.cosmo.model.CollectionItem;
@@ -75,4 +77,26 @@ public interface CalendarDao {
                                              DateTime rangeStart, DateTime rangeEnd,
                                              boolean expandRecurringEvents);
 
+    /**
+     * Find the busy time of the events in a collection during a time
+     * range, using the busy periods precomputed when the events were
+     * saved.  Busy periods are clipped to the time range, and floating
+     * times are resolved using the timezone of the collection.  Events
+     * that don't have precomputed busy periods covering the time range
+     * are returned instead, so that the caller can expand them.
+     *
+     * @param collection
+     *            collection to search
+     * @param period time range
+     * @param busyPeriods busy periods are added to this list
+     * @param busyTentativePeriods tentative busy periods are added to
+     *        this list
+     * @return set of master calendar items that occur in the time range
+     *         and must be expanded to find their busy time
+     */
+    public Set<ICalendarItem> findBusyPeriods(CollectionItem collection,
+                                              Period period,
+                                              PeriodList busyPeriods,
+                                              PeriodList busyTentativePeriods);
+
 }
@@ -15,11 +15,15 @@
  */
 package org.osaf.cosmo.dao;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
+import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemTombstone;
 import org.osaf.cosmo.model.User;
 
 /**
@@ -140,4 +144,88 @@ public interface ContentDao extends ItemDao {
      *         timestamp, or all children if timestamp is null
      */
     public Set<ContentItem> loadChildren(CollectionItem collection, Date timestamp);
+    
+    /**
+     * Load a page of the children of a collection, ordered by uid.
+     * @param collection collection
+     * @param afterUid uid of the last child of the previous page, 
+     *                 or null for the first page
+     * @param maxResults maximum number of children to load
+     * @return children of collection with a uid greater than afterUid
+     */
+    public List<ContentItem> loadChildren(CollectionItem collection,
+                                          String afterUid, int maxResults);
+    
+    /**
+     * Load a page of the members of a collection, ordered by uid.
+     * Unlike {@link #loadChildren(CollectionItem, String, int)},
+     * subcollections are included.
+     * @param collection collection
+     * @param afterUid uid of the last member of the previous page, 
+     *                 or null for the first page
+     * @param maxResults maximum number of members to load
+     * @return members of collection with a uid greater than afterUid
+     */
+    public List<Item> loadMembers(CollectionItem collection,
+                                  String afterUid, int maxResults);
+    
+    /**
+     * Load all children for collection that have been created, updated
+     * or added to the collection since a given change sequence.
+     * @param collection collection
+     * @param sequence change sequence
+     * @return children of collection that have changed since the
+     *         change sequence
+     */
+    public Set<ContentItem> loadChangedChildren(CollectionItem collection, long sequence);
+    
+    /**
+     * Load a page of the children of a collection that have changed
+     * since a given change sequence, ordered by uid.
+     * @param collection collection
+     * @param sequence change sequence
+     * @param afterUid uid of the last child of the previous page, 
+     *                 or null for the first page
+     * @param maxResults maximum number of children to load
+     * @return changed children of collection with a uid greater 
+     *         than afterUid
+     */
+    public List<ContentItem> loadChangedChildren(CollectionItem collection,
+                                                 long sequence,
+                                                 String afterUid,
+                                                 int maxResults);
+    
+    /**
+     * Remove items from the current persistence context so that
+     * they no longer take up memory.  The items are not modified
+     * and must not be updated after being evicted.
+     * @param items items to evict
+     */
+    public void evictItems(Collection<? extends Item> items);
+    
+    /**
+     * Find the tombstones of all items that have been removed from
+     * a collection since a given change sequence.
+     * @param collection collection
+     * @param sequence change sequence
+     * @return tombstones for items removed since the change sequence
+     */
+    public List<ItemTombstone> findRemovedChildren(CollectionItem collection, long sequence);
+    
+    /**
+     * Return the oldest change sequence of a collection for which the
+     * change history is complete.  Changes since an older sequence
+     * can no longer be determined because the history has been compacted.
+     * @param collection collection
+     * @return oldest change sequence with complete history
+     */
+    public long getFirstChangeSequence(CollectionItem collection);
+    
+    /**
+     * Remove change history (change log entries and item tombstones) 
+     * that is older than a given date.
+     * @param date date before which history is removed
+     * @return number of change log entries removed
+     */
+    public int compactChangeHistory(Date date);
 }
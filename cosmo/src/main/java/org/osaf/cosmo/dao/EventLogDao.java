@@ -20,6 +20,7 @@ import java.util.List;
 
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ItemChangeRecord;
+import org.osaf.cosmo.model.User;
 import org.osaf.cosmo.model.event.EventLogEntry;
 
 /**
@@ -51,4 +52,32 @@ public interface EventLogDao extends Dao {
      */
     public List<ItemChangeRecord> findChangesForCollection(CollectionItem collection, Date start, Date end);
     
+    /**
+     * Find changes to collection that were logged after a cursor, in
+     * the order they were logged.  Changes logged so recently that
+     * earlier changes may not have committed yet are left for a
+     * later query.
+     * @param collection collection
+     * @param cursor entry id of the last change already seen, or 0
+     *               to start from the oldest change
+     * @param maxResults maximum number of changes to return
+     * @return list of ItemChangeRecords whose entry ids are greater
+     *         than the cursor
+     */
+    public List<ItemChangeRecord> findChangesForCollection(CollectionItem collection, long cursor, int maxResults);
+    
+    /**
+     * Find changes to all collections owned by a user that were
+     * logged after a cursor, in the order they were logged.  As with
+     * collections, the most recent changes may be left for a later
+     * query.
+     * @param user owner of the collections
+     * @param cursor entry id of the last change already seen, or 0
+     *               to start from the oldest change
+     * @param maxResults maximum number of changes to return
+     * @return list of ItemChangeRecords whose entry ids are greater
+     *         than the cursor
+     */
+    public List<ItemChangeRecord> findChangesForUser(User user, long cursor, int maxResults);
+    
 }
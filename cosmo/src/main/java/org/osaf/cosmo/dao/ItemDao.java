@@ -15,11 +15,13 @@
  */
 package org.osaf.cosmo.dao;
 
+import java.util.Collection;
 import java.util.Set;
 
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.HomeCollectionItem;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemMetadata;
 import org.osaf.cosmo.model.Ticket;
 import org.osaf.cosmo.model.User;
 import org.osaf.cosmo.model.filter.ItemFilter;
@@ -41,6 +43,16 @@ public interface ItemDao extends Dao {
      */
     public Item findItemByUid(String uid);
     
+    /**
+     * Find all items with the specified uids.  Uids that do not
+     * match an item are ignored.
+     *
+     * @param uids
+     *            uids of items to find
+     * @return items represented by the uids
+     */
+    public Set<Item> findItemsByUids(Collection<String> uids);
+    
     /**
      * Find an item with the specified path. The return type will be one of
      * ContentItem, NoteItem, CollectionItem.
@@ -64,6 +76,56 @@ public interface ItemDao extends Dao {
      */
     public Item findItemByPath(String path, String parentUid);
     
+    /**
+     * Find the metadata of an item with the specified uid without
+     * loading the item.  Modifications of recurring notes are not
+     * addressable and have no metadata.
+     *
+     * @param uid
+     *            uid of item
+     * @return metadata of the item, or null if there is no such item
+     */
+    public ItemMetadata findItemMetadataByUid(String uid);
+    
+    /**
+     * Find the metadata of an item with the specified path without
+     * loading the item.  The first segment of the path is the name
+     * of the owner's home collection.
+     *
+     * @param path
+     *            path of item
+     * @return metadata of the item, or null if there is no such item
+     */
+    public ItemMetadata findItemMetadataByPath(String path);
+    
+    /**
+     * Find the metadata of an item with the specified path, relative
+     * to a parent collection, without loading the item.  Only paths
+     * of a single segment are supported.
+     *
+     * @param path
+     *            path of item
+     * @param parentUid
+     *            uid of parent that path is relative to
+     * @return metadata of the item, or null if there is no such item
+     *         or the path has more than one segment
+     */
+    public ItemMetadata findItemMetadataByPath(String path, String parentUid);
+    
+    /**
+     * Find the children of a collection with the specified names.
+     * Names that do not match a child are ignored.  The stamps and
+     * attributes of the children are loaded with them.
+     *
+     * @param parent
+     *            parent collection
+     * @param names
+     *            names of children to find
+     * @return children of the collection with the names
+     */
+    public Set<Item> findChildrenByNames(CollectionItem parent,
+                                         Collection<String> names);
+    
     /**
      * Find the parent item of the item with the specified path. 
      * The return type will be of type CollectionItem.
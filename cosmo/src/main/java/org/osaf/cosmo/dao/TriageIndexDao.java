@@ -0,0 +1,88 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao;
+
+import java.util.Date;
+import java.util.List;
+
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.NoteItem;
+import org.osaf.cosmo.model.TriageIndexEntry;
+
+/**
+ * Interface for DAO that provides access to the triage index, which
+ * holds the entries of the dashboard of each collection.
+ *
+ * @see TriageIndexEntry
+ */
+public interface TriageIndexDao extends Dao {
+
+    /**
+     * Replace the entries of a series in each collection the master
+     * note belongs to.
+     * @param master master note of the series
+     * @param entries entries of the series
+     */
+    public void updateEntries(NoteItem master, List<TriageIndexEntry> entries);
+
+    /**
+     * Remove the entries of a series from all collections.
+     * @param masterUid uid of the master note of the series
+     */
+    public void removeEntries(String masterUid);
+
+    /**
+     * Remove all entries of a collection.
+     * @param collection collection
+     */
+    public void removeEntries(CollectionItem collection);
+
+    /**
+     * Find the entries of a collection, ordered by rank.  Besides the
+     * entries with the triage code, all entries that are not valid at
+     * the point in time are returned, so that their series can be
+     * evaluated again.
+     * @param collection collection
+     * @param triageCode triage code to match, or null to return all
+     *                   entries
+     * @param pointInTime point in time entries must be valid at
+     * @param includeFloating if true, all entries evaluated using
+     *                        floating times are returned as well
+     * @return matching entries
+     */
+    public List<TriageIndexEntry> findEntries(CollectionItem collection,
+                                              Integer triageCode,
+                                              Date pointInTime,
+                                              boolean includeFloating);
+
+    /**
+     * Find series with entries that are no longer valid at a point in
+     * time.
+     * @param pointInTime point in time
+     * @param maxResults maximum number of series to return
+     * @return uids of the master notes of the series
+     */
+    public List<String> findExpiredMasterUids(Date pointInTime,
+                                              int maxResults);
+
+    /**
+     * Find master notes that belong to a collection but have no
+     * entries in the index.
+     * @param maxResults maximum number of notes to return
+     * @return uids of the notes
+     */
+    public List<String> findUnindexedMasterUids(int maxResults);
+}
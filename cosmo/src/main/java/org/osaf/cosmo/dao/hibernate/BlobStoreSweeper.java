@@ -0,0 +1,179 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao.hibernate;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.osaf.cosmo.blob.BlobStore;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Corrects the reference counts of a <code>BlobStore</code> to the
+ * references kept in the database.
+ * <p>
+ * <code>BlobStoreInterceptor</code> only releases blobs whose content
+ * is deleted through the session.  Content that is deleted some other
+ * way, for example by a bulk delete or by hand, keeps its blob
+ * forever.  This sweeper periodically counts the references to each
+ * blob and has the store remove blobs that are no longer referenced.
+ *
+ * @see org.osaf.cosmo.hibernate.BlobStoreInterceptor
+ */
+@ManagedResource(objectName="cosmo:name=blobStoreSweeper", description="Cosmo Blob Store Sweeper")
+public class BlobStoreSweeper {
+    private static final Log log = LogFactory.getLog(BlobStoreSweeper.class);
+
+    private SessionFactory sessionFactory;
+    private BlobStore blobStore;
+    private long minAge = 60 * 60 * 1000L;
+    private long interval = 24 * 60 * 60 * 1000L;
+
+    private Timer timer;
+
+    private AtomicLong blobsCorrected = new AtomicLong();
+    private AtomicLong failures = new AtomicLong();
+
+    /**
+     * Starts sweeping the blob store every <code>interval</code>
+     * milliseconds.
+     */
+    public void init() {
+        if (sessionFactory == null)
+            throw new IllegalStateException("sessionFactory must not be null");
+        if (blobStore == null)
+            throw new IllegalStateException("blobStore must not be null");
+        if (interval <= 0)
+            return;
+        timer = new Timer("blob-store-sweeper", true);
+        timer.schedule(new TimerTask() {
+            public void run() {
+                try {
+                    sweep();
+                } catch (RuntimeException e) {
+                    log.error("error sweeping blob store", e);
+                }
+            }
+        }, interval, interval);
+    }
+
+    /**
+     * Stops sweeping the blob store.
+     */
+    public void destroy() {
+        if (timer != null)
+            timer.cancel();
+    }
+
+    /**
+     * Count the references to each blob and correct the reference
+     * counts of the store.  Blobs whose references changed less than
+     * <code>minAge</code> milliseconds ago are left for the next run.
+     *
+     * @return the number of reference counts corrected, or -1 if the
+     *         references could not be counted or corrected
+     */
+    public int sweep() {
+        Map<String, Integer> references = null;
+        Session session = sessionFactory.openSession();
+        try {
+            references = countReferences(session);
+        } catch (HibernateException e) {
+            failures.incrementAndGet();
+            log.warn("unable to count blob references", e);
+            return -1;
+        } finally {
+            session.close();
+        }
+
+        try {
+            int corrected = blobStore.reconcile(references, minAge);
+            blobsCorrected.addAndGet(corrected);
+            return corrected;
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            log.warn("unable to sweep blob store", e);
+            return -1;
+        }
+    }
+
+    /**
+     * @param session session to query
+     * @return number of file items referencing each blob
+     */
+    Map<String, Integer> countReferences(Session session) {
+        List<Object[]> results =
+            session.getNamedQuery("contentData.blobReferences").list();
+        Map<String, Integer> references = new HashMap<String, Integer>();
+        for (Object[] result : results)
+            references.put((String) result[0],
+                           new Integer(((Number) result[1]).intValue()));
+        return references;
+    }
+
+    /**
+     * @return number of reference counts corrected
+     */
+    @ManagedAttribute
+    public long getBlobsCorrected() {
+        return blobsCorrected.get();
+    }
+
+    /**
+     * @return number of sweeps that could not be completed
+     */
+    @ManagedAttribute
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    public void setBlobStore(BlobStore blobStore) {
+        this.blobStore = blobStore;
+    }
+
+    /**
+     * @param minAge milliseconds since a blob's references last
+     *               changed before its count may be corrected, so
+     *               that uncommitted changes are not undone
+     */
+    public void setMinAge(long minAge) {
+        this.minAge = minAge;
+    }
+
+    /**
+     * @param interval milliseconds between runs; 0 disables the
+     *                 timer, leaving {@link #sweep()} to be called
+     *                 some other way
+     */
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+}
@@ -15,12 +15,24 @@
  */
 package org.osaf.cosmo.dao.hibernate;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.DateTime;
 import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.PeriodList;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -28,17 +40,23 @@ import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.osaf.cosmo.calendar.EntityConverter;
 import org.osaf.cosmo.calendar.query.CalendarFilter;
-import org.osaf.cosmo.calendar.query.CalendarFilterEvaluater;
+import org.osaf.cosmo.calendar.query.CompiledCalendarFilter;
 import org.osaf.cosmo.dao.CalendarDao;
 import org.osaf.cosmo.dao.hibernate.query.CalendarFilterConverter;
 import org.osaf.cosmo.dao.hibernate.query.ItemFilterProcessor;
+import org.osaf.cosmo.model.CalendarCollectionStamp;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
 import org.osaf.cosmo.model.ICalendarItem;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ModificationUid;
+import org.osaf.cosmo.model.NoteItem;
+import org.osaf.cosmo.model.StampUtils;
 import org.osaf.cosmo.model.filter.EventStampFilter;
 import org.osaf.cosmo.model.filter.ItemFilter;
 import org.osaf.cosmo.model.filter.NoteItemFilter;
+import org.osaf.cosmo.model.hibernate.HibBusyPeriod;
+import org.osaf.cosmo.model.hibernate.HibEventTimeRangeIndex;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 
 /**
@@ -48,8 +66,16 @@ public class CalendarDaoImpl extends HibernateDaoSupport implements CalendarDao
 
     private static final Log log = LogFactory.getLog(CalendarDaoImpl.class);
 
+    // maximum number of item ids in a single query
+    private static final int MAX_IN_LIST = 500;
+
+    // number of calendars evaluated against a filter by one task
+    private static final int FILTER_BATCH_SIZE = 50;
+
     private ItemFilterProcessor itemFilterProcessor = null;
     private EntityConverter entityConverter = new EntityConverter(null);
+    private int filterThreads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService filterExecutor = null;
    
    
     /* (non-Javadoc)
@@ -83,9 +109,13 @@ public class CalendarDaoImpl extends HibernateDaoSupport implements CalendarDao
             else
                 itemsToProcess = collection.getChildren();
             
-            CalendarFilterEvaluater evaluater = new CalendarFilterEvaluater();
-            
-            // Evaluate filter against all calendar items
+            // Evaluate filter against all calendar items.  Items are
+            // converted to calendars here, since that may load them,
+            // and the calendars are evaluated in batches by the filter
+            // threads.
+            LinkedList<Future<List<ICalendarItem>>> pending =
+                new LinkedList<Future<List<ICalendarItem>>>();
+            FilterTask task = new FilterTask(filter);
             for (Item child : itemsToProcess) {
                 
                 // only care about calendar items
@@ -94,13 +124,32 @@ public class CalendarDaoImpl extends HibernateDaoSupport implements CalendarDao
                     ICalendarItem content = (ICalendarItem) child;
                     Calendar calendar = entityConverter.convertContent(content);
                         
-                    if(calendar!=null) {
-                        if (evaluater.evaluate(calendar, filter) == true)
-                            results.add(content);
+                    if(calendar!=null)
+                        task.add(content, calendar);
+                }
+                
+                if (task.size() == FILTER_BATCH_SIZE) {
+                    // without filter threads, evaluate the batch here so
+                    // that its calendars can be collected
+                    if (filterExecutor == null) {
+                        results.addAll(task.call());
+                        task = new FilterTask(filter);
+                        continue;
                     }
+                    
+                    pending.add(filterExecutor.submit(task));
+                    task = new FilterTask(filter);
+                    
+                    // don't convert faster than the threads evaluate
+                    if (pending.size() > filterThreads * 2)
+                        results.addAll(getFilterResults(pending.removeFirst()));
                 }
             }
             
+            results.addAll(task.call());
+            for (Future<List<ICalendarItem>> future : pending)
+                results.addAll(getFilterResults(future));
+            
             return results;
         } catch (HibernateException e) {
             getSession().clear();
@@ -109,6 +158,19 @@ public class CalendarDaoImpl extends HibernateDaoSupport implements CalendarDao
     }
     
    
+    private List<ICalendarItem> getFilterResults(Future<List<ICalendarItem>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted evaluating calendar filter", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException("error evaluating calendar filter", e.getCause());
+        }
+    }
+    
     /* (non-Javadoc)
      * @see org.osaf.cosmo.dao.CalendarDao#findEvents(org.osaf.cosmo.model.CollectionItem, net.fortuna.ical4j.model.DateTime, net.fortuna.ical4j.model.DateTime, boolean)
      */
@@ -136,6 +198,134 @@ public class CalendarDaoImpl extends HibernateDaoSupport implements CalendarDao
 
 
 
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.CalendarDao#findBusyPeriods(org.osaf.cosmo.model.CollectionItem, net.fortuna.ical4j.model.Period, net.fortuna.ical4j.model.PeriodList, net.fortuna.ical4j.model.PeriodList)
+     */
+    public Set<ICalendarItem> findBusyPeriods(CollectionItem collection,
+            Period period, PeriodList busyPeriods,
+            PeriodList busyTentativePeriods) {
+        
+        long rangeStart = period.getStart().getTime();
+        long rangeEnd = period.getEnd().getTime();
+        
+        // floating times are resolved using the calendar timezone,
+        // or the server timezone if the calendar doesn't have one
+        java.util.TimeZone timezone = null;
+        CalendarCollectionStamp ccs = StampUtils.getCalendarCollectionStamp(collection);
+        if(ccs!=null)
+            timezone = ccs.getTimezone();
+        if(timezone==null)
+            timezone = java.util.TimeZone.getDefault();
+        
+        try {
+            // Events without busy periods covering the range are expanded
+            // by the caller.  Modifications are expanded with their master.
+            HashSet<ICalendarItem> results = new HashSet<ICalendarItem>();
+            Query hibQuery = getSession().getNamedQuery(
+                    "noteItem.by.parent.timeRange.withoutBusyPeriods");
+            hibQuery.setParameter("parent", collection);
+            hibQuery.setParameter("utcstart", new Long(rangeStart));
+            hibQuery.setParameter("utcend", new Long(rangeEnd));
+            
+            List<NoteItem> notes = hibQuery.list();
+            for(NoteItem note: notes)
+                results.add(note.getModifies()!=null ? note.getModifies() : note);
+            
+            // The range is widened by the largest timezone offset to
+            // find floating busy periods, which are checked once resolved
+            hibQuery = getSession().getNamedQuery("busyPeriod.by.parent.timeRange");
+            hibQuery.setParameter("parent", collection);
+            hibQuery.setParameter("utcstart", new Long(rangeStart));
+            hibQuery.setParameter("utcend", new Long(rangeEnd));
+            hibQuery.setParameter("floatstart", new Long(rangeStart
+                    - HibEventTimeRangeIndex.MAX_TZ_OFFSET));
+            hibQuery.setParameter("floatend", new Long(rangeEnd
+                    + HibEventTimeRangeIndex.MAX_TZ_OFFSET));
+            
+            List<Object[]> rows = hibQuery.list();
+            
+            // Overridden occurrences of recurring events are busy
+            // according to the modifications instead
+            HashSet<Long> masterIds = new HashSet<Long>();
+            for(Object[] row: rows)
+                if(Boolean.TRUE.equals(row[1]))
+                    masterIds.add((Long) row[0]);
+            Map<Long, Set<String>> overridden = findModificationRecurrenceIds(masterIds);
+            
+            for(Object[] row: rows) {
+                Set<String> rids = overridden.get(row[0]);
+                if(rids!=null && rids.contains(row[3]))
+                    continue;
+                
+                long start = ((Long) row[5]).longValue();
+                long end = ((Long) row[6]).longValue();
+                if(Boolean.TRUE.equals(row[2])) {
+                    start = toUTCTime(start, timezone);
+                    end = toUTCTime(end, timezone);
+                }
+                
+                // point-in-time events are busy at the start of the range
+                if(start >= rangeEnd || (end <= rangeStart
+                        && !(start==end && start==rangeStart)))
+                    continue;
+                
+                Period busy = new Period(toUTCDateTime(Math.max(start, rangeStart)),
+                        toUTCDateTime(Math.min(end, rangeEnd)));
+                if(((Integer) row[4]).intValue()==HibBusyPeriod.FBTYPE_BUSY_TENTATIVE)
+                    busyTentativePeriods.add(busy);
+                else
+                    busyPeriods.add(busy);
+            }
+            
+            return results;
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+    
+    /**
+     * @return map of master item id to the recurrence ids of its
+     *         modifications
+     */
+    private Map<Long, Set<String>> findModificationRecurrenceIds(Set<Long> masterIds) {
+        HashMap<Long, Set<String>> rids = new HashMap<Long, Set<String>>();
+        ArrayList<Long> ids = new ArrayList<Long>(masterIds);
+        
+        for(int i=0; i<ids.size(); i+=MAX_IN_LIST) {
+            Query hibQuery = getSession().getNamedQuery("modification.uid.by.masterIds");
+            hibQuery.setParameterList("masterids",
+                    ids.subList(i, Math.min(i + MAX_IN_LIST, ids.size())));
+            
+            List<Object[]> rows = hibQuery.list();
+            for(Object[] row: rows) {
+                String uid = (String) row[1];
+                int index = uid.lastIndexOf(ModificationUid.RECURRENCEID_DELIMITER);
+                if(index==-1)
+                    continue;
+                
+                Set<String> masterRids = rids.get(row[0]);
+                if(masterRids==null) {
+                    masterRids = new HashSet<String>();
+                    rids.put((Long) row[0], masterRids);
+                }
+                masterRids.add(uid.substring(index + 1));
+            }
+        }
+        
+        return rids;
+    }
+    
+    private long toUTCTime(long floatingTime, java.util.TimeZone timezone) {
+        return floatingTime - timezone.getOffset(floatingTime - timezone.getRawOffset());
+    }
+    
+    private DateTime toUTCDateTime(long time) {
+        DateTime dt = new DateTime(time);
+        dt.setUtc(true);
+        return dt;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -165,6 +355,17 @@ public class CalendarDaoImpl extends HibernateDaoSupport implements CalendarDao
         this.itemFilterProcessor = itemFilterProcessor;
     }
 
+    /**
+     * @param filterThreads number of threads that evaluate calendar
+     *                      filters which can't be translated into
+     *                      queries; 1 or less evaluates them in the
+     *                      calling thread.  Defaults to the number of
+     *                      processors.
+     */
+    public void setFilterThreads(int filterThreads) {
+        this.filterThreads = filterThreads;
+    }
+
 
     /**
      * Initializes the DAO, sanity checking required properties and defaulting
@@ -176,6 +377,58 @@ public class CalendarDaoImpl extends HibernateDaoSupport implements CalendarDao
             throw new IllegalStateException("itemFilterProcessor is required");
         }
 
+        if (filterThreads > 1) {
+            filterExecutor = Executors.newFixedThreadPool(filterThreads,
+                    new ThreadFactory() {
+                        private int count = 0;
+                        public synchronized Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r,
+                                    "calendar-filter-" + (++count));
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Stops the filter threads.
+     */
+    public void destroy() {
+        if (filterExecutor != null)
+            filterExecutor.shutdownNow();
+    }
+
+    /**
+     * Evaluates a calendar filter against a batch of calendars.  The
+     * filter is compiled for each batch, since a compiled filter may
+     * only be used by one thread at a time.
+     */
+    private static class FilterTask implements Callable<List<ICalendarItem>> {
+        private CompiledCalendarFilter filter;
+        private ArrayList<ICalendarItem> items = new ArrayList<ICalendarItem>();
+        private ArrayList<Calendar> calendars = new ArrayList<Calendar>();
+
+        FilterTask(CalendarFilter filter) {
+            this.filter = new CompiledCalendarFilter(filter);
+        }
+
+        void add(ICalendarItem item, Calendar calendar) {
+            items.add(item);
+            calendars.add(calendar);
+        }
+
+        int size() {
+            return items.size();
+        }
+
+        public List<ICalendarItem> call() {
+            ArrayList<ICalendarItem> results = new ArrayList<ICalendarItem>();
+            for (int i = 0; i < items.size(); i++) {
+                if (filter.evaluate(calendars.get(i)))
+                    results.add(items.get(i));
+            }
+            return results;
+        }
     }
-    
 }
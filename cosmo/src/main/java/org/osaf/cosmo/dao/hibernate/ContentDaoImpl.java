@@ -15,6 +15,8 @@
  */
 package org.osaf.cosmo.dao.hibernate;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -35,6 +37,7 @@ import org.osaf.cosmo.model.ContentItem;
 import org.osaf.cosmo.model.ICalendarItem;
 import org.osaf.cosmo.model.IcalUidInUseException;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemTombstone;
 import org.osaf.cosmo.model.ModelValidationException;
 import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.User;
@@ -373,6 +376,163 @@ public class ContentDaoImpl extends ItemDaoImpl implements ContentDao {
     }
 
 
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.ContentDao#loadChangedChildren(org.osaf.cosmo.model.CollectionItem, long)
+     */
+    public Set<ContentItem> loadChangedChildren(CollectionItem collection,
+            long sequence) {
+        try {
+            Set<ContentItem> children = new HashSet<ContentItem>();
+            
+            // use custom HQL query that will eager fetch all associations
+            Query query = getSession().getNamedQuery(
+                    "contentItem.by.parent.sequence").setParameter("parent",
+                    collection).setParameter("sequence", new Long(sequence));
+            query.setFlushMode(FlushMode.MANUAL);
+            
+            List results = query.list();
+            for (Iterator it = results.iterator(); it.hasNext();) {
+                ContentItem content = (ContentItem) it.next();
+                initializeItem(content);
+                children.add(content);
+            }
+
+            return children;
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.ContentDao#loadChildren(org.osaf.cosmo.model.CollectionItem, java.lang.String, int)
+     */
+    public List<ContentItem> loadChildren(CollectionItem collection,
+            String afterUid, int maxResults) {
+        try {
+            Query query = getSession().getNamedQuery(
+                    "contentItemUid.by.parent.uid").setParameter("parent",
+                    collection);
+            return loadChildrenPage(query, "contentItem.by.uids", afterUid,
+                    maxResults);
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.ContentDao#loadMembers(org.osaf.cosmo.model.CollectionItem, java.lang.String, int)
+     */
+    public List<Item> loadMembers(CollectionItem collection,
+            String afterUid, int maxResults) {
+        try {
+            Query query = getSession().getNamedQuery(
+                    "itemUid.by.parent.uid").setParameter("parent",
+                    collection);
+            return loadChildrenPage(query, "item.by.uids.initialized",
+                    afterUid, maxResults);
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.ContentDao#loadChangedChildren(org.osaf.cosmo.model.CollectionItem, long, java.lang.String, int)
+     */
+    public List<ContentItem> loadChangedChildren(CollectionItem collection,
+            long sequence, String afterUid, int maxResults) {
+        try {
+            Query query = getSession().getNamedQuery(
+                    "contentItemUid.by.parent.sequence.uid").setParameter(
+                    "parent", collection).setParameter("sequence",
+                    new Long(sequence));
+            return loadChildrenPage(query, "contentItem.by.uids", afterUid,
+                    maxResults);
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.ContentDao#evictItems(java.util.Collection)
+     */
+    public void evictItems(Collection<? extends Item> items) {
+        try {
+            // evict cascades to stamps, attributes and tombstones
+            for (Item item : items)
+                getSession().evict(item);
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.ContentDao#findRemovedChildren(org.osaf.cosmo.model.CollectionItem, long)
+     */
+    public List<ItemTombstone> findRemovedChildren(CollectionItem collection,
+            long sequence) {
+        try {
+            Query query = getSession().getNamedQuery(
+                    "itemTombstone.by.parent.sequence").setParameter("parent",
+                    collection).setParameter("sequence", new Long(sequence));
+            query.setFlushMode(FlushMode.MANUAL);
+            return query.list();
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.ContentDao#getFirstChangeSequence(org.osaf.cosmo.model.CollectionItem)
+     */
+    public long getFirstChangeSequence(CollectionItem collection) {
+        try {
+            Query query = getSession().getNamedQuery(
+                    "collectionChange.minSequence.by.collection").setParameter(
+                    "collection", collection);
+            query.setFlushMode(FlushMode.MANUAL);
+            Long min = (Long) query.uniqueResult();
+            
+            // The history is complete from the sequence before the
+            // oldest change that is still logged.  If nothing is
+            // logged, only the current sequence is valid.
+            if(min==null)
+                return collection.getChangeSequence();
+            return min.longValue() - 1;
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.ContentDao#compactChangeHistory(java.util.Date)
+     */
+    public int compactChangeHistory(Date date) {
+        try {
+            int count = getSession().getNamedQuery(
+                    "collectionChange.delete.before.date").setParameter(
+                    "date", date).executeUpdate();
+            int tombstones = getSession().getNamedQuery(
+                    "itemTombstone.delete.before.date").setParameter("date", date)
+                    .executeUpdate();
+            
+            if(log.isDebugEnabled())
+                log.debug("removed " + count + " change log entries and "
+                        + tombstones + " item tombstones before " + date);
+            
+            return count;
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
     @Override
     public void initializeItem(Item item) {
         super.initializeItem(item);
@@ -445,6 +605,7 @@ public class ContentDaoImpl extends ItemDaoImpl implements ContentDao {
                 // remove mod from master's collection
                 note.getModifies().removeModification(note);
                 note.getModifies().updateTimestamp();
+                recordChange(note.getModifies(), false);
             } else {  
                 // mods will be removed by Hibernate cascading rules, but we
                 // need to add tombstones for mods
@@ -462,6 +623,7 @@ public class ContentDaoImpl extends ItemDaoImpl implements ContentDao {
         for (CollectionItem parent : content.getParents()) {
             getHibItem(parent).addTombstone(new HibItemTombstone(parent,content));
             getSession().update(parent);
+            recordChange(parent, content, true);
         }
     }
     
@@ -482,6 +644,10 @@ public class ContentDaoImpl extends ItemDaoImpl implements ContentDao {
             }
         }
         
+        // remove change log of collection
+        getSession().getNamedQuery("collectionChange.delete.by.collection")
+                .setParameter("collection", collection).executeUpdate();
+        
         getSession().delete(collection);
     }
     
@@ -496,6 +662,7 @@ public class ContentDaoImpl extends ItemDaoImpl implements ContentDao {
         
         getHibItem(collection).addTombstone(new HibItemTombstone(collection, note));
         ((HibItem) note).removeParent(collection);
+        recordChange(collection, note, true);
         
         for(NoteItem mod: note.getModifications())
             removeNoteItemFromCollectionInternal(mod, collection);
@@ -552,6 +719,8 @@ public class ContentDaoImpl extends ItemDaoImpl implements ContentDao {
                 if (((HibCollectionItem) col).removeTombstone(content) == true)
                     getSession().update(col);
                 ((HibItem) note).addParent(col);
+                recordChange(col, note.getModifies(), false);
+                recordChange(col, note, false);
             }
         } else {
             // add parent to new content
@@ -560,6 +729,8 @@ public class ContentDaoImpl extends ItemDaoImpl implements ContentDao {
             // remove tombstone (if it exists) from parent
             if(((HibCollectionItem)parent).removeTombstone(content)==true)
                 getSession().update(parent);
+            
+            recordChange(parent, content, false);
         }
         
        
@@ -621,6 +792,10 @@ public class ContentDaoImpl extends ItemDaoImpl implements ContentDao {
             ((HibItem) content).addParent(parent);
             if(((HibCollectionItem)parent).removeTombstone(content)==true)
                 getSession().update(parent);
+            
+            if(isNoteModification(content))
+                recordChange(parent, ((NoteItem) content).getModifies(), false);
+            recordChange(parent, content, false);
         }
         
       
@@ -645,8 +820,11 @@ public class ContentDaoImpl extends ItemDaoImpl implements ContentDao {
         if(isNoteModification(content)) {
             // ensure master is dirty so that etag gets updated
             ((NoteItem) content).getModifies().updateTimestamp();
+            recordChange(((NoteItem) content).getModifies(), false);
         }
         
+        recordChange(content, false);
+        
     }
     
     protected void updateCollectionInternal(CollectionItem collection) {
@@ -768,6 +946,41 @@ public class ContentDaoImpl extends ItemDaoImpl implements ContentDao {
             checkForDuplicateICalUid(item, parent);
     }
     
+    /**
+     * Load the items whose uids are returned by a uid query, in uid
+     * order.  The uids are paged first so that the fetch joins used
+     * to load the items do not force paging in memory.
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Item> List<T> loadChildrenPage(Query uidQuery,
+            String itemQueryName, String afterUid, int maxResults) {
+        uidQuery.setParameter("uid", afterUid == null ? "" : afterUid);
+        uidQuery.setMaxResults(maxResults);
+        uidQuery.setFlushMode(FlushMode.MANUAL);
+        List<String> uids = uidQuery.list();
+        if (uids.isEmpty())
+            return new ArrayList<T>(0);
+
+        Query query = getSession().getNamedQuery(itemQueryName)
+                .setParameterList("uids", uids);
+        query.setFlushMode(FlushMode.MANUAL);
+
+        HashMap<String, T> loaded = new HashMap<String, T>();
+        for (Iterator it = query.list().iterator(); it.hasNext();) {
+            T child = (T) it.next();
+            initializeItem(child);
+            loaded.put(child.getUid(), child);
+        }
+
+        ArrayList<T> children = new ArrayList<T>(uids.size());
+        for (String uid : uids) {
+            T child = loaded.get(uid);
+            if (child != null)
+                children.add(child);
+        }
+        return children;
+    }
+    
     private boolean isNoteModification(Item item) {
         if(!(item instanceof NoteItem))
             return false;
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao.hibernate;
+
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.osaf.cosmo.model.hibernate.HibEventStamp;
+import org.osaf.cosmo.model.hibernate.HibEventTimeRangeIndex;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Moves the materialized occurrences and busy periods of recurring
+ * events forward in time.
+ * <p>
+ * <code>EventStampInterceptor</code> only materializes the occurrences
+ * and busy periods of a recurring event within a window around the
+ * time the event was saved.  Queries for time ranges outside of that
+ * window fall back to expanding the recurrence, so an event that is
+ * never saved again gets slower to query as its window falls behind.
+ * This refresher periodically finds recurring events whose window
+ * ends less than <code>refreshDays</code> days from now and indexes
+ * them again, which recalculates the window around the current time.
+ *
+ * @see org.osaf.cosmo.model.hibernate.EventStampInterceptor
+ */
+@ManagedResource(objectName="cosmo:name=eventIndexRefresher", description="Cosmo Event Index Refresher")
+public class EventIndexRefresher {
+    private static final Log log = LogFactory.getLog(EventIndexRefresher.class);
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private SessionFactory sessionFactory;
+    private int refreshDays = 30;
+    private int batchSize = 100;
+    private long interval = 60 * 60 * 1000L;
+
+    private Timer timer;
+
+    private AtomicLong eventsRefreshed = new AtomicLong();
+    private AtomicLong failures = new AtomicLong();
+
+    /**
+     * Starts refreshing event indexes every <code>interval</code>
+     * milliseconds.
+     */
+    public void init() {
+        if (sessionFactory == null)
+            throw new IllegalStateException("sessionFactory must not be null");
+        if (interval <= 0)
+            return;
+        timer = new Timer("event-index-refresher", true);
+        timer.schedule(new TimerTask() {
+            public void run() {
+                try {
+                    refreshIndexes();
+                } catch (RuntimeException e) {
+                    log.error("error refreshing event indexes", e);
+                }
+            }
+        }, interval, interval);
+    }
+
+    /**
+     * Stops refreshing event indexes.
+     */
+    public void destroy() {
+        if (timer != null)
+            timer.cancel();
+    }
+
+    /**
+     * Index again all recurring events whose materialized occurrences
+     * or busy periods end less than <code>refreshDays</code> days
+     * from now, one batch per transaction.  If a batch can't be
+     * written, for example because an event was updated concurrently,
+     * it and the remaining events are left for the next run.
+     *
+     * @return the number of events indexed
+     */
+    public int refreshIndexes() {
+        long horizon = System.currentTimeMillis()
+                + (refreshDays * DAY_IN_MILLIS);
+        int refreshed = 0;
+        long afterId = -1;
+
+        while (true) {
+            Session session = sessionFactory.openSession();
+            Transaction tx = null;
+            List<HibEventStamp> stamps = null;
+            try {
+                tx = session.beginTransaction();
+                stamps = refreshBatch(session, horizon, afterId);
+                tx.commit();
+                refreshed += stamps.size();
+                eventsRefreshed.addAndGet(stamps.size());
+            } catch (HibernateException e) {
+                if (tx != null) {
+                    try {
+                        tx.rollback();
+                    } catch (HibernateException e2) {}
+                }
+                failures.incrementAndGet();
+                log.warn("unable to refresh event indexes", e);
+            } finally {
+                session.close();
+            }
+
+            if (stamps == null || stamps.size() < batchSize)
+                break;
+            afterId = stamps.get(stamps.size() - 1).getId().longValue();
+        }
+
+        if (refreshed > 0)
+            log.info("refreshed indexes of " + refreshed + " recurring events");
+        return refreshed;
+    }
+
+    /**
+     * Mark the next batch of recurring events whose materialized
+     * window ends before <code>horizon</code> to be indexed again
+     * when the session is flushed.
+     *
+     * @param session session to load the events in
+     * @param horizon UTC milliseconds the window must reach
+     * @param afterId only events with a higher stamp id are refreshed
+     * @return the event stamps that will be indexed again, in order
+     *         of their ids
+     */
+    List<HibEventStamp> refreshBatch(Session session, long horizon,
+            long afterId) {
+        Query query = session.getNamedQuery("eventStamp.by.indexHorizon");
+        query.setParameter("horizon", new Long(horizon));
+        query.setParameter("afterid", new Long(afterId));
+        query.setMaxResults(batchSize);
+        List<HibEventStamp> stamps = query.list();
+
+        // replacing the index makes the stamp dirty, so that
+        // EventStampInterceptor calculates it again on flush
+        for (HibEventStamp stamp : stamps)
+            stamp.setTimeRangeIndex(new HibEventTimeRangeIndex());
+
+        return stamps;
+    }
+
+    /**
+     * @return number of events indexed again
+     */
+    @ManagedAttribute
+    public long getEventsRefreshed() {
+        return eventsRefreshed.get();
+    }
+
+    /**
+     * @return number of batches that could not be written
+     */
+    @ManagedAttribute
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @ManagedAttribute
+    public int getRefreshDays() {
+        return refreshDays;
+    }
+
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * @param refreshDays events whose materialized window ends less
+     *                    than this many days from now are indexed again
+     */
+    public void setRefreshDays(int refreshDays) {
+        this.refreshDays = refreshDays;
+    }
+
+    /**
+     * @param batchSize maximum number of events indexed in one
+     *                  transaction
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param interval milliseconds between runs; 0 disables the
+     *                 timer, leaving {@link #refreshIndexes()} to be
+     *                 called some other way
+     */
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+}
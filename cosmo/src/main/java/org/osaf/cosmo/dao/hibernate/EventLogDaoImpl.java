@@ -30,6 +30,7 @@ import org.osaf.cosmo.model.ContentItem;
 import org.osaf.cosmo.model.Item;
 import org.osaf.cosmo.model.ItemChangeRecord;
 import org.osaf.cosmo.model.NoteItem;
+import org.osaf.cosmo.model.User;
 import org.osaf.cosmo.model.event.EventLogEntry;
 import org.osaf.cosmo.model.event.ItemAddedEntry;
 import org.osaf.cosmo.model.event.ItemEntry;
@@ -40,6 +41,8 @@ import org.osaf.cosmo.model.hibernate.HibItem;
 import org.osaf.cosmo.model.hibernate.HibTicket;
 import org.osaf.cosmo.model.hibernate.HibUser;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * Implementation of EventLogDao using Hibernate persistence objects.
@@ -48,22 +51,41 @@ public class EventLogDaoImpl extends HibernateDaoSupport implements EventLogDao
 
     private static final Log log = LogFactory.getLog(EventLogDaoImpl.class);
     
+    private EventLogWriter eventLogWriter;
+    private long commitLag = 10000;
+    
    
     public void addEventLogEntry(EventLogEntry entry) {
-        try {
-            addEventLogEntryInternal(entry);
-            getSession().flush();
-        } catch (HibernateException e) {
-            getSession().clear();
-            throw convertHibernateAccessException(e);
-        }
+        ArrayList<EventLogEntry> entries = new ArrayList<EventLogEntry>(1);
+        entries.add(entry);
+        addEventLogEntries(entries);
     }
     
     public void addEventLogEntries(List<EventLogEntry> entries) {
        
         try {
-            for(EventLogEntry entry: entries)
-                addEventLogEntryInternal(entry);
+            ArrayList<HibEventLogEntry> hibEntries =
+                new ArrayList<HibEventLogEntry>(entries.size());
+            for(EventLogEntry entry: entries) {
+                HibEventLogEntry hibEntry = convertToHibEntry(entry);
+                if(hibEntry!=null)
+                    hibEntries.add(hibEntry);
+            }
+            
+            // hand entries to the writer once the changes they
+            // record have been committed
+            if(eventLogWriter!=null && eventLogWriter.isQueueing() &&
+               TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(
+                        new WriteOnCommit(hibEntries));
+                return;
+            }
+            
+            Date now = new Date();
+            for(HibEventLogEntry hibEntry: hibEntries) {
+                hibEntry.setInsertDate(now);
+                getSession().save(hibEntry);
+            }
             
             getSession().flush();
         } catch (HibernateException e) {
@@ -97,6 +119,106 @@ public class EventLogDaoImpl extends HibernateDaoSupport implements EventLogDao
     
    
 
+    public List<ItemChangeRecord> findChangesForCollection(
+            CollectionItem collection, long cursor, int maxResults) {
+        try {
+            Query hibQuery = getSession().getNamedQuery("logEntry.by.collection.cursor");
+            hibQuery.setParameter("parentId", ((HibItem) collection).getId());
+            hibQuery.setParameter("cursor", new Long(cursor));
+            hibQuery.setMaxResults(maxResults);
+            List<HibEventLogEntry> results = hibQuery.list();
+            
+            ArrayList<ItemChangeRecord> changeRecords = new ArrayList<ItemChangeRecord>(results.size());
+            
+            Date horizon = getCommitHorizon();
+            for(HibEventLogEntry result: results) {
+                if(isAfter(result, horizon))
+                    break;
+                ItemChangeRecord record = convertToItemChangeRecord(result);
+                record.setCollectionUuid(collection.getUid());
+                changeRecords.add(record);
+            }
+            
+            return changeRecords;
+            
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+    
+    public List<ItemChangeRecord> findChangesForUser(User user, long cursor,
+            int maxResults) {
+        try {
+            Query hibQuery = getSession().getNamedQuery("logEntry.by.owner.cursor");
+            hibQuery.setParameter("owner", user);
+            hibQuery.setParameter("cursor", new Long(cursor));
+            hibQuery.setMaxResults(maxResults);
+            List<Object[]> results = hibQuery.list();
+            
+            ArrayList<ItemChangeRecord> changeRecords = new ArrayList<ItemChangeRecord>(results.size());
+            
+            Date horizon = getCommitHorizon();
+            for(Object[] result: results) {
+                HibEventLogEntry entry = (HibEventLogEntry) result[0];
+                if(isAfter(entry, horizon))
+                    break;
+                ItemChangeRecord record = convertToItemChangeRecord(entry);
+                record.setCollectionUuid((String) result[1]);
+                changeRecords.add(record);
+            }
+            
+            return changeRecords;
+            
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
+    /**
+     * Entries are written by concurrent transactions, so an entry may
+     * commit after entries with greater ids.  Changes found by cursor
+     * stop at the first entry inserted within <code>commitLag</code>
+     * milliseconds, so that a reader doesn't move its cursor past an
+     * entry that hasn't committed yet.  The insert date is used
+     * rather than the date of the entry, because an entry written in
+     * the background may be inserted long after the change it
+     * records.
+     */
+    private Date getCommitHorizon() {
+        return new Date(System.currentTimeMillis() - commitLag);
+    }
+    
+    private boolean isAfter(HibEventLogEntry entry, Date horizon) {
+        return entry.getInsertDate()!=null &&
+            entry.getInsertDate().after(horizon);
+    }
+    
+    /**
+     * @param commitLag milliseconds an entry may take to commit after
+     *                  it is inserted, including any difference between
+     *                  the clocks of the servers sharing the database;
+     *                  changes inserted more recently are left for the
+     *                  next cursor query
+     */
+    public void setCommitLag(long commitLag) {
+        this.commitLag = commitLag;
+    }
+    
+    public long getCommitLag() {
+        return commitLag;
+    }
+
+    /**
+     * @param eventLogWriter writer that writes entries in the
+     *                       background; if not set, entries are
+     *                       written in the caller's transaction
+     */
+    public void setEventLogWriter(EventLogWriter eventLogWriter) {
+        this.eventLogWriter = eventLogWriter;
+    }
+
     public void destroy() {
         
     }
@@ -112,40 +234,45 @@ public class EventLogDaoImpl extends HibernateDaoSupport implements EventLogDao
         record.setItemUuid(entry.getUid1());
         record.setItemDisplayName(entry.getStrval1());
         record.setModifiedBy(entry.getStrval2());
+        record.setEntryId(entry.getId().longValue());
         
         return record;
     }
     
-    private void addEventLogEntryInternal(EventLogEntry entry) {
+    private HibEventLogEntry convertToHibEntry(EventLogEntry entry) {
         
         if(entry instanceof ItemAddedEntry)
-            addItemAddedEntry((ItemAddedEntry) entry);
+            return convertItemAddedEntry((ItemAddedEntry) entry);
         else if(entry instanceof ItemRemovedEntry)
-            addItemRemovedEntry((ItemRemovedEntry) entry);
+            return convertItemRemovedEntry((ItemRemovedEntry) entry);
         else if(entry instanceof ItemUpdatedEntry)
-            addItemUpdatedEntry((ItemUpdatedEntry) entry);
+            return convertItemUpdatedEntry((ItemUpdatedEntry) entry);
         
+        return null;
     }
     
     // translate ItemAddedEntry to HibEventLogEntry
-    private void addItemAddedEntry(ItemAddedEntry entry) {
+    private HibEventLogEntry convertItemAddedEntry(ItemAddedEntry entry) {
         HibEventLogEntry hibEntry = createBaseHibEntry(entry);
         hibEntry.setType("ItemAdded");
         setBaseItemEntryAttributes(hibEntry, entry);
+        return hibEntry;
     }
     
     // translate ItemRevmoedEntry to HibEventLogEntry
-    private void addItemRemovedEntry(ItemRemovedEntry entry) {
+    private HibEventLogEntry convertItemRemovedEntry(ItemRemovedEntry entry) {
         HibEventLogEntry hibEntry = createBaseHibEntry(entry);
         hibEntry.setType("ItemRemoved");
         setBaseItemEntryAttributes(hibEntry, entry);
+        return hibEntry;
     }
     
-    // translate ItemUpdatedEntry to HibEventLogEntry(s)
-    private void addItemUpdatedEntry(ItemUpdatedEntry entry) {
+    // translate ItemUpdatedEntry to HibEventLogEntry
+    private HibEventLogEntry convertItemUpdatedEntry(ItemUpdatedEntry entry) {
         HibEventLogEntry hibEntry = createBaseHibEntry(entry);
         hibEntry.setType("ItemUpdated");
         setBaseItemEntryAttributes(hibEntry, entry);
+        return hibEntry;
     }
     
     private HibEventLogEntry createBaseHibEntry(EventLogEntry entry) {
@@ -171,7 +298,6 @@ public class EventLogDaoImpl extends HibernateDaoSupport implements EventLogDao
         hibEntry.setUid1(entry.getItem().getUid());
         updateDisplayName(hibEntry, entry);
         updateLastModifiedBy(hibEntry, entry);
-        getSession().save(hibEntry);
     }
     
     private void updateLastModifiedBy(HibEventLogEntry hibEntry, ItemEntry entry) {
@@ -203,4 +329,26 @@ public class EventLogDaoImpl extends HibernateDaoSupport implements EventLogDao
         // limit to 255 chars
         hibEntry.setStrval1(StringUtils.substring(displayName, 0, 255));
     }
+    
+    /**
+     * Queues entries after the transaction that recorded them
+     * commits, and discards them if it rolls back.
+     */
+    private class WriteOnCommit extends TransactionSynchronizationAdapter {
+        private List<HibEventLogEntry> entries;
+        
+        public WriteOnCommit(List<HibEventLogEntry> entries) {
+            this.entries = entries;
+        }
+        
+        public void afterCompletion(int status) {
+            if(status!=STATUS_COMMITTED)
+                return;
+            
+            List<HibEventLogEntry> rest = eventLogWriter.write(entries);
+            // the queue stayed full; write the rest ourselves
+            if(!rest.isEmpty() && !eventLogWriter.writeNow(rest))
+                log.error("unable to write " + rest.size() + " event log entries");
+        }
+    }
 }
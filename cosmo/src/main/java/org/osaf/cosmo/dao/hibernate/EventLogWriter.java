@@ -0,0 +1,737 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao.hibernate;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.HibernateException;
+import org.hibernate.JDBCException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.id.IdentityGenerator;
+import org.osaf.cosmo.model.hibernate.HibEventLogEntry;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Writes event log entries to the database in a background thread,
+ * so that logging does not add inserts and a flush to each request.
+ * <p>
+ * Entries are put on a bounded queue and written in batches, each in
+ * its own transaction.  If the queue stays full for longer than
+ * <code>maxWait</code> milliseconds, {@link #write(List)} hands the
+ * entries back and the caller writes them itself, so a slow database
+ * slows requests down rather than losing entries.
+ * <p>
+ * The durability mode is one of:
+ * <ul>
+ * <li><code>sync</code>: entries are not queued; callers always
+ * write them in their own transaction</li>
+ * <li><code>async</code>: queued entries are lost if the server
+ * stops before they are written</li>
+ * <li><code>journal</code>: queued entries are also appended to a
+ * local journal file, which is replayed on startup and truncated
+ * whenever all journaled entries have been written.  Entries
+ * written just before a crash may be written again on replay.</li>
+ * </ul>
+ * <p>
+ * Hibernate can't batch inserts of entities whose ids are generated
+ * by the database on insert, so when event log ids are identity
+ * columns each batch is inserted with a single JDBC batch statement
+ * instead.
+ *
+ * @see EventLogDaoImpl
+ */
+@ManagedResource(objectName="cosmo:name=eventLogWriter", description="Cosmo Event Log Writer")
+public class EventLogWriter {
+    private static final Log log = LogFactory.getLog(EventLogWriter.class);
+
+    public static final String MODE_SYNC = "sync";
+    public static final String MODE_ASYNC = "async";
+    public static final String MODE_JOURNAL = "journal";
+
+    private static final String NULL = "\\N";
+
+    private static final String INSERT_ENTRY =
+        "insert into event_log (entrydate, insertdate, eventtype, authtype, "
+        + "authid, id1, id2, id3, id4, uid1, uid2, uid3, uid4, "
+        + "strval1, strval2, strval3, strval4) "
+        + "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private SessionFactory sessionFactory;
+    private String mode = MODE_ASYNC;
+    private int queueCapacity = 10000;
+    private int batchSize = 100;
+    private long maxWait = 1000;
+    private long retryDelay = 5000;
+    private String journalFile;
+
+    private BlockingQueue<HibEventLogEntry> queue;
+    private Thread thread;
+    private volatile boolean stopped = false;
+    private volatile boolean abandoned = false;
+
+    private File journal;
+    private Writer journalWriter;
+    private long journalPending = 0;
+    private Map<HibEventLogEntry, Boolean> handedBack =
+        new IdentityHashMap<HibEventLogEntry, Boolean>();
+
+    private AtomicLong entriesWritten = new AtomicLong();
+    private AtomicLong batchesWritten = new AtomicLong();
+    private AtomicLong totalFlushTime = new AtomicLong();
+    private AtomicLong maxFlushTime = new AtomicLong();
+    private AtomicLong callerWrites = new AtomicLong();
+    private AtomicLong failures = new AtomicLong();
+
+    /**
+     * Replays the journal, if any, and starts the writer thread.
+     */
+    public void init() throws IOException {
+        if (! MODE_SYNC.equals(mode) && ! MODE_ASYNC.equals(mode)
+            && ! MODE_JOURNAL.equals(mode))
+            throw new IllegalStateException("unknown event log mode " + mode);
+        if (MODE_SYNC.equals(mode))
+            return;
+        if (sessionFactory == null)
+            throw new IllegalStateException("sessionFactory must not be null");
+
+        queue = new ArrayBlockingQueue<HibEventLogEntry>(queueCapacity);
+
+        if (MODE_JOURNAL.equals(mode)) {
+            if (journalFile != null)
+                journal = new File(journalFile);
+            else
+                journal = new File(System.getProperty("user.home"),
+                                   ".cosmo" + File.separator + "eventlog.journal");
+            if (journal.getParentFile() != null)
+                journal.getParentFile().mkdirs();
+            replayJournal();
+            journalWriter = new OutputStreamWriter(
+                    new FileOutputStream(journal, true), "UTF-8");
+        }
+
+        thread = new Thread("event-log-writer") {
+            public void run() {
+                writeQueue();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the writer thread after the queued entries have been
+     * written.  If they are not written within <code>maxWait</code>
+     * plus <code>retryDelay</code> milliseconds, the writer thread
+     * stops after the batch it is writing, leaving the rest in the
+     * journal, if any.  The journal is closed once the writer thread
+     * has stopped.
+     */
+    public void destroy() {
+        stopped = true;
+        if (thread == null)
+            return;
+        try {
+            thread.join(maxWait + retryDelay);
+            if (thread.isAlive()) {
+                abandoned = true;
+                thread.interrupt();
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (! queue.isEmpty())
+            log.warn(queue.size() + " event log entries were not written");
+        if (journalWriter != null) {
+            synchronized (journal) {
+                try {
+                    journalWriter.close();
+                } catch (IOException e) {
+                    log.warn("unable to close event log journal", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue entries to be written.  Queued entries must not be
+     * modified afterwards.
+     *
+     * @param entries entries to write
+     * @return the entries that were not queued and must be written
+     *         by the caller, either because the mode is
+     *         <code>sync</code> or because the queue stayed full
+     */
+    public List<HibEventLogEntry> write(List<HibEventLogEntry> entries) {
+        if (queue == null || stopped)
+            return entries;
+
+        if (journalWriter != null && ! appendJournal(entries)) {
+            callerWrites.addAndGet(entries.size());
+            return entries;
+        }
+
+        for (int i = 0; i < entries.size(); i++) {
+            boolean queued = false;
+            try {
+                queued = queue.offer(entries.get(i), maxWait,
+                                     TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (! queued) {
+                List<HibEventLogEntry> rest = new ArrayList<HibEventLogEntry>(
+                        entries.subList(i, entries.size()));
+                log.warn("event log queue full, writing " + rest.size()
+                         + " entries synchronously");
+                callerWrites.addAndGet(rest.size());
+                // journaled until writeNow() writes them
+                if (journalWriter != null) {
+                    synchronized (journal) {
+                        for (HibEventLogEntry entry : rest)
+                            handedBack.put(entry, Boolean.TRUE);
+                    }
+                }
+                return rest;
+            }
+        }
+        return new ArrayList<HibEventLogEntry>(0);
+    }
+
+    /**
+     * Write entries on the calling thread, in a new transaction.
+     * Used for entries handed back by {@link #write(List)} when the
+     * caller's own transaction has already completed.  Journaled
+     * entries that were handed back are only marked written once
+     * they have been; if they can't be, they are replayed from the
+     * journal on startup.
+     *
+     * @return true if the entries were written
+     */
+    public boolean writeNow(List<HibEventLogEntry> entries) {
+        for (int i = 0; i < entries.size(); i += batchSize) {
+            List<HibEventLogEntry> batch = entries.subList(i,
+                    Math.min(i + batchSize, entries.size()));
+            if (! writeBatch(batch)) {
+                forgetHandedBack(entries.subList(i, entries.size()));
+                return false;
+            }
+            int journaled = forgetHandedBack(batch);
+            if (journaled > 0)
+                journalWritten(journaled);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if entries are currently being queued rather
+     *         than written by callers
+     */
+    public boolean isQueueing() {
+        return queue != null && ! stopped;
+    }
+
+    @ManagedAttribute
+    public String getMode() {
+        return mode;
+    }
+
+    @ManagedAttribute
+    public int getQueueDepth() {
+        return queue != null ? queue.size() : 0;
+    }
+
+    @ManagedAttribute
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @ManagedAttribute
+    public long getEntriesWritten() {
+        return entriesWritten.get();
+    }
+
+    @ManagedAttribute
+    public long getBatchesWritten() {
+        return batchesWritten.get();
+    }
+
+    /**
+     * @return average milliseconds taken to write a batch
+     */
+    @ManagedAttribute
+    public long getAverageFlushTime() {
+        long batches = batchesWritten.get();
+        return batches > 0 ? totalFlushTime.get() / batches : 0;
+    }
+
+    /**
+     * @return milliseconds taken to write the slowest batch
+     */
+    @ManagedAttribute
+    public long getMaxFlushTime() {
+        return maxFlushTime.get();
+    }
+
+    /**
+     * @return number of entries that were handed back to the caller
+     *         because the queue was full
+     */
+    @ManagedAttribute
+    public long getCallerWrites() {
+        return callerWrites.get();
+    }
+
+    /**
+     * @return number of batches that could not be written and were
+     *         retried
+     */
+    @ManagedAttribute
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * @param mode <code>sync</code>, <code>async</code> or
+     *             <code>journal</code>
+     */
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * @param queueCapacity maximum number of entries waiting to be
+     *                      written
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @param batchSize maximum number of entries written in one
+     *                  transaction
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param maxWait milliseconds to wait for room in a full queue
+     *                before handing entries back to the caller
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * @param retryDelay milliseconds to wait before retrying a batch
+     *                   that could not be written
+     */
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * @param journalFile path of the journal used in
+     *                    <code>journal</code> mode; defaults to
+     *                    <code>~/.cosmo/eventlog.journal</code>
+     */
+    public void setJournalFile(String journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    private void writeQueue() {
+        ArrayList<HibEventLogEntry> batch =
+            new ArrayList<HibEventLogEntry>(batchSize);
+        while (! abandoned && (! stopped || ! queue.isEmpty())) {
+            try {
+                HibEventLogEntry first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            boolean written = writeBatch(batch);
+            while (! written && ! stopped && ! abandoned) {
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException e) {}
+                written = writeBatch(batch);
+            }
+            // unwritten entries stay in the journal to be replayed
+            if (written && journalWriter != null)
+                journalWritten(batch.size());
+            batch.clear();
+        }
+    }
+
+    /**
+     * Write a batch of entries in a new transaction.
+     * @return true if the entries were written
+     */
+    private boolean writeBatch(List<HibEventLogEntry> batch) {
+        long start = System.currentTimeMillis();
+        try {
+            saveEntries(batch);
+        } catch (HibernateException e) {
+            failures.incrementAndGet();
+            log.error("unable to write " + batch.size()
+                      + " event log entries", e);
+            return false;
+        }
+
+        long time = System.currentTimeMillis() - start;
+        entriesWritten.addAndGet(batch.size());
+        batchesWritten.incrementAndGet();
+        totalFlushTime.addAndGet(time);
+        long max = maxFlushTime.get();
+        while (time > max && ! maxFlushTime.compareAndSet(max, time))
+            max = maxFlushTime.get();
+        return true;
+    }
+
+    /**
+     * Save entries in a new session and transaction, recording the
+     * current time as their insert date.
+     * @throws HibernateException if the entries could not be saved
+     */
+    protected void saveEntries(List<HibEventLogEntry> entries) {
+        Date now = new Date();
+        for (HibEventLogEntry entry : entries)
+            entry.setInsertDate(now);
+
+        Session session = sessionFactory.openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            if (isIdentity()) {
+                insertEntries(session.connection(), entries);
+            } else {
+                // ids are generated before the inserts, so Hibernate
+                // batches them up to hibernate.jdbc.batch_size
+                for (HibEventLogEntry entry : entries)
+                    session.save(entry);
+            }
+            tx.commit();
+        } catch (HibernateException e) {
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (HibernateException e2) {}
+            }
+            throw e;
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * @return true if event log ids are generated by the database
+     *         when an entry is inserted
+     */
+    private boolean isIdentity() {
+        if (! (sessionFactory instanceof SessionFactoryImplementor))
+            return false;
+        return ((SessionFactoryImplementor) sessionFactory)
+            .getIdentifierGenerator(HibEventLogEntry.class.getName())
+            instanceof IdentityGenerator;
+    }
+
+    /**
+     * Insert entries with a single JDBC batch statement.  The ids
+     * of the entries are not set.
+     * @throws HibernateException if the entries could not be inserted
+     */
+    static void insertEntries(Connection conn, List<HibEventLogEntry> entries) {
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement(INSERT_ENTRY);
+            for (HibEventLogEntry entry : entries) {
+                setDate(stmt, 1, entry.getDate());
+                setDate(stmt, 2, entry.getInsertDate());
+                stmt.setString(3, entry.getType());
+                stmt.setString(4, entry.getAuthType());
+                setLong(stmt, 5, entry.getAuthId());
+                setLong(stmt, 6, entry.getId1());
+                setLong(stmt, 7, entry.getId2());
+                setLong(stmt, 8, entry.getId3());
+                setLong(stmt, 9, entry.getId4());
+                stmt.setString(10, entry.getUid1());
+                stmt.setString(11, entry.getUid2());
+                stmt.setString(12, entry.getUid3());
+                stmt.setString(13, entry.getUid4());
+                stmt.setString(14, entry.getStrval1());
+                stmt.setString(15, entry.getStrval2());
+                stmt.setString(16, entry.getStrval3());
+                stmt.setString(17, entry.getStrval4());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } catch (SQLException e) {
+            throw new JDBCException("unable to insert event log entries", e);
+        } finally {
+            if (stmt != null) {
+                try {
+                    stmt.close();
+                } catch (SQLException e) {}
+            }
+        }
+    }
+
+    private static void setDate(PreparedStatement stmt, int index, Date value)
+        throws SQLException {
+        setLong(stmt, index, value != null ? new Long(value.getTime()) : null);
+    }
+
+    private static void setLong(PreparedStatement stmt, int index, Long value)
+        throws SQLException {
+        if (value != null)
+            stmt.setLong(index, value.longValue());
+        else
+            stmt.setNull(index, Types.BIGINT);
+    }
+
+    /**
+     * Stop tracking entries handed back by {@link #write(List)}.
+     * @return the number of entries that had been handed back
+     */
+    private int forgetHandedBack(List<HibEventLogEntry> entries) {
+        if (journal == null)
+            return 0;
+        int count = 0;
+        synchronized (journal) {
+            if (handedBack.isEmpty())
+                return 0;
+            for (HibEventLogEntry entry : entries)
+                if (handedBack.remove(entry) != null)
+                    count++;
+        }
+        return count;
+    }
+
+    /**
+     * Append entries to the journal.
+     * @return false if the entries could not be journaled
+     */
+    private boolean appendJournal(List<HibEventLogEntry> entries) {
+        synchronized (journal) {
+            try {
+                for (HibEventLogEntry entry : entries)
+                    journalWriter.write(format(entry));
+                journalWriter.flush();
+                journalPending += entries.size();
+                return true;
+            } catch (IOException e) {
+                log.error("unable to write event log journal", e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Record that journaled entries have been written to the
+     * database, and truncate the journal once all of them have been.
+     */
+    private void journalWritten(int count) {
+        synchronized (journal) {
+            journalPending -= count;
+            if (journalPending > 0)
+                return;
+            try {
+                journalWriter.close();
+                journalWriter = new OutputStreamWriter(
+                        new FileOutputStream(journal, false), "UTF-8");
+            } catch (IOException e) {
+                log.error("unable to truncate event log journal", e);
+            }
+        }
+    }
+
+    private void replayJournal() throws IOException {
+        if (! journal.exists())
+            return;
+
+        List<HibEventLogEntry> entries = readJournal(journal);
+        if (! entries.isEmpty()) {
+            log.info("replaying " + entries.size()
+                     + " event log entries from " + journal);
+            if (! writeNow(entries))
+                throw new IllegalStateException("unable to replay event log journal " + journal);
+        }
+
+        if (! journal.delete())
+            throw new IOException("unable to delete " + journal);
+    }
+
+    /**
+     * Read the entries of a journal file.  A partly written last
+     * line is ignored.
+     */
+    static List<HibEventLogEntry> readJournal(File file) throws IOException {
+        ArrayList<HibEventLogEntry> entries = new ArrayList<HibEventLogEntry>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                HibEventLogEntry entry = parse(line);
+                if (entry != null)
+                    entries.add(entry);
+            }
+        } finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Format an entry as a line of tab separated fields.
+     */
+    static String format(HibEventLogEntry entry) {
+        StringBuffer buf = new StringBuffer();
+        append(buf, entry.getDate() != null ?
+               Long.toString(entry.getDate().getTime()) : null);
+        append(buf, entry.getType());
+        append(buf, entry.getAuthType());
+        append(buf, entry.getAuthId());
+        append(buf, entry.getId1());
+        append(buf, entry.getId2());
+        append(buf, entry.getId3());
+        append(buf, entry.getId4());
+        append(buf, entry.getUid1());
+        append(buf, entry.getUid2());
+        append(buf, entry.getUid3());
+        append(buf, entry.getUid4());
+        append(buf, entry.getStrval1());
+        append(buf, entry.getStrval2());
+        append(buf, entry.getStrval3());
+        append(buf, entry.getStrval4());
+        buf.setCharAt(buf.length() - 1, '\n');
+        return buf.toString();
+    }
+
+    /**
+     * Parse a line formatted by {@link #format(HibEventLogEntry)}.
+     * @return the entry, or null if the line is incomplete
+     */
+    static HibEventLogEntry parse(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 16)
+            return null;
+
+        HibEventLogEntry entry = new HibEventLogEntry();
+        String date = unescape(fields[0]);
+        entry.setDate(date != null ? new Date(Long.parseLong(date)) : null);
+        entry.setType(unescape(fields[1]));
+        entry.setAuthType(unescape(fields[2]));
+        entry.setAuthId(toLong(unescape(fields[3])));
+        entry.setId1(toLong(unescape(fields[4])));
+        entry.setId2(toLong(unescape(fields[5])));
+        entry.setId3(toLong(unescape(fields[6])));
+        entry.setId4(toLong(unescape(fields[7])));
+        entry.setUid1(unescape(fields[8]));
+        entry.setUid2(unescape(fields[9]));
+        entry.setUid3(unescape(fields[10]));
+        entry.setUid4(unescape(fields[11]));
+        entry.setStrval1(unescape(fields[12]));
+        entry.setStrval2(unescape(fields[13]));
+        entry.setStrval3(unescape(fields[14]));
+        entry.setStrval4(unescape(fields[15]));
+        return entry;
+    }
+
+    private static void append(StringBuffer buf, Object value) {
+        if (value == null) {
+            buf.append(NULL);
+        } else {
+            String s = value.toString();
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '\\')
+                    buf.append("\\\\");
+                else if (c == '\t')
+                    buf.append("\\t");
+                else if (c == '\n')
+                    buf.append("\\n");
+                else if (c == '\r')
+                    buf.append("\\r");
+                else
+                    buf.append(c);
+            }
+        }
+        buf.append('\t');
+    }
+
+    private static String unescape(String s) {
+        if (NULL.equals(s))
+            return null;
+        StringBuffer buf = new StringBuffer(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                if (next == 't')
+                    buf.append('\t');
+                else if (next == 'n')
+                    buf.append('\n');
+                else if (next == 'r')
+                    buf.append('\r');
+                else
+                    buf.append(next);
+            } else {
+                buf.append(c);
+            }
+        }
+        return buf.toString();
+    }
+
+    private static Long toLong(String s) {
+        return s != null ? new Long(s) : null;
+    }
+}
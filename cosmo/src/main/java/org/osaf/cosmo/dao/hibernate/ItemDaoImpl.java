@@ -15,6 +15,12 @@
  */
 package org.osaf.cosmo.dao.hibernate;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -26,6 +32,7 @@ import org.apache.commons.logging.LogFactory;
 import org.hibernate.FlushMode;
 import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
+import org.hibernate.JDBCException;
 import org.hibernate.LockMode;
 import org.hibernate.ObjectDeletedException;
 import org.hibernate.ObjectNotFoundException;
@@ -44,6 +51,7 @@ import org.osaf.cosmo.model.EventStamp;
 import org.osaf.cosmo.model.HomeCollectionItem;
 import org.osaf.cosmo.model.ICalendarItem;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemMetadata;
 import org.osaf.cosmo.model.ItemNotFoundException;
 import org.osaf.cosmo.model.ModelValidationException;
 import org.osaf.cosmo.model.Ticket;
@@ -55,6 +63,7 @@ import org.osaf.cosmo.model.hibernate.HibCollectionItem;
 import org.osaf.cosmo.model.hibernate.HibEventStamp;
 import org.osaf.cosmo.model.hibernate.HibHomeCollectionItem;
 import org.osaf.cosmo.model.hibernate.HibItem;
+import org.osaf.cosmo.model.hibernate.HibCollectionChange;
 import org.osaf.cosmo.model.hibernate.HibItemTombstone;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 
@@ -66,6 +75,14 @@ public abstract class ItemDaoImpl extends HibernateDaoSupport implements ItemDao
 
     private static final Log log = LogFactory.getLog(ItemDaoImpl.class);
 
+    // maximum number of uids in a single IN query
+    private static final int UID_BATCH_SIZE = 500;
+    
+    private static final String INCREMENT_CHANGE_SEQUENCE =
+        "update item set changeseq = coalesce(changeseq, 0) + 1 where id = ?";
+    private static final String SELECT_CHANGE_SEQUENCE =
+        "select changeseq from item where id = ?";
+
     private IdentifierGenerator idGenerator = null;
     private IdentifierGenerator ticketKeyGenerator = null;
     private ItemPathTranslator itemPathTranslator = null;
@@ -104,6 +121,100 @@ public abstract class ItemDaoImpl extends HibernateDaoSupport implements ItemDao
     }
 
 
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.ItemDao#findItemMetadataByUid(java.lang.String)
+     */
+    public ItemMetadata findItemMetadataByUid(String uid) {
+        try {
+            Query hibQuery = getSession().getNamedQuery("itemMetadata.by.uid")
+                    .setParameter("uid", uid);
+            hibQuery.setFlushMode(FlushMode.MANUAL);
+            return toItemMetadata(hibQuery.list());
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.ItemDao#findItemMetadataByPath(java.lang.String)
+     */
+    public ItemMetadata findItemMetadataByPath(String path) {
+        if (path == null)
+            return null;
+        if (path.startsWith("/"))
+            path = path.substring(1);
+        if (path.length() == 0)
+            return null;
+
+        // the root of the path is the home collection, which is
+        // named after its owner
+        String[] segments = path.split("/");
+        try {
+            Query hibQuery = getSession().getNamedQuery(
+                    "itemMetadata.by.ownerName.name.nullParent").setParameter(
+                    "username", segments[0]).setParameter("name", segments[0]);
+            hibQuery.setFlushMode(FlushMode.MANUAL);
+            ItemMetadata metadata = toItemMetadata(hibQuery.list());
+            for (int i = 1; i < segments.length && metadata != null; i++)
+                metadata = findItemMetadataByPath(segments[i], metadata.getUid());
+            return metadata;
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.ItemDao#findItemMetadataByPath(java.lang.String, java.lang.String)
+     */
+    public ItemMetadata findItemMetadataByPath(String path, String parentUid) {
+        if (path == null)
+            return null;
+        if (path.startsWith("/"))
+            path = path.substring(1);
+        if (path.length() == 0 || path.indexOf('/') >= 0)
+            return null;
+
+        try {
+            Query hibQuery = getSession().getNamedQuery(
+                    "itemMetadata.by.parentUid.name").setParameter(
+                    "parentUid", parentUid).setParameter("name", path);
+            hibQuery.setFlushMode(FlushMode.MANUAL);
+            return toItemMetadata(hibQuery.list());
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.ItemDao#findChildrenByNames(org.osaf.cosmo.model.CollectionItem, java.util.Collection)
+     */
+    public Set<Item> findChildrenByNames(CollectionItem parent,
+                                         Collection<String> names) {
+        try {
+            HashSet<Item> items = new HashSet<Item>();
+            ArrayList<String> batch = new ArrayList<String>(UID_BATCH_SIZE);
+            
+            for (String name : new HashSet<String>(names)) {
+                batch.add(name);
+                if (batch.size() == UID_BATCH_SIZE) {
+                    findChildrenByNameBatch(parent, batch, items);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty())
+                findChildrenByNameBatch(parent, batch, items);
+            
+            return items;
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.osaf.cosmo.dao.ItemDao#findItemParentByPath(java.lang.String)
      */
@@ -145,6 +256,33 @@ public abstract class ItemDaoImpl extends HibernateDaoSupport implements ItemDao
         }
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.osaf.cosmo.dao.ItemDao#findItemsByUids(java.util.Collection)
+     */
+    public Set<Item> findItemsByUids(Collection<String> uids) {
+        try {
+            HashSet<Item> items = new HashSet<Item>();
+            ArrayList<String> batch = new ArrayList<String>(UID_BATCH_SIZE);
+            
+            for (String uid : new HashSet<String>(uids)) {
+                batch.add(uid);
+                if (batch.size() == UID_BATCH_SIZE) {
+                    findItemsByUidBatch(batch, items);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty())
+                findItemsByUidBatch(batch, items);
+            
+            return items;
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -428,8 +566,11 @@ public abstract class ItemDaoImpl extends HibernateDaoSupport implements ItemDao
                 // Remove item from old parent collection
                 getHibItem(oldParent).addTombstone(new HibItemTombstone(oldParent, item));
                 ((HibItem) item).removeParent(oldParent);
+                recordChange(oldParent, item, true);
             }
             
+            recordChange(parent, item, false);
+            
             getSession().flush();
             
         } catch (HibernateException e) {
@@ -605,6 +746,7 @@ public abstract class ItemDaoImpl extends HibernateDaoSupport implements ItemDao
         setBaseItemProps(item2);
         
         ((HibItem) item2).addParent(newParent);
+        recordChange(newParent, item2, false);
         
         // save Item before attempting deep copy
         getSession().save(item2);
@@ -814,6 +956,7 @@ public abstract class ItemDaoImpl extends HibernateDaoSupport implements ItemDao
         
         getHibItem(collection).addTombstone(new HibItemTombstone(collection, item));
         ((HibItem) item).removeParent(collection);
+        recordChange(collection, item, true);
         
         // If the item belongs to no collection, then it should
         // be purged.
@@ -828,6 +971,109 @@ public abstract class ItemDaoImpl extends HibernateDaoSupport implements ItemDao
         getSession().update(collection);
         ((HibCollectionItem)collection).removeTombstone(item);
         ((HibItem) item).addParent(collection);
+        recordChange(collection, item, false);
+    }
+    
+    /**
+     * Append an entry to the change log of a collection, using the
+     * next change sequence of the collection.
+     * @param collection collection that changed
+     * @param item item that was created, updated, added or removed
+     * @param removed true if the item was removed from the collection
+     */
+    protected void recordChange(CollectionItem collection, Item item, boolean removed) {
+        HibCollectionItem hibCollection = getHibCollectionItem(collection);
+        
+        // the change only references the collection, so a detached
+        // collection doesn't have to be reattached
+        if(!getSession().contains(collection))
+            hibCollection = (HibCollectionItem) getSession().load(
+                    HibCollectionItem.class, hibCollection.getId());
+        
+        getSession().save(new HibCollectionChange(hibCollection,
+                nextChangeSequence(getHibCollectionItem(collection)),
+                item.getUid(), removed));
+    }
+    
+    /**
+     * Allocate the next change sequence of a collection.  The sequence
+     * is incremented with SQL on the transaction's connection rather
+     * than through the collection, so that recording a change doesn't
+     * make the collection dirty and increment its version, which
+     * would make concurrent changes to the collection's children fail
+     * with optimistic locking errors.  The row lock taken by the
+     * increment orders concurrent writers of the same collection.
+     * @param collection collection that changed
+     * @return the new change sequence
+     */
+    protected long nextChangeSequence(HibCollectionItem collection) {
+        long sequence = -1;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            Connection conn = getSession().connection();
+            stmt = conn.prepareStatement(INCREMENT_CHANGE_SEQUENCE);
+            stmt.setLong(1, collection.getId().longValue());
+            if(stmt.executeUpdate()==1) {
+                stmt.close();
+                stmt = conn.prepareStatement(SELECT_CHANGE_SEQUENCE);
+                stmt.setLong(1, collection.getId().longValue());
+                rs = stmt.executeQuery();
+                if(rs.next())
+                    sequence = rs.getLong(1);
+            }
+        } catch (SQLException e) {
+            throw convertHibernateAccessException(new JDBCException(
+                    "unable to allocate change sequence", e));
+        } finally {
+            try {
+                if(rs!=null)
+                    rs.close();
+                if(stmt!=null)
+                    stmt.close();
+            } catch (SQLException e) {}
+        }
+        
+        // a collection whose insert hasn't been flushed isn't visible
+        // to anyone else yet, so its sequence is inserted with it
+        if(sequence==-1)
+            return collection.nextChangeSequence();
+        
+        collection.setChangeSequence(sequence);
+        return sequence;
+    }
+    
+    private void findChildrenByNameBatch(CollectionItem parent,
+            List<String> names, Set<Item> items) {
+        Query query = getSession().getNamedQuery("item.by.parent.names")
+                .setParameter("parent", parent)
+                .setParameterList("names", names);
+        query.setFlushMode(FlushMode.MANUAL);
+        for (Object result : query.list())
+            items.add((Item) result);
+    }
+    
+    private void findItemsByUidBatch(List<String> uids, Set<Item> items) {
+        Query query = getSession().getNamedQuery("item.by.uids")
+                .setParameterList("uids", uids);
+        query.setFlushMode(FlushMode.MANUAL);
+        for (Object result : query.list()) {
+            // Prevent proxied object from being returned
+            if (result instanceof HibernateProxy)
+                result = ((HibernateProxy) result).getHibernateLazyInitializer().getImplementation();
+            items.add((Item) result);
+        }
+    }
+    
+    /**
+     * Append an entry to the change log of each parent collection
+     * of an item.
+     * @param item item that was created, updated, added or removed
+     * @param removed true if the item was removed from its parents
+     */
+    protected void recordChange(Item item, boolean removed) {
+        for(CollectionItem parent: item.getParents())
+            recordChange(parent, item, removed);
     }
     
     protected void removeItemInternal(Item item) {
@@ -846,4 +1092,11 @@ public abstract class ItemDaoImpl extends HibernateDaoSupport implements ItemDao
         return (HibCollectionItem) item;
     }
     
+    private ItemMetadata toItemMetadata(List results) {
+        if (results.size() == 0)
+            return null;
+        Object[] row = (Object[]) results.get(0);
+        return new ItemMetadata((String) row[0], (String) row[1],
+                (Date) row[2], (Integer) row[3], (String) row[4]);
+    }
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao.hibernate;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.FlushMode;
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.osaf.cosmo.dao.TriageIndexDao;
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.NoteItem;
+import org.osaf.cosmo.model.TriageIndexEntry;
+import org.osaf.cosmo.model.hibernate.HibItem;
+import org.osaf.cosmo.model.hibernate.HibTriageIndexEntry;
+import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
+
+/**
+ * Implementation of TriageIndexDao using Hibernate persistence objects.
+ */
+public class TriageIndexDaoImpl extends HibernateDaoSupport implements TriageIndexDao {
+
+    public void updateEntries(NoteItem master, List<TriageIndexEntry> entries) {
+        try {
+            getSession().getNamedQuery("triageIndex.delete.by.masterUid")
+                .setParameter("masteruid", master.getUid()).executeUpdate();
+
+            for(CollectionItem parent: master.getParents()) {
+                Long collectionId = ((HibItem) parent).getId();
+                for(TriageIndexEntry entry: entries)
+                    getSession().save(convertToHibEntry(collectionId, entry));
+            }
+
+            getSession().flush();
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
+    public void removeEntries(String masterUid) {
+        try {
+            getSession().getNamedQuery("triageIndex.delete.by.masterUid")
+                .setParameter("masteruid", masterUid).executeUpdate();
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
+    public void removeEntries(CollectionItem collection) {
+        try {
+            getSession().getNamedQuery("triageIndex.delete.by.collection")
+                .setParameter("collectionid", ((HibItem) collection).getId())
+                .executeUpdate();
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
+    public List<TriageIndexEntry> findEntries(CollectionItem collection,
+                                              Integer triageCode,
+                                              Date pointInTime,
+                                              boolean includeFloating) {
+        try {
+            Query hibQuery = null;
+            if(triageCode==null)
+                hibQuery = getSession().getNamedQuery("triageIndex.by.collection");
+            else {
+                hibQuery = getSession().getNamedQuery(includeFloating ?
+                        "triageIndex.by.collection.code.withFloating" :
+                        "triageIndex.by.collection.code");
+                hibQuery.setParameter("code", triageCode);
+                hibQuery.setParameter("now", pointInTime);
+            }
+            hibQuery.setParameter("collectionid", ((HibItem) collection).getId());
+            hibQuery.setFlushMode(FlushMode.MANUAL);
+
+            List<HibTriageIndexEntry> results = hibQuery.list();
+            ArrayList<TriageIndexEntry> entries =
+                new ArrayList<TriageIndexEntry>(results.size());
+            for(HibTriageIndexEntry result: results)
+                entries.add(convertToEntry(result));
+
+            return entries;
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
+    public List<String> findExpiredMasterUids(Date pointInTime, int maxResults) {
+        try {
+            Query hibQuery = getSession().getNamedQuery("triageIndex.masterUid.expired");
+            hibQuery.setParameter("now", pointInTime);
+            hibQuery.setMaxResults(maxResults);
+            return hibQuery.list();
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
+    public List<String> findUnindexedMasterUids(int maxResults) {
+        try {
+            Query hibQuery = getSession().getNamedQuery("triageIndex.masterUid.unindexed");
+            hibQuery.setMaxResults(maxResults);
+            return hibQuery.list();
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
+    public void destroy() {
+
+    }
+
+    public void init() {
+
+    }
+
+    private HibTriageIndexEntry convertToHibEntry(Long collectionId,
+                                                  TriageIndexEntry entry) {
+        HibTriageIndexEntry hibEntry = new HibTriageIndexEntry();
+        hibEntry.setCollectionId(collectionId);
+        hibEntry.setMasterUid(entry.getMasterUid());
+        hibEntry.setItemUid(entry.getItemUid());
+        hibEntry.setRecurrenceId(entry.getRecurrenceId());
+        hibEntry.setTriageCode(entry.getTriageCode());
+        hibEntry.setRank(entry.getRank());
+        hibEntry.setEffectiveDate(entry.getEffectiveDate());
+        hibEntry.setFloating(entry.isFloating());
+        hibEntry.setValidFrom(entry.getValidFrom());
+        hibEntry.setValidUntil(entry.getValidUntil());
+        return hibEntry;
+    }
+
+    private TriageIndexEntry convertToEntry(HibTriageIndexEntry hibEntry) {
+        TriageIndexEntry entry = new TriageIndexEntry();
+        entry.setMasterUid(hibEntry.getMasterUid());
+        entry.setItemUid(hibEntry.getItemUid());
+        entry.setRecurrenceId(hibEntry.getRecurrenceId());
+        entry.setTriageCode(hibEntry.getTriageCode());
+        entry.setRank(hibEntry.getRank());
+        entry.setEffectiveDate(hibEntry.getEffectiveDate());
+        entry.setFloating(hibEntry.isFloating());
+        entry.setValidFrom(hibEntry.getValidFrom());
+        entry.setValidUntil(hibEntry.getValidUntil());
+        return entry;
+    }
+}
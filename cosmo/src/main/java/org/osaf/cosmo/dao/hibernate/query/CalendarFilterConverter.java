@@ -93,13 +93,45 @@ public class CalendarFilterConverter {
         
         ComponentFilter compFilter = (ComponentFilter) rootFilter.getComponentFilters().get(0);
         
+        // calendars without the component match is-not-defined
+        if (compFilter.getIsNotDefinedFilter()!=null)
+            return null;
+        
         // handle finding VTODO for now
         if (COMP_VTODO.equalsIgnoreCase(compFilter.getName()))
             return createFirstPassTaskFilter(calendar);
+        
+        if (COMP_VEVENT.equalsIgnoreCase(compFilter.getName()))
+            return createFirstPassEventFilter(calendar, compFilter);
 
         return null;
     }
     
+    /**
+     * Events that may match, narrowed down by the time-range index
+     * if the filter has a time-range.  Recurring events are not
+     * expanded, since their calendars are evaluated against the
+     * filter afterwards anyway.
+     */
+    private ItemFilter createFirstPassEventFilter(CollectionItem collection,
+            ComponentFilter compFilter) {
+        NoteItemFilter filter = new NoteItemFilter();
+        filter.setParent(collection);
+        EventStampFilter eventFilter = new EventStampFilter();
+        filter.getStampFilters().add(eventFilter);
+        
+        TimeRangeFilter trf = compFilter.getTimeRangeFilter();
+        if(trf!=null) {
+            eventFilter.setPeriod(trf.getPeriod());
+            if(trf.getTimezone()!=null)
+                eventFilter.setTimezone(new TimeZone(trf.getTimezone()));
+            filter.setFilterProperty(
+                    EventStampFilter.PROPERTY_DO_TIMERANGE_SECOND_PASS, "false");
+        }
+        
+        return filter;
+    }
+    
     private ItemFilter createFirstPassTaskFilter(CollectionItem collection) {
         NoteItemFilter filter = new NoteItemFilter();
         filter.setParent(collection);
@@ -15,27 +15,36 @@
  */
 package org.osaf.cosmo.dao.hibernate.query;
 
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
 
+import net.fortuna.ical4j.model.Date;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.TimeZone;
+
+import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.Query;
 import org.hibernate.Session;
-import org.osaf.cosmo.calendar.Instance;
-import org.osaf.cosmo.calendar.InstanceList;
+import org.osaf.cosmo.calendar.OccurrenceList;
 import org.osaf.cosmo.calendar.RecurrenceExpander;
 import org.osaf.cosmo.model.ContentItem;
 import org.osaf.cosmo.model.EventStamp;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ModificationUid;
 import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.NoteOccurrenceUtil;
+import org.osaf.cosmo.model.StampUtils;
 import org.osaf.cosmo.model.filter.AttributeFilter;
 import org.osaf.cosmo.model.filter.BetweenExpression;
 import org.osaf.cosmo.model.filter.ContentItemFilter;
@@ -51,8 +60,12 @@ import org.osaf.cosmo.model.filter.NoteItemFilter;
 import org.osaf.cosmo.model.filter.NullExpression;
 import org.osaf.cosmo.model.filter.StampFilter;
 import org.osaf.cosmo.model.filter.TextAttributeFilter;
+import org.osaf.cosmo.model.filter.TextSearchFilter;
 import org.osaf.cosmo.model.filter.FilterOrder.Order;
+import org.osaf.cosmo.model.hibernate.HibEventStamp;
 import org.osaf.cosmo.model.hibernate.HibNoteItem;
+import org.osaf.cosmo.search.FileSearchIndex;
+import org.osaf.cosmo.search.SearchIndex;
 
 /**
  * Standard Implementation of <code>ItemFilterProcessor</code>.
@@ -63,15 +76,111 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
     
     private static final Log log = LogFactory.getLog(StandardItemFilterProcessor.class);
     
+    // maximum number of stamp ids in a single instance index query
+    private static final int MAX_IN_LIST = 500;
+    
+    private SearchIndex searchIndex;
+    
     public StandardItemFilterProcessor() {}
     
     /* (non-Javadoc)
      * @see org.osaf.cosmo.dao.hibernate.query.ItemFilterProcessor#processFilter(org.hibernate.Session, org.osaf.cosmo.model.filter.ItemFilter)
      */
     public Set<Item> processFilter(Session session, ItemFilter filter) {
+        if(filter instanceof TextSearchFilter && searchIndex!=null
+                && searchIndex.isAvailable())
+            return processTextSearchFilter(session, (TextSearchFilter) filter);
+        
         Query hibQuery = buildQuery(session, filter);
         List<Item> queryResults = hibQuery.list();
-        return processResults(queryResults, filter);
+        return processResults(session, queryResults, filter);
+    }
+    
+    /**
+     * Search index used to answer <code>TextSearchFilter</code>s.  If
+     * not present, or not available, text searches are answered
+     * by querying the database.
+     * @param searchIndex search index
+     */
+    public void setSearchIndex(SearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+    
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+    
+    /**
+     * Use the search index to find candidate items, and load them
+     * along with the rest of the filter.  The index matches words,
+     * so items matched by a phrase are checked for the whole phrase.
+     * Candidates are loaded in batches, so the filter's ordering and
+     * maximum results are applied once all batches are loaded.
+     */
+    private Set<Item> processTextSearchFilter(Session session, TextSearchFilter filter) {
+        String parentUid = filter.getParent()!=null ? filter.getParent().getUid() : null;
+        ArrayList<String> uids = new ArrayList<String>(
+                searchIndex.search(filter.getTerms(), parentUid));
+        
+        ArrayList<Item> queryResults = new ArrayList<Item>();
+        for(int i=0; i<uids.size(); i+=MAX_IN_LIST) {
+            Query hibQuery = buildQuery(session, filter,
+                    uids.subList(i, Math.min(i + MAX_IN_LIST, uids.size())), false);
+            List<Item> page = hibQuery.list();
+            for(Item item: page)
+                if(matchesPhrases((NoteItem) item, filter.getTerms()))
+                    queryResults.add(item);
+        }
+        
+        if(uids.size()>MAX_IN_LIST && filter.getOrders().size()>0)
+            Collections.sort(queryResults, new FilterOrderComparator(filter.getOrders()));
+        
+        if(filter.getMaxResults()!=null && queryResults.size()>filter.getMaxResults())
+            queryResults = new ArrayList<Item>(queryResults.subList(0, filter.getMaxResults()));
+        
+        return processResults(session, queryResults, filter);
+    }
+    
+    /**
+     * Check the candidates of the search index against each term as
+     * the index does: every word of a term must start a word of the
+     * item's text, and a term of more than one word must also appear
+     * in the text as a phrase.  As with the index, an item matches if
+     * any of the terms match.
+     */
+    private boolean matchesPhrases(NoteItem note, List<String> terms) {
+        StringBuffer buf = new StringBuffer();
+        for(String part: FileSearchIndex.getText(note))
+            if(part!=null)
+                buf.append(part.toLowerCase()).append("\n");
+        String text = buf.toString();
+        List<String> textWords = FileSearchIndex.tokenize(text);
+        
+        for(String term: terms) {
+            List<String> words = FileSearchIndex.tokenize(term);
+            if(words.isEmpty())
+                continue;
+            if(!startsWords(textWords, words))
+                continue;
+            if(words.size()==1 || text.indexOf(term.toLowerCase())!=-1)
+                return true;
+        }
+        return false;
+    }
+    
+    private boolean startsWords(List<String> textWords, List<String> words) {
+        for(String word: words) {
+            boolean found = false;
+            for(String textWord: textWords) {
+                if(textWord.startsWith(word)) {
+                    found = true;
+                    break;
+                }
+            }
+            if(!found)
+                return false;
+        }
+        return true;
     }
     
     /**
@@ -87,6 +196,11 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
      * @return hibernate query built using HQL
      */
     public Query buildQuery(Session session, ItemFilter filter) {
+        return buildQuery(session, filter, null, true);
+    }
+    
+    private Query buildQuery(Session session, ItemFilter filter,
+            Collection<String> searchUids, boolean limitResults) {
         StringBuffer selectBuf = new StringBuffer();
         StringBuffer whereBuf = new StringBuffer();
         StringBuffer orderBuf = new StringBuffer();
@@ -100,6 +214,9 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
         else    
             handleItemFilter(selectBuf, whereBuf, params, filter);
         
+        if(filter instanceof TextSearchFilter)
+            handleTextSearchFilter(whereBuf, params, (TextSearchFilter) filter, searchUids);
+        
         selectBuf.append(whereBuf);
         
         for(FilterOrder fo: filter.getOrders()) {
@@ -122,10 +239,14 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
         
         Query hqlQuery = session.createQuery(selectBuf.toString());
         
-        for(Entry<String, Object> param: params.entrySet())
-            hqlQuery.setParameter(param.getKey(), param.getValue());
+        for(Entry<String, Object> param: params.entrySet()) {
+            if(param.getValue() instanceof Collection)
+                hqlQuery.setParameterList(param.getKey(), (Collection) param.getValue());
+            else
+                hqlQuery.setParameter(param.getKey(), param.getValue());
+        }
         
-        if(filter.getMaxResults()!=null)
+        if(limitResults && filter.getMaxResults()!=null)
             hqlQuery.setMaxResults(filter.getMaxResults());
         
         return hqlQuery;
@@ -236,17 +357,25 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
         
         // handle time range
         if(filter.getPeriod()!=null) {
-           whereBuf.append(" and ( ");
-           whereBuf.append("(es.timeRangeIndex.isFloating=true and es.timeRangeIndex.startDate < '" + filter.getFloatEnd() + "'");
-           whereBuf.append(" and es.timeRangeIndex.endDate > '" + filter.getFloatStart() + "')");
-           
-           whereBuf.append(" or (es.timeRangeIndex.isFloating=false and es.timeRangeIndex.startDate < '" + filter.getUTCEnd() + "'");
-           whereBuf.append(" and es.timeRangeIndex.endDate > '" + filter.getUTCStart() + "')");
+            // The UTC range of floating events is widened to cover
+            // all timezones, so a single range predicate narrows down
+            // both floating and non-floating events.
+            appendWhere(whereBuf, "es.timeRangeIndex.utcStart < :utcend and es.timeRangeIndex.utcEnd >= :utcstart");
+            
+            whereBuf.append(" and ( ");
+            whereBuf.append("(es.timeRangeIndex.isFloating=false and (es.timeRangeIndex.utcEnd > :utcstart or es.timeRangeIndex.utcStart=es.timeRangeIndex.utcEnd))");
            
-           // edge case where start==end
-           whereBuf.append(" or (es.timeRangeIndex.startDate=es.timeRangeIndex.endDate and (es.timeRangeIndex.startDate='" + filter.getFloatStart() + "' or es.timeRangeIndex.startDate='" + filter.getUTCStart() + "'))");
-                   
-           whereBuf.append(")");
+            // floating events are compared using local time, with
+            // edge case where start==end
+            whereBuf.append(" or (es.timeRangeIndex.isFloating=true and es.timeRangeIndex.floatStart < :floatend");
+            whereBuf.append(" and (es.timeRangeIndex.floatEnd > :floatstart or (es.timeRangeIndex.floatStart=es.timeRangeIndex.floatEnd and es.timeRangeIndex.floatStart=:floatstart)))");
+            
+            whereBuf.append(")");
+            
+            params.put("utcstart", new Long(filter.getUTCStartTime()));
+            params.put("utcend", new Long(filter.getUTCEndTime()));
+            params.put("floatstart", new Long(filter.getFloatStartTime()));
+            params.put("floatend", new Long(filter.getFloatEndTime()));
         }
     }
     
@@ -301,6 +430,38 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
         }
     }
     
+    /**
+     * Restrict to the given uids if the search index was used,
+     * otherwise match any term against the title and body.
+     */
+    private void handleTextSearchFilter(StringBuffer whereBuf,
+            HashMap<String, Object> params, TextSearchFilter filter,
+            Collection<String> searchUids) {
+        if(searchUids!=null) {
+            appendWhere(whereBuf, "i.uid in (:searchuids)");
+            params.put("searchuids", searchUids);
+            return;
+        }
+        
+        if(filter.getTerms().size()==0) {
+            appendWhere(whereBuf, "1=0");
+            return;
+        }
+        
+        StringBuffer termBuf = new StringBuffer("(");
+        params.put("searchqname", HibNoteItem.ATTR_NOTE_BODY);
+        for(String term: filter.getTerms()) {
+            String param = "param" + params.size();
+            if(termBuf.length()>1)
+                termBuf.append(" or ");
+            termBuf.append("lower(i.displayName) like :" + param);
+            termBuf.append(" or exists (select sta.id from HibTextAttribute sta where sta.item=i and sta.qname=:searchqname and lower(sta.value) like :" + param + ")");
+            params.put(param, formatForLike(term.toLowerCase()));
+        }
+        termBuf.append(")");
+        appendWhere(whereBuf, termBuf.toString());
+    }
+    
     private void handleContentItemFilter(StringBuffer selectBuf,
             StringBuffer whereBuf, StringBuffer orderBuf, HashMap<String, Object> params,
             ContentItemFilter filter) {
@@ -341,13 +502,16 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
      * This is required because we only index a start and end
      * for the entire recurrence series, and expansion is required to determine
      * if the event actually occurs, and to return individual occurences.
+     * Recurring events with materialized occurrences covering the time-range
+     * are resolved using the event instance index instead of expansion.
      */
-    private HashSet<Item> processResults(List<Item> results, ItemFilter itemFilter) {
+    private HashSet<Item> processResults(Session session, List<Item> results, ItemFilter itemFilter) {
         boolean hasTimeRangeFilter = false;
         boolean includeMasterInResults = true;
         boolean doTimeRangeSecondPass = true;
         
         HashSet<Item> processedResults = new HashSet<Item>();
+        ArrayList<NoteItem> masterNotes = new ArrayList<NoteItem>();
         EventStampFilter eventFilter = (EventStampFilter) itemFilter.getStampFilter(EventStampFilter.class);
         
         
@@ -390,14 +554,140 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
             else if(!hasTimeRangeFilter)
                 processedResults.add(note);
             else {
-                processedResults.addAll(processMasterNote(note, eventFilter,
-                        includeMasterInResults, doTimeRangeSecondPass));
+                masterNotes.add(note);
             }
         }
         
+        if(masterNotes.size()>0)
+            processedResults.addAll(processMasterNotes(session, masterNotes,
+                    eventFilter, includeMasterInResults, doTimeRangeSecondPass));
+        
         return processedResults;
     }
     
+    private Collection<ContentItem> processMasterNotes(Session session,
+            List<NoteItem> notes, EventStampFilter filter,
+            boolean includeMasterInResults, boolean doTimeRangeSecondPass) {
+        ArrayList<ContentItem> results = new ArrayList<ContentItem>();
+        ArrayList<NoteItem> indexedNotes = new ArrayList<NoteItem>();
+        
+        long rangeStart = filter.getPeriod().getStart().getTime();
+        long rangeEnd = filter.getPeriod().getEnd().getTime();
+        
+        // Use the instance index for recurring events that have
+        // their occurrences materialized for the time range, otherwise
+        // fall back to expanding the recurrence.
+        for(NoteItem note: notes) {
+            EventStamp eventStamp = (EventStamp) note.getStamp(EventStamp.class);
+            if(doTimeRangeSecondPass && eventStamp.isRecurring()
+                    && eventStamp instanceof HibEventStamp
+                    && ((HibEventStamp) eventStamp).getTimeRangeIndex()
+                            .hasInstancesFor(rangeStart, rangeEnd))
+                indexedNotes.add(note);
+            else
+                results.addAll(processMasterNote(note, filter,
+                        includeMasterInResults, doTimeRangeSecondPass));
+        }
+        
+        if(indexedNotes.size()==0)
+            return results;
+        
+        Map<Long, Set<String>> occurrences = findIndexedOccurrences(session,
+                indexedNotes, filter);
+        
+        for(NoteItem note: indexedNotes) {
+            HibEventStamp eventStamp = (HibEventStamp) note.getStamp(EventStamp.class);
+            Set<String> rids = occurrences.get(eventStamp.getId());
+            if(rids==null)
+                continue;
+            
+            // Overridden occurrences are matched by their modification
+            // items, which have their own time-range index
+            rids.removeAll(getModificationRecurrenceIds(note));
+            if(rids.size()==0)
+                continue;
+            
+            if(includeMasterInResults)
+                results.add(note);
+            
+            if(filter.isExpandRecurringEvents() == false)
+                continue;
+            
+            boolean isFloating = eventStamp.getTimeRangeIndex().getIsFloating().booleanValue();
+            for(String rid: rids)
+                results.add(NoteOccurrenceUtil.createNoteOccurrence(
+                        toRecurrenceId(rid, isFloating, filter.getTimezone()), note));
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Query the event instance index for occurrences of the given recurring
+     * notes that fall in the time-range of the filter.
+     * @return map of event stamp id to matching recurrence ids
+     */
+    private Map<Long, Set<String>> findIndexedOccurrences(Session session,
+            List<NoteItem> notes, EventStampFilter filter) {
+        HashMap<Long, Set<String>> occurrences = new HashMap<Long, Set<String>>();
+        
+        for(int i=0; i<notes.size(); i+=MAX_IN_LIST) {
+            ArrayList<Long> stampIds = new ArrayList<Long>();
+            for(NoteItem note: notes.subList(i, Math.min(i + MAX_IN_LIST, notes.size())))
+                stampIds.add(((HibEventStamp) note.getStamp(EventStamp.class)).getId());
+            
+            Query query = session.getNamedQuery("eventInstance.rid.by.stampIds.timeRange");
+            query.setParameterList("stampids", stampIds);
+            query.setParameter("floatstart", filter.getFloatStart());
+            query.setParameter("floatend", filter.getFloatEnd());
+            query.setParameter("utcstart", filter.getUTCStart());
+            query.setParameter("utcend", filter.getUTCEnd());
+            
+            List<Object[]> rows = query.list();
+            for(Object[] row: rows) {
+                Long stampId = (Long) row[0];
+                Set<String> rids = occurrences.get(stampId);
+                if(rids==null) {
+                    rids = new HashSet<String>();
+                    occurrences.put(stampId, rids);
+                }
+                rids.add((String) row[1]);
+            }
+        }
+        
+        return occurrences;
+    }
+    
+    private Set<String> getModificationRecurrenceIds(NoteItem note) {
+        HashSet<String> rids = new HashSet<String>();
+        for(NoteItem mod: note.getModifications()) {
+            String uid = mod.getUid();
+            int index = uid.lastIndexOf(ModificationUid.RECURRENCEID_DELIMITER);
+            if(index!=-1)
+                rids.add(uid.substring(index + 1));
+        }
+        return rids;
+    }
+    
+    /**
+     * Convert an indexed recurrence id to the same Date instance that
+     * <code>RecurrenceExpander</code> would have generated.  Floating
+     * recurrence ids are converted to UTC when a timezone is present.
+     */
+    private Date toRecurrenceId(String rid, boolean isFloating, TimeZone timezone) {
+        try {
+            Date date = ModificationUid.fromStringToDate(rid);
+            if(isFloating && timezone!=null && date instanceof DateTime) {
+                DateTime dt = new DateTime(rid, timezone);
+                dt.setUtc(true);
+                return dt;
+            }
+            return date;
+        } catch (ParseException e) {
+            throw new RuntimeException("invalid recurrence id in instance index: " + rid, e);
+        }
+    }
+    
     private Collection<ContentItem> processMasterNote(NoteItem note,
             EventStampFilter filter, boolean includeMasterInResults,
             boolean doTimeRangeSecondPass) {
@@ -414,9 +704,10 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
         // Otherwise, expand the recurring item to determine if it actually
         // occurs in the time range specified
         RecurrenceExpander expander = new RecurrenceExpander();
-        InstanceList instances = expander.getOcurrences(eventStamp.getEvent(),
-                eventStamp.getExceptions(), filter.getPeriod().getStart(),
-                filter.getPeriod().getEnd(), filter.getTimezone());
+        OccurrenceList instances = expander.getOccurrenceList(note.getUid(),
+                StampUtils.getEventRevision(eventStamp), eventStamp.getEvent(), eventStamp.getExceptions(),
+                filter.getPeriod().getStart(), filter.getPeriod().getEnd(),
+                filter.getTimezone());
 
         // If recurring event occurs in range, add master unless the filter
         // is configured to not return the master
@@ -428,14 +719,12 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
             return results;
         
         // Otherwise, add an occurence item for each occurrence
-        for (Iterator<Entry<String, Instance>> it = instances.entrySet()
-                .iterator(); it.hasNext();) {
-            Entry<String, Instance> entry = it.next();
+        for (int i = 0; i < instances.size(); i++) {
 
             // Ignore overrides as they are separate items that should have
             // already been added
-            if (entry.getValue().isOverridden() == false) {
-                results.add(NoteOccurrenceUtil.createNoteOccurrence(entry.getValue().getRid(), note));
+            if (instances.isOverridden(i) == false) {
+                results.add(NoteOccurrenceUtil.createNoteOccurrence(instances.getRecurrenceId(i), note));
             }
         }
 
@@ -503,5 +792,46 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
         
         appendWhere(whereBuf, expBuf.toString());
     }
-
+    
+    /**
+     * Orders items by the properties of <code>FilterOrder</code>s, as
+     * the query would, with null values after all others.
+     */
+    private static class FilterOrderComparator implements Comparator<Item> {
+        
+        private List<FilterOrder> orders;
+        
+        FilterOrderComparator(List<FilterOrder> orders) {
+            this.orders = orders;
+        }
+        
+        public int compare(Item item1, Item item2) {
+            for(FilterOrder fo: orders) {
+                int result = compareValues(getValue(item1, fo.getName()),
+                        getValue(item2, fo.getName()));
+                if(fo.getOrder().equals(Order.DESC))
+                    result = -result;
+                if(result!=0)
+                    return result;
+            }
+            return 0;
+        }
+        
+        private int compareValues(Comparable value1, Comparable value2) {
+            if(value1==null)
+                return value2==null ? 0 : 1;
+            if(value2==null)
+                return -1;
+            return value1.compareTo(value2);
+        }
+        
+        private Comparable getValue(Item item, String name) {
+            try {
+                return (Comparable) PropertyUtils.getNestedProperty(item, name);
+            } catch (Exception e) {
+                // a null nested property orders as null
+                return null;
+            }
+        }
+    }
 }
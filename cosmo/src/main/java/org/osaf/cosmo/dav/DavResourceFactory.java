@@ -18,6 +18,7 @@ package org.osaf.cosmo.dav;
 import org.osaf.cosmo.calendar.query.CalendarQueryProcessor;
 import org.osaf.cosmo.icalendar.ICalendarClientFilterManager;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemMetadata;
 import org.osaf.cosmo.security.CosmoSecurityManager;
 import org.osaf.cosmo.service.ContentService;
 import org.osaf.cosmo.service.UserService;
@@ -58,6 +59,22 @@ public interface DavResourceFactory {
     public DavResource resolve(DavResourceLocator locator)
         throws DavException;
 
+    /**
+     * <p>
+     * Finds the entity tag and modification date of the item identified
+     * by a {@link DavResourceLocator} without resolving the resource,
+     * so that conditional requests can be evaluated cheaply.
+     * </p>
+     * <p>
+     * Returns <code>null</code> if the locator does not identify an
+     * item by uid or by path below a home collection, if the item does
+     * not exist, or if access to it can not be decided without loading
+     * it.
+     * </p>
+     */
+    public ItemMetadata resolveMetadata(DavResourceLocator locator)
+        throws DavException;
+
     /**
      * <p>
      * Instantiates a <code>DavResource</code> representing the
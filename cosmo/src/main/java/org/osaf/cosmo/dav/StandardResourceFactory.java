@@ -40,6 +40,7 @@ import org.osaf.cosmo.model.FileItem;
 import org.osaf.cosmo.model.FreeBusyItem;
 import org.osaf.cosmo.model.HomeCollectionItem;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemMetadata;
 import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.User;
 import org.osaf.cosmo.security.CosmoSecurityManager;
@@ -183,6 +184,43 @@ public class StandardResourceFactory
         return createUnknownResource(locator, uri);
     }
 
+    /**
+     * <p>
+     * Finds the metadata of the item identified by a
+     * {@link DavResourceLocator} matching {@link #TEMPLATE_COLLECTION},
+     * {@link #TEMPLATE_ITEM} or {@link #TEMPLATE_HOME}. User principals
+     * and scheduling collections are not backed by an item and always
+     * return <code>null</code>.
+     * </p>
+     */
+    public ItemMetadata resolveMetadata(DavResourceLocator locator)
+        throws DavException {
+        String uri = locator.getPath();
+
+        UriTemplate.Match match = TEMPLATE_COLLECTION.match(uri);
+        if (match == null)
+            match = TEMPLATE_ITEM.match(uri);
+        if (match != null) {
+            String uid = match.get("uid");
+            String path = match.get("*");
+            return path != null ?
+                contentService.findItemMetadataByPath(path, uid) :
+                contentService.findItemMetadataByUid(uid);
+        }
+
+        if (TEMPLATE_USERS.match(uri) != null ||
+            TEMPLATE_USER.match(uri) != null)
+            return null;
+        if (schedulingEnabled &&
+            (TEMPLATE_USER_INBOX.match(uri) != null ||
+             TEMPLATE_USER_OUTBOX.match(uri) != null))
+            return null;
+
+        // same lookup as createUnknownResource()
+        return TEMPLATE_HOME.match(uri) != null ?
+            contentService.findItemMetadataByPath(uri) : null;
+    }
+
     /**
      * <p>
      * Instantiates a <code>DavResource</code> representing the
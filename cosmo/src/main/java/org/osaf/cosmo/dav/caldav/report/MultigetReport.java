@@ -21,6 +21,7 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -39,6 +40,8 @@ import org.osaf.cosmo.dav.DavContent;
 import org.osaf.cosmo.dav.DavResource;
 import org.osaf.cosmo.dav.UnprocessableEntityException;
 import org.osaf.cosmo.dav.impl.DavCalendarResource;
+import org.osaf.cosmo.dav.impl.DavCollectionBase;
+import org.osaf.cosmo.model.ItemSecurityException;
 
 import org.w3c.dom.Element;
 
@@ -138,10 +141,34 @@ public class MultigetReport extends CaldavMultiStatusReport {
         throws DavException {
         DavPropertyNameSet propspec = createResultPropSpec();
 
+        if (getResource() instanceof DavCollectionBase) {
+            // resolve all hrefs together rather than one query per href
+            HashSet<String> forbidden = new HashSet<String>();
+            Map<String, DavResource> targets =
+                ((DavCollectionBase) getResource()).findMembers(hrefs,
+                                                                forbidden);
+            for (String href : hrefs) {
+                DavResource target = targets.get(href);
+                if (target != null)
+                    getMultiStatus().addResponse(buildMultiStatusResponse(target, propspec));
+                else if (forbidden.contains(href))
+                    getMultiStatus().addResponse(new MultiStatusResponse(href,403));
+                else
+                    getMultiStatus().addResponse(new MultiStatusResponse(href,404));
+            }
+            return;
+        }
+
         if (getResource() instanceof DavCollection) {
             DavCollection collection = (DavCollection) getResource();
             for (String href : hrefs) {
-                DavResource target = collection.findMember(href);
+                DavResource target = null;
+                try {
+                    target = collection.findMember(href);
+                } catch (ItemSecurityException e) {
+                    getMultiStatus().addResponse(new MultiStatusResponse(href,403));
+                    continue;
+                }
                 if (target != null)
                     getMultiStatus().addResponse(buildMultiStatusResponse(target, propspec));
                 else
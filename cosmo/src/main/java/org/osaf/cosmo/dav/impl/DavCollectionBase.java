@@ -19,7 +19,14 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import javax.xml.namespace.QName;
@@ -57,7 +64,9 @@ import org.osaf.cosmo.model.CollectionLockedException;
 import org.osaf.cosmo.model.ContentItem;
 import org.osaf.cosmo.model.EntityFactory;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemSecurityException;
 import org.osaf.cosmo.model.User;
+import org.osaf.cosmo.util.PathUtil;
 import org.osaf.cosmo.xml.DomWriter;
 import org.w3c.dom.Element;
 
@@ -153,6 +162,18 @@ public class DavCollectionBase extends DavItemResourceBase
         }
     }
 
+    /**
+     * Returns an iterator over the members of this collection that
+     * loads the member items a page at a time.  Once the iterator has
+     * moved past a page, the page's items are evicted, so the members
+     * of a large collection are never held in memory at once.  A
+     * member resource must not be used after the iterator has moved
+     * on to the next page.
+     */
+    public Iterator<DavResource> getPagedMembers(int pageSize) {
+        return new PagedMemberIterator(pageSize);
+    }
+
     public void removeMember(org.apache.jackrabbit.webdav.DavResource member)
         throws org.apache.jackrabbit.webdav.DavException {
         if (log.isDebugEnabled())
@@ -210,6 +231,104 @@ public class DavCollectionBase extends DavItemResourceBase
         return memberToResource(href);
     }
 
+    /**
+     * Returns the member resources at the given absolute hrefs,
+     * indexed by href.  Hrefs that identify immediate children of
+     * this collection are resolved with a single lookup of the
+     * children by name; any other hrefs are resolved one at a time.
+     * Hrefs that do not identify a resource are not included, and
+     * hrefs of resources the current principal may not read are
+     * added to <code>forbidden</code> instead.
+     */
+    public Map<String, DavResource> findMembers(Collection<String> hrefs,
+                                                Set<String> forbidden)
+        throws DavException {
+        HashMap<String, DavResource> found = new HashMap<String, DavResource>();
+        // immediate children by path; differently escaped hrefs may
+        // identify the same child
+        HashMap<String, DavResourceLocator> children =
+            new HashMap<String, DavResourceLocator>();
+        HashMap<String, List<String>> childHrefs =
+            new HashMap<String, List<String>>();
+
+        for (String href : hrefs) {
+            DavResourceLocator locator = getResourceLocator().getFactory().
+                createResourceLocatorByUri(getResourceLocator().getContext(),
+                                           href);
+            String path = locator.getPath();
+            if (getResourcePath().equals(PathUtil.getParentPath(path))) {
+                List<String> pathHrefs = childHrefs.get(path);
+                if (pathHrefs == null) {
+                    pathHrefs = new ArrayList<String>();
+                    childHrefs.put(path, pathHrefs);
+                    children.put(path, locator);
+                }
+                pathHrefs.add(href);
+            } else {
+                findMember(href, found, forbidden);
+            }
+        }
+
+        if (children.isEmpty())
+            return found;
+
+        HashSet<String> names = new HashSet<String>();
+        for (String path : children.keySet())
+            names.add(PathUtil.getBasename(path));
+
+        Set<Item> items = null;
+        try {
+            items = getContentService().
+                findChildrenByNames((CollectionItem) getItem(), names);
+        } catch (ItemSecurityException e) {
+            // some child may not be read, so find out which
+            if (log.isDebugEnabled())
+                log.debug("resolving members of " + getResourcePath() +
+                          " one at a time: " + e.getMessage());
+            for (List<String> pathHrefs : childHrefs.values()) {
+                for (String href : pathHrefs)
+                    findMember(href, found, forbidden);
+            }
+            return found;
+        }
+
+        for (Item child : items) {
+            String path = getResourcePath() + "/" + child.getName();
+            List<String> pathHrefs = childHrefs.remove(path);
+            if (pathHrefs == null)
+                continue;
+            DavResource resource = getResourceFactory().
+                createResource(children.get(path), child);
+            if (resource != null) {
+                for (String href : pathHrefs)
+                    found.put(href, resource);
+            }
+        }
+
+        // the home collection has members that are not items
+        if (isHomeCollection()) {
+            for (List<String> pathHrefs : childHrefs.values()) {
+                for (String href : pathHrefs)
+                    findMember(href, found, forbidden);
+            }
+        }
+
+        return found;
+    }
+
+    private void findMember(String href,
+                            Map<String, DavResource> found,
+                            Set<String> forbidden)
+        throws DavException {
+        try {
+            DavResource resource = memberToResource(href);
+            if (resource != null)
+                found.put(href, resource);
+        } catch (ItemSecurityException e) {
+            forbidden.add(href);
+        }
+    }
+
     // DavItemCollection
 
     public boolean isCalendarCollection() {
@@ -349,6 +468,65 @@ public class DavCollectionBase extends DavItemResourceBase
         return getResourceFactory().resolve(locator);
     }
 
+    private class PagedMemberIterator implements Iterator<DavResource> {
+        private int pageSize;
+        private List<Item> page = null;
+        private String lastUid = null;
+        private boolean lastPage = false;
+        private LinkedList<DavResource> resources =
+            new LinkedList<DavResource>();
+
+        public PagedMemberIterator(int pageSize) {
+            this.pageSize = pageSize;
+        }
+
+        public boolean hasNext() {
+            while (resources.isEmpty() && ! lastPage)
+                loadNextPage();
+            if (resources.isEmpty())
+                evictPage();
+            return ! resources.isEmpty();
+        }
+
+        public DavResource next() {
+            if (! hasNext())
+                throw new NoSuchElementException();
+            return resources.removeFirst();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void evictPage() {
+            if (page != null && ! page.isEmpty())
+                getContentService().evictItems(page);
+            page = null;
+        }
+
+        private void loadNextPage() {
+            evictPage();
+
+            page = getContentService().
+                loadMembers((CollectionItem) getItem(), lastUid, pageSize);
+            if (page.size() < pageSize)
+                lastPage = true;
+            if (page.isEmpty())
+                return;
+            lastUid = page.get(page.size() - 1).getUid();
+
+            try {
+                for (Item memberItem : page) {
+                    DavResource resource = memberToResource(memberItem);
+                    if (resource != null)
+                        resources.add(resource);
+                }
+            } catch (DavException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     private void writeHtmlDirectoryIndex(OutputContext context)
         throws DavException, IOException {
         if (log.isDebugEnabled())
@@ -15,8 +15,13 @@
  */
 package org.osaf.cosmo.dav.impl;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -36,6 +41,7 @@ import org.osaf.cosmo.dav.property.ContentLanguage;
 import org.osaf.cosmo.dav.property.ContentLength;
 import org.osaf.cosmo.dav.property.ContentType;
 import org.osaf.cosmo.dav.property.DavProperty;
+import org.osaf.cosmo.http.ByteRange;
 import org.osaf.cosmo.model.DataSizeException;
 import org.osaf.cosmo.model.EntityFactory;
 import org.osaf.cosmo.model.FileItem;
@@ -85,6 +91,19 @@ public class DavFile extends DavContentBase {
 
     public void writeTo(OutputContext outputContext)
         throws DavException, IOException {
+        writeTo(outputContext, null);
+    }
+
+    /**
+     * Writes the content of the file, or only a range of it.
+     * Content that is stored in a file is sent by the file channel.
+     *
+     * @param outputContext the context to write to
+     * @param range the range to write, or null for all content
+     */
+    public void writeTo(OutputContext outputContext,
+                        ByteRange range)
+        throws DavException, IOException {
         if (! exists())
             throw new IllegalStateException("cannot spool a nonexistent resource");
 
@@ -103,19 +122,68 @@ public class DavFile extends DavContentBase {
 
         long len = content.getContentLength() != null ?
             content.getContentLength().longValue() : 0;
+        long first = 0;
+        if (range != null) {
+            first = range.getFirst();
+            len = range.getLength();
+        }
         outputContext.setContentLength(len);
         outputContext.setModificationTime(getModificationTime());
         outputContext.setETag(getETag());
 
         if (! outputContext.hasStream())
             return;
-        if (content.getContentInputStream() == null)
+        InputStream in = content.getContentInputStream();
+        if (in == null)
             return;
 
-        IOUtil.spool(content.getContentInputStream(),
-                     outputContext.getOutputStream());
+        try {
+            if (in instanceof FileInputStream) {
+                FileChannel channel = ((FileInputStream) in).getChannel();
+                transfer(channel, first,
+                         range != null ? len : channel.size(),
+                         Channels.newChannel(outputContext.getOutputStream()));
+            } else if (range == null) {
+                IOUtil.spool(in, outputContext.getOutputStream());
+            } else {
+                copy(in, first, len, outputContext.getOutputStream());
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void transfer(FileChannel channel,
+                          long position,
+                          long count,
+                          WritableByteChannel out)
+        throws IOException {
+        long end = Math.min(position + count, channel.size());
+        while (position < end)
+            position += channel.transferTo(position, end - position, out);
     }
 
+    private void copy(InputStream in,
+                      long position,
+                      long count,
+                      OutputStream out)
+        throws IOException {
+        while (position > 0) {
+            long skipped = in.skip(position);
+            if (skipped <= 0)
+                return;
+            position -= skipped;
+        }
+
+        byte[] buf = new byte[8192];
+        while (count > 0) {
+            int read = in.read(buf, 0, (int) Math.min(buf.length, count));
+            if (read < 0)
+                return;
+            out.write(buf, 0, read);
+            count -= read;
+        }
+    }
     
     /** */
     protected void populateItem(InputContext inputContext)
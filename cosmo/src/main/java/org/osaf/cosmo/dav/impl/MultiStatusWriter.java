@@ -0,0 +1,115 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dav.impl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.MultiStatusResponse;
+import org.w3c.dom.Document;
+
+/**
+ * Writes a <code>DAV:multistatus</code> response one
+ * <code>DAV:response</code> element at a time, so that the responses
+ * for the members of a large collection never have to be held in
+ * memory at once.
+ * <p>
+ * The status and content type are set when the writer is created.
+ * An error that occurs after the first response has been written can
+ * not be reported to the client and only aborts the response.
+ */
+public class MultiStatusWriter implements DavConstants {
+    private static final DocumentBuilderFactory BUILDER_FACTORY =
+        DocumentBuilderFactory.newInstance();
+    private static final TransformerFactory TRANSFORMER_FACTORY =
+        TransformerFactory.newInstance();
+
+    static {
+        BUILDER_FACTORY.setNamespaceAware(true);
+    }
+
+    private Writer out;
+    private Document document;
+    private Transformer transformer;
+    private int count = 0;
+
+    public MultiStatusWriter(HttpServletResponse response)
+        throws IOException {
+        try {
+            document = BUILDER_FACTORY.newDocumentBuilder().newDocument();
+            transformer = TRANSFORMER_FACTORY.newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION,
+                                          "yes");
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to create XML serializer", e);
+        }
+
+        response.setStatus(207);
+        response.setContentType("text/xml; charset=UTF-8");
+        out = new BufferedWriter(
+                new OutputStreamWriter(response.getOutputStream(), "UTF-8"));
+
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        out.write("<" + NAMESPACE.getPrefix() + ":" + XML_MULTISTATUS +
+                  " xmlns:" + NAMESPACE.getPrefix() + "=\"" +
+                  NAMESPACE.getURI() + "\">");
+    }
+
+    /**
+     * Writes a single response.  Nothing refers to the response or
+     * its resource once it has been written.
+     */
+    public void write(MultiStatusResponse response)
+        throws IOException {
+        try {
+            transformer.transform(new DOMSource(response.toXml(document)),
+                                  new StreamResult(out));
+        } catch (Exception e) {
+            IOException ioe = new IOException("Unable to write response");
+            ioe.initCause(e);
+            throw ioe;
+        }
+        count++;
+    }
+
+    /**
+     * Ends the multistatus element and flushes the response.
+     */
+    public void close()
+        throws IOException {
+        out.write("</" + NAMESPACE.getPrefix() + ":" + XML_MULTISTATUS + ">");
+        out.flush();
+    }
+
+    /**
+     * @return number of responses written
+     */
+    public int getCount() {
+        return count;
+    }
+}
@@ -18,6 +18,7 @@ package org.osaf.cosmo.dav.provider;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Iterator;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -54,10 +55,12 @@ import org.osaf.cosmo.dav.acl.UserAclEvaluator;
 import org.osaf.cosmo.dav.acl.resource.DavUserPrincipal;
 import org.osaf.cosmo.dav.acl.resource.DavUserPrincipalCollection;
 import org.osaf.cosmo.dav.caldav.report.FreeBusyReport;
+import org.osaf.cosmo.dav.impl.DavCollectionBase;
 import org.osaf.cosmo.dav.impl.DavFile;
 import org.osaf.cosmo.dav.impl.DavItemResource;
 import org.osaf.cosmo.dav.impl.DavInboxCollection;
 import org.osaf.cosmo.dav.impl.DavOutboxCollection;
+import org.osaf.cosmo.dav.impl.MultiStatusWriter;
 import org.osaf.cosmo.dav.io.DavInputContext;
 import org.osaf.cosmo.dav.ticket.TicketConstants;
 import org.osaf.cosmo.model.EntityFactory;
@@ -77,6 +80,10 @@ public abstract class BaseProvider
     implements DavProvider, DavConstants, AclConstants, TicketConstants {
     private static final Log log = LogFactory.getLog(BaseProvider.class);
 
+    // number of collection members loaded at a time by a streamed
+    // PROPFIND
+    private static final int MEMBER_PAGE_SIZE = 100;
+
     private DavResourceFactory resourceFactory;
     private EntityFactory entityFactory;
 
@@ -131,6 +138,12 @@ public abstract class BaseProvider
         // check must be done manually here.
         checkPropFindAccess(resource, props, type);
 
+        if (depth == DEPTH_1 && isPageable(resource)) {
+            streamMembers(response, (DavCollectionBase) resource, props,
+                          type);
+            return;
+        }
+
         MultiStatus ms = new MultiStatus();
         ms.addResourceProperties(resource, props, type, depth);
 
@@ -585,4 +598,39 @@ public abstract class BaseProvider
         return FreeBusyReport.REPORT_TYPE_CALDAV_FREEBUSY.
             isRequestedReportType(info);
     }
+
+    /**
+     * <p>
+     * Writes a <code>Depth: 1</code> <code>PROPFIND</code> response for
+     * a collection one member at a time. Members are loaded a page at
+     * a time and each response is written as soon as it has been
+     * produced, so neither the member items nor the responses for a
+     * large collection are held in memory at once.
+     * </p>
+     */
+    protected void streamMembers(DavResponse response,
+                                 DavCollectionBase collection,
+                                 DavPropertyNameSet props,
+                                 int type)
+        throws IOException {
+        MultiStatusWriter writer = new MultiStatusWriter(response);
+        writer.write(new MultiStatusResponse(collection, props, type));
+        for (Iterator<DavResource> i=collection.getPagedMembers(MEMBER_PAGE_SIZE);
+             i.hasNext();)
+            writer.write(new MultiStatusResponse(i.next(), props, type));
+        writer.close();
+
+        if (log.isDebugEnabled())
+            log.debug("streamed " + writer.getCount() + " responses for " +
+                      collection.getResourcePath());
+    }
+
+    /**
+     * Collections whose members are all items can be streamed. The
+     * home collection also has members that are not items.
+     */
+    private boolean isPageable(DavResource resource) {
+        return resource instanceof DavCollectionBase &&
+            ! ((DavCollectionBase) resource).isHomeCollection();
+    }
 }
@@ -25,17 +25,25 @@ import org.osaf.cosmo.dav.DavCollection;
 import org.osaf.cosmo.dav.DavContent;
 import org.osaf.cosmo.dav.DavException;
 import org.osaf.cosmo.dav.DavRequest;
+import org.osaf.cosmo.dav.DavResource;
 import org.osaf.cosmo.dav.DavResourceFactory;
 import org.osaf.cosmo.dav.DavResponse;
 import org.osaf.cosmo.dav.MethodNotAllowedException;
+import org.osaf.cosmo.dav.NotFoundException;
 import org.osaf.cosmo.dav.impl.DavFile;
+import org.osaf.cosmo.http.ByteRange;
 import org.osaf.cosmo.model.EntityFactory;
+import org.osaf.cosmo.model.FileItem;
 
 /**
  * <p>
  * An implementation of <code>DavProvider</code> that implements
  * access to <code>DavFile</code> resources.
  * </p>
+ * <p>
+ * A GET may ask for a single range of a file's content with the
+ * <code>Range</code> header.
+ * </p>
  *
  * @see DavProvider
  * @see DavFile
@@ -50,6 +58,45 @@ public class FileProvider extends BaseProvider {
 
     // DavProvider methods
 
+    public void get(DavRequest request,
+                    DavResponse response,
+                    DavResource resource)
+        throws DavException, IOException {
+        if (! resource.exists())
+            throw new NotFoundException();
+        response.setHeader("Accept-Ranges", "bytes");
+
+        ByteRange range = getRange(request, resource);
+        if (range == null) {
+            super.get(request, response, resource);
+            return;
+        }
+
+        checkNoRequestBody(request);
+        response.setHeader("Content-Range", range.getContentRange());
+        if (! range.isSatisfiable()) {
+            response.setStatus(416);
+            return;
+        }
+
+        if (log.isDebugEnabled())
+            log.debug("spooling " + range.getContentRange() + " of " +
+                      resource.getResourcePath());
+
+        response.setStatus(206);
+        ((DavFile) resource).writeTo(createOutputContext(response, true),
+                                     range);
+        response.flushBuffer();
+    }
+
+    public void head(DavRequest request,
+                     DavResponse response,
+                     DavResource resource)
+        throws DavException, IOException {
+        response.setHeader("Accept-Ranges", "bytes");
+        super.head(request, response, resource);
+    }
+
     public void put(DavRequest request,
                     DavResponse response,
                     DavContent content)
@@ -76,4 +123,30 @@ public class FileProvider extends BaseProvider {
         throws DavException, IOException {
         throw new MethodNotAllowedException("MKCALENDAR not allowed for a file");
     }
+
+    // our methods
+
+    /**
+     * Returns the range of the file's content requested by the
+     * <code>Range</code> header, or null if the whole content should
+     * be sent.  A range is ignored if the <code>If-Range</code>
+     * header doesn't match the file's entity tag.
+     */
+    protected ByteRange getRange(DavRequest request,
+                                 DavResource resource) {
+        if (! (resource instanceof DavFile))
+            return null;
+        String header = request.getHeader("Range");
+        if (header == null)
+            return null;
+
+        DavFile file = (DavFile) resource;
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null && ! ifRange.equals(file.getETag()))
+            return null;
+
+        Long length = ((FileItem) file.getItem()).getContentLength();
+        return ByteRange.parse(header,
+                               length != null ? length.longValue() : 0);
+    }
 }
@@ -17,6 +17,7 @@ package org.osaf.cosmo.dav.provider;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.DateTime;
@@ -103,6 +104,12 @@ public class OutboxCollectionProvider extends CollectionProvider {
     		DateTime periodEnd = (DateTime)freebusy.getEndDate().getDate();
     		Period period = new Period(periodStrart, periodEnd);
     		
+    		// the free-busy of all attendees is computed at once; the
+    		// responses keep the order of the attendees
+    		ArrayList<ScheduleResponse> responses = new ArrayList<ScheduleResponse>();
+    		ArrayList<Attendee> attendees = new ArrayList<Attendee>();
+    		ArrayList<User> users = new ArrayList<User>();
+    		
     		User user = null;
     		for (Attendee attendee : (ArrayList<Attendee>)freebusy.getProperties(Property.ATTENDEE)) {
     			// since we might have multiple responses for one user lets create a flag here
@@ -112,7 +119,7 @@ public class OutboxCollectionProvider extends CollectionProvider {
 				} catch (Exception e) {
 	    			ScheduleResponse resp = new ScheduleResponse(attendee.getCalAddress().toString());
 					resp.setStatus(RequestStatus.CLIENT_ERROR);
-					ms.addResponse(resp);
+					responses.add(resp);
 					continue;
 				}
 				
@@ -121,7 +128,7 @@ public class OutboxCollectionProvider extends CollectionProvider {
 				if(user==null) {
 				    ScheduleResponse resp = new ScheduleResponse(attendee.getCalAddress().toString());
                     resp.setStatus( "3.7;Invalid Calendar User");
-                    ms.addResponse(resp);
+                    responses.add(resp);
                     continue;
 				}
 				
@@ -135,15 +142,27 @@ public class OutboxCollectionProvider extends CollectionProvider {
 				123	   component that is to be ignored when calculating free-busy time.
 				124
 				*/								
-				VFreeBusy vfb = getResourceFactory().getCalendarQueryProcessor().freeBusyQuery(user, period);
-				vfb.getProperties().add(attendee);
-				vfb.getProperties().add(freebusy.getOrganizer());
-				Calendar cal = ICalendarUtils.createBaseCalendar(vfb);
-				cal.getProperties().add(Method.REPLY);
-    			ScheduleResponse resp = new ScheduleResponse(attendee.getCalAddress().toString());
-				resp.setCalendarData(cal.toString());
-				ms.addResponse(resp);
+				responses.add(null);
+				attendees.add(attendee);
+				users.add(user);
     		}
+    		
+			List<VFreeBusy> vfbs = users.isEmpty() ? new ArrayList<VFreeBusy>() :
+				getResourceFactory().getCalendarQueryProcessor().freeBusyQuery(users, period);
+			int next = 0;
+			for (ScheduleResponse resp : responses) {
+				if (resp == null) {
+					Attendee attendee = attendees.get(next);
+					VFreeBusy vfb = vfbs.get(next++);
+					vfb.getProperties().add(attendee);
+					vfb.getProperties().add(freebusy.getOrganizer());
+					Calendar cal = ICalendarUtils.createBaseCalendar(vfb);
+					cal.getProperties().add(Method.REPLY);
+					resp = new ScheduleResponse(attendee.getCalAddress().toString());
+					resp.setCalendarData(cal.toString());
+				}
+				ms.addResponse(resp);
+			}
     	}
     }
 }
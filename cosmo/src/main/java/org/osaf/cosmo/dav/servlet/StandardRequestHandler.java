@@ -16,6 +16,7 @@
 package org.osaf.cosmo.dav.servlet;
 
 import java.io.IOException;
+import java.util.Date;
 import java.util.Enumeration;
 
 import javax.servlet.ServletException;
@@ -23,6 +24,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.abdera.util.EntityTag;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.osaf.cosmo.dav.DavCollection;
@@ -57,6 +59,7 @@ import org.osaf.cosmo.dav.provider.OutboxCollectionProvider;
 import org.osaf.cosmo.dav.provider.UserPrincipalCollectionProvider;
 import org.osaf.cosmo.dav.provider.UserPrincipalProvider;
 import org.osaf.cosmo.model.EntityFactory;
+import org.osaf.cosmo.model.ItemMetadata;
 import org.osaf.cosmo.model.ItemSecurityException;
 import org.osaf.cosmo.security.CosmoSecurityException;
 import org.osaf.cosmo.security.Permission;
@@ -87,6 +90,8 @@ public class StandardRequestHandler
     /**
      * <p>
      * Processes the request and returns a response. Calls
+     * {@link #metadataPreconditions(DavRequest, DavResponse)} to answer
+     * conditional requests for unchanged resources early. Calls
      * {@link DavResourceFactory.createResource(DavResourceLocator, DavRequest, DavResponse)}
      * to find the targeted resource. Calls {@link #preconditions(DavRequest, DavResponse, DavResource)}
      * to verify preconditions. Calls {@link #process(DavRequest, DavResponse, DavResource)}
@@ -109,6 +114,7 @@ public class StandardRequestHandler
             wreq = createDavRequest(request);
             wres = createDavResponse(response);
 
+            metadataPreconditions(wreq, wres);
             DavResource resource = resolveTarget(wreq);
             preconditions(wreq, wres, resource);
             process(wreq, wres, resource);
@@ -177,10 +183,53 @@ public class StandardRequestHandler
                                  DavResponse response,
                                  DavResource resource)
         throws DavException, IOException {
-        ifMatch(request, response, resource);
-        ifNoneMatch(request, response, resource);
-        ifModifiedSince(request, response, resource);
-        ifUnmodifiedSince(request, response, resource);
+        long mod = resource != null ? resource.getModificationTime() : -1;
+        preconditions(request, response, etag(resource), mod);
+    }
+
+    /**
+     * <p>
+     * Validates the preconditions of a conditional <code>GET</code>,
+     * <code>HEAD</code>, <code>PROPFIND</code> or <code>REPORT</code>
+     * request against the metadata of the targeted item before the
+     * resource is resolved, so that a client revalidating an unchanged
+     * resource is answered without loading the item.
+     * </p>
+     * <p>
+     * If the metadata can not be found, or the preconditions are met,
+     * nothing happens and the preconditions are validated again against
+     * the resolved resource.
+     * </p>
+     */
+    protected void metadataPreconditions(DavRequest request,
+                                         DavResponse response)
+        throws DavException, IOException {
+        if (! isConditional(request) || ! isSafe(request))
+            return;
+
+        ItemMetadata metadata =
+            resourceFactory.resolveMetadata(request.getResourceLocator());
+        if (metadata == null)
+            return;
+
+        // same values as DavItemResourceBase.getETag() and
+        // getModificationTime()
+        EntityTag etag = StringUtils.isBlank(metadata.getEntityTag()) ?
+            null : new EntityTag(metadata.getEntityTag());
+        long mod = metadata.getModifiedDate() != null ?
+            metadata.getModifiedDate().getTime() : new Date().getTime();
+        preconditions(request, response, etag, mod);
+    }
+
+    private void preconditions(DavRequest request,
+                               DavResponse response,
+                               EntityTag resourceEtag,
+                               long mod)
+        throws DavException, IOException {
+        ifMatch(request, response, resourceEtag);
+        ifNoneMatch(request, response, resourceEtag);
+        ifModifiedSince(request, response, mod);
+        ifUnmodifiedSince(request, response, mod);
     }
 
     @SuppressWarnings("unchecked")
@@ -390,13 +439,12 @@ public class StandardRequestHandler
 
     private void ifMatch(DavRequest request,
                          DavResponse response,
-                         DavResource resource)
+                         EntityTag resourceEtag)
         throws DavException, IOException {
         EntityTag[] requestEtags = request.getIfMatch();
         if (requestEtags.length == 0)
             return;
 
-        EntityTag resourceEtag = etag(resource);
         if (resourceEtag == null)
             return;
 
@@ -411,13 +459,12 @@ public class StandardRequestHandler
 
     private void ifNoneMatch(DavRequest request,
                              DavResponse response,
-                             DavResource resource)
+                             EntityTag resourceEtag)
         throws DavException, IOException {
         EntityTag[] requestEtags = request.getIfNoneMatch();
         if (requestEtags.length == 0)
             return;
 
-        EntityTag resourceEtag = etag(resource);
         if (resourceEtag == null)
             return;
 
@@ -435,12 +482,8 @@ public class StandardRequestHandler
 
     private void ifModifiedSince(DavRequest request,
                                  DavResponse response,
-                                 DavResource resource)
+                                 long mod)
         throws DavException, IOException {
-        if (resource == null)
-            return;
-
-        long mod = resource.getModificationTime();
         if (mod == -1)
             return;
         mod = mod / 1000 * 1000;
@@ -457,12 +500,8 @@ public class StandardRequestHandler
 
     private void ifUnmodifiedSince(DavRequest request,
                                    DavResponse response,
-                                   DavResource resource)
+                                   long mod)
         throws DavException, IOException {
-        if (resource == null)
-            return;
-
-        long mod = resource.getModificationTime();
         if (mod == -1)
             return;
         mod = mod / 1000 * 1000;
@@ -489,6 +528,20 @@ public class StandardRequestHandler
         return new EntityTag(etag);
     }
 
+    private boolean isConditional(DavRequest request) {
+        return (request.getHeader("If-Match") != null ||
+                request.getHeader("If-None-Match") != null ||
+                request.getHeader("If-Modified-Since") != null ||
+                request.getHeader("If-Unmodified-Since") != null);
+    }
+
+    private boolean isSafe(DavRequest request) {
+        return (request.getMethod().equals("GET") ||
+                request.getMethod().equals("HEAD") ||
+                request.getMethod().equals("PROPFIND") ||
+                request.getMethod().equals("REPORT"));
+    }
+
     private boolean deservesNotModified(DavRequest request) {
         return (request.getMethod().equals("GET") ||
                 request.getMethod().equals("HEAD"));
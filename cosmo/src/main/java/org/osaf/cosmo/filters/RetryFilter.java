@@ -16,6 +16,13 @@
 package org.osaf.cosmo.filters;
 
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -28,7 +35,14 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.server.CollectionPath;
+import org.osaf.cosmo.server.ItemPath;
 import org.osaf.cosmo.server.ServerConstants;
+import org.osaf.cosmo.service.ContentService;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 
 /**
  * Filter that searches for known exception types (either caught
@@ -41,14 +55,46 @@ import org.osaf.cosmo.server.ServerConstants;
  * This filter is useful for catching runtime exceptions such as
  * database deadlocks and other concurrency issues and retrying the 
  * request a number of times.
+ * 
+ * Retrying immediately tends to collide with the same writers again,
+ * so before each retry the request waits a random time of up to
+ * <code>backoffBase</code> milliseconds, doubling with each attempt
+ * up to <code>maxBackoff</code>.  A request that is retried also
+ * waits for admission to the collection it writes to; only one
+ * retried request per collection proceeds at a time.  At most
+ * <code>retryBudget</code> requests are retried at once; once the
+ * budget is spent, or if admission isn't granted within
+ * <code>maxAdmissionWait</code> milliseconds, the request fails with
+ * 503 and a <code>Retry-After</code> header.
  */
+@ManagedResource(objectName="cosmo:name=retryFilter", description="Cosmo Retry Filter")
 public class RetryFilter implements Filter, ServerConstants {
     
     private static final Log log = LogFactory.getLog(RetryFilter.class);
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+
     private int maxRetries = 10;
     private int maxMemoryBuffer = 1024*256;
     private Class[] exceptions = new Class[] {};
     private String[] methods = new String[] {"PUT", "POST", "DELETE"};
+    private long backoffBase = 50;
+    private long maxBackoff = 2000;
+    private int retryBudget = 50;
+    private long maxAdmissionWait = 10000;
+    private int retryAfter = 5;
+    private ContentService contentService;
+
+    private Random random = new Random();
+    private Semaphore budget = new Semaphore(retryBudget);
+    private HashMap<String, Admission> admissions =
+        new HashMap<String, Admission>();
+
+    private AtomicLong retries = new AtomicLong();
+    private AtomicLong retriedRequests = new AtomicLong();
+    private AtomicLong exhaustedRequests = new AtomicLong();
+    private AtomicLong busyRequests = new AtomicLong();
+    private AtomicLong admissionWaits = new AtomicLong();
+    private AtomicLong admissionWaitTime = new AtomicLong();
 
     public void destroy() {
         // nothing to do
@@ -71,62 +117,220 @@ public class RetryFilter implements Filter, ServerConstants {
             // get to the client
             response = new ResponseErrorWrapper((HttpServletResponse) response);
             
-            int attempts = 0;
-
-            while(attempts <= maxRetries) {
-                
-                Exception ex = null;
-                
-                try {
-                    chain.doFilter(request, response);
-                } catch (RuntimeException e) {
-                    // Catch runtime exceptions
-                    if(isFilterException(e)) {
-                        ex = e;
-                    } else {
-                        log.error("the server encountered an unexpected error", e);
-                        sendError((ResponseErrorWrapper) response);
-                    }
+            Retry retry = new Retry();
+            try {
+                doFilterWithRetries(httpRequest, (BufferedRequestWrapper) request,
+                                    (ResponseErrorWrapper) response, chain,
+                                    retry);
+            } finally {
+                releaseRetry(retry);
+            }
+        } else {
+            chain.doFilter(request, response);
+        }
+    }
+
+    private void doFilterWithRetries(HttpServletRequest httpRequest,
+                                     BufferedRequestWrapper request,
+                                     ResponseErrorWrapper response,
+                                     FilterChain chain,
+                                     Retry retry)
+        throws IOException, ServletException {
+        int attempts = 0;
+
+        while(attempts <= maxRetries) {
+            
+            Exception ex = null;
+            
+            try {
+                chain.doFilter(request, response);
+            } catch (RuntimeException e) {
+                // Catch runtime exceptions
+                if(isFilterException(e)) {
+                    ex = e;
+                } else {
+                    log.error("the server encountered an unexpected error", e);
+                    sendError(response);
                 }
-                
-                // If we didn't catch it, then look for the exception
-                // in the request attributes
-                if(ex==null)
-                    ex = findFilterException(httpRequest);
-                
-                // If there was an exception that we were looking for
-                // (either caught or found in the request), then prepare
-                // to retry.
-                if (ex != null) {
-                    attempts++;
-
-                    // Fail after maxRetries attempts
-                    if(attempts > maxRetries) {
-                        log.error("reached maximum retries for "
-                            + httpRequest.getMethod() + " "
-                            + httpRequest.getRequestURI());
-                        if(!((ResponseErrorWrapper) response).flushError())
-                            sendError((ResponseErrorWrapper) response);
-                    }
-                    // Otherwise, prepare to retry
-                    else {
-                        log.warn("caught: " + ex.getMessage() + " : retrying request " + httpRequest.getMethod()
-                            + " " + httpRequest.getRequestURI() + " "
-                            + attempts);
-                        ((ResponseErrorWrapper) response).clearError();
-                        ((BufferedRequestWrapper) request).retryRequest();
-                        Thread.yield();
-                    }
-                } 
-                // Otherwise flush the error if necessary and
-                // proceed as normal.
+            }
+            
+            // If we didn't catch it, then look for the exception
+            // in the request attributes
+            if(ex==null)
+                ex = findFilterException(httpRequest);
+            
+            // If there was an exception that we were looking for
+            // (either caught or found in the request), then prepare
+            // to retry.
+            if (ex != null) {
+                attempts++;
+
+                // Fail after maxRetries attempts
+                if(attempts > maxRetries) {
+                    log.error("reached maximum retries for "
+                        + httpRequest.getMethod() + " "
+                        + httpRequest.getRequestURI());
+                    exhaustedRequests.incrementAndGet();
+                    if(!response.flushError())
+                        sendError(response);
+                }
+                // Otherwise, prepare to retry
                 else {
-                    ((ResponseErrorWrapper) response).flushError();
-                    return;
+                    log.warn("caught: " + ex.getMessage() + " : retrying request " + httpRequest.getMethod()
+                        + " " + httpRequest.getRequestURI() + " "
+                        + attempts);
+                    response.clearError();
+                    if(attempts==1 && !admitRetry(httpRequest, retry)) {
+                        sendBusy(response);
+                        return;
+                    }
+                    backoff(attempts);
+                    request.retryRequest();
+                    retries.incrementAndGet();
                 }
+            } 
+            // Otherwise flush the error if necessary and
+            // proceed as normal.
+            else {
+                response.flushError();
+                return;
             }
-        } else {
-            chain.doFilter(request, response);
+        }
+    }
+
+    /**
+     * Takes a share of the retry budget for the request and waits
+     * for admission to the collection it writes to.
+     *
+     * @return false if the budget is spent or admission was not
+     * granted in time
+     */
+    private boolean admitRetry(HttpServletRequest request, Retry retry) {
+        if(budget!=null && !budget.tryAcquire()) {
+            log.warn("retry budget spent; rejecting " + request.getMethod()
+                     + " " + request.getRequestURI());
+            busyRequests.incrementAndGet();
+            return false;
+        }
+        retry.budgeted = true;
+        retry.key = getAdmissionKey(request);
+        retriedRequests.incrementAndGet();
+
+        Admission admission = null;
+        synchronized(admissions) {
+            admission = admissions.get(retry.key);
+            if(admission==null) {
+                admission = new Admission();
+                admissions.put(retry.key, admission);
+            }
+            admission.users++;
+        }
+        retry.admission = admission;
+
+        long start = System.currentTimeMillis();
+        try {
+            retry.admitted = admission.permit.tryAcquire(maxAdmissionWait,
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long waited = System.currentTimeMillis() - start;
+        admissionWaits.incrementAndGet();
+        admissionWaitTime.addAndGet(waited);
+
+        if(!retry.admitted) {
+            log.warn("not admitted to " + retry.key + " after " + waited
+                     + " ms; rejecting " + request.getMethod() + " "
+                     + request.getRequestURI());
+            busyRequests.incrementAndGet();
+        }
+        return retry.admitted;
+    }
+
+    private void releaseRetry(Retry retry) {
+        if(retry.admission!=null) {
+            if(retry.admitted)
+                retry.admission.permit.release();
+            synchronized(admissions) {
+                if(--retry.admission.users==0)
+                    admissions.remove(retry.key);
+            }
+        }
+        if(retry.budgeted && budget!=null)
+            budget.release();
+    }
+
+    /**
+     * Returns the key that requests conflicting with the given
+     * request share: the uid of the collection named by a uid-based
+     * path or of the collection containing the item named by one, or
+     * otherwise the parent of the decoded request path.
+     */
+    String getAdmissionKey(HttpServletRequest request) {
+        String pathInfo = request.getPathInfo();
+        if(pathInfo!=null && pathInfo.startsWith("/")) {
+            CollectionPath cp = CollectionPath.parse(pathInfo, true);
+            if(cp!=null)
+                return cp.getUid();
+            ItemPath ip = ItemPath.parse(pathInfo, true);
+            if(ip!=null)
+                return getParentUid(ip.getUid());
+        }
+
+        String path = request.getRequestURI();
+        try {
+            // differently escaped forms of a path share a key
+            path = new URI(path).getPath();
+        } catch (URISyntaxException e) {
+            log.debug("could not decode " + path, e);
+        }
+        if(path.endsWith("/"))
+            path = path.substring(0, path.length()-1);
+        int index = path.lastIndexOf('/');
+        return index > 0 ? path.substring(0, index) : path;
+    }
+
+    /**
+     * Returns the uid of a collection containing an item, so that
+     * writes to items of the same collection share a key, or the
+     * uid of the item if it can't be found or isn't in a collection.
+     * Of several collections, the one with the lowest uid is used.
+     */
+    private String getParentUid(String uid) {
+        if(contentService==null)
+            return uid;
+        try {
+            Item item = contentService.findItemByUid(uid);
+            if(item==null)
+                return uid;
+            String parentUid = null;
+            for(CollectionItem parent : item.getParents()) {
+                if(parentUid==null || parent.getUid().compareTo(parentUid) < 0)
+                    parentUid = parent.getUid();
+            }
+            return parentUid!=null ? parentUid : uid;
+        } catch (RuntimeException e) {
+            log.debug("could not find parent of item " + uid, e);
+            return uid;
+        }
+    }
+
+    /**
+     * Sleeps for a random time of up to <code>backoffBase</code>
+     * doubled for each previous attempt, at most
+     * <code>maxBackoff</code>.
+     */
+    private void backoff(int attempt) {
+        long ceiling = backoffBase << Math.min(attempt-1, 30);
+        if(ceiling > maxBackoff || ceiling < 0)
+            ceiling = maxBackoff;
+        if(ceiling <= 0)
+            return;
+        long delay = (long) (random.nextDouble() * ceiling);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -159,6 +363,12 @@ public class RetryFilter implements Filter, ServerConstants {
         return null;
     }
 
+    private void sendBusy(ResponseErrorWrapper response) throws IOException {
+        response.setIntHeader(HEADER_RETRY_AFTER, retryAfter);
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+            "the server was busy, try again later");
+    }
+
     private void sendError(ResponseErrorWrapper response) throws IOException {
         
         // if error was already queued, flush it
@@ -191,4 +401,104 @@ public class RetryFilter implements Filter, ServerConstants {
         this.methods = methods;
     }
 
+    /**
+     * @param backoffBase milliseconds a request waits at most before
+     * its first retry
+     */
+    public void setBackoffBase(long backoffBase) {
+        this.backoffBase = backoffBase;
+    }
+
+    /**
+     * @param maxBackoff milliseconds a request waits at most before
+     * any retry
+     */
+    public void setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * @param retryBudget number of requests that may be retried at
+     * once, or 0 for no limit
+     */
+    public void setRetryBudget(int retryBudget) {
+        this.retryBudget = retryBudget;
+        this.budget = retryBudget > 0 ? new Semaphore(retryBudget) : null;
+    }
+
+    /**
+     * @param maxAdmissionWait milliseconds a retried request waits
+     * for other retried requests to the same collection
+     */
+    public void setMaxAdmissionWait(long maxAdmissionWait) {
+        this.maxAdmissionWait = maxAdmissionWait;
+    }
+
+    /**
+     * @param retryAfter seconds a busy client is told to wait
+     */
+    public void setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    public ContentService getContentService() {
+        return contentService;
+    }
+
+    /**
+     * @param contentService service used to find the collection an
+     *        item named by a uid-based path belongs to
+     */
+    public void setContentService(ContentService contentService) {
+        this.contentService = contentService;
+    }
+
+    @ManagedAttribute(description="Number of retries")
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @ManagedAttribute(description="Number of requests retried at least once")
+    public long getRetriedRequests() {
+        return retriedRequests.get();
+    }
+
+    @ManagedAttribute(description="Number of requests that failed after the maximum number of retries")
+    public long getExhaustedRequests() {
+        return exhaustedRequests.get();
+    }
+
+    @ManagedAttribute(description="Number of requests rejected as busy")
+    public long getBusyRequests() {
+        return busyRequests.get();
+    }
+
+    @ManagedAttribute(description="Number of requests currently being retried")
+    public int getRetryingRequests() {
+        return budget != null ? retryBudget - budget.availablePermits() : 0;
+    }
+
+    @ManagedAttribute(description="Average milliseconds waited for collection admission")
+    public long getAverageAdmissionWait() {
+        long waits = admissionWaits.get();
+        return waits > 0 ? admissionWaitTime.get() / waits : 0;
+    }
+
+    @ManagedAttribute(description="Total milliseconds waited for collection admission")
+    public long getTotalAdmissionWait() {
+        return admissionWaitTime.get();
+    }
+
+    private static class Admission {
+        Semaphore permit = new Semaphore(1, true);
+        int users = 0;
+    }
+
+    private static class Retry {
+        String key;
+        boolean budgeted = false;
+        Admission admission = null;
+        boolean admitted = false;
+    }
+
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.hibernate;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.HibernateException;
+import org.hibernate.type.Type;
+import org.osaf.cosmo.blob.BlobStore;
+import org.osaf.cosmo.io.BufferedContent;
+import org.osaf.cosmo.model.hibernate.HibContentData;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Hibernate Interceptor that moves the content of
+ * <code>HibContentData</code> entities of at least
+ * <code>minSize</code> bytes into a <code>BlobStore</code> when the
+ * entities are saved or updated, leaving only the id of the blob in
+ * the database.
+ * <p>
+ * The reference to a blob is released once a transaction that
+ * replaces or deletes the content commits, or once a transaction that
+ * stored the blob rolls back.
+ *
+ * @see BlobStore
+ * @see HibContentData
+ */
+public class BlobStoreInterceptor extends EmptyInterceptor {
+    private static final Log log =
+        LogFactory.getLog(BlobStoreInterceptor.class);
+
+    private static final String PROP_CONTENT = "content";
+    private static final String PROP_BLOB_ID = "blobId";
+
+    private BlobStore blobStore;
+    private long minSize = BufferedContent.DEFAULT_MEM_BUFFER_SIZE;
+
+    @Override
+    public boolean onSave(Object entity, Serializable id, Object[] state,
+            String[] propertyNames, Type[] types) {
+        if (! isManaged(entity))
+            return false;
+        return storeContent((HibContentData) entity, state, propertyNames);
+    }
+
+    @Override
+    public boolean onFlushDirty(Object entity, Serializable id,
+            Object[] currentState, Object[] previousState,
+            String[] propertyNames, Type[] types) {
+        if (! isManaged(entity))
+            return false;
+
+        boolean modified =
+            storeContent((HibContentData) entity, currentState, propertyNames);
+
+        // storing content takes a new reference even if the blob is
+        // the same, so the previous reference is always released
+        if (previousState != null) {
+            int index = indexOf(propertyNames, PROP_BLOB_ID);
+            String oldBlobId = (String) previousState[index];
+            if (oldBlobId != null
+                && (modified || ! oldBlobId.equals(currentState[index])))
+                releaseOnCompletion(oldBlobId, TransactionSynchronization.STATUS_COMMITTED);
+        }
+
+        return modified;
+    }
+
+    @Override
+    public void onDelete(Object entity, Serializable id, Object[] state,
+            String[] propertyNames, Type[] types) {
+        if (! isManaged(entity))
+            return;
+        String blobId = (String) state[indexOf(propertyNames, PROP_BLOB_ID)];
+        if (blobId != null)
+            releaseOnCompletion(blobId, TransactionSynchronization.STATUS_COMMITTED);
+    }
+
+    private boolean isManaged(Object entity) {
+        return blobStore != null && entity instanceof HibContentData;
+    }
+
+    private boolean storeContent(HibContentData entity, Object[] state,
+                                 String[] propertyNames) {
+        int contentIndex = indexOf(propertyNames, PROP_CONTENT);
+        BufferedContent content = (BufferedContent) state[contentIndex];
+        if (content == null || content.getLength() < minSize)
+            return false;
+
+        String blobId = null;
+        try {
+            blobId = blobStore.put(content);
+        } catch (IOException e) {
+            throw new HibernateException("unable to store content", e);
+        }
+        if (log.isDebugEnabled())
+            log.debug("stored " + content.getLength() + " bytes as blob " + blobId);
+
+        releaseOnCompletion(blobId, TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        state[contentIndex] = null;
+        state[indexOf(propertyNames, PROP_BLOB_ID)] = blobId;
+        entity.setBlobId(blobId);
+        return true;
+    }
+
+    /**
+     * Release a blob once the current transaction completes with the
+     * given status.  Without a transaction, a blob is released right
+     * away when the release depends on a commit.
+     */
+    private void releaseOnCompletion(final String blobId,
+                                     final int status) {
+        if (! TransactionSynchronizationManager.isSynchronizationActive()) {
+            if (status == TransactionSynchronization.STATUS_COMMITTED)
+                release(blobId);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronizationAdapter() {
+                    public void afterCompletion(int completionStatus) {
+                        if (completionStatus == status)
+                            release(blobId);
+                    }
+                });
+    }
+
+    private void release(String blobId) {
+        try {
+            blobStore.release(blobId);
+        } catch (IOException e) {
+            log.error("unable to release blob " + blobId, e);
+        }
+    }
+
+    private static int indexOf(String[] propertyNames, String name) {
+        for (int i = 0; i < propertyNames.length; i++)
+            if (propertyNames[i].equals(name))
+                return i;
+        throw new IllegalStateException("no property " + name);
+    }
+
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
+
+    public void setBlobStore(BlobStore blobStore) {
+        this.blobStore = blobStore;
+    }
+
+    public long getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * @param minSize size in bytes of the smallest content that is
+     *                moved to the blob store
+     */
+    public void setMinSize(long minSize) {
+        this.minSize = minSize;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.hibernate;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.fortuna.ical4j.model.Calendar;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Least-recently-used cache of parsed ical4j <code>Calendar</code>
+ * objects, keyed by the entity that owns the calendar, and bounded by
+ * the estimated memory used by the cached calendars.
+ * <p>
+ * Each entry remembers the digest of the iCalendar text it was parsed
+ * from, which <code>CalendarClobType</code> stores next to the text,
+ * and is only used when the digest read from the database is the
+ * same.  A stale entry is never returned even if the entity was
+ * updated by another node, and a hit doesn't have to read the text.
+ * Entries are also invalidated when the owning entity is updated or
+ * deleted through this node.
+ * <p>
+ * ical4j calendars are mutable, and the model changes the calendars
+ * of loaded entities in place, so the cache keeps its own copy and
+ * hands out a new copy on every hit.  Copying is still much cheaper
+ * than parsing.
+ *
+ * @see CalendarClobType
+ * @see CalendarCacheInterceptor
+ */
+@ManagedResource(objectName="cosmo:name=calendarCache", description="Cosmo Parsed Calendar Cache")
+public class CalendarCache {
+    private static final Log log = LogFactory.getLog(CalendarCache.class);
+
+    /**
+     * Estimated size in memory of a parsed calendar, relative to the
+     * number of characters of its iCalendar text
+     */
+    private static final int BYTES_PER_CHAR = 8;
+
+    private long maxBytes = 64 * 1024 * 1024;
+    private long bytes = 0;
+    private LinkedHashMap<String, Entry> entries;
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+    private AtomicLong invalidations = new AtomicLong();
+
+    public CalendarCache() {
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    }
+
+    /**
+     * Return a copy of the calendar cached for an entity, if it was
+     * parsed from iCalendar text with the given digest.
+     * @param entity entity owning the calendar
+     * @param id entity id
+     * @param digest digest of the iCalendar text read from the database
+     * @return copy of the cached calendar, or null
+     */
+    public Calendar get(Object entity, Serializable id, String digest) {
+        String key = createKey(entity, id);
+        Entry entry = null;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && !entry.digest.equals(digest)) {
+                // entity was updated elsewhere
+                remove(key);
+                invalidations.incrementAndGet();
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return copy(entry.calendar);
+    }
+
+    /**
+     * Cache a copy of a calendar parsed for an entity.  Calendars
+     * estimated to be larger than the whole cache are not cached.
+     * @param entity entity owning the calendar
+     * @param id entity id
+     * @param digest digest of the iCalendar text the calendar was
+     *               parsed from
+     * @param length number of characters of the iCalendar text
+     * @param calendar parsed calendar
+     */
+    public void put(Object entity, Serializable id, String digest,
+                    int length, Calendar calendar) {
+        long size = (long) length * BYTES_PER_CHAR;
+        if (size > maxBytes)
+            return;
+        Entry entry = new Entry(digest, size, copy(calendar));
+        String key = createKey(entity, id);
+        synchronized (entries) {
+            remove(key);
+            entries.put(key, entry);
+            bytes += size;
+            evict();
+        }
+    }
+
+    /**
+     * Remove the calendar cached for an entity.
+     * @param entity entity owning the calendar
+     * @param id entity id
+     */
+    public void invalidate(Object entity, Serializable id) {
+        synchronized (entries) {
+            if (remove(createKey(entity, id)) != null)
+                invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Remove all cached calendars.
+     */
+    @ManagedOperation
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Clear hit, miss, eviction and invalidation counts.
+     */
+    @ManagedOperation
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        invalidations.set(0);
+    }
+
+    @ManagedAttribute
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Least recently used calendars are evicted right away if the
+     * cache is larger than the new bound.
+     * @param maxBytes maximum estimated memory used by cached
+     *                 calendars, in bytes
+     */
+    @ManagedAttribute
+    public void setMaxBytes(long maxBytes) {
+        synchronized (entries) {
+            this.maxBytes = maxBytes;
+            evict();
+        }
+    }
+
+    /**
+     * @return estimated memory used by cached calendars, in bytes
+     */
+    @ManagedAttribute
+    public long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    @ManagedAttribute
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @ManagedAttribute
+    public long getHits() {
+        return hits.get();
+    }
+
+    @ManagedAttribute
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @ManagedAttribute
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @ManagedAttribute
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    private Entry remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+            bytes -= entry.size;
+        return entry;
+    }
+
+    /**
+     * Evict least recently used entries until the cache is within
+     * its bound.
+     */
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().size;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private String createKey(Object entity, Serializable id) {
+        return entity.getClass().getName() + ":" + id;
+    }
+
+    private Calendar copy(Calendar calendar) {
+        try {
+            return new Calendar(calendar);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to copy calendar", e);
+        } catch (ParseException e) {
+            log.error("parse error with following ics:" + calendar.toString());
+            throw new RuntimeException("Unable to copy calendar", e);
+        } catch (URISyntaxException e) {
+            throw new RuntimeException("Unable to copy calendar", e);
+        }
+    }
+
+    private static class Entry {
+        String digest;
+        long size;
+        Calendar calendar;
+
+        Entry(String digest, long size, Calendar calendar) {
+            this.digest = digest;
+            this.size = size;
+            this.calendar = calendar;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.hibernate;
+
+import java.io.Serializable;
+
+import net.fortuna.ical4j.model.Calendar;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.type.Type;
+
+/**
+ * Hibernate Interceptor that removes an entity's parsed calendar
+ * from the <code>CalendarCache</code> when the entity is updated
+ * or deleted.
+ *
+ * @see CalendarCache
+ */
+public class CalendarCacheInterceptor extends EmptyInterceptor {
+
+    private CalendarCache calendarCache;
+
+    @Override
+    public boolean onFlushDirty(Object object, Serializable id, Object[] currentState, Object[] previousState, String[] propertyNames, Type[] types) {
+        if (hasCalendar(types))
+            calendarCache.invalidate(object, id);
+        return false;
+    }
+
+    @Override
+    public void onDelete(Object entity, Serializable id, Object[] state,
+            String[] propertyNames, Type[] types) {
+        if (hasCalendar(types))
+            calendarCache.invalidate(entity, id);
+    }
+
+    private boolean hasCalendar(Type[] types) {
+        if (calendarCache == null)
+            return false;
+        for (Type type : types)
+            if (Calendar.class.equals(type.getReturnedClass()))
+                return true;
+        return false;
+    }
+
+    public CalendarCache getCalendarCache() {
+        return calendarCache;
+    }
+
+    public void setCalendarCache(CalendarCache calendarCache) {
+        this.calendarCache = calendarCache;
+    }
+}
@@ -17,10 +17,14 @@ package org.osaf.cosmo.hibernate;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.text.ParseException;
 
 import javax.transaction.TransactionManager;
@@ -28,10 +32,12 @@ import javax.transaction.TransactionManager;
 import net.fortuna.ical4j.data.ParserException;
 import net.fortuna.ical4j.model.Calendar;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.HibernateException;
 import org.osaf.cosmo.calendar.util.CalendarUtils;
+import org.osaf.cosmo.model.hibernate.BaseModelObject;
 import org.springframework.jdbc.support.lob.LobCreator;
 import org.springframework.jdbc.support.lob.LobHandler;
 import org.springframework.orm.hibernate3.support.ClobStringType;
@@ -40,10 +46,20 @@ import org.springframework.orm.hibernate3.support.ClobStringType;
 /**
  * Custom Hibernate type that persists ical4j Calendar object
  * to CLOB field in database.
+ * <p>
+ * The type maps two columns: the CLOB with the iCalendar text, and a
+ * hex encoded SHA-1 digest of the text.  When a
+ * <code>CalendarCache</code> is installed, the digest is read first
+ * and the cached calendar is used if it was parsed from text with the
+ * same digest, so that the text is neither read nor parsed.  Rows
+ * written before the digest column was added have no digest and are
+ * always parsed.
  */
 public class CalendarClobType
         extends ClobStringType {
     private static final Log log = LogFactory.getLog(CalendarClobType.class);
+    
+    private static volatile CalendarCache calendarCache = null;
 
     /**
      * Constructor used by Hibernate: fetches config-time LobHandler and
@@ -73,10 +89,20 @@ public class CalendarClobType
     protected Object nullSafeGetInternal(ResultSet resultSet, String[] columns, Object owner, LobHandler lobHandler)
             throws SQLException, HibernateException {
         
-        // we only handle one column, so panic if it isn't so
-        if (columns == null || columns.length != 1)
-            throw new HibernateException("Only one column name can be used for the " + getClass() + " user type");
+        // text and digest columns, so panic if it isn't so
+        if (columns == null || columns.length != 2)
+            throw new HibernateException("Two column names must be used for the " + getClass() + " user type");
 
+        // calendars are cached by owner, so the owner's id
+        // must be known
+        if (calendarCache != null && owner instanceof BaseModelObject
+                && ((BaseModelObject) owner).getId().longValue() >= 0) {
+            String digest = resultSet.getString(columns[1]);
+            if (digest != null)
+                return getCachedCalendar(resultSet, columns[0], digest,
+                        (BaseModelObject) owner, lobHandler);
+        }
+        
         Reader reader = lobHandler.getClobAsCharacterStream(resultSet, columns[0]);
         if(reader==null)
             return null;
@@ -101,6 +127,53 @@ public class CalendarClobType
     }
 
     
+    /**
+     * Return the calendar cached for the owner if it was parsed from
+     * text with the same digest, otherwise read, parse and cache it.
+     */
+    private Calendar getCachedCalendar(ResultSet resultSet, String column,
+            String digest, BaseModelObject owner, LobHandler lobHandler)
+            throws SQLException {
+        Calendar calendar = calendarCache.get(owner, owner.getId(), digest);
+        if (calendar != null)
+            return calendar;
+        
+        String ics = lobHandler.getClobAsString(resultSet, column);
+        if (ics == null)
+            return null;
+        
+        try {
+            calendar = CalendarUtils.parseCalendar(ics);
+        } catch (ParserException e) {
+            log.error("error parsing icalendar from db", e);
+            // shouldn't happen because we always persist valid data
+            throw new HibernateException("cannot parse icalendar stream");
+        } catch(IOException ioe) {
+            throw new HibernateException("cannot read icalendar stream");
+        }
+        
+        calendarCache.put(owner, owner.getId(), digest, ics.length(),
+                calendar);
+        return calendar;
+    }
+    
+    /**
+     * Set the cache of parsed calendars used by all instances of
+     * this type.  Calendars are not cached if this is null.
+     * @param cache calendar cache
+     */
+    public static void setCalendarCache(CalendarCache cache) {
+        calendarCache = cache;
+    }
+    
+    /**
+     * @return cache of parsed calendars, or null if calendars
+     *         are not cached
+     */
+    public static CalendarCache getCalendarCache() {
+        return calendarCache;
+    }
+
     /**
      * @param statement the PreparedStatement to set on
      * @param index the statement parameter index
@@ -115,6 +188,29 @@ public class CalendarClobType
         if(value!=null)
             icalStr = ((Calendar) value).toString();
         super.nullSafeSetInternal(statement, index, icalStr, lobCreator);
+        
+        if(icalStr!=null)
+            statement.setString(index + 1, digest(icalStr));
+        else
+            statement.setNull(index + 1, Types.VARCHAR);
+    }
+    
+    /**
+     * @return hex encoded SHA-1 digest of icalendar text
+     */
+    static String digest(String ics) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            return new String(Hex.encodeHex(md.digest(ics.getBytes("UTF-8"))));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Platform does not support sha1?", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Platform does not support UTF-8?", e);
+        }
+    }
+    
+    public int[] sqlTypes() {
+        return new int[] { Types.CLOB, Types.VARCHAR };
     }
 
     @Override
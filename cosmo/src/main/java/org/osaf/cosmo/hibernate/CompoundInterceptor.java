@@ -16,6 +16,8 @@
 package org.osaf.cosmo.hibernate;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.hibernate.EmptyInterceptor;
@@ -56,6 +58,35 @@ public class CompoundInterceptor extends EmptyInterceptor {
             i.onDelete(entity, id, state, propertyNames, types);
     }
 
+    @Override
+    public boolean onLoad(Object entity, Serializable id, Object[] state,
+            String[] propertyNames, Type[] types) {
+        boolean modified = false;
+        for(Interceptor i: interceptors)
+            modified = i.onLoad(entity, id, state, propertyNames, types) || modified;
+        
+        return modified;
+    }
+
+    @Override
+    public void preFlush(Iterator entities) {
+        // each interceptor gets its own pass over the entities
+        List<Object> list = new ArrayList<Object>();
+        while(entities.hasNext())
+            list.add(entities.next());
+        
+        for(Interceptor i: interceptors)
+            i.preFlush(list.iterator());
+    }
+
+    @Override
+    public String onPrepareStatement(String sql) {
+        for(Interceptor i: interceptors)
+            sql = i.onPrepareStatement(sql);
+        
+        return sql;
+    }
+
     public void setInterceptors(List<Interceptor> interceptors) {
         this.interceptors = interceptors;
     }
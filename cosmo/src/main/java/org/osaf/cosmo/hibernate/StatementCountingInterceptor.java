@@ -0,0 +1,48 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.hibernate;
+
+import org.hibernate.EmptyInterceptor;
+
+/**
+ * Hibernate Interceptor that counts the statements prepared by each
+ * thread, so that they can be attributed to the service call that
+ * caused them.
+ *
+ * @see org.osaf.cosmo.metrics.MetricsInterceptor
+ */
+public class StatementCountingInterceptor extends EmptyInterceptor {
+
+    private static final ThreadLocal<long[]> counts = new ThreadLocal<long[]>() {
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    @Override
+    public String onPrepareStatement(String sql) {
+        counts.get()[0]++;
+        return sql;
+    }
+
+    /**
+     * @return number of statements prepared by the current thread
+     *         since it started
+     */
+    public static long getStatementCount() {
+        return counts.get()[0];
+    }
+}
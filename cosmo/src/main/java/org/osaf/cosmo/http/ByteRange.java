@@ -0,0 +1,122 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.http;
+
+/**
+ * A single byte range of an entity, as requested by the HTTP
+ * <code>Range</code> header.
+ * <p>
+ * Only single ranges are supported.  A header that asks for several
+ * ranges, or that can't be parsed, is ignored and the whole entity
+ * is returned, as HTTP allows.
+ */
+public class ByteRange {
+
+    private static final String UNIT_BYTES = "bytes=";
+
+    private long first;
+    private long last;
+    private long entityLength;
+
+    private ByteRange(long first, long last, long entityLength) {
+        this.first = first;
+        this.last = last;
+        this.entityLength = entityLength;
+    }
+
+    /**
+     * Parses a <code>Range</code> header.
+     * @param header value of the header
+     * @param entityLength length of the entity in bytes
+     * @return the requested range, or null if the whole entity
+     *         should be returned
+     */
+    public static ByteRange parse(String header,
+                                  long entityLength) {
+        if (header == null)
+            return null;
+        header = header.trim();
+        if (! header.startsWith(UNIT_BYTES))
+            return null;
+        String spec = header.substring(UNIT_BYTES.length()).trim();
+        if (spec.indexOf(',') >= 0)
+            return null;
+
+        int dash = spec.indexOf('-');
+        if (dash < 0)
+            return null;
+
+        try {
+            String firstText = spec.substring(0, dash).trim();
+            String lastText = spec.substring(dash + 1).trim();
+
+            // suffix range: the last n bytes
+            if (firstText.length() == 0) {
+                long suffix = Long.parseLong(lastText);
+                if (suffix < 0)
+                    return null;
+                long first = Math.max(entityLength - suffix, 0);
+                return suffix == 0 ?
+                    new ByteRange(entityLength, entityLength - 1, entityLength) :
+                    new ByteRange(first, entityLength - 1, entityLength);
+            }
+
+            long first = Long.parseLong(firstText);
+            long last = lastText.length() > 0 ?
+                Long.parseLong(lastText) : Long.MAX_VALUE;
+            if (first < 0 || last < first)
+                return null;
+            return new ByteRange(first, Math.min(last, entityLength - 1),
+                                 entityLength);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return false if no byte of the range is within the entity
+     */
+    public boolean isSatisfiable() {
+        return first < entityLength && first <= last;
+    }
+
+    /** */
+    public long getFirst() {
+        return first;
+    }
+
+    /** */
+    public long getLast() {
+        return last;
+    }
+
+    /**
+     * @return number of bytes in the range
+     */
+    public long getLength() {
+        return isSatisfiable() ? last - first + 1 : 0;
+    }
+
+    /**
+     * @return value of the <code>Content-Range</code> header for a
+     *         response to the range
+     */
+    public String getContentRange() {
+        if (! isSatisfiable())
+            return "bytes */" + entityLength;
+        return "bytes " + first + "-" + last + "/" + entityLength;
+    }
+}
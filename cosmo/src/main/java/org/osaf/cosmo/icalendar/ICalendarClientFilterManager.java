@@ -73,6 +73,18 @@ public class ICalendarClientFilterManager {
         
     }
 
+    /**
+     * @return the client identifier for the current thread if
+     *         calendars are filtered for that client, otherwise null
+     */
+    public String getFilteredClient() {
+        String clientId = clientLocal.get();
+        if(clientId==null || clientFilters==null
+                || !clientFilters.containsKey(clientId))
+            return null;
+        return clientId;
+    }
+
     public void setClientFilters(Map<String, ICalendarClientFilter> clientFilters) {
         this.clientFilters = clientFilters;
     }
@@ -122,11 +122,36 @@ public interface MorseCodeController {
      * is not found
      * @throws NotCollectionException if the specified item is not a
      * collection
+     * @throws SyncTokenException if the changes since the token was
+     * generated are no longer available and the client must resubscribe
      * @throws MorseCodeException if an unknown error occurs
      */
     public SubRecords synchronizeCollection(String uid,
                                             SyncToken token);
 
+    /**
+     * Waits until the identified collection changes after the given
+     * synchronization token was generated, or the timeout passes.
+     * Returns immediately if the collection has already changed or
+     * if waiting is not supported.
+     *
+     * @param uid the uid of the collection to wait for
+     * @param token the sync token describing the last known state of
+     * the collection
+     * @param timeout maximum time to wait in milliseconds
+     *
+     * @returns true if the collection has changed since the token
+     * was generated
+     * @throws UnknownCollectionException if the specified collection
+     * is not found
+     * @throws NotCollectionException if the specified item is not a
+     * collection
+     * @throws MorseCodeException if an unknown error occurs
+     */
+    public boolean waitForChanges(String uid,
+                                  SyncToken token,
+                                  long timeout);
+
     /**
      * Updates the items within the identified collection that
      * correspond to the provided <code>ItemState</code>s. The update
@@ -93,6 +93,12 @@ public class MorseCodeServlet extends HttpServlet implements EimmlConstants {
      * <code>parent</code>.
      */
     public static final String PARAM_PARENT_UID = "parent";
+    /**
+     * The name of the request parameter that provides the (optional)
+     * number of seconds a synchronize request waits for the
+     * collection to change before responding: <code>wait</code>.
+     */
+    public static final String PARAM_WAIT = "wait";
     /**
      * The extension header <code>X-MorseCode-SyncToken</code>
      */
@@ -186,6 +192,11 @@ public class MorseCodeServlet extends HttpServlet implements EimmlConstants {
      * subscription. In either of these cases, an EIMML document is
      * returned.
      * </p>
+     * <p>
+     * A synchronization may also provide the {@link PARAM_WAIT}
+     * parameter, in which case the response is held until the
+     * collection changes or the given number of seconds passes.
+     * </p>
      */
     protected void doGet(HttpServletRequest req,
                          HttpServletResponse resp)
@@ -239,6 +250,8 @@ public class MorseCodeServlet extends HttpServlet implements EimmlConstants {
                 SyncToken token = tokenStr != null ?
                     SyncToken.deserialize(tokenStr) :
                     null;
+                if (token != null)
+                    waitForChanges(req, cp.getUid(), token);
                 SubRecords records = token == null ?
                     controller.subscribeToCollection(cp.getUid()) :
                     controller.synchronizeCollection(cp.getUid(), token);
@@ -596,6 +609,28 @@ public class MorseCodeServlet extends HttpServlet implements EimmlConstants {
         return serviceLocatorFactory.createServiceLocator(req);
     }
 
+    /**
+     * If the request asks to wait, block until the collection changes
+     * or the requested number of seconds passes.  An unparseable wait
+     * parameter is ignored.
+     */
+    private void waitForChanges(HttpServletRequest req,
+                                String uid,
+                                SyncToken token) {
+        String waitStr = req.getParameter(PARAM_WAIT);
+        if (StringUtils.isBlank(waitStr))
+            return;
+        long seconds;
+        try {
+            seconds = Long.parseLong(waitStr);
+        } catch (NumberFormatException e) {
+            log.warn("ignoring invalid wait parameter " + waitStr);
+            return;
+        }
+        if (seconds > 0)
+            controller.waitForChanges(uid, token, seconds * 1000);
+    }
+
     private boolean checkWritePreconditions(HttpServletRequest req,
                                             HttpServletResponse resp) {
         if (req.getContentLength() <= 0) {
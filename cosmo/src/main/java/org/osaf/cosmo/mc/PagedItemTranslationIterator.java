@@ -0,0 +1,116 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.mc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.osaf.cosmo.eim.EimException;
+import org.osaf.cosmo.eim.EimRecordSet;
+import org.osaf.cosmo.eim.EimRecordSetIterator;
+import org.osaf.cosmo.eim.schema.ItemTranslator;
+import org.osaf.cosmo.model.ContentItem;
+import org.osaf.cosmo.service.ContentService;
+
+/**
+ * Iterator that loads the items of a collection one page at a time
+ * and translates them to EIM records as they are read.  Once a page
+ * has been translated its items are evicted, so memory use is
+ * bounded by the page size rather than the size of the collection.
+ * <p>
+ * Subclasses provide the query that loads each page.
+ *
+ * @see ItemTranslator
+ */
+public abstract class PagedItemTranslationIterator
+    implements EimRecordSetIterator {
+
+    private ContentService contentService;
+    private int pageSize;
+    private long timestamp;
+
+    private List<ContentItem> page = new ArrayList<ContentItem>(0);
+    private int position = 0;
+    private String lastUid = null;
+    private boolean exhausted = false;
+    private ContentItem next = null;
+
+    /** */
+    public PagedItemTranslationIterator(ContentService contentService,
+                                        int pageSize,
+                                        long timestamp) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("pageSize must be positive");
+        this.contentService = contentService;
+        this.pageSize = pageSize;
+        this.timestamp = timestamp;
+    }
+
+    public boolean hasNext()
+        throws EimException {
+        while (next == null) {
+            if (position < page.size()) {
+                ContentItem item = page.get(position++);
+                if (isIncluded(item))
+                    next = item;
+                continue;
+            }
+
+            // done with the current page
+            if (! page.isEmpty())
+                contentService.evictItems(page);
+            page = new ArrayList<ContentItem>(0);
+            position = 0;
+
+            if (exhausted)
+                return false;
+
+            page = loadPage(lastUid, pageSize);
+            if (page.size() < pageSize)
+                exhausted = true;
+            if (! page.isEmpty())
+                lastUid = page.get(page.size() - 1).getUid();
+        }
+        return true;
+    }
+
+    public EimRecordSet next()
+        throws EimException {
+        if (! hasNext())
+            throw new IllegalStateException("no more items");
+        ContentItem item = next;
+        next = null;
+        return new ItemTranslator(item).generateRecords(timestamp);
+    }
+
+    /**
+     * Load the next page of items, ordered by uid.
+     *
+     * @param afterUid the uid of the last item of the previous page,
+     * or null for the first page
+     * @param maxResults the page size
+     */
+    protected abstract List<ContentItem> loadPage(String afterUid,
+                                                  int maxResults);
+
+    /**
+     * Determines whether an item is translated.  By default all
+     * items are.
+     */
+    protected boolean isIncluded(ContentItem item) {
+        return true;
+    }
+}
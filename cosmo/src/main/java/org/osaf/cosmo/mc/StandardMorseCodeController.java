@@ -46,7 +46,6 @@ import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.NoteOccurrence;
 import org.osaf.cosmo.model.Ticket;
 import org.osaf.cosmo.model.TicketType;
-import org.osaf.cosmo.model.Tombstone;
 import org.osaf.cosmo.model.UidInUseException;
 import org.osaf.cosmo.model.User;
 import org.osaf.cosmo.security.CosmoSecurityException;
@@ -54,6 +53,7 @@ import org.osaf.cosmo.security.CosmoSecurityManager;
 import org.osaf.cosmo.server.ServiceLocator;
 import org.osaf.cosmo.service.ContentService;
 import org.osaf.cosmo.service.UserService;
+import org.osaf.cosmo.service.notify.CollectionNotifier;
 import org.springframework.dao.OptimisticLockingFailureException;
 
 /**
@@ -70,6 +70,9 @@ public class StandardMorseCodeController implements MorseCodeController {
     private UserService userService;
     private CosmoSecurityManager securityManager;
     private EntityFactory entityFactory;
+    private int streamingPageSize = 100;
+    private CollectionNotifier collectionNotifier;
+    private long maxWait = 300000;
     private static final HashSet<String> EMPTY_TICKETS = new HashSet<String>(0);
 
     /**
@@ -255,6 +258,15 @@ public class StandardMorseCodeController implements MorseCodeController {
             throw new NotCollectionException(item);
         CollectionItem collection = (CollectionItem) item;
 
+        // When streaming, items are read page by page as the response
+        // is written.  The token is generated before any item is read,
+        // so an item modified while streaming is sent again on the
+        // next synchronization.
+        if (streamingPageSize > 0)
+            return new SubRecords(collection, 
+                    createAllItemsIterator(collection, -1),
+                    new ArrayList<ItemTombstone>(0), null);
+        
         SubRecords subRecords = new SubRecords(collection, getAllItems(collection));
         
         // Ensure collection has not been modified since reading the data
@@ -288,6 +300,8 @@ public class StandardMorseCodeController implements MorseCodeController {
      * is not found
      * @throws NotCollectionException if the specified item is not a
      * collection
+     * @throws SyncTokenException if the changes since the token was
+     * generated are no longer available and the client must resubscribe
      * @throws MorseCodeException if an unknown error occurs
      */
     public SubRecords synchronizeCollection(String uid,
@@ -308,20 +322,32 @@ public class StandardMorseCodeController implements MorseCodeController {
         if (token.isValid(collection))
             return new SubRecords(collection, new ArrayList<ContentItem>(0));
         
+        // Changes are found using the change log of the collection, which
+        // requires a token that records a change sequence that has not
+        // been compacted away.  Otherwise the client must resubscribe.
+        if (! token.hasSequence() ||
+            token.getSequence() < contentService.getFirstChangeSequence(collection))
+            throw new SyncTokenException(token.serialize());
+        
+        if (streamingPageSize > 0)
+            return new SubRecords(collection,
+                    createModifiedItemsIterator(token, collection),
+                    getRecentTombstones(token, collection), token);
+        
         SubRecords subRecords = new SubRecords(collection, getModifiedItems(token, collection),
                 getRecentTombstones(token, collection), token);
        
         // ensure collection has not been modified since reading the data
-        Date lastModified = collection.getModifiedDate();
+        long lastSequence = collection.getChangeSequence();
         collection = (CollectionItem) contentService.findItemByUid(uid);
-        while(!collection.getModifiedDate().equals(lastModified)) {
+        while(collection.getChangeSequence() != lastSequence) {
             // If it has been modified, then re-read data, otherwise we
             // could return inconsistent data
             if (log.isDebugEnabled())
                 log.debug("collection " + uid + " modified while syncing, retrying");
             subRecords = new SubRecords(collection, getModifiedItems(token, collection),
                     getRecentTombstones(token, collection), token);
-            lastModified = collection.getModifiedDate();
+            lastSequence = collection.getChangeSequence();
             collection = (CollectionItem) contentService.findItemByUid(uid);
         }
         
@@ -415,6 +441,44 @@ public class StandardMorseCodeController implements MorseCodeController {
         return new PubCollection(collection);
     }
 
+    /**
+     * Waits for the collection notifier to publish a change to the
+     * collection.  The collection is evicted afterwards so that a
+     * following synchronize reads its new state.
+     */
+    public boolean waitForChanges(String uid,
+                                  SyncToken token,
+                                  long timeout) {
+        if (log.isDebugEnabled())
+            log.debug("waiting for changes to collection " + uid +
+                      " since token " + token.serialize());
+
+        // read the version before checking the collection so that a
+        // change committed in between is not missed
+        long version = collectionNotifier != null ?
+            collectionNotifier.getVersion(uid) : 0;
+
+        Item item = contentService.findItemByUid(uid);
+        if (item == null)
+            throw new UnknownCollectionException(uid);
+        if (! (item instanceof CollectionItem))
+            throw new NotCollectionException(item);
+        CollectionItem collection = (CollectionItem) item;
+
+        if (! token.isValid(collection))
+            return true;
+        if (collectionNotifier == null || timeout <= 0)
+            return false;
+
+        HashSet<Item> loaded = new HashSet<Item>(1);
+        loaded.add(collection);
+        contentService.evictItems(loaded);
+
+        if (timeout > maxWait)
+            timeout = maxWait;
+        return collectionNotifier.await(uid, version, timeout);
+    }
+
     // our methods
 
     /** */
@@ -457,6 +521,43 @@ public class StandardMorseCodeController implements MorseCodeController {
         this.entityFactory = entityFactory;
     }
 
+    public int getStreamingPageSize() {
+        return streamingPageSize;
+    }
+
+    /**
+     * Sets the number of items loaded at a time when writing
+     * subscribe and synchronize responses.  A value of 0 or less
+     * loads all items before the response is written.
+     */
+    public void setStreamingPageSize(int streamingPageSize) {
+        this.streamingPageSize = streamingPageSize;
+    }
+
+    public CollectionNotifier getCollectionNotifier() {
+        return collectionNotifier;
+    }
+
+    /**
+     * Sets the notifier used to wait for collection changes.  If not
+     * set, clients cannot wait for changes.
+     */
+    public void setCollectionNotifier(CollectionNotifier collectionNotifier) {
+        this.collectionNotifier = collectionNotifier;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds a client may wait for a
+     * collection to change.
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
     /** */
     public void init() {
         if (contentService == null)
@@ -491,11 +592,23 @@ public class StandardMorseCodeController implements MorseCodeController {
             allChildrenByUid.put(child.getUid(), child);
         
         try {
+            // Read all recordsets so that the items they refer to can
+            // be looked up together instead of one query per recordset
+            ArrayList<EimRecordSet> recordsets = new ArrayList<EimRecordSet>();
+            HashSet<String> uids = new HashSet<String>();
             while (i.hasNext()) {
                 EimRecordSet recordset = i.next();
+                recordsets.add(recordset);
+                uids.add(recordset.getUuid());
+            }
+            
+            HashMap<String, Item> existingByUid = new HashMap<String, Item>();
+            for(Item item: contentService.findItemsByUids(uids))
+                existingByUid.put(item.getUid(), item);
+            
+            for (EimRecordSet recordset: recordsets) {
                 try {
-                    Item item =
-                        contentService.findItemByUid(recordset.getUuid());
+                    Item item = existingByUid.get(recordset.getUuid());
                     if (item != null && ! (item instanceof ContentItem))
                         throw new ValidationException(recordset.getUuid(), "Child item " + recordset.getUuid() + " is not a content item");
                    
@@ -614,8 +727,8 @@ public class StandardMorseCodeController implements MorseCodeController {
     private List<ContentItem> getModifiedItems(SyncToken prevToken,
             CollectionItem collection) {
         ArrayList<ContentItem> itemList = new ArrayList<ContentItem>();
-        Set<ContentItem> items = contentService.loadChildren(collection,
-                new Date(prevToken.getTimestamp()));
+        Set<ContentItem> items = contentService.loadChangedChildren(collection,
+                prevToken.getSequence());
         for (ContentItem item : items) {
             if (isShareableItem(item))
                 itemList.add(item);
@@ -623,19 +736,43 @@ public class StandardMorseCodeController implements MorseCodeController {
         return itemList;
     }
     
+    private EimRecordSetIterator createAllItemsIterator(
+            final CollectionItem collection, long timestamp) {
+        return new PagedItemTranslationIterator(contentService,
+                streamingPageSize, timestamp) {
+            protected List<ContentItem> loadPage(String afterUid,
+                    int maxResults) {
+                return contentService.loadChildren(collection, afterUid,
+                        maxResults);
+            }
+            protected boolean isIncluded(ContentItem item) {
+                return isShareableItem(item);
+            }
+        };
+    }
+    
+    private EimRecordSetIterator createModifiedItemsIterator(
+            final SyncToken prevToken, final CollectionItem collection) {
+        return new PagedItemTranslationIterator(contentService,
+                streamingPageSize, prevToken.getTimestamp()) {
+            protected List<ContentItem> loadPage(String afterUid,
+                    int maxResults) {
+                return contentService.loadChangedChildren(collection,
+                        prevToken.getSequence(), afterUid, maxResults);
+            }
+            protected boolean isIncluded(ContentItem item) {
+                return isShareableItem(item);
+            }
+        };
+    }
+    
     private List<ItemTombstone> getRecentTombstones(SyncToken prevToken,
             CollectionItem collection) {
-        ArrayList<ItemTombstone> tombstones = new ArrayList<ItemTombstone>();
         if (prevToken.isValid(collection))
-            return tombstones;
-
-        for (Tombstone tombstone : collection.getTombstones()) {
-            if (tombstone instanceof ItemTombstone)
-                if (prevToken.isTombstoneRecent(tombstone))
-                    tombstones.add((ItemTombstone) tombstone);
-        }
+            return new ArrayList<ItemTombstone>(0);
 
-        return tombstones;
+        return contentService.findRemovedChildren(collection,
+                prevToken.getSequence());
     }
     
     private boolean isShareableItem(Item item) {
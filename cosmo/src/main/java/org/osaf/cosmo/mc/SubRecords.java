@@ -36,7 +36,7 @@ import org.osaf.cosmo.model.ItemTombstone;
 public class SubRecords {
 
     private SyncToken token;
-    private ItemTranslationIterator itemIterator;
+    private EimRecordSetIterator itemIterator;
     private TombstoneTranslationIterator tombstoneIterator;
     private CollectionItem collection;
     private SyncToken prevToken;
@@ -58,6 +58,22 @@ public class SubRecords {
         this.tombstoneIterator = createTombstoneIterator(tombstones);
     }
 
+    /**
+     * Constructs records whose item records are produced by the
+     * given iterator as they are read, rather than from a list of
+     * items loaded up front.
+     */
+    public SubRecords(CollectionItem collection,
+                      EimRecordSetIterator itemIterator,
+                      List<ItemTombstone> tombstones,
+                      SyncToken prevToken) {
+        this.collection = collection;
+        this.prevToken = prevToken;
+        this.token = SyncToken.generate(collection);
+        this.itemIterator = itemIterator;
+        this.tombstoneIterator = createTombstoneIterator(tombstones);
+    }
+
     /** */
     public EimRecordSetIterator getItemRecordSets() {
         return itemIterator;
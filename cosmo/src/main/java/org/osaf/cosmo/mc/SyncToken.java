@@ -15,14 +15,14 @@
  */
 package org.osaf.cosmo.mc;
 
-import org.apache.commons.lang.StringUtils;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.Item;
-import org.osaf.cosmo.model.Tombstone;
 
 /**
  * Bean class that represents a synchronization token.
@@ -36,17 +36,28 @@ import org.osaf.cosmo.model.Tombstone;
  *
  * A sync token can be serialized into string form for transmission to
  * a Morse Code client and deserialized back into a token.
+ *
+ * A sync token also records the change sequence of the collection at
+ * the time it was generated, which is used to find the changes to the
+ * collection since the token was issued.  Tokens serialized by
+ * earlier versions do not have a change sequence.
  */
 public class SyncToken {
     private static final Log log = LogFactory.getLog(SyncToken.class);
 
+    private static final Pattern PATTERN =
+        Pattern.compile("^(\\d+)-(-?\\d+)(?:-(\\d+))?$");
+
     private long timestamp;
     private int hashcode;
+    private long sequence;
 
     private SyncToken(long timestamp,
-                      int hashcode) {
+                      int hashcode,
+                      long sequence) {
         this.timestamp = timestamp;
         this.hashcode = hashcode;
+        this.sequence = sequence;
     }
 
     /**
@@ -81,30 +92,15 @@ public class SyncToken {
         return hasChanged;
     }
 
-    /**
-     * Determines whether or not the given tombstone represents an
-     * item that was removed since the millisecond when the sync token
-     * was generated.
-     *
-     * @return true or false
-     */
-    public boolean isTombstoneRecent(Tombstone tombstone) {
-        long tombstoneTimestamp = tombstone.getTimestamp().getTime();
-        boolean hasChanged = tombstoneTimestamp > timestamp;
-//         if (log.isDebugEnabled())
-//             log.debug("tombstone " + tombstone.getItemUid() +
-//                       " removed since " + tombstone.getTimestamp() + "? " +
-//                       hasChanged);
-        return hasChanged;
-    }
-
     /**
      * Converts the token into a serialized token string.
      *
      * @return serialized <code>String</code>
      */
     public String serialize() {
-        return timestamp + "-" + hashcode;
+        if (! hasSequence())
+            return timestamp + "-" + hashcode;
+        return timestamp + "-" + hashcode + "-" + sequence;
     }
 
     /**
@@ -115,27 +111,19 @@ public class SyncToken {
      * deserialized
      */
     public static SyncToken deserialize(String str) {
-        String[] chunks = str.split("-", 2);
-        if (chunks.length != 2 ||
-            StringUtils.isBlank(chunks[0]) ||
-            StringUtils.isBlank(chunks[1]))
-            throw new SyncTokenException(str);
-
-        long timestamp = -1;
-        try {
-            timestamp = Long.parseLong(chunks[0]);
-        } catch (NumberFormatException e) {
+        Matcher matcher = PATTERN.matcher(str);
+        if (! matcher.matches())
             throw new SyncTokenException(str);
-        }
 
-        int hashcode = -1;
         try {
-            hashcode = Integer.parseInt(chunks[1]);
+            long timestamp = Long.parseLong(matcher.group(1));
+            int hashcode = Integer.parseInt(matcher.group(2));
+            long sequence = matcher.group(3) != null ?
+                Long.parseLong(matcher.group(3)) : -1;
+            return new SyncToken(timestamp, hashcode, sequence);
         } catch (NumberFormatException e) {
             throw new SyncTokenException(str);
         }
-
-        return new SyncToken(timestamp, hashcode);
     }
 
     /** */
@@ -148,6 +136,21 @@ public class SyncToken {
         return timestamp;
     }
 
+    /**
+     * @return the change sequence of the collection when the token
+     * was generated, or -1 if the token does not have one
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return true if the token records a change sequence
+     */
+    public boolean hasSequence() {
+        return sequence >= 0;
+    }
+
     /**
      * Computes a new sync token based on the current state of the
      * given collection.
@@ -156,6 +159,7 @@ public class SyncToken {
      */
     public static SyncToken generate(CollectionItem collection) {
         return new SyncToken(collection.getModifiedDate().getTime(),
-                             collection.generateHash());
+                             collection.generateHash(),
+                             collection.getChangeSequence());
     }
 }
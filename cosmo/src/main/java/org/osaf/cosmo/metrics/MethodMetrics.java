@@ -0,0 +1,157 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Call counts, errors, calls in progress, latency histogram and
+ * database statement counts of a single service method.  All
+ * counters are updated without locking, so a snapshot taken while
+ * calls are in progress may be slightly inconsistent.
+ */
+public class MethodMetrics {
+
+    /**
+     * Upper bounds, in milliseconds, of the latency histogram
+     * buckets.  Calls slower than the last bound are only counted
+     * in the total.
+     */
+    public static final long[] LATENCY_BUCKETS = {
+        1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000
+    };
+
+    private String name;
+    private AtomicLong calls = new AtomicLong();
+    private AtomicLong errors = new AtomicLong();
+    private AtomicLong inFlight = new AtomicLong();
+    private AtomicLong totalTime = new AtomicLong();
+    private AtomicLong maxTime = new AtomicLong();
+    private AtomicLong statements = new AtomicLong();
+    private AtomicLongArray buckets =
+        new AtomicLongArray(LATENCY_BUCKETS.length);
+
+    public MethodMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Record the start of a call.
+     */
+    public void begin() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Record the end of a call.
+     *
+     * @param time milliseconds the call took
+     * @param statementCount number of database statements prepared
+     *                       during the call
+     * @param failed true if the call threw an exception
+     */
+    public void end(long time, long statementCount, boolean failed) {
+        inFlight.decrementAndGet();
+        calls.incrementAndGet();
+        if (failed)
+            errors.incrementAndGet();
+        totalTime.addAndGet(time);
+        statements.addAndGet(statementCount);
+
+        long max = maxTime.get();
+        while (time > max && ! maxTime.compareAndSet(max, time))
+            max = maxTime.get();
+
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            if (time <= LATENCY_BUCKETS[i]) {
+                buckets.incrementAndGet(i);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Clear all counters except the calls in progress.
+     */
+    public void reset() {
+        calls.set(0);
+        errors.set(0);
+        totalTime.set(0);
+        maxTime.set(0);
+        statements.set(0);
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++)
+            buckets.set(i, 0);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return total milliseconds spent in completed calls
+     */
+    public long getTotalTime() {
+        return totalTime.get();
+    }
+
+    /**
+     * @return milliseconds taken by the slowest call
+     */
+    public long getMaxTime() {
+        return maxTime.get();
+    }
+
+    /**
+     * @return total database statements prepared by completed calls
+     */
+    public long getStatements() {
+        return statements.get();
+    }
+
+    /**
+     * @return number of calls that took no longer than the bound
+     *         of each of the {@link #LATENCY_BUCKETS} and longer than
+     *         the bound of the previous bucket
+     */
+    public long[] getBuckets() {
+        long[] counts = new long[LATENCY_BUCKETS.length];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = buckets.get(i);
+        return counts;
+    }
+
+    public String toString() {
+        long count = getCalls();
+        return name + " calls=" + count + " errors=" + getErrors()
+            + " inFlight=" + getInFlight()
+            + " avgMs=" + (count > 0 ? getTotalTime() / count : 0)
+            + " maxMs=" + getMaxTime()
+            + " avgStatements=" + (count > 0 ? getStatements() / count : 0);
+    }
+}
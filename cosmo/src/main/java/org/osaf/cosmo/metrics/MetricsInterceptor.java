@@ -0,0 +1,64 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.metrics;
+
+import java.lang.reflect.Method;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.osaf.cosmo.hibernate.StatementCountingInterceptor;
+
+/**
+ * Interceptor that records the latency, outcome and number of
+ * database statements of each call in a {@link MetricsRegistry}.
+ * Statements are counted by {@link StatementCountingInterceptor}, so
+ * statement counts are only recorded if it is installed.
+ * Methods are named by the simple name of the declaring interface
+ * and the method name, for example
+ * <code>ContentService.findItemByUid</code>.
+ */
+public class MetricsInterceptor implements MethodInterceptor {
+
+    private MetricsRegistry metricsRegistry;
+
+    public Object invoke(MethodInvocation mi) throws Throwable {
+        MethodMetrics metrics =
+            metricsRegistry.getMethodMetrics(getName(mi.getMethod()));
+        long statements = StatementCountingInterceptor.getStatementCount();
+        long start = System.currentTimeMillis();
+        boolean failed = true;
+
+        metrics.begin();
+        try {
+            Object result = mi.proceed();
+            failed = false;
+            return result;
+        } finally {
+            metrics.end(System.currentTimeMillis() - start,
+                        StatementCountingInterceptor.getStatementCount() - statements,
+                        failed);
+        }
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    private String getName(Method method) {
+        return method.getDeclaringClass().getSimpleName() + "."
+            + method.getName();
+    }
+}
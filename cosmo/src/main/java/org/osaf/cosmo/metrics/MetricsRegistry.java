@@ -0,0 +1,167 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.metrics;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Registry of the {@link MethodMetrics} of service methods.
+ * <p>
+ * Metrics are exposed over JMX and can be written in a plain text
+ * format, one sample per line, suitable for scraping by monitoring
+ * systems.  If a session factory is set, Hibernate's own statistics
+ * are included in the text format.
+ *
+ * @see MetricsInterceptor
+ */
+@ManagedResource(objectName="cosmo:name=serviceMetrics", description="Cosmo Service Metrics")
+public class MetricsRegistry {
+
+    private ConcurrentMap<String, MethodMetrics> methods =
+        new ConcurrentHashMap<String, MethodMetrics>();
+    private SessionFactory sessionFactory;
+
+    /**
+     * Return the metrics of a method, creating them if this is the
+     * first call of the method.
+     *
+     * @param name method name
+     */
+    public MethodMetrics getMethodMetrics(String name) {
+        MethodMetrics metrics = methods.get(name);
+        if (metrics == null) {
+            metrics = new MethodMetrics(name);
+            MethodMetrics existing = methods.putIfAbsent(name, metrics);
+            if (existing != null)
+                metrics = existing;
+        }
+        return metrics;
+    }
+
+    /**
+     * @return metrics of all methods that have been called, ordered
+     *         by method name
+     */
+    public List<MethodMetrics> getAllMethodMetrics() {
+        ArrayList<String> names = new ArrayList<String>(methods.keySet());
+        Collections.sort(names);
+        ArrayList<MethodMetrics> all = new ArrayList<MethodMetrics>(names.size());
+        for (String name : names)
+            all.add(methods.get(name));
+        return all;
+    }
+
+    /**
+     * One line summary of each method that has been called.
+     */
+    @ManagedAttribute
+    public String[] getMethodSummaries() {
+        List<MethodMetrics> all = getAllMethodMetrics();
+        String[] summaries = new String[all.size()];
+        for (int i = 0; i < summaries.length; i++)
+            summaries[i] = all.get(i).toString();
+        return summaries;
+    }
+
+    @ManagedAttribute
+    public long getInFlight() {
+        long count = 0;
+        for (MethodMetrics metrics : methods.values())
+            count += metrics.getInFlight();
+        return count;
+    }
+
+    /**
+     * Clear the counters of all methods.
+     */
+    @ManagedOperation
+    public void reset() {
+        for (MethodMetrics metrics : methods.values())
+            metrics.reset();
+    }
+
+    /**
+     * Write all metrics in the text format, one
+     * <code>name{labels} value</code> sample per line.  Latency
+     * buckets are cumulative.
+     */
+    public void writeText(PrintWriter writer) {
+        for (MethodMetrics metrics : getAllMethodMetrics()) {
+            String label = "method=\"" + metrics.getName() + "\"";
+            writeSample(writer, "cosmo_service_calls_total", label, metrics.getCalls());
+            writeSample(writer, "cosmo_service_errors_total", label, metrics.getErrors());
+            writeSample(writer, "cosmo_service_in_flight", label, metrics.getInFlight());
+            writeSample(writer, "cosmo_service_statements_total", label, metrics.getStatements());
+            writeSample(writer, "cosmo_service_latency_ms_max", label, metrics.getMaxTime());
+
+            long[] buckets = metrics.getBuckets();
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i];
+                writeSample(writer, "cosmo_service_latency_ms_bucket",
+                            label + ",le=\"" + MethodMetrics.LATENCY_BUCKETS[i] + "\"",
+                            cumulative);
+            }
+            writeSample(writer, "cosmo_service_latency_ms_bucket",
+                        label + ",le=\"+Inf\"", metrics.getCalls());
+            writeSample(writer, "cosmo_service_latency_ms_sum", label, metrics.getTotalTime());
+            writeSample(writer, "cosmo_service_latency_ms_count", label, metrics.getCalls());
+        }
+
+        if (sessionFactory == null)
+            return;
+        Statistics stats = sessionFactory.getStatistics();
+        if (! stats.isStatisticsEnabled())
+            return;
+        writeSample(writer, "cosmo_hibernate_statements_prepared_total", null, stats.getPrepareStatementCount());
+        writeSample(writer, "cosmo_hibernate_queries_total", null, stats.getQueryExecutionCount());
+        writeSample(writer, "cosmo_hibernate_query_ms_max", null, stats.getQueryExecutionMaxTime());
+        writeSample(writer, "cosmo_hibernate_entity_loads_total", null, stats.getEntityLoadCount());
+        writeSample(writer, "cosmo_hibernate_collection_loads_total", null, stats.getCollectionLoadCount());
+        writeSample(writer, "cosmo_hibernate_cache_hits_total", null, stats.getSecondLevelCacheHitCount());
+        writeSample(writer, "cosmo_hibernate_cache_misses_total", null, stats.getSecondLevelCacheMissCount());
+        writeSample(writer, "cosmo_hibernate_transactions_total", null, stats.getTransactionCount());
+    }
+
+    /**
+     * @param sessionFactory session factory whose statistics are
+     *                       included in the text format
+     */
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    private void writeSample(PrintWriter writer, String name, String label,
+                             long value) {
+        writer.print(name);
+        if (label != null)
+            writer.print("{" + label + "}");
+        writer.print(' ');
+        writer.print(value);
+        writer.print('\n');
+    }
+}
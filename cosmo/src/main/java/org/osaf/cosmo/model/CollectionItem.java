@@ -55,5 +55,13 @@ public interface CollectionItem extends Item{
      * @return
      */
     public int generateHash();
+    
+    /**
+     * The change sequence of a collection is incremented each time
+     * a child item is created, updated, added to or removed from
+     * the collection.
+     * @return current change sequence of the collection
+     */
+    public long getChangeSequence();
 
 }
\ No newline at end of file
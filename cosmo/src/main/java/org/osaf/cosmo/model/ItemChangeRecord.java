@@ -28,6 +28,8 @@ public class ItemChangeRecord {
     private String modifiedBy;
     private String itemUuid;
     private String itemDisplayName;
+    private String collectionUuid;
+    private long entryId;
     
     public ItemChangeRecord() {}
     
@@ -62,6 +64,23 @@ public class ItemChangeRecord {
         this.itemDisplayName = itemDisplayName;
     }
     
+    public String getCollectionUuid() {
+        return collectionUuid;
+    }
+    public void setCollectionUuid(String collectionUuid) {
+        this.collectionUuid = collectionUuid;
+    }
+    /**
+     * @return id of the log entry that recorded the change, usable
+     *         as a cursor for finding later changes
+     */
+    public long getEntryId() {
+        return entryId;
+    }
+    public void setEntryId(long entryId) {
+        this.entryId = entryId;
+    }
+    
     public static Action toAction(String action) {
         if("ItemAdded".equals(action))
             return Action.ITEM_ADDED;
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.model;
+
+import java.util.Date;
+
+/**
+ * The state of an item that is needed to evaluate conditional
+ * requests, read without loading the item itself.
+ */
+public class ItemMetadata {
+
+    private String uid;
+    private String entityTag;
+    private Date modifiedDate;
+    private Integer version;
+    private String ownerUsername;
+
+    public ItemMetadata() {}
+
+    public ItemMetadata(String uid, String entityTag, Date modifiedDate,
+                        Integer version, String ownerUsername) {
+        this.uid = uid;
+        this.entityTag = entityTag;
+        this.modifiedDate = modifiedDate;
+        this.version = version;
+        this.ownerUsername = ownerUsername;
+    }
+
+    public String getUid() {
+        return uid;
+    }
+    public void setUid(String uid) {
+        this.uid = uid;
+    }
+    public String getEntityTag() {
+        return entityTag;
+    }
+    public void setEntityTag(String entityTag) {
+        this.entityTag = entityTag;
+    }
+    public Date getModifiedDate() {
+        return modifiedDate;
+    }
+    public void setModifiedDate(Date modifiedDate) {
+        this.modifiedDate = modifiedDate;
+    }
+    public Integer getVersion() {
+        return version;
+    }
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+    public String getOwnerUsername() {
+        return ownerUsername;
+    }
+    public void setOwnerUsername(String ownerUsername) {
+        this.ownerUsername = ownerUsername;
+    }
+}
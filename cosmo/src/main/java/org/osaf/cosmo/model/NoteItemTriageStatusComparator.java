@@ -38,7 +38,7 @@ public class NoteItemTriageStatusComparator implements Comparator<NoteItem> {
      * it is the value in milliseconds of the start time of the event.
      * If the note is not an event then it is the last modified date.
      */
-    private long getRank(NoteItem note) {
+    public static long getRank(NoteItem note) {
         // Use triageStatusRank * 1000 to normalize to
         // unix timestamp in milliseconds. 
         if(note.getTriageStatus()!=null && note.getTriageStatus().getRank()!=null)
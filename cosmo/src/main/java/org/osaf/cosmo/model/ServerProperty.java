@@ -22,6 +22,7 @@ package org.osaf.cosmo.model;
 public interface ServerProperty {
 
     public static final String PROP_SCHEMA_VERSION = "cosmo.schemaVersion";
+    public static final String PROP_TRIAGE_INDEX_COMPLETE = "cosmo.triageIndexComplete";
     
     public String getName();
 
@@ -15,6 +15,8 @@
  */
 package org.osaf.cosmo.model;
 
+import java.util.Date;
+
 /**
  * Contains static helper methods for dealing with Stamps.
  */
@@ -56,6 +58,37 @@ public class StampUtils {
         return (EventExceptionStamp) item.getStamp(EventExceptionStamp.class);
     }
     
+    /**
+     * Return a revision of a recurring event and its modifications
+     * that changes whenever the event, one of its modifications, or a
+     * timezone either refers to changes, or a modification is added
+     * or removed.  The revision is built from the modified dates of
+     * the stamps, so it is only meaningful for saved stamps.
+     * @param stamp EventStamp of the master event
+     * @return revision of the event, or null if a stamp has not been
+     *         saved
+     */
+    public static String getEventRevision(EventStamp stamp) {
+        Date modified = stamp.getModifiedDate();
+        if (modified == null)
+            return null;
+
+        int count = 0;
+        long sum = 0;
+        NoteItem note = (NoteItem) stamp.getItem();
+        for (NoteItem mod : note.getModifications()) {
+            EventExceptionStamp exceptionStamp = getEventExceptionStamp(mod);
+            if (exceptionStamp == null)
+                continue;
+            if (exceptionStamp.getModifiedDate() == null)
+                return null;
+            count++;
+            sum += exceptionStamp.getModifiedDate().getTime();
+        }
+
+        return modified.getTime() + ":" + count + ":" + sum;
+    }
+    
     /**
      * Return CalendarCollectionStamp from Item
      * @param item
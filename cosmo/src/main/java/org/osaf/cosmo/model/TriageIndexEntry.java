@@ -0,0 +1,133 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.model;
+
+import java.util.Date;
+
+/**
+ * Represents an entry of the triage index of a collection: a note,
+ * modification or occurrence that the dashboard shows with a given
+ * triage status.  Entries are evaluated at a point in time and are
+ * valid until the point in time at which the triage status of the
+ * series they belong to may change.
+ * <p>
+ * A series with no entries is represented by a single entry without
+ * a triage code, so that it is evaluated again once it expires.
+ */
+public class TriageIndexEntry {
+
+    private String masterUid;
+    private String itemUid;
+    private String recurrenceId;
+    private Integer triageCode;
+    private long rank;
+    private Date effectiveDate;
+    private boolean floating;
+    private Date validFrom;
+    private Date validUntil;
+
+    public TriageIndexEntry() {}
+
+    /**
+     * @return uid of the master note of the series
+     */
+    public String getMasterUid() {
+        return masterUid;
+    }
+    public void setMasterUid(String masterUid) {
+        this.masterUid = masterUid;
+    }
+    /**
+     * @return uid of the note or modification, or of the master note
+     *         for an occurrence
+     */
+    public String getItemUid() {
+        return itemUid;
+    }
+    public void setItemUid(String itemUid) {
+        this.itemUid = itemUid;
+    }
+    /**
+     * @return recurrence id of an occurrence, in the format used by
+     *         <code>ModificationUid</code>, or null
+     */
+    public String getRecurrenceId() {
+        return recurrenceId;
+    }
+    public void setRecurrenceId(String recurrenceId) {
+        this.recurrenceId = recurrenceId;
+    }
+    /**
+     * @return effective triage status code, or null if the entry only
+     *         records the validity of a series without entries
+     */
+    public Integer getTriageCode() {
+        return triageCode;
+    }
+    public void setTriageCode(Integer triageCode) {
+        this.triageCode = triageCode;
+    }
+    /**
+     * @return rank used to order entries, as computed by
+     *         <code>NoteItemTriageStatusComparator</code>
+     */
+    public long getRank() {
+        return rank;
+    }
+    public void setRank(long rank) {
+        this.rank = rank;
+    }
+    /**
+     * @return start of the event or occurrence, or null if the note
+     *         is not an event
+     */
+    public Date getEffectiveDate() {
+        return effectiveDate;
+    }
+    public void setEffectiveDate(Date effectiveDate) {
+        this.effectiveDate = effectiveDate;
+    }
+    /**
+     * @return true if the entry was evaluated using floating times
+     *         resolved in the server timezone
+     */
+    public boolean isFloating() {
+        return floating;
+    }
+    public void setFloating(boolean floating) {
+        this.floating = floating;
+    }
+    public Date getValidFrom() {
+        return validFrom;
+    }
+    public void setValidFrom(Date validFrom) {
+        this.validFrom = validFrom;
+    }
+    public Date getValidUntil() {
+        return validUntil;
+    }
+    public void setValidUntil(Date validUntil) {
+        this.validUntil = validUntil;
+    }
+
+    /**
+     * @param pointInTime point in time
+     * @return true if the entry is valid at the point in time
+     */
+    public boolean isValid(Date pointInTime) {
+        return !validFrom.after(pointInTime) && validUntil.after(pointInTime);
+    }
+}
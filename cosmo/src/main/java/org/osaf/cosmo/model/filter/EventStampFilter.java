@@ -96,6 +96,38 @@ public class EventStampFilter extends StampFilter {
         return fend.toString();
     }
     
+    /**
+     * @return start of time-range in UTC milliseconds
+     */
+    public long getUTCStartTime() {
+        return dstart.getTime();
+    }
+
+    /**
+     * @return end of time-range in UTC milliseconds
+     */
+    public long getUTCEndTime() {
+        return dend.getTime();
+    }
+
+    /**
+     * @return start of time-range as floating milliseconds, using
+     *         the filter timezone (or the server timezone if not set)
+     * @see org.osaf.cosmo.calendar.util.Dates#getFloatingTime(net.fortuna.ical4j.model.Date)
+     */
+    public long getFloatStartTime() {
+        return org.osaf.cosmo.calendar.util.Dates.getFloatingTime(fstart);
+    }
+
+    /**
+     * @return end of time-range as floating milliseconds, using
+     *         the filter timezone (or the server timezone if not set)
+     * @see org.osaf.cosmo.calendar.util.Dates#getFloatingTime(net.fortuna.ical4j.model.Date)
+     */
+    public long getFloatEndTime() {
+        return org.osaf.cosmo.calendar.util.Dates.getFloatingTime(fend);
+    }
+    
     public boolean isExpandRecurringEvents() {
         return expandRecurringEvents;
     }
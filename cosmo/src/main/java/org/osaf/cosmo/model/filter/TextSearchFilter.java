@@ -0,0 +1,50 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.model.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adds free text search to NoteItemFilter.  Matches notes whose
+ * title, body, event location or event description contain any of
+ * the search terms.  A term containing whitespace is a phrase, and
+ * matches only if the whole phrase is present.
+ */
+public class TextSearchFilter extends NoteItemFilter {
+
+    private List<String> terms = new ArrayList<String>();
+
+    public TextSearchFilter() {}
+
+    /**
+     * Add a search term.
+     * @param term word or phrase to search for
+     */
+    public void addTerm(String term) {
+        if(term==null || "".equals(term.trim()))
+            return;
+        terms.add(term.trim());
+    }
+
+    public List<String> getTerms() {
+        return terms;
+    }
+
+    public void setTerms(List<String> terms) {
+        this.terms = terms;
+    }
+}
@@ -16,22 +16,60 @@
 package org.osaf.cosmo.model.hibernate;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.ComponentList;
 import net.fortuna.ical4j.model.Date;
 import net.fortuna.ical4j.model.DateTime;
 import net.fortuna.ical4j.model.Dur;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.property.Status;
+import net.fortuna.ical4j.model.property.Transp;
 
 import org.hibernate.EmptyInterceptor;
 import org.hibernate.type.Type;
+import org.osaf.cosmo.calendar.Instance;
+import org.osaf.cosmo.calendar.InstanceList;
 import org.osaf.cosmo.calendar.RecurrenceExpander;
 import org.osaf.cosmo.calendar.util.Dates;
 import org.osaf.cosmo.model.EventStamp;
+import org.osaf.cosmo.model.NoteItem;
 
 /**
  * Hibernate Interceptor that updates BaseEventStamp timeRangeIndexes.
+ * <p>
+ * For recurring events, the occurrences that fall within a window
+ * of <code>instanceWindowDays</code> days around the current time
+ * are also materialized into the event instance index, so that
+ * time-range queries don't have to expand the recurrence.  The window
+ * moves forward each time the event is saved, and for events that
+ * aren't, when <code>EventIndexRefresher</code> indexes them again;
+ * queries outside of the window expand the recurrence instead.
+ * Events that would
+ * generate more than <code>maxInstances</code> occurrences within the
+ * window are not materialized.
+ * <p>
+ * The busy periods of each event are precomputed for free-busy
+ * queries: all of them for non-recurring events and modifications,
+ * and those within the same window for recurring events.  Modifications
+ * inherit the busy status of their master event, so their busy periods
+ * are recomputed when the status or transparency of the master changes.
  */
 public class EventStampInterceptor extends EmptyInterceptor {
 
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    
+    private static final int NOT_BUSY = -1;
+    
+    private int instanceWindowDays = 365;
+    private int maxInstances = 2000;
  
     @Override
     public boolean onFlushDirty(Object object, Serializable id, Object[] currentState, Object[] previousState, String[] propertyNames, Type[] types) {
@@ -80,6 +118,67 @@ public class EventStampInterceptor extends EmptyInterceptor {
         return false;
     }
     
+    @Override
+    public boolean onLoad(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        if(! (entity instanceof HibEventStamp))
+            return false;
+        
+        // remember the busy status the event was indexed with
+        for ( int i=0; i < propertyNames.length; i++ ) {
+            if ( "eventCalendar".equals( propertyNames[i] ) ) {
+                VEvent event = getMasterEvent((Calendar) state[i]);
+                if(event!=null)
+                    ((HibEventStamp) entity).setIndexedFbType(
+                            new Integer(getFbType(event, null)));
+                break;
+            }
+        }
+        
+        return false;
+    }
+    
+    @Override
+    public void preFlush(Iterator entities) {
+        // Find the events whose busy status changed before updating
+        // any modifications, which may load more entities
+        List<HibEventStamp> changed = new ArrayList<HibEventStamp>();
+        while(entities.hasNext()) {
+            Object entity = entities.next();
+            if(! (entity instanceof HibEventStamp))
+                continue;
+            HibEventStamp eventStamp = (HibEventStamp) entity;
+            Integer indexedFbType = eventStamp.getIndexedFbType();
+            if(indexedFbType!=null && eventStamp.getEvent()!=null &&
+               indexedFbType.intValue()!=getFbType(eventStamp.getEvent(), null))
+                changed.add(eventStamp);
+        }
+        
+        for(HibEventStamp eventStamp : changed)
+            updateModificationBusyPeriods(eventStamp);
+    }
+    
+    /**
+     * Recompute the busy periods of the modifications of a recurring
+     * event, which inherit its busy status.
+     * @param eventStamp event stamp of the master event
+     */
+    protected void updateModificationBusyPeriods(HibEventStamp eventStamp) {
+        if(eventStamp.getItem() instanceof NoteItem) {
+            NoteItem note = (NoteItem) eventStamp.getItem();
+            for(NoteItem mod : note.getModifications()) {
+                HibEventExceptionStamp exceptionStamp = (HibEventExceptionStamp)
+                    HibEventExceptionStamp.getStamp(mod);
+                // the time-range index of a modification doesn't
+                // depend on the master, only its busy periods do
+                if(exceptionStamp!=null)
+                    calculateEventStampIndexes(exceptionStamp);
+            }
+        }
+        
+        eventStamp.setIndexedFbType(new Integer(
+                getFbType(eventStamp.getEvent(), null)));
+    }
+    
     /**
      * Update the TimeRangeIndex property of the BaseEventStamp.
      * For recurring events, this means calculating the first start date
@@ -154,9 +253,245 @@ public class EventStampInterceptor extends EmptyInterceptor {
         timeRangeIndex.setIsFloating(isFloating);
         timeRangeIndex.setIsRecurring(isRecurring);
         
+        updateNumericIndexes(timeRangeIndex, startDate, endDate);
+        
+        // expand a recurring event once for both its instances and its
+        // busy periods
+        Window window = null;
+        if(isRecurring && instanceWindowDays > 0) {
+            long now = System.currentTimeMillis();
+            window = new Window(eventStamp.getEvent(),
+                    now - (instanceWindowDays * DAY_IN_MILLIS),
+                    now + (instanceWindowDays * DAY_IN_MILLIS));
+        }
+        
+        if(eventStamp instanceof HibEventStamp)
+            updateInstances((HibEventStamp) eventStamp, timeRangeIndex,
+                    startDate, endDate, window);
+        
+        updateBusyPeriods(eventStamp, timeRangeIndex, startDate, endDate,
+                window);
+        
         return timeRangeIndex;
     }
     
+    /**
+     * Calculate the numeric (millisecond) time-range values.  Floating
+     * events store their local time as floating milliseconds, and 
+     * the UTC range is widened to cover all timezones the event could 
+     * be resolved in.
+     */
+    private void updateNumericIndexes(HibEventTimeRangeIndex timeRangeIndex,
+            Date startDate, Date endDate) {
+        if(timeRangeIndex.getIsFloating().booleanValue()) {
+            long floatStart = Dates.getFloatingTime(startDate);
+            long floatEnd = (endDate!=null) ? Dates.getFloatingTime(endDate)
+                    : Long.MAX_VALUE;
+            timeRangeIndex.setFloatStart(new Long(floatStart));
+            timeRangeIndex.setFloatEnd(new Long(floatEnd));
+            timeRangeIndex.setUtcStart(new Long(floatStart
+                    - HibEventTimeRangeIndex.MAX_TZ_OFFSET));
+            timeRangeIndex.setUtcEnd(new Long(
+                    (floatEnd < Long.MAX_VALUE - HibEventTimeRangeIndex.MAX_TZ_OFFSET) ? 
+                    floatEnd + HibEventTimeRangeIndex.MAX_TZ_OFFSET : Long.MAX_VALUE));
+        } else {
+            timeRangeIndex.setUtcStart(new Long(startDate.getTime()));
+            timeRangeIndex.setUtcEnd(new Long((endDate!=null) ? endDate
+                    .getTime() : Long.MAX_VALUE));
+        }
+    }
+    
+    /**
+     * Update the materialized occurrences of an EventStamp and record
+     * the window they cover in the time-range index.
+     * @param eventStamp event stamp to update
+     * @param timeRangeIndex calculated time-range index
+     * @param seriesStart start of the first occurrence
+     * @param seriesEnd end of the last occurrence, null if infinite
+     * @param window occurrences of a recurring event within the
+     *        instance window, null if not materialized
+     */
+    protected void updateInstances(HibEventStamp eventStamp,
+            HibEventTimeRangeIndex timeRangeIndex, Date seriesStart,
+            Date seriesEnd, Window window) {
+        Set<HibEventInstance> instances = new HashSet<HibEventInstance>();
+        
+        if(window!=null) {
+            InstanceList occurrences = window.occurrences;
+            
+            if(occurrences.size() <= maxInstances) {
+                for(Iterator<Instance> it = occurrences.values().iterator(); it.hasNext();) {
+                    Instance instance = it.next();
+                    instances.add(new HibEventInstance(
+                            fromDateToStringNoTimezone(instance.getRid()),
+                            fromDateToStringNoTimezone(instance.getStart()),
+                            fromDateToStringNoTimezone(instance.getEnd())));
+                }
+                
+                boolean isFloating = timeRangeIndex.getIsFloating().booleanValue();
+                timeRangeIndex.setInstancesFrom(window.getFrom(seriesStart,
+                        isFloating));
+                timeRangeIndex.setInstancesUntil(window.getUntil(seriesEnd,
+                        isFloating));
+            }
+        }
+        
+        // only touch the collection if something changed
+        if(!instances.equals(eventStamp.getInstances())) {
+            eventStamp.getInstances().clear();
+            eventStamp.getInstances().addAll(instances);
+        }
+    }
+    
+    /**
+     * Update the precomputed busy periods of an event and record the
+     * window they cover in the time-range index.
+     * @param eventStamp event stamp to update
+     * @param timeRangeIndex calculated time-range index
+     * @param seriesStart start of the first occurrence
+     * @param seriesEnd end of the last occurrence, null if infinite
+     * @param window occurrences of a recurring event within the
+     *        instance window, null if not materialized
+     */
+    protected void updateBusyPeriods(HibBaseEventStamp eventStamp,
+            HibEventTimeRangeIndex timeRangeIndex, Date seriesStart,
+            Date seriesEnd, Window window) {
+        Set<HibBusyPeriod> busyPeriods = new HashSet<HibBusyPeriod>();
+        boolean isFloating = timeRangeIndex.getIsFloating().booleanValue();
+        boolean isRecurring = timeRangeIndex.getIsRecurring().booleanValue();
+        Long from = null;
+        Long until = null;
+        
+        if(eventStamp instanceof HibEventExceptionStamp) {
+            // A modification is a single occurrence, which inherits the
+            // busy status of the master event unless it overrides it
+            HibEventExceptionStamp exceptionStamp = (HibEventExceptionStamp) eventStamp;
+            EventStamp masterStamp = exceptionStamp.getMasterStamp();
+            int fbType = getFbType(exceptionStamp.getEvent(),
+                    (masterStamp!=null) ? masterStamp.getEvent() : null);
+            
+            if(fbType!=NOT_BUSY && exceptionStamp.getRecurrenceId()!=null) {
+                Date end = seriesEnd;
+                // an all-day occurrence without a duration lasts a day
+                if(!(seriesStart instanceof DateTime) && !end.after(seriesStart))
+                    end = Dates.getInstance(new Dur(1, 0, 0, 0)
+                            .getTime(seriesStart), seriesStart);
+                busyPeriods.add(new HibBusyPeriod(
+                        fromDateToStringNoTimezone(exceptionStamp.getRecurrenceId()),
+                        fbType, getTime(seriesStart, isFloating),
+                        getTime(end, isFloating)));
+            }
+            
+            from = new Long(Long.MIN_VALUE);
+            until = new Long(Long.MAX_VALUE);
+        } else if(!isRecurring || window!=null) {
+            Window busyWindow = window;
+            if(!isRecurring)
+                busyWindow = new Window(eventStamp.getEvent(),
+                        seriesStart.getTime() - DAY_IN_MILLIS,
+                        seriesEnd.getTime() + DAY_IN_MILLIS);
+            InstanceList occurrences = busyWindow.occurrences;
+            
+            if(occurrences.size() <= maxInstances) {
+                // occurrences of the master event share its busy status
+                int fbType = getFbType(eventStamp.getEvent(), null);
+                if(fbType!=NOT_BUSY) {
+                    for(Iterator<Instance> it = occurrences.values().iterator(); it.hasNext();) {
+                        Instance instance = it.next();
+                        busyPeriods.add(new HibBusyPeriod(
+                                fromDateToStringNoTimezone(instance.getRid()),
+                                fbType, getTime(instance.getStart(), isFloating),
+                                getTime(instance.getEnd(), isFloating)));
+                    }
+                }
+                
+                from = busyWindow.getFrom(seriesStart, isFloating);
+                until = busyWindow.getUntil(seriesEnd, isFloating);
+            }
+        }
+        
+        // modifications were indexed with the busy status of the master
+        if(eventStamp instanceof HibEventStamp)
+            ((HibEventStamp) eventStamp).setIndexedFbType(new Integer(
+                    getFbType(eventStamp.getEvent(), null)));
+        
+        timeRangeIndex.setBusyFrom(from);
+        timeRangeIndex.setBusyUntil(until);
+        
+        // only touch the collection if something changed
+        if(!busyPeriods.equals(eventStamp.getBusyPeriods())) {
+            eventStamp.getBusyPeriods().clear();
+            eventStamp.getBusyPeriods().addAll(busyPeriods);
+        }
+    }
+    
+    /**
+     * Determine the free-busy type of an event, using the same rules
+     * as free-busy queries that expand the event.
+     * @param event event
+     * @param masterEvent master event that <code>event</code> inherits
+     *                    missing properties from, if any
+     * @return free-busy type of the event, or <code>NOT_BUSY</code> if
+     *         the event is transparent or cancelled
+     */
+    private int getFbType(VEvent event, VEvent masterEvent) {
+        if(Transp.TRANSPARENT.equals(getProperty(event, masterEvent, Property.TRANSP)))
+            return NOT_BUSY;
+        
+        Property status = getProperty(event, masterEvent, Property.STATUS);
+        if(Status.VEVENT_CANCELLED.equals(status))
+            return NOT_BUSY;
+        if(Status.VEVENT_TENTATIVE.equals(status))
+            return HibBusyPeriod.FBTYPE_BUSY_TENTATIVE;
+        
+        return HibBusyPeriod.FBTYPE_BUSY;
+    }
+    
+    private Property getProperty(VEvent event, VEvent masterEvent, String name) {
+        Property prop = event.getProperties().getProperty(name);
+        if(prop==null && masterEvent!=null)
+            prop = masterEvent.getProperties().getProperty(name);
+        return prop;
+    }
+    
+    private VEvent getMasterEvent(Calendar calendar) {
+        if(calendar==null)
+            return null;
+        ComponentList events = calendar.getComponents().getComponents(
+                Component.VEVENT);
+        return events.size()==0 ? null : (VEvent) events.get(0);
+    }
+    
+    private long getTime(Date date, boolean isFloating) {
+        return isFloating ? Dates.getFloatingTime(date) : date.getTime();
+    }
+    
+    public int getInstanceWindowDays() {
+        return instanceWindowDays;
+    }
+
+    /**
+     * @param instanceWindowDays number of days before and after the
+     *        current time for which occurrences and busy periods of
+     *        recurring events are materialized.  A value of 0 disables the
+     *        instance index and busy periods of recurring events.
+     */
+    public void setInstanceWindowDays(int instanceWindowDays) {
+        this.instanceWindowDays = instanceWindowDays;
+    }
+
+    public int getMaxInstances() {
+        return maxInstances;
+    }
+
+    /**
+     * @param maxInstances maximum number of occurrences or busy periods
+     *        that will be materialized for a single recurring event
+     */
+    public void setMaxInstances(int maxInstances) {
+        this.maxInstances = maxInstances;
+    }
+    
     private String fromDateToStringNoTimezone(Date date) {
         if(date==null)
             return null;
@@ -177,5 +512,47 @@ public class EventStampInterceptor extends EmptyInterceptor {
             return date.toString();
         }
     }
+    
+    /**
+     * Occurrences of an event expanded for a window of time.
+     */
+    protected static class Window {
+        private long start;
+        private long end;
+        private InstanceList occurrences;
+        
+        Window(VEvent event, long start, long end) {
+            this.start = start;
+            this.end = end;
+            
+            DateTime rangeStart = new DateTime(start);
+            rangeStart.setUtc(true);
+            DateTime rangeEnd = new DateTime(end);
+            rangeEnd.setUtc(true);
+            
+            RecurrenceExpander expander = new RecurrenceExpander();
+            occurrences = expander.getOcurrences(event, rangeStart, rangeEnd,
+                    null);
+        }
+        
+        /**
+         * Floating occurrences were expanded using the server
+         * timezone, so only trust the window to within a day.
+         * @return start of the window the occurrences cover
+         */
+        Long getFrom(Date seriesStart, boolean isFloating) {
+            long from = start + (isFloating ? DAY_IN_MILLIS : 0);
+            return new Long(seriesStart.getTime() >= from ? Long.MIN_VALUE : from);
+        }
+        
+        /**
+         * @return end of the window the occurrences cover
+         */
+        Long getUntil(Date seriesEnd, boolean isFloating) {
+            long until = end - (isFloating ? DAY_IN_MILLIS : 0);
+            return new Long(seriesEnd!=null && seriesEnd.getTime() <= until ?
+                    Long.MAX_VALUE : until);
+        }
+    }
 
 }
@@ -16,13 +16,17 @@
 package org.osaf.cosmo.model.hibernate;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import javax.persistence.Column;
 import javax.persistence.DiscriminatorValue;
 import javax.persistence.Embedded;
 import javax.persistence.Entity;
+import javax.persistence.JoinColumn;
+import javax.persistence.JoinTable;
 import javax.persistence.PrimaryKeyJoinColumn;
 import javax.persistence.SecondaryTable;
 
@@ -59,6 +63,9 @@ import net.fortuna.ical4j.model.property.Repeat;
 import net.fortuna.ical4j.model.property.Status;
 import net.fortuna.ical4j.model.property.Trigger;
 
+import org.hibernate.annotations.CollectionOfElements;
+import org.hibernate.annotations.Columns;
+import org.hibernate.annotations.Index;
 import org.hibernate.annotations.Type;
 import org.hibernate.validator.NotNull;
 import org.osaf.cosmo.calendar.ICalendarUtils;
@@ -75,6 +82,9 @@ import org.osaf.cosmo.model.NoteItem;
 @SecondaryTable(name="event_stamp", pkJoinColumns={
         @PrimaryKeyJoinColumn(name="stampid", referencedColumnName="id")})
 @DiscriminatorValue("baseevent")
+@org.hibernate.annotations.Table(
+        appliesTo="event_stamp", 
+        indexes={@Index(name="idx_utcrange", columnNames={"utcstart", "utcend", "stampid"})})
 public abstract class HibBaseEventStamp extends HibStamp
     implements java.io.Serializable, ICalendarConstants, BaseEventStamp {
 
@@ -85,7 +95,10 @@ public abstract class HibBaseEventStamp extends HibStamp
     
     protected static final String VALUE_MISSING = "MISSING";
     
-    @Column(table="event_stamp", name = "icaldata", length=102400000, nullable = false)
+    @Columns(columns={
+        @Column(table="event_stamp", name = "icaldata", length=102400000, nullable = false),
+        @Column(table="event_stamp", name = "icaldigest", length=40)
+    })
     @Type(type="calendar_clob")
     @NotNull
     private Calendar eventCalendar = null;
@@ -93,6 +106,13 @@ public abstract class HibBaseEventStamp extends HibStamp
     @Embedded
     private HibEventTimeRangeIndex timeRangeIndex = null;
     
+    @CollectionOfElements
+    @JoinTable(
+            name="busy_period",
+            joinColumns = @JoinColumn(name="stampid")
+    )
+    private Set<HibBusyPeriod> busyPeriods = new HashSet<HibBusyPeriod>(0);
+    
     
     /* (non-Javadoc)
      * @see org.osaf.cosmo.model.BaseEventStamp#getEvent()
@@ -121,6 +141,20 @@ public abstract class HibBaseEventStamp extends HibStamp
         this.timeRangeIndex = timeRangeIndex;
     }
     
+    /**
+     * Precomputed busy periods of the event, maintained by
+     * <code>EventStampInterceptor</code>.  Only busy periods within the
+     * window recorded in the time-range index are present.
+     * @return busy periods
+     */
+    public Set<HibBusyPeriod> getBusyPeriods() {
+        return busyPeriods;
+    }
+
+    public void setBusyPeriods(Set<HibBusyPeriod> busyPeriods) {
+        this.busyPeriods = busyPeriods;
+    }
+    
       
     /**
      * Return BaseEventStamp from Item
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.model.hibernate;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.commons.lang.builder.ToStringBuilder;
+
+/**
+ * A precomputed busy period of an event, used to answer free-busy
+ * queries without expanding the event.  Occurrences that are
+ * transparent or cancelled have no busy period.
+ * <p>
+ * Times are milliseconds since the epoch.  If the event is floating,
+ * the times are floating milliseconds (the local time as if it were
+ * UTC), which must be resolved using the timezone of the calendar.
+ */
+@Embeddable
+public class HibBusyPeriod {
+
+    public static final int FBTYPE_BUSY = 0;
+    public static final int FBTYPE_BUSY_TENTATIVE = 1;
+
+    @Column(name = "recurrenceid", length=16, nullable = false)
+    private String recurrenceId = null;
+
+    @Column(name = "fbtype", nullable = false)
+    private int fbType = FBTYPE_BUSY;
+
+    @Column(name = "starttime", nullable = false)
+    private long startTime = 0;
+
+    @Column(name = "endtime", nullable = false)
+    private long endTime = 0;
+
+    public HibBusyPeriod() {
+    }
+
+    public HibBusyPeriod(String recurrenceId, int fbType, long startTime,
+            long endTime) {
+        this.recurrenceId = recurrenceId;
+        this.fbType = fbType;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    /**
+     * @return recurrence id of the occurrence, in the same format
+     *         used by <code>ModificationUid</code>
+     */
+    public String getRecurrenceId() {
+        return recurrenceId;
+    }
+
+    public void setRecurrenceId(String recurrenceId) {
+        this.recurrenceId = recurrenceId;
+    }
+
+    /**
+     * @return <code>FBTYPE_BUSY</code> or <code>FBTYPE_BUSY_TENTATIVE</code>
+     */
+    public int getFbType() {
+        return fbType;
+    }
+
+    public void setFbType(int fbType) {
+        this.fbType = fbType;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(long endTime) {
+        this.endTime = endTime;
+    }
+
+    public boolean equals(Object obj) {
+        if (! (obj instanceof HibBusyPeriod))
+            return false;
+        if (this == obj)
+            return true;
+        HibBusyPeriod period = (HibBusyPeriod) obj;
+        return new EqualsBuilder().
+            append(recurrenceId, period.recurrenceId).
+            append(fbType, period.fbType).
+            append(startTime, period.startTime).
+            append(endTime, period.endTime).
+            isEquals();
+    }
+
+    public int hashCode() {
+        return new HashCodeBuilder(17, 37).append(recurrenceId)
+                .append(fbType).append(startTime).append(endTime)
+                .toHashCode();
+    }
+
+    public String toString() {
+        return new ToStringBuilder(this).
+            append("recurrenceId", recurrenceId).
+            append("fbType", fbType).
+            append("startTime", startTime).
+            append("endTime", endTime).
+            toString();
+    }
+}
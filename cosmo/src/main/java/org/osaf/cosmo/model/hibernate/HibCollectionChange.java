@@ -0,0 +1,118 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.model.hibernate;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+import org.hibernate.annotations.Index;
+import org.hibernate.annotations.Type;
+import org.osaf.cosmo.model.CollectionItem;
+
+/**
+ * Persistent entry in the change log of a collection.  Each time
+ * an item is created, updated, added to or removed from a
+ * collection, an entry is appended with the next change sequence
+ * of the collection.  The change log allows the changes since a
+ * given sequence to be found without examining every child or
+ * tombstone of the collection.
+ */
+@Entity
+@Table(name="collection_change", uniqueConstraints = {
+        @UniqueConstraint(columnNames={"collectionid", "changeseq"})})
+public class HibCollectionChange extends BaseModelObject {
+
+    private static final long serialVersionUID = 1L;
+
+    @ManyToOne(targetEntity=HibCollectionItem.class, fetch=FetchType.LAZY)
+    @JoinColumn(name="collectionid", nullable=false)
+    private CollectionItem collection;
+
+    @Column(name = "changeseq", nullable=false)
+    private Long sequence;
+
+    @Column(name = "itemuid", nullable=false, length=255)
+    private String itemUid;
+
+    @Column(name = "isremoved", nullable=false)
+    private Boolean removed = Boolean.FALSE;
+
+    @Column(name = "changedate", nullable=false)
+    @Type(type="long_timestamp")
+    @Index(name="idx_changedate")
+    private Date date = new Date();
+
+    public HibCollectionChange() {
+    }
+
+    public HibCollectionChange(CollectionItem collection, long sequence,
+            String itemUid, boolean removed) {
+        this.collection = collection;
+        this.sequence = new Long(sequence);
+        this.itemUid = itemUid;
+        this.removed = Boolean.valueOf(removed);
+    }
+
+    public CollectionItem getCollection() {
+        return collection;
+    }
+
+    public void setCollection(CollectionItem collection) {
+        this.collection = collection;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+
+    public String getItemUid() {
+        return itemUid;
+    }
+
+    public void setItemUid(String itemUid) {
+        this.itemUid = itemUid;
+    }
+
+    /**
+     * @return true if the item was removed from the collection
+     */
+    public Boolean getRemoved() {
+        return removed;
+    }
+
+    public void setRemoved(Boolean removed) {
+        this.removed = removed;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public void setDate(Date date) {
+        this.date = date;
+    }
+}
@@ -19,6 +19,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
+import javax.persistence.Column;
 import javax.persistence.DiscriminatorValue;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
@@ -55,6 +56,11 @@ public class HibCollectionItem extends HibItem implements CollectionItem {
     @Cascade( {CascadeType.DELETE }) 
     private Set<CollectionItemDetails> childDetails = new HashSet<CollectionItemDetails>(0);
     
+    // only written on insert; afterwards incremented with SQL by
+    // ItemDaoImpl so that changes don't increment the version
+    @Column(name="changeseq", updatable=false)
+    private Long changeSequence = new Long(0);
+    
     private transient Set<Item> children = null;
     
     public HibCollectionItem() {
@@ -158,6 +164,31 @@ public class HibCollectionItem extends HibItem implements CollectionItem {
         return getVersion();
     }
     
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.model.CollectionItem#getChangeSequence()
+     */
+    public long getChangeSequence() {
+        return changeSequence!=null ? changeSequence.longValue() : 0;
+    }
+    
+    /**
+     * Increment the change sequence of the collection.
+     * @return the new change sequence
+     */
+    public long nextChangeSequence() {
+        changeSequence = new Long(getChangeSequence() + 1);
+        return changeSequence.longValue();
+    }
+    
+    /**
+     * Set the change sequence of the collection, as allocated in the
+     * database.  The change sequence is not written on update.
+     * @param changeSequence current change sequence
+     */
+    public void setChangeSequence(long changeSequence) {
+        this.changeSequence = new Long(changeSequence);
+    }
+    
     public Item copy() {
         CollectionItem copy = new HibCollectionItem();
         copyToItem(copy);
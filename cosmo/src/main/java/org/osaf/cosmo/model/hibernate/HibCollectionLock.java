@@ -0,0 +1,94 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.model.hibernate;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Lease on a collection held by a single thread of a Cosmo node.
+ * The table is read and written directly over JDBC by
+ * <code>DatabaseLockManager</code>; it is mapped only so that
+ * the schema is created and validated along with the rest of the
+ * model.
+ *
+ * @see org.osaf.cosmo.service.lock.DatabaseLockManager
+ */
+@Entity
+@Table(name="collection_lock")
+public class HibCollectionLock {
+
+    @Id
+    @Column(name = "collectionuid", length=255)
+    private String collectionUid;
+
+    @Column(name = "ownerid", nullable=false, length=255)
+    private String ownerId;
+
+    @Column(name = "expiredate", nullable=false)
+    private Long expireDate;
+
+    @Column(name = "token", nullable=false)
+    private Long token;
+
+    public HibCollectionLock() {
+    }
+
+    public String getCollectionUid() {
+        return collectionUid;
+    }
+
+    public void setCollectionUid(String collectionUid) {
+        this.collectionUid = collectionUid;
+    }
+
+    /**
+     * @return identifies the node and thread holding the lease
+     */
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    public void setOwnerId(String ownerId) {
+        this.ownerId = ownerId;
+    }
+
+    /**
+     * @return time (milliseconds) after which the lease may be taken
+     *         by another owner, 0 if the lease was released
+     */
+    public Long getExpireDate() {
+        return expireDate;
+    }
+
+    public void setExpireDate(Long expireDate) {
+        this.expireDate = expireDate;
+    }
+
+    /**
+     * @return fencing token of the lease, incremented each time the
+     *         lease is granted to a new owner
+     */
+    public Long getToken() {
+        return token;
+    }
+
+    public void setToken(Long token) {
+        this.token = token;
+    }
+}
@@ -25,6 +25,7 @@ import javax.persistence.Table;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 import org.hibernate.annotations.Type;
+import org.osaf.cosmo.blob.BlobStore;
 import org.osaf.cosmo.io.BufferedContent;
 
 
@@ -33,6 +34,12 @@ import org.osaf.cosmo.io.BufferedContent;
  * Represents the data of a piece of Content. Data is stored
  * as a BufferedContent, either in memory (small content) or
  * on disk (large content).
+ * <p>
+ * When a <code>BlobStore</code> is installed, large content may be
+ * kept in the store instead of the database, in which case only the
+ * id of the blob is persisted.
+ *
+ * @see org.osaf.cosmo.hibernate.BlobStoreInterceptor
  */
 @Entity
 @Table(name="content_data")
@@ -46,6 +53,11 @@ public class HibContentData extends BaseModelObject {
     @Column(name = "content", length=102400000)
     @Type(type="bufferedcontent_blob")
     private BufferedContent content = null;
+    
+    @Column(name = "blobid", length=64)
+    private String blobId = null;
+    
+    private static BlobStore blobStore = null;
    
     /**
      */
@@ -61,10 +73,16 @@ public class HibContentData extends BaseModelObject {
      * of InputStream.
      */
     public InputStream getContentInputStream() {
-        if(content==null)
+        if(content!=null)
+            return content.getInputStream();
+        if(blobId==null)
             return null;
         
-        return content.getInputStream();
+        try {
+            return getInstalledBlobStore().getInputStream(blobId);
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to open blob " + blobId, e);
+        }
     }
     
     /**
@@ -75,6 +93,7 @@ public class HibContentData extends BaseModelObject {
      */
     public void setContentInputStream(InputStream is) throws IOException {
         content = new BufferedContent(is);
+        blobId = null;
     }
     
     /**
@@ -83,7 +102,50 @@ public class HibContentData extends BaseModelObject {
     public long getSize() {
         if(content != null)
             return content.getLength();
+        else if(blobId != null)
+            return getInstalledBlobStore().getLength(blobId);
         else
             return -1;
     } 
+    
+    /**
+     * @return id of the blob the content is stored in, or null if
+     *         the content is stored in the database
+     */
+    public String getBlobId() {
+        return blobId;
+    }
+    
+    /**
+     * Record that the content has been stored as a blob, dropping
+     * the buffered copy.
+     * @param blobId id of the blob
+     */
+    public void setBlobId(String blobId) {
+        this.blobId = blobId;
+        this.content = null;
+    }
+    
+    /**
+     * Set the store that externally stored content is read from.
+     * Content is always stored in the database if this is null.
+     * @param store blob store
+     */
+    public static void setBlobStore(BlobStore store) {
+        blobStore = store;
+    }
+    
+    /**
+     * @return store that externally stored content is read from,
+     *         or null if content is stored in the database
+     */
+    public static BlobStore getBlobStore() {
+        return blobStore;
+    }
+    
+    private static BlobStore getInstalledBlobStore() {
+        if(blobStore==null)
+            throw new IllegalStateException("content is stored as a blob but no blob store is installed");
+        return blobStore;
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.model.hibernate;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.hibernate.annotations.Index;
+
+/**
+ * A single materialized occurrence of a recurring event.  Instances
+ * are generated from the recurrence rules of the master event only,
+ * so overridden occurrences are still present and must be filtered
+ * out using the modifications of the master item.
+ * <p>
+ * Dates use the same String format as <code>HibEventTimeRangeIndex</code>
+ * so that the same floating/UTC comparisons can be used when querying.
+ */
+@Embeddable
+public class HibEventInstance {
+
+    @Column(name = "recurrenceid", length=16, nullable = false)
+    private String recurrenceId = null;
+
+    @Column(name = "startdate", length=16, nullable = false)
+    @Index(name="idx_inststartdt")
+    private String startDate = null;
+
+    @Column(name = "enddate", length=16, nullable = false)
+    @Index(name="idx_instenddt")
+    private String endDate = null;
+
+    public HibEventInstance() {
+    }
+
+    public HibEventInstance(String recurrenceId, String startDate, String endDate) {
+        this.recurrenceId = recurrenceId;
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    /**
+     * @return recurrence id of the occurrence, in the same format
+     *         used by <code>ModificationUid</code>
+     */
+    public String getRecurrenceId() {
+        return recurrenceId;
+    }
+
+    public void setRecurrenceId(String recurrenceId) {
+        this.recurrenceId = recurrenceId;
+    }
+
+    public String getStartDate() {
+        return startDate;
+    }
+
+    public void setStartDate(String startDate) {
+        this.startDate = startDate;
+    }
+
+    public String getEndDate() {
+        return endDate;
+    }
+
+    public void setEndDate(String endDate) {
+        this.endDate = endDate;
+    }
+
+    public boolean equals(Object obj) {
+        if (! (obj instanceof HibEventInstance))
+            return false;
+        if (this == obj)
+            return true;
+        HibEventInstance instance = (HibEventInstance) obj;
+        return new EqualsBuilder().
+            append(recurrenceId, instance.recurrenceId).
+            append(startDate, instance.startDate).
+            append(endDate, instance.endDate).
+            isEquals();
+    }
+
+    public int hashCode() {
+        return new HashCodeBuilder(17, 37).append(recurrenceId)
+                .append(startDate).append(endDate).toHashCode();
+    }
+
+    public String toString() {
+        return new ToStringBuilder(this).
+            append("recurrenceId", recurrenceId).
+            append("startDate", startDate).
+            append("endDate", endDate).
+            toString();
+    }
+}
@@ -21,6 +21,7 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Index;
 import org.hibernate.annotations.Type;
 
 /**
@@ -28,12 +29,19 @@ import org.hibernate.annotations.Type;
  */
 @Entity
 @Table(name="event_log")
+@org.hibernate.annotations.Table(
+        appliesTo="event_log",
+        indexes={@Index(name="idx_eventlog_parent", columnNames={"id1", "id"})})
 public class HibEventLogEntry extends BaseModelObject {
 
     @Column(name = "entrydate")
     @Type(type="long_timestamp")
     private Date entryDate = new Date();
     
+    @Column(name = "insertdate", nullable=true)
+    @Type(type="long_timestamp")
+    private Date insertDate;
+    
     @Column(name = "eventtype", nullable=false, length=64)
     private String type;
     
@@ -87,6 +95,20 @@ public class HibEventLogEntry extends BaseModelObject {
         this.entryDate = entryDate;
     }
 
+    /**
+     * @return when the entry was inserted, which may be well after
+     *         the event it records when entries are written in the
+     *         background; null for entries inserted before the
+     *         insert date was recorded
+     */
+    public Date getInsertDate() {
+        return insertDate;
+    }
+
+    public void setInsertDate(Date insertDate) {
+        this.insertDate = insertDate;
+    }
+
     public String getType() {
         return type;
     }
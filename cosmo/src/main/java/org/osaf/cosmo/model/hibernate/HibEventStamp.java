@@ -16,10 +16,14 @@
 package org.osaf.cosmo.model.hibernate;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.persistence.DiscriminatorValue;
 import javax.persistence.Entity;
+import javax.persistence.JoinColumn;
+import javax.persistence.JoinTable;
 
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.Component;
@@ -28,6 +32,7 @@ import net.fortuna.ical4j.model.component.VEvent;
 
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.CollectionOfElements;
 import org.osaf.cosmo.hibernate.validator.Event;
 import org.osaf.cosmo.model.EventExceptionStamp;
 import org.osaf.cosmo.model.EventStamp;
@@ -50,6 +55,14 @@ public class HibEventStamp extends HibBaseEventStamp implements
      */
     private static final long serialVersionUID = 3992468809776886156L;
     
+    @CollectionOfElements
+    @JoinTable(
+            name="event_instance",
+            joinColumns = @JoinColumn(name="stampid")
+    )
+    private Set<HibEventInstance> instances = new HashSet<HibEventInstance>(0);
+    
+    private transient Integer indexedFbType = null;
     
     /** default constructor */
     public HibEventStamp() {
@@ -109,6 +122,34 @@ public class HibEventStamp extends HibBaseEventStamp implements
         return (VEvent) events.get(0);
     }
 
+    /**
+     * Materialized occurrences of a recurring event, maintained by
+     * <code>EventStampInterceptor</code>.  Only occurrences within the
+     * window recorded in the time-range index are present.
+     * @return materialized occurrences
+     */
+    public Set<HibEventInstance> getInstances() {
+        return instances;
+    }
+
+    public void setInstances(Set<HibEventInstance> instances) {
+        this.instances = instances;
+    }
+
+    /**
+     * Free-busy type the busy periods of the event and its
+     * modifications were last computed with, maintained by
+     * <code>EventStampInterceptor</code>.
+     * @return free-busy type, or null if not known
+     */
+    public Integer getIndexedFbType() {
+        return indexedFbType;
+    }
+
+    public void setIndexedFbType(Integer indexedFbType) {
+        this.indexedFbType = indexedFbType;
+    }
+
     /**
      * Return EventStamp from Item
      * @param item
@@ -13,6 +13,12 @@ import org.hibernate.annotations.Index;
 @Embeddable
 public class HibEventTimeRangeIndex {
     
+    /**
+     * The largest offset from UTC of any timezone.  Floating times are
+     * widened by this amount when converted to UTC.
+     */
+    public static final long MAX_TZ_OFFSET = 14 * 60 * 60 * 1000L;
+    
     @Column(table="event_stamp", name = "startdate", length=16)
     @Index(name="idx_startdt")
     private String startDate = null;
@@ -29,6 +35,30 @@ public class HibEventTimeRangeIndex {
     @Index(name="idx_recurring")
     private Boolean isRecurring = null;
     
+    @Column(table="event_stamp", name = "utcstart")
+    private Long utcStart = null;
+    
+    @Column(table="event_stamp", name = "utcend")
+    private Long utcEnd = null;
+    
+    @Column(table="event_stamp", name = "floatstart")
+    private Long floatStart = null;
+    
+    @Column(table="event_stamp", name = "floatend")
+    private Long floatEnd = null;
+    
+    @Column(table="event_stamp", name = "instancesfrom")
+    private Long instancesFrom = null;
+    
+    @Column(table="event_stamp", name = "instancesuntil")
+    private Long instancesUntil = null;
+    
+    @Column(table="event_stamp", name = "busyfrom")
+    private Long busyFrom = null;
+    
+    @Column(table="event_stamp", name = "busyuntil")
+    private Long busyUntil = null;
+    
     /**
      * The end date of the event.  If the event is recurring, the
      * value is the earliest start date for the recurring series.
@@ -109,4 +139,138 @@ public class HibEventTimeRangeIndex {
     public void setIsRecurring(Boolean isRecurring) {
         this.isRecurring = isRecurring;
     }
+
+    /**
+     * The start date of the event in UTC milliseconds.  If the
+     * event is floating, the value is the earliest instant the event
+     * could start in any timezone, so that the range defined by
+     * <code>utcStart</code> and <code>utcEnd</code> can be used to
+     * narrow down the events that occur in a time-range regardless
+     * of whether they are floating.
+     * @return start date of the event (UTC milliseconds)
+     */
+    public Long getUtcStart() {
+        return utcStart;
+    }
+
+    public void setUtcStart(Long utcStart) {
+        this.utcStart = utcStart;
+    }
+
+    /**
+     * The end date of the event in UTC milliseconds.  If the
+     * event is floating, the value is the latest instant the event
+     * could end in any timezone.  If the recurring event is infinite,
+     * the value is <code>Long.MAX_VALUE</code>.
+     * @return end date of the event (UTC milliseconds)
+     */
+    public Long getUtcEnd() {
+        return utcEnd;
+    }
+
+    public void setUtcEnd(Long utcEnd) {
+        this.utcEnd = utcEnd;
+    }
+
+    /**
+     * The local start time of a floating event, as the number of
+     * milliseconds since the epoch if the local time were UTC.
+     * Null if the event is not floating.
+     * @return floating start date of the event
+     */
+    public Long getFloatStart() {
+        return floatStart;
+    }
+
+    public void setFloatStart(Long floatStart) {
+        this.floatStart = floatStart;
+    }
+
+    /**
+     * The local end time of a floating event, as the number of
+     * milliseconds since the epoch if the local time were UTC.
+     * If the recurring event is infinite, the value is 
+     * <code>Long.MAX_VALUE</code>.  Null if the event is not floating.
+     * @return floating end date of the event
+     */
+    public Long getFloatEnd() {
+        return floatEnd;
+    }
+
+    public void setFloatEnd(Long floatEnd) {
+        this.floatEnd = floatEnd;
+    }
+
+    /**
+     * The start (UTC milliseconds) of the window for which the
+     * occurrences of a recurring event have been materialized.  
+     * <code>Long.MIN_VALUE</code> means all occurrences since the start
+     * of the series are present.  If null, no occurrences are materialized.
+     * @return start of materialized occurrence window
+     */
+    public Long getInstancesFrom() {
+        return instancesFrom;
+    }
+
+    public void setInstancesFrom(Long instancesFrom) {
+        this.instancesFrom = instancesFrom;
+    }
+
+    /**
+     * The end (UTC milliseconds) of the window for which the
+     * occurrences of a recurring event have been materialized.  
+     * <code>Long.MAX_VALUE</code> means all occurrences until the end
+     * of the series are present.  If null, no occurrences are materialized.
+     * @return end of materialized occurrence window
+     */
+    public Long getInstancesUntil() {
+        return instancesUntil;
+    }
+
+    public void setInstancesUntil(Long instancesUntil) {
+        this.instancesUntil = instancesUntil;
+    }
+    
+    /**
+     * Determine if the materialized occurrences cover a time-range.
+     * @param rangeStart start of range (UTC milliseconds)
+     * @param rangeEnd end of range (UTC milliseconds)
+     * @return true if all occurrences that overlap the range are materialized
+     */
+    public boolean hasInstancesFor(long rangeStart, long rangeEnd) {
+        if(instancesFrom==null || instancesUntil==null)
+            return false;
+        return instancesFrom.longValue() <= rangeStart
+                && instancesUntil.longValue() >= rangeEnd;
+    }
+
+    /**
+     * The start (UTC milliseconds) of the window for which the busy
+     * periods of the event have been precomputed.  
+     * <code>Long.MIN_VALUE</code> means all busy periods since the start
+     * of the event are present.  If null, no busy periods are precomputed.
+     * @return start of precomputed busy period window
+     */
+    public Long getBusyFrom() {
+        return busyFrom;
+    }
+
+    public void setBusyFrom(Long busyFrom) {
+        this.busyFrom = busyFrom;
+    }
+
+    /**
+     * The end (UTC milliseconds) of the window for which the busy
+     * periods of the event have been precomputed.  
+     * <code>Long.MAX_VALUE</code> means all busy periods until the end
+     * of the event are present.  If null, no busy periods are precomputed.
+     * @return end of precomputed busy period window
+     */
+    public Long getBusyUntil() {
+        return busyUntil;
+    }
+
+    public void setBusyUntil(Long busyUntil) {
+        this.busyUntil = busyUntil;
+    }
 }
@@ -25,6 +25,7 @@ import javax.persistence.Entity;
 import net.fortuna.ical4j.data.ParserException;
 import net.fortuna.ical4j.model.Calendar;
 
+import org.hibernate.annotations.Columns;
 import org.hibernate.annotations.Type;
 import org.osaf.cosmo.calendar.util.CalendarUtils;
 import org.osaf.cosmo.model.Attribute;
@@ -41,7 +42,10 @@ import org.osaf.cosmo.model.QName;
 public class HibICalendarAttribute extends HibAttribute implements
         java.io.Serializable, ICalendarAttribute {
 
-    @Column(name = "textvalue", length=102400000)
+    @Columns(columns={
+        @Column(name = "textvalue", length=102400000),
+        @Column(name = "icaldigest", length=40)
+    })
     @Type(type="calendar_clob")
     private Calendar value;
 
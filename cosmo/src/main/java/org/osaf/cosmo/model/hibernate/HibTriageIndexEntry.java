@@ -0,0 +1,169 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.model.hibernate;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+import org.hibernate.annotations.Index;
+import org.hibernate.annotations.Type;
+
+/**
+ * Persistent entry in the triage index of a collection.  The index
+ * holds, for each collection, the notes, modifications and
+ * occurrences that the dashboard shows with their effective triage
+ * status, so that a dashboard query is a single read of the index
+ * ordered by rank.
+ * <p>
+ * Entries refer to items by uid rather than by foreign key, so that
+ * removing an item never depends on the index.  Entries of items
+ * that no longer exist are ignored when they are read.
+ *
+ * @see org.osaf.cosmo.model.TriageIndexEntry
+ */
+@Entity
+@Table(name="triage_index")
+@org.hibernate.annotations.Table(
+        appliesTo="triage_index",
+        indexes={@Index(name="idx_triage_collection", columnNames={"collectionid", "triagecode", "itemrank"})})
+public class HibTriageIndexEntry extends BaseModelObject {
+
+    private static final long serialVersionUID = 1L;
+
+    @Column(name = "collectionid", nullable=false)
+    private Long collectionId;
+
+    @Column(name = "masteruid", nullable=false, length=255)
+    @Index(name="idx_triage_master")
+    private String masterUid;
+
+    @Column(name = "itemuid", nullable=false, length=255)
+    private String itemUid;
+
+    @Column(name = "recurrenceid", length=16)
+    private String recurrenceId;
+
+    @Column(name = "triagecode")
+    private Integer triageCode;
+
+    @Column(name = "itemrank", nullable=false)
+    private long rank;
+
+    @Column(name = "effectivedate")
+    @Type(type="long_timestamp")
+    private Date effectiveDate;
+
+    @Column(name = "isfloating", nullable=false)
+    private boolean floating;
+
+    @Column(name = "validfrom", nullable=false)
+    @Type(type="long_timestamp")
+    private Date validFrom;
+
+    @Column(name = "validuntil", nullable=false)
+    @Type(type="long_timestamp")
+    @Index(name="idx_triage_validuntil")
+    private Date validUntil;
+
+    public HibTriageIndexEntry() {
+    }
+
+    /**
+     * @return id of the collection the entry belongs to
+     */
+    public Long getCollectionId() {
+        return collectionId;
+    }
+
+    public void setCollectionId(Long collectionId) {
+        this.collectionId = collectionId;
+    }
+
+    public String getMasterUid() {
+        return masterUid;
+    }
+
+    public void setMasterUid(String masterUid) {
+        this.masterUid = masterUid;
+    }
+
+    public String getItemUid() {
+        return itemUid;
+    }
+
+    public void setItemUid(String itemUid) {
+        this.itemUid = itemUid;
+    }
+
+    public String getRecurrenceId() {
+        return recurrenceId;
+    }
+
+    public void setRecurrenceId(String recurrenceId) {
+        this.recurrenceId = recurrenceId;
+    }
+
+    public Integer getTriageCode() {
+        return triageCode;
+    }
+
+    public void setTriageCode(Integer triageCode) {
+        this.triageCode = triageCode;
+    }
+
+    public long getRank() {
+        return rank;
+    }
+
+    public void setRank(long rank) {
+        this.rank = rank;
+    }
+
+    public Date getEffectiveDate() {
+        return effectiveDate;
+    }
+
+    public void setEffectiveDate(Date effectiveDate) {
+        this.effectiveDate = effectiveDate;
+    }
+
+    public boolean isFloating() {
+        return floating;
+    }
+
+    public void setFloating(boolean floating) {
+        this.floating = floating;
+    }
+
+    public Date getValidFrom() {
+        return validFrom;
+    }
+
+    public void setValidFrom(Date validFrom) {
+        this.validFrom = validFrom;
+    }
+
+    public Date getValidUntil() {
+        return validUntil;
+    }
+
+    public void setValidUntil(Date validUntil) {
+        this.validUntil = validUntil;
+    }
+}
@@ -67,14 +67,26 @@
     @NamedQuery(name="item.by.ownerId.parentId.name.minusItem", query="select item from HibItem item join item.parentDetails pd where item.id!=:itemid and item.owner.id=:ownerid and pd.primaryKey.collection.id=:parentid and item.name=:name"),
     @NamedQuery(name="itemId.by.parentId.name", query="select item.id from HibItem item join item.parentDetails pd where pd.primaryKey.collection.id=:parentid and item.name=:name"),
     @NamedQuery(name="item.by.uid", query="from HibItem i where i.uid=:uid"),
+    @NamedQuery(name="item.by.uids", query="from HibItem i where i.uid in (:uids)"),
     @NamedQuery(name="itemid.by.uid", query="select i.id from HibItem i where i.uid=:uid"),
+    @NamedQuery(name="itemMetadata.by.uid", query="select i.uid, i.etag, i.modifiedDate, i.version, o.username from HibItem i join i.owner o where i.uid=:uid and not exists (select n.id from HibNoteItem n where n.id=i.id and n.modifies is not null)"),
+    @NamedQuery(name="itemMetadata.by.ownerName.name.nullParent", query="select i.uid, i.etag, i.modifiedDate, i.version, o.username from HibItem i join i.owner o where o.username=:username and i.name=:name and size(i.parentDetails)=0"),
+    @NamedQuery(name="itemMetadata.by.parentUid.name", query="select i.uid, i.etag, i.modifiedDate, i.version, o.username from HibItem i join i.owner o join i.parentDetails pd where pd.primaryKey.collection.uid=:parentUid and i.name=:name and not exists (select n.id from HibNoteItem n where n.id=i.id and n.modifies is not null)"),
     @NamedQuery(name="collectionItem.by.uid", query="from HibCollectionItem i where i.uid=:uid"),
     @NamedQuery(name="contentItem.by.uid", query="from HibContentItem i where i.uid=:uid"),
     @NamedQuery(name="item.by.parent.name", query="select item from HibItem item join item.parentDetails pd where pd.primaryKey.collection=:parent and item.name=:name"),
+    @NamedQuery(name="item.by.parent.names", query="select distinct item from HibItem item left join fetch item.stamps left join fetch item.attributes left join fetch item.tombstones join item.parentDetails pd where pd.primaryKey.collection=:parent and item.name in (:names)"),
     @NamedQuery(name="item.by.ownerName.name.nullParent", query="select i from HibItem i, HibUser u where i.owner=u and u.username=:username and i.name=:name and size(i.parentDetails)=0"),
     @NamedQuery(name="item.by.ownerId.and.nullParent", query="select i from HibItem i where i.owner.id=:ownerid and size(i.parentDetails)=0"),
     @NamedQuery(name="contentItem.by.parent.timestamp", query="select item from HibContentItem item left join fetch item.stamps left join fetch item.attributes left join fetch item.tombstones join item.parentDetails pd where pd.primaryKey.collection=:parent and item.modifiedDate>:timestamp"),
     @NamedQuery(name="contentItem.by.parent", query="select item from HibContentItem item left join fetch item.stamps left join fetch item.attributes left join fetch item.tombstones join item.parentDetails pd where pd.primaryKey.collection=:parent"),
+    @NamedQuery(name="contentItem.by.parent.sequence", query="select item from HibContentItem item left join fetch item.stamps left join fetch item.attributes left join fetch item.tombstones join item.parentDetails pd where pd.primaryKey.collection=:parent and item.uid in (select c.itemUid from HibCollectionChange c where c.collection=:parent and c.sequence>:sequence)"),
+    @NamedQuery(name="contentItemUid.by.parent.uid", query="select item.uid from HibContentItem item join item.parentDetails pd where pd.primaryKey.collection=:parent and item.uid>:uid order by item.uid"),
+    @NamedQuery(name="contentItemUid.by.parent.sequence.uid", query="select item.uid from HibContentItem item join item.parentDetails pd where pd.primaryKey.collection=:parent and item.uid>:uid and item.uid in (select c.itemUid from HibCollectionChange c where c.collection=:parent and c.sequence>:sequence) order by item.uid"),
+    @NamedQuery(name="itemUid.by.parent.uid", query="select item.uid from HibItem item join item.parentDetails pd where pd.primaryKey.collection=:parent and item.uid>:uid order by item.uid"),
+    @NamedQuery(name="item.by.uids.initialized", query="select distinct item from HibItem item left join fetch item.stamps left join fetch item.attributes left join fetch item.tombstones where item.uid in (:uids)"),
+    @NamedQuery(name="contentItem.by.uids", query="select distinct item from HibContentItem item left join fetch item.stamps left join fetch item.attributes left join fetch item.tombstones where item.uid in (:uids)"),
+    @NamedQuery(name="noteItem.by.uid.after", query="from HibNoteItem item where item.uid>:uid order by item.uid"),
     @NamedQuery(name="noteItemId.by.parent.icaluid", query="select item.id from HibNoteItem item join item.parentDetails pd where pd.primaryKey.collection.id=:parentid and item.icalUid=:icaluid and item.modifies is null"),
     @NamedQuery(name="icalendarItem.by.parent.icaluid", query="select item.id from HibICalendarItem item join item.parentDetails pd where pd.primaryKey.collection.id=:parentid and item.icalUid=:icaluid"),
     @NamedQuery(name="contentItem.by.owner", query="from HibContentItem i where i.owner=:owner"),
@@ -105,9 +117,33 @@
     
     // Event Queries
     @NamedQuery(name="event.by.calendar.icaluid", query="select i from HibNoteItem i join i.parentDetails pd join i.stamps stamp where pd.primaryKey.collection=:calendar and stamp.class=HibEventStamp and i.icalUid=:uid"),
+    @NamedQuery(name="eventInstance.rid.by.stampIds.timeRange", query="select es.id, inst.recurrenceId from HibEventStamp es join es.instances inst where es.id in (:stampids) and ((es.timeRangeIndex.isFloating=true and inst.startDate < :floatend and inst.endDate > :floatstart) or (es.timeRangeIndex.isFloating=false and inst.startDate < :utcend and inst.endDate > :utcstart) or (inst.startDate=inst.endDate and (inst.startDate=:floatstart or inst.startDate=:utcstart)))"),
+    @NamedQuery(name="busyPeriod.by.parent.timeRange", query="select i.id, es.timeRangeIndex.isRecurring, es.timeRangeIndex.isFloating, bp.recurrenceId, bp.fbType, bp.startTime, bp.endTime from HibNoteItem i join i.parentDetails pd, HibBaseEventStamp es join es.busyPeriods bp where pd.primaryKey.collection=:parent and es.item=i and es.timeRangeIndex.busyFrom <= :utcstart and es.timeRangeIndex.busyUntil >= :utcend and es.timeRangeIndex.utcStart < :utcend and es.timeRangeIndex.utcEnd >= :utcstart and ((es.timeRangeIndex.isFloating=false and bp.startTime < :utcend and bp.endTime >= :utcstart) or (es.timeRangeIndex.isFloating=true and bp.startTime < :floatend and bp.endTime >= :floatstart))"),
+    @NamedQuery(name="noteItem.by.parent.timeRange.withoutBusyPeriods", query="select i from HibNoteItem i join i.parentDetails pd, HibBaseEventStamp es where pd.primaryKey.collection=:parent and es.item=i and es.timeRangeIndex.utcStart < :utcend and es.timeRangeIndex.utcEnd >= :utcstart and (es.timeRangeIndex.busyFrom is null or es.timeRangeIndex.busyFrom > :utcstart or es.timeRangeIndex.busyUntil < :utcend)"),
+    @NamedQuery(name="eventStamp.by.indexHorizon", query="select es from HibEventStamp es where es.id>:afterid and es.timeRangeIndex.isRecurring=true and (es.timeRangeIndex.instancesUntil < :horizon or es.timeRangeIndex.busyUntil < :horizon) order by es.id"),
+    @NamedQuery(name="contentData.blobReferences", query="select cd.blobId, count(cd.id) from HibFileItem f join f.contentData cd where cd.blobId is not null group by cd.blobId"),
+    @NamedQuery(name="modification.uid.by.masterIds", query="select i.modifies.id, i.uid from HibNoteItem i where i.modifies.id in (:masterids)"),
+    
+    // Collection Change Log Queries
+    @NamedQuery(name="itemTombstone.by.parent.sequence", query="select ts from HibItemTombstone ts where ts.item=:parent and ts.itemUid in (select c.itemUid from HibCollectionChange c where c.collection=:parent and c.sequence>:sequence and c.removed=true)"),
+    @NamedQuery(name="collectionChange.minSequence.by.collection", query="select min(c.sequence) from HibCollectionChange c where c.collection=:collection"),
+    @NamedQuery(name="collectionChange.delete.by.collection", query="delete from HibCollectionChange where collection=:collection"),
+    @NamedQuery(name="collectionChange.delete.before.date", query="delete from HibCollectionChange where date<:date"),
+    @NamedQuery(name="itemTombstone.delete.before.date", query="delete from HibItemTombstone where timestamp<:date"),
     
     // Event Log Queries
-    @NamedQuery(name="logEntry.by.collection.date", query="from HibEventLogEntry e where id1=:parentId and entryDate between :startDate and :endDate")
+    @NamedQuery(name="logEntry.by.collection.date", query="from HibEventLogEntry e where id1=:parentId and entryDate between :startDate and :endDate"),
+    @NamedQuery(name="logEntry.by.collection.cursor", query="from HibEventLogEntry e where e.id1=:parentId and e.id>:cursor order by e.id"),
+    @NamedQuery(name="logEntry.by.owner.cursor", query="select e, c.uid from HibEventLogEntry e, HibCollectionItem c where c.id=e.id1 and c.owner=:owner and e.id>:cursor order by e.id"),
+    
+    // Triage Index Queries
+    @NamedQuery(name="triageIndex.by.collection", query="from HibTriageIndexEntry e where e.collectionId=:collectionid order by e.rank"),
+    @NamedQuery(name="triageIndex.by.collection.code", query="from HibTriageIndexEntry e where e.collectionId=:collectionid and (e.triageCode=:code or e.validFrom>:now or e.validUntil<=:now) order by e.rank"),
+    @NamedQuery(name="triageIndex.by.collection.code.withFloating", query="from HibTriageIndexEntry e where e.collectionId=:collectionid and (e.triageCode=:code or e.validFrom>:now or e.validUntil<=:now or e.floating=true) order by e.rank"),
+    @NamedQuery(name="triageIndex.masterUid.expired", query="select distinct e.masterUid from HibTriageIndexEntry e where e.validUntil<=:now"),
+    @NamedQuery(name="triageIndex.masterUid.unindexed", query="select i.uid from HibNoteItem i where i.modifies is null and i.parentDetails is not empty and not exists (select e.id from HibTriageIndexEntry e where e.masterUid=i.uid)"),
+    @NamedQuery(name="triageIndex.delete.by.masterUid", query="delete from HibTriageIndexEntry where masterUid=:masteruid"),
+    @NamedQuery(name="triageIndex.delete.by.collection", query="delete from HibTriageIndexEntry where collectionId=:collectionid")
     
 })
 package org.osaf.cosmo.model.hibernate;
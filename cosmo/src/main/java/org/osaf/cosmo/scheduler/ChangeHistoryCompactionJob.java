@@ -0,0 +1,67 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.scheduler;
+
+import java.util.Date;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.service.ContentService;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+/**
+ * Job that removes collection change log entries and tombstones
+ * older than the configured number of days.  Sync tokens issued
+ * before that point are no longer valid and clients holding them
+ * must resubscribe.
+ */
+public class ChangeHistoryCompactionJob extends Job {
+    
+    private static final Log log = LogFactory.getLog(ChangeHistoryCompactionJob.class);
+    
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private ContentService contentService;
+    private int retentionDays = 90;
+
+    @Override
+    protected void executeJob(JobExecutionContext context)
+            throws JobExecutionException {
+        Date date = new Date(System.currentTimeMillis() - 
+                retentionDays * MILLIS_PER_DAY);
+        
+        if(log.isDebugEnabled())
+            log.debug("compacting change history before " + date);
+        
+        try {
+            contentService.compactChangeHistory(date);
+        } catch (RuntimeException e) {
+            throw new JobExecutionException(e);
+        }
+    }
+
+    public void setContentService(ContentService contentService) {
+        this.contentService = contentService;
+    }
+
+    /**
+     * @param retentionDays number of days of change history to keep
+     */
+    public void setRetentionDays(int retentionDays) {
+        this.retentionDays = retentionDays;
+    }
+}
@@ -52,6 +52,17 @@ public class SchedulerImpl implements Scheduler {
      * default refresh interval of 1 hour
      */
     private long refreshInterval = 1000 * 60 * 60;
+    
+    // interval at which the collection change history is compacted,
+    // a value <= 0 disables compaction
+    private long compactionInterval = -1;
+    
+    // number of days of collection change history to keep
+    private int historyRetentionDays = 90;
+    
+    // interval at which expired triage index entries are refreshed,
+    // a value <= 0 disables the refresh
+    private long triageIndexInterval = -1;
 
     /*
      * (non-Javadoc)
@@ -86,6 +97,33 @@ public class SchedulerImpl implements Scheduler {
         } catch (SchedulerException e) {
             throw new RuntimeException("error scheduling refresh job", e);
         }
+        
+        // schedule job that will compact the change history
+        if (compactionInterval > 0) {
+            JobDetail cjt = new JobDetail("scheduler", "compaction",
+                    ChangeHistoryCompactionJob.class);
+            cjt.getJobDataMap().put("retentionDays", historyRetentionDays);
+            Trigger ctrigger = new SimpleTrigger("compaction", "scheduler",
+                    SimpleTrigger.REPEAT_INDEFINITELY, compactionInterval);
+            try {
+                scheduler.scheduleJob(cjt, ctrigger);
+            } catch (SchedulerException e) {
+                throw new RuntimeException("error scheduling compaction job", e);
+            }
+        }
+        
+        // schedule job that will refresh the triage index
+        if (triageIndexInterval > 0) {
+            JobDetail tjt = new JobDetail("scheduler", "triageIndex",
+                    TriageIndexRefreshJob.class);
+            Trigger ttrigger = new SimpleTrigger("triageIndex", "scheduler",
+                    SimpleTrigger.REPEAT_INDEFINITELY, triageIndexInterval);
+            try {
+                scheduler.scheduleJob(tjt, ttrigger);
+            } catch (SchedulerException e) {
+                throw new RuntimeException("error scheduling triage index job", e);
+            }
+        }
 
         stopped = false;
         initialized = true;
@@ -296,6 +334,18 @@ public class SchedulerImpl implements Scheduler {
     public void setRefreshInterval(long refreshInterval) {
         this.refreshInterval = refreshInterval;
     }
+    
+    public void setCompactionInterval(long compactionInterval) {
+        this.compactionInterval = compactionInterval;
+    }
+    
+    public void setHistoryRetentionDays(int historyRetentionDays) {
+        this.historyRetentionDays = historyRetentionDays;
+    }
+    
+    public void setTriageIndexInterval(long triageIndexInterval) {
+        this.triageIndexInterval = triageIndexInterval;
+    }
 
     public void setJobSchedulers(HashMap<String, JobTypeScheduler> jobSchedulers) {
         this.jobSchedulers = jobSchedulers;
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.scheduler;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.service.ContentService;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+/**
+ * Job that updates the triage index entries of recurring series
+ * that have expired, and indexes notes that were never indexed, so
+ * that dashboard queries rarely have to evaluate a series themselves.
+ */
+public class TriageIndexRefreshJob extends Job {
+    
+    private static final Log log = LogFactory.getLog(TriageIndexRefreshJob.class);
+
+    private ContentService contentService;
+    private int maxSeries = 1000;
+
+    @Override
+    protected void executeJob(JobExecutionContext context)
+            throws JobExecutionException {
+        try {
+            int count = contentService.refreshTriageIndex(maxSeries);
+            if(log.isDebugEnabled())
+                log.debug("refreshed triage index of " + count + " series");
+        } catch (RuntimeException e) {
+            throw new JobExecutionException(e);
+        }
+    }
+
+    public void setContentService(ContentService contentService) {
+        this.contentService = contentService;
+    }
+
+    /**
+     * @param maxSeries maximum number of series to update per run
+     */
+    public void setMaxSeries(int maxSeries) {
+        this.maxSeries = maxSeries;
+    }
+}
@@ -0,0 +1,619 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.fortuna.ical4j.model.component.VEvent;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.model.BaseEventStamp;
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.NoteItem;
+import org.osaf.cosmo.model.NoteOccurrence;
+import org.osaf.cosmo.model.StampUtils;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * <code>SearchIndex</code> held in memory and saved to a local file.
+ * <p>
+ * Note titles, bodies, event locations and event descriptions are
+ * split into lower-cased words, and each word is mapped to the uids
+ * of the notes containing it.  The words are kept sorted so a search
+ * word matches every indexed word it is a prefix of.  The collections
+ * of each note are indexed too, so a search in a collection only
+ * needs to look at the notes of that collection.
+ * <p>
+ * Changes are written to the index file in the background every
+ * <code>flushInterval</code> milliseconds, and when the index is
+ * destroyed.  If the file is missing or unreadable on startup the
+ * index stays unavailable until it is rebuilt.
+ * <p>
+ * The index only sees changes made through this node, so it should
+ * not be used when several nodes share the same database.
+ *
+ * @see SearchIndexRebuilder
+ */
+@ManagedResource(objectName="cosmo:name=searchIndex", description="Cosmo Full-Text Search Index")
+public class FileSearchIndex implements SearchIndex {
+    private static final Log log = LogFactory.getLog(FileSearchIndex.class);
+
+    private static final int FORMAT_VERSION = 1;
+
+    // longer words are truncated
+    private static final int MAX_WORD_LENGTH = 64;
+
+    private File indexFile;
+    private long flushInterval = 60000;
+
+    private TreeMap<String, Set<String>> postings =
+        new TreeMap<String, Set<String>>();
+    private HashMap<String, Set<String>> members =
+        new HashMap<String, Set<String>>();
+    private HashMap<String, Document> documents =
+        new HashMap<String, Document>();
+
+    private volatile boolean available = false;
+    private volatile boolean dirty = false;
+
+    private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Timer timer;
+
+    // SearchIndex methods
+
+    public void indexItem(Item item) {
+        if (! (item instanceof NoteItem) || item instanceof NoteOccurrence)
+            return;
+        if (Boolean.FALSE.equals(item.getIsActive())) {
+            removeItem(item.getUid());
+            return;
+        }
+
+        // read the item's text before locking the index, as it may
+        // require lazy loading
+        Set<String> words = new TreeSet<String>();
+        for (String text : getText((NoteItem) item))
+            words.addAll(tokenize(text));
+        if (words.isEmpty()) {
+            removeItem(item.getUid());
+            return;
+        }
+
+        Set<String> parents = new LinkedHashSet<String>();
+        for (CollectionItem parent : item.getParents())
+            parents.add(parent.getUid());
+
+        long modified = item.getModifiedDate() != null ?
+            item.getModifiedDate().getTime() : 0;
+        Document doc = new Document(item.getUid(), modified,
+                words.toArray(new String[words.size()]),
+                parents.toArray(new String[parents.size()]));
+
+        lock.writeLock().lock();
+        try {
+            Document existing = documents.get(doc.uid);
+            // don't let a rebuild overwrite a more recent update
+            if (existing != null && existing.modified > doc.modified)
+                return;
+            if (existing != null)
+                removeDocument(existing);
+            addDocument(doc);
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeItem(String uid) {
+        lock.writeLock().lock();
+        try {
+            Document doc = documents.get(uid);
+            if (doc != null) {
+                removeDocument(doc);
+                dirty = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeCollection(String uid) {
+        lock.writeLock().lock();
+        try {
+            Set<String> uids = members.get(uid);
+            if (uids == null)
+                return;
+            for (String docUid : new ArrayList<String>(uids)) {
+                Document doc = documents.get(docUid);
+                removeDocument(doc);
+
+                ArrayList<String> parents = new ArrayList<String>();
+                for (String parent : doc.parents)
+                    if (! parent.equals(uid))
+                        parents.add(parent);
+                if (! parents.isEmpty())
+                    addDocument(new Document(doc.uid, doc.modified, doc.words,
+                            parents.toArray(new String[parents.size()])));
+            }
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Set<String> search(List<String> terms, String parentUid) {
+        List<String[]> queries = new ArrayList<String[]>();
+        for (String term : terms) {
+            List<String> words = tokenize(term);
+            if (! words.isEmpty())
+                queries.add(words.toArray(new String[words.size()]));
+        }
+
+        HashSet<String> results = new HashSet<String>();
+        if (queries.isEmpty())
+            return results;
+
+        lock.readLock().lock();
+        try {
+            if (parentUid != null) {
+                // checking each note of the collection is cheaper than
+                // expanding prefixes over the whole index
+                Set<String> uids = members.get(parentUid);
+                if (uids == null)
+                    return results;
+                for (String uid : uids) {
+                    Document doc = documents.get(uid);
+                    for (String[] query : queries) {
+                        if (doc.matches(query)) {
+                            results.add(uid);
+                            break;
+                        }
+                    }
+                }
+                return results;
+            }
+
+            for (String[] query : queries) {
+                Set<String> matched = null;
+                for (String word : query) {
+                    Set<String> uids = findByPrefix(word);
+                    if (matched == null)
+                        matched = uids;
+                    else
+                        matched.retainAll(uids);
+                    if (matched.isEmpty())
+                        break;
+                }
+                results.addAll(matched);
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @ManagedAttribute
+    public boolean isAvailable() {
+        return available;
+    }
+
+    public void beginRebuild() {
+        lock.writeLock().lock();
+        try {
+            available = false;
+            postings.clear();
+            members.clear();
+            documents.clear();
+            dirty = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        // a partially rebuilt index must not be loaded on restart
+        if (indexFile.exists() && ! indexFile.delete())
+            log.warn("unable to delete search index " + indexFile);
+        File backupFile = getBackupFile();
+        if (backupFile.exists() && ! backupFile.delete())
+            log.warn("unable to delete search index " + backupFile);
+    }
+
+    public void endRebuild() {
+        available = true;
+        dirty = true;
+        flush();
+    }
+
+    // our methods
+
+    /**
+     * Loads the index file, if present, and starts the background
+     * writer.
+     */
+    public void init() {
+        if (indexFile == null)
+            indexFile = new File(System.getProperty("user.home"),
+                                 ".cosmo" + File.separator + "search.idx");
+
+        load();
+
+        if (flushInterval > 0) {
+            timer = new Timer("search-index-writer", true);
+            timer.schedule(new TimerTask() {
+                public void run() {
+                    try {
+                        flush();
+                    } catch (RuntimeException e) {
+                        log.error("unable to write search index", e);
+                    }
+                }
+            }, flushInterval, flushInterval);
+        }
+    }
+
+    /**
+     * Stops the background writer and saves any unwritten changes.
+     */
+    public void destroy() {
+        if (timer != null)
+            timer.cancel();
+        flush();
+    }
+
+    /**
+     * Write the index to the index file if it has changed since it
+     * was last written.  The index is written to a temporary file,
+     * which is synced to disk and then renamed over the index file,
+     * so a crash never leaves a partial index behind.  Where a file
+     * can't be renamed over an existing one, the old index file is
+     * first renamed to a backup file, which is loaded on startup if
+     * the crash happened before the new file was in place.
+     */
+    @ManagedOperation
+    public synchronized void flush() {
+        if (! dirty || ! available)
+            return;
+
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        if (parent != null && ! parent.exists())
+            parent.mkdirs();
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+
+        lock.readLock().lock();
+        try {
+            dirty = false;
+            FileOutputStream fileOut = new FileOutputStream(tmpFile);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(fileOut));
+            try {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(documents.size());
+                for (Document doc : documents.values())
+                    doc.write(out);
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            dirty = true;
+            log.error("unable to write search index " + tmpFile, e);
+            return;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (tmpFile.renameTo(indexFile))
+            return;
+
+        // the platform can't rename over an existing file
+        File backupFile = getBackupFile();
+        backupFile.delete();
+        if (indexFile.exists() && ! indexFile.renameTo(backupFile)) {
+            dirty = true;
+            log.error("unable to rename " + indexFile + " to " + backupFile);
+            return;
+        }
+        if (! tmpFile.renameTo(indexFile)) {
+            dirty = true;
+            log.error("unable to rename " + tmpFile + " to " + indexFile);
+            return;
+        }
+        backupFile.delete();
+    }
+
+    @ManagedAttribute
+    public int getSize() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @ManagedAttribute
+    public int getWordCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @ManagedAttribute
+    public String getIndexFile() {
+        return indexFile != null ? indexFile.getPath() : null;
+    }
+
+    /**
+     * @param indexFile path of the file the index is saved to;
+     *                  defaults to <code>~/.cosmo/search.idx</code>
+     */
+    public void setIndexFile(String indexFile) {
+        this.indexFile = new File(indexFile);
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * @param flushInterval milliseconds between background writes
+     *                      of the index; 0 to only write on shutdown
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Split text into lower-cased words of letters and digits.
+     * @param text text to split
+     * @return words of the text, in order
+     */
+    public static List<String> tokenize(String text) {
+        ArrayList<String> words = new ArrayList<String>();
+        if (text == null)
+            return words;
+
+        StringBuffer word = new StringBuffer();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (word.length() < MAX_WORD_LENGTH)
+                    word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0)
+            words.add(word.toString());
+        return words;
+    }
+
+    /**
+     * @return the searchable text of a note: its title, body, and
+     *         event location and description
+     */
+    public static List<String> getText(NoteItem note) {
+        ArrayList<String> text = new ArrayList<String>();
+        text.add(note.getDisplayName());
+        text.add(note.getBody());
+
+        BaseEventStamp stamp = StampUtils.getBaseEventStamp(note);
+        if (stamp != null) {
+            text.add(stamp.getLocation());
+            VEvent event = stamp.getEvent();
+            if (event != null && event.getDescription() != null)
+                text.add(event.getDescription().getValue());
+        }
+        return text;
+    }
+
+    /**
+     * @return file the previous index is kept in while it is replaced
+     */
+    private File getBackupFile() {
+        return new File(indexFile.getPath() + ".bak");
+    }
+
+    private void load() {
+        // a crash while the index file was replaced leaves the
+        // previous index in the backup file
+        File backupFile = getBackupFile();
+        if (! indexFile.exists() && backupFile.exists()) {
+            log.warn("recovering search index " + indexFile + " from "
+                     + backupFile);
+            if (! backupFile.renameTo(indexFile)) {
+                log.error("unable to rename " + backupFile + " to " + indexFile);
+                return;
+            }
+        }
+
+        if (! indexFile.exists()) {
+            log.info("search index " + indexFile + " not found");
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                if (in.readInt() != FORMAT_VERSION) {
+                    log.warn("search index " + indexFile + " has an unknown format");
+                    return;
+                }
+                int count = in.readInt();
+                lock.writeLock().lock();
+                try {
+                    for (int i = 0; i < count; i++)
+                        addDocument(Document.read(in));
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            log.warn("unable to read search index " + indexFile, e);
+            lock.writeLock().lock();
+            try {
+                postings.clear();
+                members.clear();
+                documents.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return;
+        }
+
+        available = true;
+        if (log.isInfoEnabled())
+            log.info("loaded " + documents.size() + " items from search index "
+                     + indexFile + " in "
+                     + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private Set<String> findByPrefix(String prefix) {
+        HashSet<String> uids = new HashSet<String>();
+        for (Set<String> postingUids :
+                 postings.subMap(prefix, prefix + Character.MAX_VALUE).values())
+            uids.addAll(postingUids);
+        return uids;
+    }
+
+    private void addDocument(Document doc) {
+        documents.put(doc.uid, doc);
+        for (String word : doc.words)
+            addPosting(postings, word, doc.uid);
+        for (String parent : doc.parents)
+            addPosting(members, parent, doc.uid);
+    }
+
+    private void removeDocument(Document doc) {
+        documents.remove(doc.uid);
+        for (String word : doc.words)
+            removePosting(postings, word, doc.uid);
+        for (String parent : doc.parents)
+            removePosting(members, parent, doc.uid);
+    }
+
+    private static void addPosting(Map<String, Set<String>> map, String key,
+                                   String uid) {
+        Set<String> uids = map.get(key);
+        if (uids == null) {
+            uids = new HashSet<String>(4);
+            map.put(key, uids);
+        }
+        uids.add(uid);
+    }
+
+    private static void removePosting(Map<String, Set<String>> map,
+                                      String key, String uid) {
+        Set<String> uids = map.get(key);
+        if (uids == null)
+            return;
+        uids.remove(uid);
+        if (uids.isEmpty())
+            map.remove(key);
+    }
+
+    /**
+     * The indexed words and collections of a note.  Words are sorted
+     * so that prefixes can be found by binary search.
+     */
+    private static class Document {
+        String uid;
+        long modified;
+        String[] words;
+        String[] parents;
+
+        Document(String uid, long modified, String[] words, String[] parents) {
+            this.uid = uid;
+            this.modified = modified;
+            this.words = words;
+            this.parents = parents;
+        }
+
+        boolean matches(String[] query) {
+            for (String prefix : query)
+                if (! hasPrefix(prefix))
+                    return false;
+            return true;
+        }
+
+        boolean hasPrefix(String prefix) {
+            int index = Arrays.binarySearch(words, prefix);
+            if (index >= 0)
+                return true;
+            index = -index - 1;
+            return index < words.length && words[index].startsWith(prefix);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(uid);
+            out.writeLong(modified);
+            writeStrings(out, words);
+            writeStrings(out, parents);
+        }
+
+        static Document read(DataInputStream in) throws IOException {
+            return new Document(in.readUTF(), in.readLong(), readStrings(in),
+                                readStrings(in));
+        }
+
+        private static void writeStrings(DataOutputStream out, String[] strings)
+            throws IOException {
+            out.writeInt(strings.length);
+            for (String s : strings)
+                out.writeUTF(s);
+        }
+
+        private static String[] readStrings(DataInputStream in)
+            throws IOException {
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++)
+                strings[i] = in.readUTF();
+            return strings;
+        }
+    }
+}
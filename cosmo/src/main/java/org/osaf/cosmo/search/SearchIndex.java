@@ -0,0 +1,82 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.search;
+
+import java.util.List;
+import java.util.Set;
+
+import org.osaf.cosmo.model.Item;
+
+/**
+ * Full-text index of the searchable text of items.
+ * <p>
+ * The index only narrows down the items that may match a search;
+ * callers are expected to load the returned items from the
+ * database, which drops uids of items that no longer exist or
+ * have moved to other collections.
+ *
+ * @see org.osaf.cosmo.model.filter.TextSearchFilter
+ */
+public interface SearchIndex {
+
+    /**
+     * Add an item to the index, replacing any previously indexed
+     * text.  Items that have no searchable text are ignored.
+     * @param item item to index
+     */
+    public void indexItem(Item item);
+
+    /**
+     * Remove an item from the index.
+     * @param uid uid of item to remove
+     */
+    public void removeItem(String uid);
+
+    /**
+     * Remove a collection from the index.  Items that belong to
+     * no other indexed collection are removed as well.
+     * @param uid uid of collection to remove
+     */
+    public void removeCollection(String uid);
+
+    /**
+     * Find the items that match any of the given terms.  Each word
+     * of a term matches the start of a word of the item's text, and
+     * all words of a term must be present for the term to match.
+     * @param terms search terms
+     * @param parentUid if present, only items in the collection with
+     *                  this uid are returned
+     * @return uids of matching items
+     */
+    public Set<String> search(List<String> terms, String parentUid);
+
+    /**
+     * @return true if the index is complete and may be used to
+     *         answer searches
+     */
+    public boolean isAvailable();
+
+    /**
+     * Empty the index and mark it unavailable until
+     * {@link #endRebuild()} is called.
+     */
+    public void beginRebuild();
+
+    /**
+     * Mark a rebuilt index available.
+     */
+    public void endRebuild();
+}
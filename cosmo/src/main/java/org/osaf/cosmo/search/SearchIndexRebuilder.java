@@ -0,0 +1,196 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.search;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.osaf.cosmo.model.Item;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.orm.hibernate3.SessionFactoryUtils;
+import org.springframework.orm.hibernate3.SessionHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Rebuilds a <code>SearchIndex</code> from the database in a
+ * background thread.  Notes are read a page at a time, ordered by
+ * uid, and the session is cleared after each page so memory use
+ * does not grow with the number of notes.
+ * <p>
+ * A rebuild is started on startup if the index is not available,
+ * and can be started at any time through JMX.  Searches fall back
+ * to querying the database while a rebuild is running.
+ */
+@ManagedResource(objectName="cosmo:name=searchIndexRebuilder", description="Cosmo Search Index Rebuilder")
+public class SearchIndexRebuilder {
+    private static final Log log = LogFactory.getLog(SearchIndexRebuilder.class);
+
+    private SessionFactory sessionFactory;
+    private SearchIndex searchIndex;
+    private int pageSize = 100;
+    private long startDelay = 30000;
+
+    private Thread thread;
+    private volatile boolean stopped = false;
+    private volatile long itemsIndexed = 0;
+
+    /**
+     * Starts a rebuild if the index is not available.
+     */
+    public void init() {
+        if (sessionFactory == null)
+            throw new IllegalStateException("sessionFactory must not be null");
+        if (searchIndex == null)
+            throw new IllegalStateException("searchIndex must not be null");
+
+        if (! searchIndex.isAvailable())
+            start(startDelay);
+    }
+
+    /**
+     * Stops a running rebuild.
+     */
+    public void destroy() {
+        stopped = true;
+        Thread running = thread;
+        if (running != null)
+            running.interrupt();
+    }
+
+    /**
+     * Start rebuilding the index, unless a rebuild is already
+     * running.
+     */
+    @ManagedOperation
+    public void rebuild() {
+        start(0);
+    }
+
+    @ManagedAttribute
+    public synchronized boolean isRebuilding() {
+        return thread != null;
+    }
+
+    @ManagedAttribute
+    public long getItemsIndexed() {
+        return itemsIndexed;
+    }
+
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    public void setSearchIndex(SearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    /**
+     * @param pageSize number of notes read from the database at once
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @param startDelay milliseconds to wait after startup before
+     *                   rebuilding the index
+     */
+    public void setStartDelay(long startDelay) {
+        this.startDelay = startDelay;
+    }
+
+    private synchronized void start(final long delay) {
+        if (thread != null)
+            return;
+
+        thread = new Thread("search-index-rebuilder") {
+            public void run() {
+                try {
+                    if (delay > 0)
+                        Thread.sleep(delay);
+                    rebuildIndex();
+                } catch (InterruptedException e) {
+                    log.info("search index rebuild interrupted");
+                } catch (RuntimeException e) {
+                    log.error("unable to rebuild search index", e);
+                } finally {
+                    synchronized (SearchIndexRebuilder.this) {
+                        thread = null;
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void rebuildIndex() {
+        long start = System.currentTimeMillis();
+        log.info("rebuilding search index");
+
+        Session session = bindSession();
+        try {
+            searchIndex.beginRebuild();
+            itemsIndexed = 0;
+
+            String lastUid = "";
+            while (! stopped) {
+                List<Item> page = session.getNamedQuery("noteItem.by.uid.after")
+                    .setParameter("uid", lastUid)
+                    .setMaxResults(pageSize).list();
+
+                for (Item item : page)
+                    searchIndex.indexItem(item);
+                itemsIndexed += page.size();
+                session.clear();
+
+                if (page.size() < pageSize) {
+                    searchIndex.endRebuild();
+                    if (log.isInfoEnabled())
+                        log.info("rebuilt search index with " + itemsIndexed
+                                 + " items in "
+                                 + (System.currentTimeMillis() - start) + " ms");
+                    return;
+                }
+                lastUid = page.get(page.size() - 1).getUid();
+            }
+        } finally {
+            releaseSession();
+        }
+    }
+
+    private Session bindSession() {
+        Session session = SessionFactoryUtils.getSession(sessionFactory, true);
+        session.setFlushMode(FlushMode.MANUAL);
+        TransactionSynchronizationManager.bindResource(sessionFactory,
+                new SessionHolder(session));
+        return session;
+    }
+
+    private void releaseSession() {
+        SessionHolder holder = (SessionHolder) TransactionSynchronizationManager
+                .getResource(sessionFactory);
+        Session s = holder.getSession();
+        TransactionSynchronizationManager.unbindResource(sessionFactory);
+        SessionFactoryUtils.closeSession(s);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.security;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Hex;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Remembers credentials that were recently verified, so that a
+ * client presenting the same credentials again within
+ * <code>timeToLive</code> milliseconds does not have them verified
+ * again.
+ * <p>
+ * Entries are keyed by a digest of the credentials, never by the
+ * credentials themselves, and hold the name of the principal they
+ * authenticate (a username or a ticket key) and a value that lets
+ * the principal be found again cheaply.  Principals themselves are
+ * not cached: the objects behind them belong to the session that
+ * loaded them, so they are loaded again for each request.
+ * <p>
+ * At most <code>maxEntries</code> entries are kept; the least
+ * recently used entry is dropped first.  Entries for a principal
+ * must be invalidated whenever the principal's credentials or
+ * status change.
+ */
+@ManagedResource(objectName="cosmo:name=authenticationCache", description="Cosmo Authentication Cache")
+public class AuthenticationCache {
+
+    private int maxEntries = 10000;
+    private long timeToLive = 120000;
+
+    private LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong expired = new AtomicLong();
+    private AtomicLong invalidated = new AtomicLong();
+
+    /**
+     * Computes the key for a set of credentials.
+     *
+     * @param parts the credentials, including anything that
+     *              distinguishes the kind of credentials
+     */
+    public static String key(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (String part : parts) {
+                if (part != null)
+                    digest.update(part.getBytes("UTF-8"));
+                digest.update((byte) 0);
+            }
+            return new String(Hex.encodeHex(digest.digest()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-1 digest not available", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 encoding not available", e);
+        }
+    }
+
+    /**
+     * @param key key of the credentials
+     * @return the value stored for the credentials, or null if they
+     *         have not been verified recently
+     */
+    public String get(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expires < System.currentTimeMillis()) {
+                entries.remove(key);
+                expired.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        }
+    }
+
+    /**
+     * Remembers verified credentials.
+     *
+     * @param key key of the credentials
+     * @param principal name of the principal the credentials
+     *                  authenticate
+     * @param value value to return for the credentials
+     */
+    public void put(String key, String principal, String value) {
+        Entry entry = new Entry(principal, value,
+                                System.currentTimeMillis() + timeToLive);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Forgets the credentials for a key.
+     */
+    public void remove(String key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Forgets all credentials for a principal.  If a transaction is
+     * active, the credentials are forgotten again once it completes,
+     * so that a request authenticated in the meantime against the
+     * old state is not remembered either.
+     *
+     * @param principal username or ticket key
+     */
+    public void invalidate(final String principal) {
+        if (principal == null)
+            return;
+        doInvalidate(principal);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronizationAdapter() {
+                        public void afterCompletion(int status) {
+                            doInvalidate(principal);
+                        }
+                    });
+        }
+    }
+
+    private void doInvalidate(String principal) {
+        synchronized (entries) {
+            for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+                if (principal.equals(it.next().principal)) {
+                    it.remove();
+                    invalidated.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    @ManagedOperation(description="Forgets all verified credentials")
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    @ManagedAttribute
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @ManagedAttribute
+    public long getHits() {
+        return hits.get();
+    }
+
+    @ManagedAttribute
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return percentage of lookups that found verified credentials
+     */
+    @ManagedAttribute
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total > 0 ? hits.get() * 100.0 / total : 0;
+    }
+
+    @ManagedAttribute
+    public long getExpired() {
+        return expired.get();
+    }
+
+    /**
+     * @return number of entries removed because their principal
+     *         changed
+     */
+    @ManagedAttribute
+    public long getInvalidated() {
+        return invalidated.get();
+    }
+
+    @ManagedAttribute
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @param maxEntries maximum number of credentials remembered
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    @ManagedAttribute
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * @param timeToLive milliseconds verified credentials are
+     *                   remembered
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    private static class Entry {
+        String principal;
+        String value;
+        long expires;
+
+        Entry(String principal, String value, long expires) {
+            this.principal = principal;
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.osaf.cosmo.security.aop;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.Set;
 
@@ -30,6 +31,7 @@ import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
 
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemMetadata;
 import org.osaf.cosmo.model.ItemSecurityException;
 import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.Ticket;
@@ -116,6 +118,27 @@ public class SecurityAdvice extends OrderedAdvice {
         return item;
     }
     
+    @Around("execution(* org.osaf.cosmo.service.ContentService.findItemsByUids(..)) &&"
+            + "args(uids)")
+    public Object checkFindItemsByUids(ProceedingJoinPoint pjp,
+            Collection<String> uids) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkFindItemsByUids(uids)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        // check every item of the batch with the same security context
+        CosmoSecurityContext context = securityManager.getSecurityContext();
+        Set<Item> items = (Set<Item>) pjp.proceed();
+        for(Item item: items) {
+            if (!securityHelper.hasReadAccess(context,item))
+                throwItemSecurityException(item, Permission.READ); 
+        }
+        
+        secured.set(Boolean.TRUE);
+        return items;
+    }
+    
     @Around("execution(* org.osaf.cosmo.service.ContentService.findItemByPath(..)) &&"
             + "args(path)")
     public Object checkFindItemByPath(ProceedingJoinPoint pjp,
@@ -154,6 +177,82 @@ public class SecurityAdvice extends OrderedAdvice {
         return item;
     }
     
+    @Around("execution(* org.osaf.cosmo.service.ContentService.findItemMetadataByUid(..)) &&"
+            + "args(uid)")
+    public Object checkFindItemMetadataByUid(ProceedingJoinPoint pjp,
+            String uid) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkFindItemMetadataByUid(uid)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        // access that can't be decided from the metadata is left
+        // to the caller's lookup of the item itself
+        ItemMetadata metadata = (ItemMetadata) pjp.proceed();
+        if(metadata!=null &&
+           !securityHelper.hasReadAccess(securityManager.getSecurityContext(),metadata))
+            metadata = null;
+        
+        secured.set(Boolean.TRUE);
+        return metadata;
+    }
+    
+    @Around("execution(* org.osaf.cosmo.service.ContentService.findItemMetadataByPath(..)) &&"
+            + "args(path)")
+    public Object checkFindItemMetadataByPath(ProceedingJoinPoint pjp,
+            String path) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkFindItemMetadataByPath(path)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        ItemMetadata metadata = (ItemMetadata) pjp.proceed();
+        if(metadata!=null &&
+           !securityHelper.hasReadAccess(securityManager.getSecurityContext(),metadata))
+            metadata = null;
+        
+        secured.set(Boolean.TRUE);
+        return metadata;
+    }
+    
+    @Around("execution(* org.osaf.cosmo.service.ContentService.findItemMetadataByPath(..)) &&"
+            + "args(path, parentUid)")
+    public Object checkFindItemMetadataByPathAndParent(ProceedingJoinPoint pjp,
+            String path, String parentUid) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkFindItemMetadataByPathAndParent(path,parentUid)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        ItemMetadata metadata = (ItemMetadata) pjp.proceed();
+        if(metadata!=null &&
+           !securityHelper.hasReadAccess(securityManager.getSecurityContext(),metadata))
+            metadata = null;
+        
+        secured.set(Boolean.TRUE);
+        return metadata;
+    }
+    
+    @Around("execution(* org.osaf.cosmo.service.ContentService.findChildrenByNames(..)) &&"
+            + "args(collection, names)")
+    public Object checkFindChildrenByNames(ProceedingJoinPoint pjp,
+            CollectionItem collection, Collection<String> names) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkFindChildrenByNames(collection, names)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        CosmoSecurityContext context = securityManager.getSecurityContext();
+        Set<Item> items = (Set<Item>) pjp.proceed();
+        for(Item item: items) {
+            if (!securityHelper.hasReadAccess(context,item))
+                throwItemSecurityException(item, Permission.READ); 
+        }
+        
+        secured.set(Boolean.TRUE);
+        return items;
+    }
+    
     @Around("execution(* org.osaf.cosmo.service.ContentService.findItemParentByPath(..)) &&"
             + "args(path)")
     public Object checkFindItemParentByPath(ProceedingJoinPoint pjp,
@@ -245,6 +344,135 @@ public class SecurityAdvice extends OrderedAdvice {
         return pjp.proceed();
     }
     
+    @Around("execution(* org.osaf.cosmo.service.ContentService.loadChangedChildren(..)) &&"
+            + "args(collection, sequence)")
+    public Object checkLoadChangedChildren(ProceedingJoinPoint pjp,
+            CollectionItem collection, long sequence) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkLoadChangedChildren(collection, sequence)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        if (!securityHelper.hasReadAccess(securityManager.getSecurityContext(),collection))
+            throwItemSecurityException(collection, Permission.READ); 
+        
+        secured.set(Boolean.TRUE);
+        return pjp.proceed();
+    }
+    
+    @Around("execution(* org.osaf.cosmo.service.ContentService.loadChildren(..)) &&"
+            + "args(collection, afterUid, maxResults)")
+    public Object checkLoadChildrenPage(ProceedingJoinPoint pjp,
+            CollectionItem collection, String afterUid, int maxResults) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkLoadChildrenPage(collection, afterUid, maxResults)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        if (!securityHelper.hasReadAccess(securityManager.getSecurityContext(),collection))
+            throwItemSecurityException(collection, Permission.READ); 
+        
+        secured.set(Boolean.TRUE);
+        return pjp.proceed();
+    }
+    
+    @Around("execution(* org.osaf.cosmo.service.ContentService.loadMembers(..)) &&"
+            + "args(collection, afterUid, maxResults)")
+    public Object checkLoadMembers(ProceedingJoinPoint pjp,
+            CollectionItem collection, String afterUid, int maxResults) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkLoadMembers(collection, afterUid, maxResults)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        if (!securityHelper.hasReadAccess(securityManager.getSecurityContext(),collection))
+            throwItemSecurityException(collection, Permission.READ); 
+        
+        secured.set(Boolean.TRUE);
+        return pjp.proceed();
+    }
+    
+    @Around("execution(* org.osaf.cosmo.service.ContentService.loadChangedChildren(..)) &&"
+            + "args(collection, sequence, afterUid, maxResults)")
+    public Object checkLoadChangedChildrenPage(ProceedingJoinPoint pjp,
+            CollectionItem collection, long sequence, String afterUid,
+            int maxResults) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkLoadChangedChildrenPage(collection, sequence, afterUid, maxResults)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        if (!securityHelper.hasReadAccess(securityManager.getSecurityContext(),collection))
+            throwItemSecurityException(collection, Permission.READ); 
+        
+        secured.set(Boolean.TRUE);
+        return pjp.proceed();
+    }
+    
+    @Around("execution(* org.osaf.cosmo.service.ContentService.findRemovedChildren(..)) &&"
+            + "args(collection, sequence)")
+    public Object checkFindRemovedChildren(ProceedingJoinPoint pjp,
+            CollectionItem collection, long sequence) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkFindRemovedChildren(collection, sequence)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        if (!securityHelper.hasReadAccess(securityManager.getSecurityContext(),collection))
+            throwItemSecurityException(collection, Permission.READ); 
+        
+        secured.set(Boolean.TRUE);
+        return pjp.proceed();
+    }
+    
+    @Around("execution(* org.osaf.cosmo.service.ContentService.getFirstChangeSequence(..)) &&"
+            + "args(collection)")
+    public Object checkGetFirstChangeSequence(ProceedingJoinPoint pjp,
+            CollectionItem collection) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkGetFirstChangeSequence(collection)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        if (!securityHelper.hasReadAccess(securityManager.getSecurityContext(),collection))
+            throwItemSecurityException(collection, Permission.READ); 
+        
+        secured.set(Boolean.TRUE);
+        return pjp.proceed();
+    }
+    
+    @Around("execution(* org.osaf.cosmo.service.ContentService.findChangesForCollection(..)) &&"
+            + "args(collection, cursor, maxResults)")
+    public Object checkFindChangesForCollection(ProceedingJoinPoint pjp,
+            CollectionItem collection, long cursor, int maxResults) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkFindChangesForCollection(collection, cursor, maxResults)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        if (!securityHelper.hasReadAccess(securityManager.getSecurityContext(),collection))
+            throwItemSecurityException(collection, Permission.READ); 
+        
+        secured.set(Boolean.TRUE);
+        return pjp.proceed();
+    }
+    
+    @Around("execution(* org.osaf.cosmo.service.ContentService.findChangesForUser(..)) &&"
+            + "args(user, cursor, maxResults)")
+    public Object checkFindChangesForUser(ProceedingJoinPoint pjp,
+            User user, long cursor, int maxResults) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkFindChangesForUser(user, cursor, maxResults)");
+        if (!enabled)
+            return pjp.proceed();
+        if (!securityHelper.hasUserAccess(securityManager.getSecurityContext(),user))
+            throw new CosmoSecurityException(
+                    "principal does not have access to user "
+                            + user.getUid());
+        secured.set(Boolean.TRUE);
+        return pjp.proceed();
+    }
+    
     @Around("execution(* org.osaf.cosmo.service.ContentService.createCollection(..)) &&"
             + "args(parent, collection)")
     public Object checkCreateCollection(ProceedingJoinPoint pjp,
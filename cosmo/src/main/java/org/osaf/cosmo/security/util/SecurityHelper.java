@@ -22,6 +22,7 @@ import org.osaf.cosmo.dao.UserDao;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.CollectionSubscription;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemMetadata;
 import org.osaf.cosmo.model.Ticket;
 import org.osaf.cosmo.model.User;
 import org.osaf.cosmo.model.filter.ItemFilter;
@@ -103,7 +104,29 @@ public class SecurityHelper {
         return false;
     }
     
-   
+    /**
+     * Determines read access from item metadata alone.  Only the
+     * cases that don't need the item are decided: the context is an
+     * admin or owns the item.  Access through parent collections,
+     * tickets or subscriptions is not considered, so a false result
+     * means access must be checked against the item itself.
+     * @param context security context
+     * @param metadata metadata of existing item
+     * @return true if the security context has sufficient privileges
+     *         to view the item
+     */
+    public boolean hasReadAccess(CosmoSecurityContext context,
+                                 ItemMetadata metadata) {
+        User user = context.getUser();
+        if(user==null)
+            return false;
+        
+        if(user.getAdmin()!=null && user.getAdmin().booleanValue())
+            return true;
+        
+        return user.getUsername().equals(metadata.getOwnerUsername());
+    }
+    
     public boolean hasWriteTicketAccess(CosmoSecurityContext context, Item item) {
         if(context.getUser()==null)
             return false;
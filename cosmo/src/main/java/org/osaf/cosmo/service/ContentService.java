@@ -15,7 +15,9 @@
  */
 package org.osaf.cosmo.service;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 
@@ -25,6 +27,9 @@ import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
 import org.osaf.cosmo.model.HomeCollectionItem;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemMetadata;
+import org.osaf.cosmo.model.ItemChangeRecord;
+import org.osaf.cosmo.model.ItemTombstone;
 import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.Ticket;
 import org.osaf.cosmo.model.User;
@@ -53,6 +58,17 @@ public interface ContentService extends Service {
      */
     public Item findItemByUid(String uid);
 
+    /**
+     * Find all items with the specified uids, including occurrences
+     * of recurring items.  Uids that do not represent an item are
+     * ignored.
+     *
+     * @param uids
+     *            uids of items to find
+     * @return items represented by the uids
+     */
+    public Set<Item> findItemsByUids(Collection<String> uids);
+
     /**
      * Find content item by path. Path is of the format:
      * /username/parent1/parent2/itemname.
@@ -71,6 +87,62 @@ public interface ContentService extends Service {
      */
     public Item findItemByPath(String path,
                                String parentUid);
+
+    /**
+     * Find the metadata needed to evaluate a conditional request
+     * for an item without loading the item.  Metadata is only
+     * returned if access to the item can be granted from the
+     * metadata alone; otherwise the item must be found with
+     * {@link #findItemByUid(String)}.
+     *
+     * @param uid
+     *            uid of item
+     * @return metadata of the item, or null
+     */
+    public ItemMetadata findItemMetadataByUid(String uid);
+
+    /**
+     * Find the metadata needed to evaluate a conditional request
+     * for an item by path, without loading the item.  Metadata is
+     * only returned if access to the item can be granted from the
+     * metadata alone; otherwise the item must be found with
+     * {@link #findItemByPath(String)}.
+     *
+     * @param path
+     *            path of item
+     * @return metadata of the item, or null
+     */
+    public ItemMetadata findItemMetadataByPath(String path);
+
+    /**
+     * Find the metadata needed to evaluate a conditional request
+     * for an item by path relative to the identified parent item,
+     * without loading the item.  Metadata is only returned if access
+     * to the item can be granted from the metadata alone; otherwise
+     * the item must be found with
+     * {@link #findItemByPath(String, String)}.
+     *
+     * @param path
+     *            path of item
+     * @param parentUid
+     *            uid of parent that path is relative to
+     * @return metadata of the item, or null
+     */
+    public ItemMetadata findItemMetadataByPath(String path,
+                                               String parentUid);
+
+    /**
+     * Find the children of a collection with the specified names.
+     * Names that do not represent a child are ignored.
+     *
+     * @param collection
+     *            parent collection
+     * @param names
+     *            names of children to find
+     * @return children of the collection with the names
+     */
+    public Set<Item> findChildrenByNames(CollectionItem collection,
+                                         Collection<String> names);
     
     /**
      * Find content item's parent by path. Path is of the format:
@@ -143,6 +215,123 @@ public interface ContentService extends Service {
      *         timestamp, or all children if timestamp is null
      */
     public Set<ContentItem> loadChildren(CollectionItem collection, Date timestamp);
+    
+    /**
+     * Load a page of the children of a collection, ordered by uid.
+     * @param collection collection
+     * @param afterUid uid of the last child of the previous page, 
+     *                 or null for the first page
+     * @param maxResults maximum number of children to load
+     * @return children of collection with a uid greater than afterUid
+     */
+    public List<ContentItem> loadChildren(CollectionItem collection,
+                                          String afterUid, int maxResults);
+    
+    /**
+     * Load a page of the members of a collection, including
+     * subcollections, ordered by uid.
+     * @param collection collection
+     * @param afterUid uid of the last member of the previous page, 
+     *                 or null for the first page
+     * @param maxResults maximum number of members to load
+     * @return members of collection with a uid greater than afterUid
+     */
+    public List<Item> loadMembers(CollectionItem collection,
+                                  String afterUid, int maxResults);
+    
+    /**
+     * Load all children for collection that have been created, updated
+     * or added to the collection since a given change sequence.
+     * @param collection collection
+     * @param sequence change sequence
+     * @return children of collection that have changed since the
+     *         change sequence
+     */
+    public Set<ContentItem> loadChangedChildren(CollectionItem collection, long sequence);
+    
+    /**
+     * Load a page of the children of a collection that have changed
+     * since a given change sequence, ordered by uid.
+     * @param collection collection
+     * @param sequence change sequence
+     * @param afterUid uid of the last child of the previous page, 
+     *                 or null for the first page
+     * @param maxResults maximum number of children to load
+     * @return changed children of collection with a uid greater 
+     *         than afterUid
+     */
+    public List<ContentItem> loadChangedChildren(CollectionItem collection,
+                                                 long sequence,
+                                                 String afterUid,
+                                                 int maxResults);
+    
+    /**
+     * Release items that have been read and will not be used again
+     * in the current request, so that they no longer take up memory.
+     * @param items items to release
+     */
+    public void evictItems(Collection<? extends Item> items);
+    
+    /**
+     * Find the tombstones of all items that have been removed from
+     * a collection since a given change sequence.
+     * @param collection collection
+     * @param sequence change sequence
+     * @return tombstones for items removed since the change sequence
+     */
+    public List<ItemTombstone> findRemovedChildren(CollectionItem collection, long sequence);
+    
+    /**
+     * Return the oldest change sequence of a collection for which the
+     * change history is complete.
+     * @param collection collection
+     * @return oldest change sequence with complete history
+     */
+    public long getFirstChangeSequence(CollectionItem collection);
+    
+    /**
+     * Remove change history (change log entries and tombstones) 
+     * that is older than a given date.  Changes since a sequence
+     * older than the date can no longer be determined.
+     * @param date date before which history is removed
+     * @return number of change log entries removed
+     */
+    public int compactChangeHistory(Date date);
+    
+    /**
+     * Update the triage index of series whose entries have expired,
+     * and index notes that were never indexed.
+     * @param maxSeries maximum number of series to update
+     * @return number of series updated
+     */
+    public int refreshTriageIndex(int maxSeries);
+    
+    /**
+     * Find changes to a collection logged after a cursor, oldest
+     * first.  Returns an empty list if no event log is configured.
+     * @param collection collection
+     * @param cursor entry id of the last change already seen, or 0
+     *               to start from the oldest logged change
+     * @param maxResults maximum number of changes to return
+     * @return changes logged after the cursor
+     */
+    public List<ItemChangeRecord> findChangesForCollection(CollectionItem collection,
+                                                           long cursor,
+                                                           int maxResults);
+    
+    /**
+     * Find changes to the collections owned by a user logged after
+     * a cursor, oldest first.  Returns an empty list if no event log
+     * is configured.
+     * @param user owner of the collections
+     * @param cursor entry id of the last change already seen, or 0
+     *               to start from the oldest logged change
+     * @param maxResults maximum number of changes to return
+     * @return changes logged after the cursor
+     */
+    public List<ItemChangeRecord> findChangesForUser(User user,
+                                                     long cursor,
+                                                     int maxResults);
 
     /**
      * Create a new collection.
@@ -16,8 +16,13 @@
 package org.osaf.cosmo.service.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 
@@ -28,6 +33,7 @@ import org.apache.commons.logging.LogFactory;
 import org.osaf.cosmo.calendar.RecurrenceExpander;
 import org.osaf.cosmo.dao.CalendarDao;
 import org.osaf.cosmo.dao.ContentDao;
+import org.osaf.cosmo.dao.EventLogDao;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.CollectionLockedException;
 import org.osaf.cosmo.model.ContentItem;
@@ -35,6 +41,9 @@ import org.osaf.cosmo.model.DuplicateItemNameException;
 import org.osaf.cosmo.model.EventStamp;
 import org.osaf.cosmo.model.HomeCollectionItem;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemMetadata;
+import org.osaf.cosmo.model.ItemChangeRecord;
+import org.osaf.cosmo.model.ItemTombstone;
 import org.osaf.cosmo.model.ModelValidationException;
 import org.osaf.cosmo.model.ModificationUid;
 import org.osaf.cosmo.model.NoteItem;
@@ -44,10 +53,15 @@ import org.osaf.cosmo.model.StampUtils;
 import org.osaf.cosmo.model.Ticket;
 import org.osaf.cosmo.model.User;
 import org.osaf.cosmo.model.filter.ItemFilter;
+import org.osaf.cosmo.search.SearchIndex;
+import org.osaf.cosmo.security.AuthenticationCache;
 import org.osaf.cosmo.service.ContentService;
 import org.osaf.cosmo.service.lock.LockManager;
+import org.osaf.cosmo.service.notify.CollectionNotifier;
 import org.osaf.cosmo.service.triage.TriageStatusQueryContext;
 import org.osaf.cosmo.service.triage.TriageStatusQueryProcessor;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * Standard implementation of <code>ContentService</code>.
@@ -61,8 +75,12 @@ public class StandardContentService implements ContentService {
 
     private CalendarDao calendarDao;
     private ContentDao contentDao;
+    private EventLogDao eventLogDao;
     private LockManager lockManager;
     private TriageStatusQueryProcessor triageStatusQueryProcessor;
+    private SearchIndex searchIndex;
+    private CollectionNotifier collectionNotifier;
+    private AuthenticationCache authenticationCache;
   
     private long lockTimeout = 0;
 
@@ -122,6 +140,62 @@ public class StandardContentService implements ContentService {
         return null;
     }
 
+    /**
+     * Find all items with the specified uids, including occurrences
+     * of recurring items.  Items are loaded in batches rather than
+     * one query per uid.
+     *
+     * @param uids
+     *            uids of items to find
+     * @return items represented by the uids
+     */
+    public Set<Item> findItemsByUids(Collection<String> uids) {
+        if (log.isDebugEnabled()) {
+            log.debug("finding " + uids.size() + " items by uid");
+        }
+        Set<Item> items = contentDao.findItemsByUids(uids);
+        
+        HashSet<String> found = new HashSet<String>();
+        for(Item item: items)
+            found.add(item.getUid());
+        
+        // Uids that weren't found may represent occurences of
+        // recurring items, so look up their parents together.
+        ArrayList<ModificationUid> occurrenceUids = new ArrayList<ModificationUid>();
+        HashSet<String> parentUids = new HashSet<String>();
+        for(String uid: uids) {
+            if(found.contains(uid) ||
+               uid.indexOf(ModificationUid.RECURRENCEID_DELIMITER)==-1)
+                continue;
+            try {
+                ModificationUid modUid = new ModificationUid(uid);
+                occurrenceUids.add(modUid);
+                parentUids.add(modUid.getParentUid());
+            } catch (ModelValidationException e) {
+                // If ModificationUid is invalid, item isn't present
+            }
+        }
+        
+        if(occurrenceUids.isEmpty())
+            return items;
+        
+        HashMap<String, Item> parents = new HashMap<String, Item>();
+        for(Item item: contentDao.findItemsByUids(parentUids))
+            parents.put(item.getUid(), item);
+        
+        for(ModificationUid modUid: occurrenceUids) {
+            Item parent = parents.get(modUid.getParentUid());
+            if(!(parent instanceof NoteItem))
+                continue;
+            NoteOccurrence occurrence =
+                getNoteOccurrence((NoteItem) parent, modUid.getRecurrenceId());
+            if(occurrence!=null)
+                items.add(occurrence);
+        }
+        
+        return items;
+    }
+
     /**
      * Find content item by path. Path is of the format:
      * /username/parent1/parent2/itemname.
@@ -147,6 +221,48 @@ public class StandardContentService implements ContentService {
                       parentUid);
         return contentDao.findItemByPath(path, parentUid);
     }
+
+    /**
+     * Find the metadata of an item without loading the item.
+     */
+    public ItemMetadata findItemMetadataByUid(String uid) {
+        if (log.isDebugEnabled())
+            log.debug("finding metadata of item with uid " + uid);
+        return contentDao.findItemMetadataByUid(uid);
+    }
+
+    /**
+     * Find the metadata of an item by path without loading the item.
+     */
+    public ItemMetadata findItemMetadataByPath(String path) {
+        if (log.isDebugEnabled())
+            log.debug("finding metadata of item at path " + path);
+        return contentDao.findItemMetadataByPath(path);
+    }
+
+    /**
+     * Find the metadata of an item by path relative to the identified
+     * parent item without loading the item.
+     */
+    public ItemMetadata findItemMetadataByPath(String path,
+                                               String parentUid) {
+        if (log.isDebugEnabled())
+            log.debug("finding metadata of item at path " + path +
+                      " below parent " + parentUid);
+        return contentDao.findItemMetadataByPath(path, parentUid);
+    }
+
+    /**
+     * Find the children of a collection with the specified names.
+     * Names that do not represent a child are ignored.
+     */
+    public Set<Item> findChildrenByNames(CollectionItem collection,
+                                         Collection<String> names) {
+        if (log.isDebugEnabled())
+            log.debug("finding " + names.size() + " children of " +
+                      collection.getUid() + " by name");
+        return contentDao.findChildrenByNames(collection, names);
+    }
     
     /**
      * Find content item's parent by path. Path is of the format:
@@ -168,7 +284,8 @@ public class StandardContentService implements ContentService {
         }
         
         contentDao.addItemToCollection(item, collection);
-        contentDao.updateCollectionTimestamp(collection);
+        updateCollectionTimestamp(collection);
+        reindexItem(item);
     }
 
     /**
@@ -227,6 +344,12 @@ public class StandardContentService implements ContentService {
             // no need to synchronize if not ContentItem
             contentDao.copyItem(item, path, deepCopy);
         }
+        
+        Item copy = contentDao.findItemByPath(path);
+        if(copy instanceof CollectionItem)
+            reindexItems(((CollectionItem) copy).getChildren());
+        else
+            reindexItem(copy);
     }
   
     /**
@@ -255,7 +378,7 @@ public class StandardContentService implements ContentService {
                 
                 // update collections involved
                 for(CollectionItem parent : locks)
-                    contentDao.updateCollectionTimestamp(parent);
+                    updateCollectionTimestamp(parent);
                 
             } finally {
                 releaseLocks(locks);
@@ -266,6 +389,8 @@ public class StandardContentService implements ContentService {
             // remove item from oldParent
             contentDao.removeItemFromCollection(item, oldParent);
         }
+        
+        reindexItem(item);
     }
     
     /**
@@ -287,8 +412,11 @@ public class StandardContentService implements ContentService {
             removeContent((ContentItem) item);
         else if(item instanceof CollectionItem)
             removeCollection((CollectionItem) item);
-        else
+        else {
             contentDao.removeItem(item);
+            if(searchIndex!=null)
+                unindexItems(Collections.singletonList(item.getUid()));
+        }
     }
     
     /**
@@ -304,7 +432,8 @@ public class StandardContentService implements ContentService {
         }
         
         contentDao.removeItemFromCollection(item, collection);
-        contentDao.updateCollectionTimestamp(collection);
+        updateCollectionTimestamp(collection);
+        reindexItem(item);
     }
 
     
@@ -323,6 +452,99 @@ public class StandardContentService implements ContentService {
             java.util.Date timestamp) {
         return contentDao.loadChildren(collection, timestamp);
     }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.ContentService#loadChildren(org.osaf.cosmo.model.CollectionItem, java.lang.String, int)
+     */
+    public List<ContentItem> loadChildren(CollectionItem collection,
+            String afterUid, int maxResults) {
+        return contentDao.loadChildren(collection, afterUid, maxResults);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.ContentService#loadMembers(org.osaf.cosmo.model.CollectionItem, java.lang.String, int)
+     */
+    public List<Item> loadMembers(CollectionItem collection,
+            String afterUid, int maxResults) {
+        return contentDao.loadMembers(collection, afterUid, maxResults);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.ContentService#loadChangedChildren(org.osaf.cosmo.model.CollectionItem, long)
+     */
+    public Set<ContentItem> loadChangedChildren(CollectionItem collection,
+            long sequence) {
+        return contentDao.loadChangedChildren(collection, sequence);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.ContentService#loadChangedChildren(org.osaf.cosmo.model.CollectionItem, long, java.lang.String, int)
+     */
+    public List<ContentItem> loadChangedChildren(CollectionItem collection,
+            long sequence, String afterUid, int maxResults) {
+        return contentDao.loadChangedChildren(collection, sequence, afterUid,
+                maxResults);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.ContentService#evictItems(java.util.Collection)
+     */
+    public void evictItems(Collection<? extends Item> items) {
+        contentDao.evictItems(items);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.ContentService#findRemovedChildren(org.osaf.cosmo.model.CollectionItem, long)
+     */
+    public List<ItemTombstone> findRemovedChildren(CollectionItem collection,
+            long sequence) {
+        return contentDao.findRemovedChildren(collection, sequence);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.ContentService#getFirstChangeSequence(org.osaf.cosmo.model.CollectionItem)
+     */
+    public long getFirstChangeSequence(CollectionItem collection) {
+        return contentDao.getFirstChangeSequence(collection);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.ContentService#compactChangeHistory(java.util.Date)
+     */
+    public int compactChangeHistory(java.util.Date date) {
+        if (log.isDebugEnabled())
+            log.debug("compacting change history before " + date);
+        return contentDao.compactChangeHistory(date);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.ContentService#refreshTriageIndex(int)
+     */
+    public int refreshTriageIndex(int maxSeries) {
+        return triageStatusQueryProcessor.refreshTriageIndex(maxSeries);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.ContentService#findChangesForCollection(org.osaf.cosmo.model.CollectionItem, long, int)
+     */
+    public List<ItemChangeRecord> findChangesForCollection(CollectionItem collection,
+                                                           long cursor,
+                                                           int maxResults) {
+        if (eventLogDao == null)
+            return new ArrayList<ItemChangeRecord>(0);
+        return eventLogDao.findChangesForCollection(collection, cursor, maxResults);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.ContentService#findChangesForUser(org.osaf.cosmo.model.User, long, int)
+     */
+    public List<ItemChangeRecord> findChangesForUser(User user,
+                                                     long cursor,
+                                                     int maxResults) {
+        if (eventLogDao == null)
+            return new ArrayList<ItemChangeRecord>(0);
+        return eventLogDao.findChangesForUser(user, cursor, maxResults);
+    }
 
     /**
      * Create a new collection.
@@ -401,10 +623,12 @@ public class StandardContentService implements ContentService {
             
             // update timestamps on all collections involved
             for(CollectionItem lockedCollection : locks)
-               contentDao.updateCollectionTimestamp(lockedCollection);
+               updateCollectionTimestamp(lockedCollection);
             
             // update timestamp on new collection
-            collection = contentDao.updateCollectionTimestamp(collection);
+            collection = updateCollectionTimestamp(collection);
+            
+            reindexItems(childrenToUpdate);
             
             // get latest timestamp
             return collection;
@@ -502,10 +726,11 @@ public class StandardContentService implements ContentService {
             }
             
             collection = contentDao.updateCollection(collection, childrenToUpdate);
+            reindexItems(childrenToUpdate);
             
             // update collections involved
             for(CollectionItem lockedCollection : locks) {
-                lockedCollection = contentDao.updateCollectionTimestamp(lockedCollection);
+                lockedCollection = updateCollectionTimestamp(lockedCollection);
                 if(lockedCollection.getUid().equals(collection.getUid()))
                     collection = lockedCollection;
             }
@@ -534,6 +759,15 @@ public class StandardContentService implements ContentService {
             throw new IllegalArgumentException("cannot remove home collection");
         
         contentDao.removeCollection(collection);
+        if(searchIndex!=null) {
+            final String uid = collection.getUid();
+            afterCommit(new Runnable() {
+                public void run() {
+                    searchIndex.removeCollection(uid);
+                }
+            });
+        }
+        triageStatusQueryProcessor.removeFromTriageIndex(collection);
     }
 
     /**
@@ -564,8 +798,9 @@ public class StandardContentService implements ContentService {
             
             // update collections
             for(CollectionItem col : locks)
-                contentDao.updateCollectionTimestamp(col);
+                updateCollectionTimestamp(col);
             
+            reindexItem(content);
             return content;
         } finally {
             releaseLocks(locks);
@@ -595,7 +830,8 @@ public class StandardContentService implements ContentService {
             for(ContentItem content : contentItems)
                 contentDao.createContent(parent, content);
             
-            contentDao.updateCollectionTimestamp(parent);
+            updateCollectionTimestamp(parent);
+            reindexItems(contentItems);
         } finally {
             lockManager.unlockCollection(parent);
         }   
@@ -637,7 +873,9 @@ public class StandardContentService implements ContentService {
            
            // update collections
            for(CollectionItem parent : locks)
-               contentDao.updateCollectionTimestamp(parent);
+               updateCollectionTimestamp(parent);
+           
+           reindexItems(contentItems);
         } finally {
             releaseLocks(locks);
         }
@@ -665,8 +903,9 @@ public class StandardContentService implements ContentService {
             
             // update collections
             for(CollectionItem parent : locks)
-                contentDao.updateCollectionTimestamp(parent);
+                updateCollectionTimestamp(parent);
             
+            reindexItem(content);
             return content;
         } finally {
             releaseLocks(locks);
@@ -688,11 +927,23 @@ public class StandardContentService implements ContentService {
         
         Set<CollectionItem> locks = acquireLocks(content);
         
+        // removing a master note removes its modifications too
+        ArrayList<String> removedUids = new ArrayList<String>();
+        removedUids.add(content.getUid());
+        if(searchIndex!=null && content instanceof NoteItem)
+            for(NoteItem mod: ((NoteItem) content).getModifications())
+                removedUids.add(mod.getUid());
+        
         try {
             contentDao.removeContent(content);
             // update collections
             for(CollectionItem parent : locks)
-                contentDao.updateCollectionTimestamp(parent);
+                updateCollectionTimestamp(parent);
+            
+            if(searchIndex!=null)
+                unindexItems(removedUids);
+            if(content instanceof NoteItem)
+                triageStatusQueryProcessor.removeFromTriageIndex((NoteItem) content);
         } finally {
             releaseLocks(locks);
         }
@@ -815,6 +1066,8 @@ public class StandardContentService implements ContentService {
                       item.getUid());
         }
         contentDao.removeTicket(item, ticket);
+        if (authenticationCache != null)
+            authenticationCache.invalidate(ticket.getKey());
     }
 
     /**
@@ -837,6 +1090,8 @@ public class StandardContentService implements ContentService {
         if (ticket == null)
             return;
         contentDao.removeTicket(item, ticket);
+        if (authenticationCache != null)
+            authenticationCache.invalidate(key);
     }
 
     // Service methods
@@ -891,6 +1146,59 @@ public class StandardContentService implements ContentService {
         this.triageStatusQueryProcessor = triageStatusQueryProcessor;
     }
     
+    /** */
+    public EventLogDao getEventLogDao() {
+        return eventLogDao;
+    }
+
+    /**
+     * Event log read by the change feed.  Optional.
+     * @param eventLogDao
+     */
+    public void setEventLogDao(EventLogDao eventLogDao) {
+        this.eventLogDao = eventLogDao;
+    }
+    
+    /** */
+    public CollectionNotifier getCollectionNotifier() {
+        return collectionNotifier;
+    }
+
+    /**
+     * Notified of collection changes.  Optional.
+     * @param collectionNotifier
+     */
+    public void setCollectionNotifier(CollectionNotifier collectionNotifier) {
+        this.collectionNotifier = collectionNotifier;
+    }
+    
+    /** */
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Search index kept up to date with content changes.  Optional.
+     * @param searchIndex
+     */
+    public void setSearchIndex(SearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+    
+    /** */
+    public AuthenticationCache getAuthenticationCache() {
+        return authenticationCache;
+    }
+
+    /**
+     * Cache of recently verified credentials, invalidated when a
+     * ticket is removed.  Optional.
+     * @param authenticationCache
+     */
+    public void setAuthenticationCache(AuthenticationCache authenticationCache) {
+        this.authenticationCache = authenticationCache;
+    }
+    
     /** */
     public LockManager getLockManager() {
         return lockManager;
@@ -911,6 +1219,100 @@ public class StandardContentService implements ContentService {
         this.lockTimeout = lockTimeout;
     }
     
+    /**
+     * Update the search index and the triage index for items that
+     * were created, updated, or removed.  The triage index is kept
+     * per series, so each series is updated once, however many of
+     * its notes changed.
+     */
+    private void reindexItems(Collection<? extends Item> items) {
+        LinkedHashMap<String, NoteItem> masters = new LinkedHashMap<String, NoteItem>();
+        for(Item item: items) {
+            if(item==null)
+                continue;
+            if(item instanceof NoteItem) {
+                NoteItem note = (NoteItem) item;
+                NoteItem master = note.getModifies()!=null ? note.getModifies() : note;
+                masters.put(master.getUid(), master);
+            }
+            updateSearchIndex(item);
+        }
+        for(NoteItem master: masters.values())
+            triageStatusQueryProcessor.updateTriageIndex(master);
+    }
+    
+    private void reindexItem(Item item) {
+        if(item==null)
+            return;
+        if(item instanceof NoteItem)
+            triageStatusQueryProcessor.updateTriageIndex((NoteItem) item);
+        updateSearchIndex(item);
+    }
+    
+    private void updateSearchIndex(final Item item) {
+        if(searchIndex==null)
+            return;
+        if(Boolean.FALSE.equals(item.getIsActive()) || item.getParents().isEmpty()) {
+            unindexItems(Collections.singletonList(item.getUid()));
+            return;
+        }
+        afterCommit(new Runnable() {
+            public void run() {
+                searchIndex.indexItem(item);
+            }
+        });
+    }
+    
+    /**
+     * Remove items from the search index once the current
+     * transaction commits.
+     */
+    private void unindexItems(final Collection<String> uids) {
+        afterCommit(new Runnable() {
+            public void run() {
+                for(String uid: uids)
+                    searchIndex.removeItem(uid);
+            }
+        });
+    }
+    
+    /**
+     * Update the timestamp of a collection and, once the current
+     * transaction commits, notify clients waiting for it to change.
+     */
+    private CollectionItem updateCollectionTimestamp(CollectionItem collection) {
+        collection = contentDao.updateCollectionTimestamp(collection);
+        if(collectionNotifier==null)
+            return collection;
+        
+        final String uid = collection.getUid();
+        afterCommit(new Runnable() {
+            public void run() {
+                collectionNotifier.publish(uid);
+            }
+        });
+        return collection;
+    }
+    
+    /**
+     * Run a task once the current transaction commits, so that
+     * nothing outside the database sees changes that are rolled
+     * back.  Without a transaction, the task is run right away.
+     */
+    private void afterCommit(final Runnable task) {
+        if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+            task.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronizationAdapter() {
+                    public void afterCompletion(int status) {
+                        if(status==STATUS_COMMITTED)
+                            task.run();
+                    }
+                });
+    }
+    
     /**
      * Given a set of items, aquire a lock on all parents
      */
@@ -15,13 +15,16 @@
  */
 package org.osaf.cosmo.service.impl;
 
+import java.math.BigDecimal;
+import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -33,10 +36,12 @@ import net.fortuna.ical4j.model.TimeZone;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.osaf.cosmo.calendar.Instance;
-import org.osaf.cosmo.calendar.InstanceList;
+import org.osaf.cosmo.calendar.OccurrenceList;
 import org.osaf.cosmo.calendar.RecurrenceExpander;
 import org.osaf.cosmo.dao.ContentDao;
+import org.osaf.cosmo.dao.ServerPropertyDao;
+import org.osaf.cosmo.dao.TriageIndexDao;
+import org.osaf.cosmo.model.BaseEventStamp;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.EventStamp;
 import org.osaf.cosmo.model.Item;
@@ -45,7 +50,9 @@ import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.NoteItemTriageStatusComparator;
 import org.osaf.cosmo.model.NoteOccurrence;
 import org.osaf.cosmo.model.NoteOccurrenceUtil;
+import org.osaf.cosmo.model.ServerProperty;
 import org.osaf.cosmo.model.StampUtils;
+import org.osaf.cosmo.model.TriageIndexEntry;
 import org.osaf.cosmo.model.TriageStatus;
 import org.osaf.cosmo.model.filter.ContentItemFilter;
 import org.osaf.cosmo.model.filter.EventStampFilter;
@@ -59,16 +66,43 @@ import org.osaf.cosmo.service.triage.TriageStatusQueryProcessor;
  * Standard implementation of TriageStatusQueryProcessor that
  * uses NoteItemFilters and custom logic to process a 
  * TriageStatus query.
+ * <p>
+ * If a <code>TriageIndexDao</code> is configured, the processor also
+ * maintains a triage index: for each collection, the notes,
+ * modifications and occurrences a collection query returns, with
+ * the triage status they are returned with.  Once every note has been
+ * indexed, collection queries read the index instead of evaluating
+ * the rules below.  The entries of a recurring series are evaluated
+ * at a point in time and are valid until the next occurrence starts
+ * or ends, or for at most <code>maxEntryAge</code> milliseconds;
+ * expired series are evaluated again by
+ * <code>refreshTriageIndex()</code>, or at query time if that hasn't
+ * happened yet.
  */
 public class StandardTriageStatusQueryProcessor implements
         TriageStatusQueryProcessor {
 
     private ContentDao contentDao = null;
+    private TriageIndexDao triageIndexDao = null;
+    private ServerPropertyDao serverPropertyDao = null;
     
     private static final Log log = LogFactory.getLog(StandardTriageStatusQueryProcessor.class);
     private static final Comparator<NoteItem> COMPARE_ASC = new NoteItemTriageStatusComparator(false);
     private static final Comparator<NoteItem> COMPARE_DESC = new NoteItemTriageStatusComparator(true);
     
+    // triage status rank, as ContentItemFilter.ORDER_BY_TRIAGE_STATUS_RANK_ASC
+    private static final Comparator<NoteItem> COMPARE_RANK = new Comparator<NoteItem>() {
+        public int compare(NoteItem note1, NoteItem note2) {
+            BigDecimal rank1 = note1.getTriageStatus().getRank();
+            BigDecimal rank2 = note2.getTriageStatus().getRank();
+            if(rank1==null)
+                return rank2==null ? 0 : 1;
+            if(rank2==null)
+                return -1;
+            return rank1.compareTo(rank2);
+        }
+    };
+    
     // Durations used to search forward/backward for recurring events
     // and used to determine time periods that events will be expanded
     // to determine the previous/next occurrence
@@ -84,12 +118,24 @@ public class StandardTriageStatusQueryProcessor implements
     // number of DONE items to return
     private int maxDone = 25;
     
+    // maximum time entries of a recurring series stay valid (1 hour)
+    private long maxEntryAge = 60 * 60 * 1000L;
+    
+    // validity of entries that don't depend on the point in time
+    private static final Date ALWAYS_FROM = new Date(Long.MIN_VALUE);
+    private static final Date ALWAYS_UNTIL = new Date(Long.MAX_VALUE);
+    
+    // set once every note has been indexed
+    private volatile boolean triageIndexComplete = false;
+    
     /* (non-Javadoc)
      * @see org.osaf.cosmo.service.triage.TriageStatusQueryProcessor#processTriageStatusQuery(org.osaf.cosmo.model.CollectionItem, java.lang.String, java.util.Date, net.fortuna.ical4j.model.TimeZone)
      */
     public SortedSet<NoteItem>
         processTriageStatusQuery(CollectionItem collection,
                                  TriageStatusQueryContext context) {
+        if (isTriageIndexAvailable())
+            return getFromTriageIndex(collection, context).merge();
         if (context.isAll())
             return getAll(collection, context).merge();
         if (context.isDone())
@@ -236,22 +282,20 @@ public class StandardTriageStatusQueryProcessor implements
                                 TriageStatusQueryContext context) {
         EventStamp eventStamp = StampUtils.getEventStamp(note);
         DateTime currentDate = new DateTime(context.getPointInTime()); 
-        RecurrenceExpander expander = new RecurrenceExpander();
         HashSet<NoteItem> results = new HashSet<NoteItem>();
         
         // Get all occurrences that overlap current instance in time
-        InstanceList occurrences = expander.getOcurrences(
-                eventStamp.getEvent(), eventStamp.getExceptions(), currentDate,
+        OccurrenceList occurrences = getOccurrences(eventStamp, currentDate,
                 currentDate, context.getTimeZone());
         
-        for(Instance instance: (Collection<Instance>) occurrences.values()) {
+        for(int i=0; i<occurrences.size(); i++) {
             // Not interested in modifications
-            if(!instance.isOverridden()) {
+            if(!occurrences.isOverridden(i)) {
                 // add occurrence
-                results.add(NoteOccurrenceUtil.createNoteOccurrence(instance.getRid(), note));
+                results.add(NoteOccurrenceUtil.createNoteOccurrence(occurrences.getRecurrenceId(i), note));
             } else {
                 // return modification if it has no triage-status
-                ModificationUid modUid = new ModificationUid(note, instance.getRid());
+                ModificationUid modUid = new ModificationUid(note, occurrences.getRecurrenceId(i));
                 NoteItem mod = (NoteItem) contentDao.findItemByUid(modUid.toString());
                 if(mod.getTriageStatus()==null || mod.getTriageStatus().getCode()==null)
                     results.add(mod);
@@ -494,18 +538,14 @@ public class StandardTriageStatusQueryProcessor implements
     private NoteItem getLatestInstanceOrModification(EventStamp event, Date rangeStart, Date rangeEnd,
             TimeZone timezone) {
         NoteItem note = (NoteItem) event.getItem();
-        RecurrenceExpander expander = new RecurrenceExpander();
-        
-        InstanceList instances = expander.getOcurrences(event.getEvent(), event.getExceptions(),
-                new DateTime(rangeStart), new DateTime(rangeEnd), timezone);
+        OccurrenceList instances = getOccurrences(event, new DateTime(rangeStart),
+                new DateTime(rangeEnd), timezone);
 
         // Find the latest occurrence that ends before the end of the range
-        while (instances.size() > 0) {
-            String lastKey = (String) instances.lastKey();
-            Instance instance = (Instance) instances.remove(lastKey);
-            if (instance.getEnd().before(rangeEnd)) {
-                if(instance.isOverridden()) {
-                    ModificationUid modUid = new ModificationUid(note, instance.getRid());
+        for(int i=instances.size()-1; i>=0; i--) {
+            if (instances.getEnd(i) < rangeEnd.getTime()) {
+                if(instances.isOverridden(i)) {
+                    ModificationUid modUid = new ModificationUid(note, instances.getRecurrenceId(i));
                     NoteItem mod = (NoteItem) contentDao.findItemByUid(modUid.toString());
                     // shouldn't happen, but log and continue if it does
                     if(mod==null) {
@@ -516,7 +556,7 @@ public class StandardTriageStatusQueryProcessor implements
                     if(status==null || status.getCode().equals(TriageStatus.CODE_DONE))
                         return mod;
                 } else {
-                    return NoteOccurrenceUtil.createNoteOccurrence(instance.getRid(), note);
+                    return NoteOccurrenceUtil.createNoteOccurrence(instances.getRecurrenceId(i), note);
                 }
             }
                 
@@ -535,17 +575,14 @@ public class StandardTriageStatusQueryProcessor implements
      */
     private NoteItem getFirstInstanceOrModification(EventStamp event, Date rangeStart, Date rangeEnd, TimeZone timezone) {
         NoteItem note = (NoteItem) event.getItem();
-        RecurrenceExpander expander = new RecurrenceExpander();
-        
-        InstanceList instances = expander.getOcurrences(event.getEvent(), event.getExceptions(), new DateTime(rangeStart), new DateTime(rangeEnd), timezone );
+        OccurrenceList instances = getOccurrences(event, new DateTime(rangeStart),
+                new DateTime(rangeEnd), timezone);
      
         // Find the first occurrence that begins after the start range
-        while(instances.size()>0) {
-            String firstKey = (String) instances.firstKey();
-            Instance instance = (Instance) instances.remove(firstKey);
-            if(instance.getStart().after(rangeStart)) {
-                if(instance.isOverridden()) {
-                    ModificationUid modUid = new ModificationUid(note, instance.getRid());
+        for(int i=0; i<instances.size(); i++) {
+            if(instances.getStart(i) > rangeStart.getTime()) {
+                if(instances.isOverridden(i)) {
+                    ModificationUid modUid = new ModificationUid(note, instances.getRecurrenceId(i));
                     NoteItem mod = (NoteItem) contentDao.findItemByUid(modUid.toString());
                     // shouldn't happen, but log and continue if it does
                     if(mod==null) {
@@ -556,7 +593,7 @@ public class StandardTriageStatusQueryProcessor implements
                     if(status==null || status.getCode().equals(TriageStatus.CODE_LATER))
                         return mod;
                 } else {
-                    return NoteOccurrenceUtil.createNoteOccurrence(instance.getRid(), note);
+                    return NoteOccurrenceUtil.createNoteOccurrence(instances.getRecurrenceId(i), note);
                 }
             }   
         }
@@ -612,6 +649,402 @@ public class StandardTriageStatusQueryProcessor implements
         return eventNoteFilter;
     }
     
+    public void updateTriageIndex(NoteItem note) {
+        if(triageIndexDao==null)
+            return;
+        
+        // entries are kept per series
+        NoteItem master = note.getModifies()!=null ? note.getModifies() : note;
+        if(Boolean.FALSE.equals(master.getIsActive()) || master.getParents().isEmpty()) {
+            triageIndexDao.removeEntries(master.getUid());
+            return;
+        }
+        
+        triageIndexDao.updateEntries(master, createIndexEntries(master, new Date()));
+    }
+    
+    public void removeFromTriageIndex(NoteItem note) {
+        if(triageIndexDao==null)
+            return;
+        
+        if(note.getModifies()!=null)
+            updateTriageIndex(note.getModifies());
+        else
+            triageIndexDao.removeEntries(note.getUid());
+    }
+    
+    public void removeFromTriageIndex(CollectionItem collection) {
+        if(triageIndexDao!=null)
+            triageIndexDao.removeEntries(collection);
+    }
+    
+    public int refreshTriageIndex(int maxSeries) {
+        if(triageIndexDao==null)
+            return 0;
+        
+        HashSet<String> uids = new HashSet<String>(
+                triageIndexDao.findExpiredMasterUids(new Date(), maxSeries));
+        
+        // index notes that were never indexed
+        boolean complete = false;
+        if(uids.size() < maxSeries) {
+            int max = maxSeries - uids.size();
+            List<String> unindexed = triageIndexDao.findUnindexedMasterUids(max);
+            uids.addAll(unindexed);
+            complete = unindexed.size() < max;
+        }
+        
+        HashSet<String> missing = new HashSet<String>(uids);
+        for(Item item: contentDao.findItemsByUids(uids)) {
+            missing.remove(item.getUid());
+            if(item instanceof NoteItem)
+                updateTriageIndex((NoteItem) item);
+        }
+        
+        // drop entries of notes that were removed without going
+        // through the content service
+        for(String uid: missing)
+            triageIndexDao.removeEntries(uid);
+        
+        if(complete && !triageIndexComplete && serverPropertyDao!=null) {
+            log.info("triage index is complete");
+            serverPropertyDao.setServerProperty(
+                    ServerProperty.PROP_TRIAGE_INDEX_COMPLETE, "true");
+            triageIndexComplete = true;
+        }
+        
+        return uids.size();
+    }
+    
+    private boolean isTriageIndexAvailable() {
+        if(triageIndexDao==null)
+            return false;
+        if(!triageIndexComplete && serverPropertyDao!=null)
+            triageIndexComplete = "true".equals(serverPropertyDao
+                    .getServerProperty(ServerProperty.PROP_TRIAGE_INDEX_COMPLETE));
+        return triageIndexComplete;
+    }
+    
+    /**
+     * Query the triage index of a collection.  Series with entries
+     * that aren't valid at the point in time, or that were evaluated
+     * using floating times while the query uses another timezone, are
+     * evaluated again using the rules of the collection queries.
+     */
+    private QueryResult getFromTriageIndex(CollectionItem collection,
+                                           TriageStatusQueryContext context) {
+        Integer code = getTriageCode(context);
+        Date pointInTime = context.getPointInTime();
+        boolean resolveFloating = context.getTimeZone()!=null;
+        
+        List<TriageIndexEntry> entries = triageIndexDao.findEntries(
+                collection, code, pointInTime, resolveFloating);
+        
+        HashSet<String> expired = new HashSet<String>();
+        HashSet<String> uids = new HashSet<String>();
+        for(TriageIndexEntry entry: entries) {
+            if(!entry.isValid(pointInTime) || (resolveFloating && entry.isFloating()))
+                expired.add(entry.getMasterUid());
+            else if(entry.getTriageCode()!=null)
+                uids.add(entry.getItemUid());
+        }
+        
+        ArrayList<Triage> triaged = new ArrayList<Triage>();
+        
+        Map<String, NoteItem> notes = findNotes(uids);
+        for(TriageIndexEntry entry: entries) {
+            if(entry.getTriageCode()==null || expired.contains(entry.getMasterUid()))
+                continue;
+            
+            // entries of notes that no longer exist are ignored
+            NoteItem note = notes.get(entry.getItemUid());
+            if(note==null)
+                continue;
+            
+            if(entry.getRecurrenceId()!=null) {
+                try {
+                    note = NoteOccurrenceUtil.createNoteOccurrence(
+                            ModificationUid.fromStringToDate(entry.getRecurrenceId()), note);
+                } catch (ParseException e) {
+                    log.error("invalid recurrence id in triage index: " + entry.getRecurrenceId());
+                    continue;
+                }
+            }
+            triaged.add(new Triage(note, entry.getTriageCode().intValue()));
+        }
+        
+        for(NoteItem master: findNotes(expired).values())
+            if(master.getModifies()==null)
+                triaged.addAll(triage(master, context));
+        
+        QueryResult now = new QueryResult();
+        QueryResult later = new QueryResult(false, -1);
+        QueryResult done = new QueryResult(true, maxDone);
+        for(Triage t: triaged) {
+            if(code!=null && code.intValue()!=t.code)
+                continue;
+            QueryResult qr = t.code==TriageStatus.CODE_NOW ? now :
+                t.code==TriageStatus.CODE_LATER ? later : done;
+            qr.getResults().add(t.note);
+            if(t.note instanceof NoteOccurrence)
+                qr.getMasters().add(((NoteOccurrence) t.note).getMasterNote());
+            else if(t.note.getModifies()!=null)
+                qr.getMasters().add(t.note.getModifies());
+        }
+        
+        if(code==null) {
+            QueryResult qr = new QueryResult();
+            qr.add(now);
+            qr.add(done);
+            qr.add(later);
+            return qr;
+        }
+        if(code.intValue()==TriageStatus.CODE_DONE)
+            return limitExplicitDone(done);
+        return code.intValue()==TriageStatus.CODE_NOW ? now : later;
+    }
+    
+    /**
+     * Limit DONE results as the collection query does: notes with an
+     * explicit DONE triage status are limited to the maxDone of lowest
+     * rank, while the latest occurrences of recurring events are all
+     * kept.
+     */
+    private QueryResult limitExplicitDone(QueryResult done) {
+        ArrayList<NoteItem> explicit = new ArrayList<NoteItem>();
+        QueryResult qr = new QueryResult(true, maxDone);
+        for(NoteItem note: done.getResults()) {
+            if(!(note instanceof NoteOccurrence) && note.getTriageStatus()!=null
+                    && note.getTriageStatus().getCode()!=null
+                    && note.getTriageStatus().getCode().intValue()==TriageStatus.CODE_DONE)
+                explicit.add(note);
+            else
+                qr.getResults().add(note);
+        }
+        
+        Collections.sort(explicit, COMPARE_RANK);
+        for(int i=0; i<explicit.size() && i<maxDone; i++)
+            qr.getResults().add(explicit.get(i));
+        
+        for(NoteItem note: qr.getResults())
+            if(note instanceof NoteOccurrence)
+                qr.getMasters().add(((NoteOccurrence) note).getMasterNote());
+            else if(note.getModifies()!=null)
+                qr.getMasters().add(note.getModifies());
+        
+        return qr;
+    }
+    
+    private Integer getTriageCode(TriageStatusQueryContext context) {
+        if (context.isAll())
+            return null;
+        if (context.isDone())
+            return new Integer(TriageStatus.CODE_DONE);
+        else if (context.isNow())
+            return new Integer(TriageStatus.CODE_NOW);
+        else if (context.isLater())
+            return new Integer(TriageStatus.CODE_LATER);
+        else
+            throw new IllegalArgumentException("invalid status: " + context.getTriageStatus());
+    }
+    
+    private Map<String, NoteItem> findNotes(Set<String> uids) {
+        HashMap<String, NoteItem> notes = new HashMap<String, NoteItem>();
+        if(uids.isEmpty())
+            return notes;
+        for(Item item: contentDao.findItemsByUids(uids))
+            if(item instanceof NoteItem)
+                notes.put(item.getUid(), (NoteItem) item);
+        return notes;
+    }
+    
+    /**
+     * Create the triage index entries of a series, evaluated at a
+     * point in time using the server timezone.
+     */
+    private List<TriageIndexEntry> createIndexEntries(NoteItem master,
+                                                      Date pointInTime) {
+        TriageStatusQueryContext context =
+            new TriageStatusQueryContext(null, pointInTime, null);
+        EventStamp eventStamp = StampUtils.getEventStamp(master);
+        
+        // only the entries of recurring events depend on the point in time
+        Date validFrom = ALWAYS_FROM;
+        Date validUntil = ALWAYS_UNTIL;
+        boolean floating = false;
+        if(eventStamp!=null && eventStamp.isRecurring()) {
+            validFrom = pointInTime;
+            validUntil = getNextChange(eventStamp, pointInTime);
+            floating = isFloating(eventStamp);
+        }
+        
+        ArrayList<TriageIndexEntry> entries = new ArrayList<TriageIndexEntry>();
+        for(Triage t: triage(master, context)) {
+            TriageIndexEntry entry = createIndexEntry(master, validFrom, validUntil, floating);
+            if(t.note instanceof NoteOccurrence) {
+                net.fortuna.ical4j.model.Date rid =
+                    ((NoteOccurrence) t.note).getOccurrenceDate();
+                entry.setRecurrenceId(ModificationUid.fromDateToStringNoTimezone(rid));
+                entry.setEffectiveDate(new java.util.Date(rid.getTime()));
+            } else {
+                entry.setItemUid(t.note.getUid());
+                BaseEventStamp es = StampUtils.getBaseEventStamp(t.note);
+                if(es!=null && es.getStartDate()!=null)
+                    entry.setEffectiveDate(new java.util.Date(es.getStartDate().getTime()));
+            }
+            entry.setTriageCode(new Integer(t.code));
+            entry.setRank(NoteItemTriageStatusComparator.getRank(t.note));
+            entries.add(entry);
+        }
+        
+        // record the validity of a series without entries
+        if(entries.isEmpty())
+            entries.add(createIndexEntry(master, validFrom, validUntil, floating));
+        
+        return entries;
+    }
+    
+    private TriageIndexEntry createIndexEntry(NoteItem master, Date validFrom,
+                                              Date validUntil, boolean floating) {
+        TriageIndexEntry entry = new TriageIndexEntry();
+        entry.setMasterUid(master.getUid());
+        entry.setItemUid(master.getUid());
+        entry.setValidFrom(validFrom);
+        entry.setValidUntil(validUntil);
+        entry.setFloating(floating);
+        return entry;
+    }
+    
+    /**
+     * Determine the notes, modifications and occurrences of a series
+     * that a collection query returns, and the triage status each is
+     * returned with, using the same rules as the collection queries.
+     */
+    private List<Triage> triage(NoteItem master,
+                                TriageStatusQueryContext context) {
+        ArrayList<Triage> results = new ArrayList<Triage>();
+        HashSet<String> seen = new HashSet<String>();
+        EventStamp eventStamp = StampUtils.getEventStamp(master);
+        boolean recurring = eventStamp!=null && eventStamp.isRecurring();
+        
+        // non-recurring notes and modifications by their triage status
+        if(!recurring)
+            addByTriageStatus(results, seen, master);
+        for(NoteItem mod: master.getModifications())
+            addByTriageStatus(results, seen, mod);
+        
+        if(!recurring)
+            return results;
+        
+        for(NoteItem note: getNowFromRecurringNote(master, context))
+            addTriage(results, seen, note, TriageStatus.CODE_NOW);
+        
+        // per bug 10623: all modifications within the LATER range
+        Date laterEnd = yearLaterDur.getTime(context.getPointInTime());
+        for(NoteItem mod: master.getModifications())
+            if(overlaps(mod, eventStamp, context.getPointInTime(), laterEnd))
+                addTriage(results, seen, mod, TriageStatus.CODE_LATER);
+        
+        NoteItem later = getLaterFromRecurringNote(master, context);
+        if(later!=null)
+            addTriage(results, seen, later, TriageStatus.CODE_LATER);
+        
+        NoteItem done = getDoneFromRecurringNote(master, context);
+        if(done!=null)
+            addTriage(results, seen, done, TriageStatus.CODE_DONE);
+        
+        return results;
+    }
+    
+    private void addByTriageStatus(List<Triage> results, Set<String> seen,
+                                   NoteItem note) {
+        Integer code = note.getTriageStatus()!=null ?
+            note.getTriageStatus().getCode() : null;
+        if(code!=null)
+            addTriage(results, seen, note, code.intValue());
+        else if(note.getModifies()==null)
+            addTriage(results, seen, note, TriageStatus.CODE_NOW);
+    }
+    
+    private void addTriage(List<Triage> results, Set<String> seen,
+                           NoteItem note, int code) {
+        if(seen.add(code + ":" + note.getUid()))
+            results.add(new Triage(note, code));
+    }
+    
+    /**
+     * Determine if a modification overlaps a period, as an
+     * EventStampFilter with a time range would.
+     */
+    private boolean overlaps(NoteItem mod, EventStamp master, Date start,
+                             Date end) {
+        BaseEventStamp es = StampUtils.getBaseEventStamp(mod);
+        if(es==null || es.getStartDate()==null)
+            return false;
+        
+        Date modStart = es.getStartDate();
+        Date modEnd = es.getEndDate();
+        if(modEnd==null) {
+            Dur duration = master.getDuration();
+            modEnd = duration!=null ? duration.getTime(modStart) : modStart;
+        }
+        
+        if(!modEnd.after(modStart))
+            return !modStart.before(start) && modStart.before(end);
+        return modStart.before(end) && modEnd.after(start);
+    }
+    
+    /**
+     * Determine the point in time at which the triage status of the
+     * occurrences of a recurring event may next change: the next start
+     * or end of an occurrence, but no later than maxEntryAge after the
+     * point in time, so that entries found by expanding the ranges
+     * around the point in time move forward with it.
+     */
+    private Date getNextChange(EventStamp eventStamp, Date pointInTime) {
+        long from = pointInTime.getTime();
+        long next = from + maxEntryAge;
+        
+        OccurrenceList instances = getOccurrences(eventStamp,
+                new DateTime(pointInTime), new DateTime(next), null);
+        
+        for(int i=0; i<instances.size(); i++) {
+            long start = instances.getStart(i);
+            long end = instances.getEnd(i);
+            if(start > from && start < next)
+                next = start;
+            if(end > from && end < next)
+                next = end;
+        }
+        
+        return new Date(next);
+    }
+    
+    private boolean isFloating(EventStamp eventStamp) {
+        net.fortuna.ical4j.model.Date start = eventStamp.getStartDate();
+        if(start instanceof DateTime) {
+            DateTime dt = (DateTime) start;
+            return dt.getTimeZone()==null && !dt.isUtc();
+        }
+        
+        // all-day events are always floating
+        return true;
+    }
+    
+    /**
+     * Expand the occurrences of a recurring event, reusing earlier
+     * expansions of the event where possible.
+     */
+    private OccurrenceList getOccurrences(EventStamp eventStamp,
+                                          DateTime rangeStart,
+                                          DateTime rangeEnd,
+                                          TimeZone timezone) {
+        RecurrenceExpander expander = new RecurrenceExpander();
+        return expander.getOccurrenceList(eventStamp.getItem().getUid(),
+                StampUtils.getEventRevision(eventStamp), eventStamp.getEvent(), eventStamp.getExceptions(), rangeStart,
+                rangeEnd, timezone);
+    }
+    
     private Dur getDurToUseForExpanding(EventStamp es, boolean later) {
         List<Recur> rules = es.getRecurrenceRules();
         
@@ -635,10 +1068,43 @@ public class StandardTriageStatusQueryProcessor implements
         this.contentDao = contentDao;
     }
 
+    public void setTriageIndexDao(TriageIndexDao triageIndexDao) {
+        this.triageIndexDao = triageIndexDao;
+    }
+
+    /**
+     * Server properties record whether every note has been indexed.
+     */
+    public void setServerPropertyDao(ServerPropertyDao serverPropertyDao) {
+        this.serverPropertyDao = serverPropertyDao;
+    }
+
+    /**
+     * @param maxEntryAge maximum number of milliseconds triage index
+     *                    entries of a recurring series stay valid
+     */
+    public void setMaxEntryAge(long maxEntryAge) {
+        this.maxEntryAge = maxEntryAge;
+    }
+
     public void setMaxDone(int maxDone) {
         this.maxDone = maxDone;
     }
 
+    /**
+     * A note, modification or occurrence and the triage status a
+     * collection query returns it with.
+     */
+    private static class Triage {
+        private NoteItem note;
+        private int code;
+
+        public Triage(NoteItem note, int code) {
+            this.note = note;
+            this.code = code;
+        }
+    }
+
     private class QueryResult {
         private ArrayList<NoteItem> results = new ArrayList<NoteItem>();
         private HashSet<NoteItem> masters = new HashSet<NoteItem>();
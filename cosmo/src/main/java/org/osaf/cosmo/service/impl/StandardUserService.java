@@ -29,6 +29,7 @@ import org.osaf.cosmo.model.DuplicateUsernameException;
 import org.osaf.cosmo.model.HomeCollectionItem;
 import org.osaf.cosmo.model.PasswordRecovery;
 import org.osaf.cosmo.model.User;
+import org.osaf.cosmo.security.AuthenticationCache;
 import org.osaf.cosmo.service.OverlordDeletionException;
 import org.osaf.cosmo.service.ServiceEvent;
 import org.osaf.cosmo.service.ServiceListener;
@@ -54,6 +55,7 @@ public class StandardUserService extends BaseService implements UserService {
     private StringIdentifierGenerator passwordGenerator;
     private ContentDao contentDao;
     private UserDao userDao;
+    private AuthenticationCache authenticationCache;
 
     // UserService methods
 
@@ -223,6 +225,11 @@ public class StandardUserService extends BaseService implements UserService {
        
         userDao.updateUser(user);
 
+        if (authenticationCache != null) {
+            authenticationCache.invalidate(user.getOldUsername());
+            authenticationCache.invalidate(user.getUsername());
+        }
+
         User newUser = userDao.getUser(user.getUsername());
 
         if (isUsernameChanged) {
@@ -416,6 +423,20 @@ public class StandardUserService extends BaseService implements UserService {
         this.userDao = userDao;
     }
 
+    /**
+     */
+    public AuthenticationCache getAuthenticationCache() {
+        return this.authenticationCache;
+    }
+
+    /**
+     * Cache of recently verified credentials, invalidated when a
+     * user changes.  Optional.
+     */
+    public void setAuthenticationCache(AuthenticationCache authenticationCache) {
+        this.authenticationCache = authenticationCache;
+    }
+
     public PasswordRecovery getPasswordRecovery(String key) {
          PasswordRecovery passwordRecovery = userDao.getPasswordRecovery(key);
          
@@ -456,5 +477,7 @@ public class StandardUserService extends BaseService implements UserService {
         // (items that only exist in other user's collections)
         contentDao.removeUserContent(user);
         userDao.removeUser(user);
+        if (authenticationCache != null)
+            authenticationCache.invalidate(user.getUsername());
     }
 }
@@ -0,0 +1,721 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.service.lock;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.model.CollectionItem;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * An implementation of <code>LockManager</code> that supports
+ * locking across several Cosmo nodes sharing the same database.
+ * <p>
+ * A lock is a lease row in the <code>collection_lock</code> table,
+ * keyed by collection uid.  A lock is acquired by inserting the row,
+ * or by taking over a row whose lease was released or has expired,
+ * and is released by expiring the row.  Rows are written in
+ * auto-commit mode so that a lease is visible to other nodes as soon
+ * as it is acquired, independent of the transaction doing the work.
+ * <p>
+ * Leases are written over a small pool of at most
+ * <code>maxConnections</code> connections that the lock manager takes
+ * from <code>dataSource</code> and keeps, rather than taking another
+ * connection from the shared pool for every lease operation while the
+ * request already holds one, which could drain the pool under load and
+ * leave requests waiting for each other's connections.  The
+ * <code>dataSource</code> may also be a separate pool of its own.
+ * <p>
+ * Each time a lease is granted to a new owner its fencing token is
+ * incremented.  Renewing and releasing a lease check the token, so an
+ * owner whose lease was taken over can never extend or release the
+ * lease of the new owner.  Since locks are released before the
+ * transaction doing the work commits, a failed release throws a
+ * RuntimeException that rolls the work back.  The token of a held lock
+ * is available from {@link #getFencingToken(CollectionItem)} for
+ * writers that need to check it themselves.
+ * <p>
+ * A lease that is not renewed within <code>leaseTime</code>
+ * milliseconds (for example because the node holding it died) may be
+ * taken by another owner.  Once started with <code>init()</code>, the
+ * lock manager renews the leases held by its threads every
+ * <code>renewInterval</code> milliseconds, so a lock may be held for
+ * longer than the lease time.  The clocks of all nodes must agree to
+ * well within the lease time.  A lease that could not be renewed
+ * because it was taken over is lost; unlocking it results in a
+ * RuntimeException.  The optimistic version check of the collection
+ * still protects against the lost update in that case.
+ * <p>
+ * Like <code>SingleVMLockManager</code>, a lock is owned by the
+ * thread that acquired it and may be acquired again by that thread.
+ * Waiting for a lock is done by polling every
+ * <code>pollInterval</code> milliseconds.
+ *
+ * @see LockManager
+ * @see org.osaf.cosmo.model.hibernate.HibCollectionLock
+ */
+@ManagedResource(objectName="cosmo:name=databaseCollectionLocks", description="Cosmo Database Collection Lock Statistics")
+public class DatabaseLockManager implements LockManager {
+    private static final Log log =
+        LogFactory.getLog(DatabaseLockManager.class);
+
+    private static final String TAKE_RELEASED_LOCK =
+        "update collection_lock set ownerid=?, expiredate=?, token=token+1 where collectionuid=? and expiredate=0";
+    private static final String INSERT_LOCK =
+        "insert into collection_lock (collectionuid, ownerid, expiredate, token) values (?, ?, ?, 1)";
+    private static final String TAKE_EXPIRED_LOCK =
+        "update collection_lock set ownerid=?, expiredate=?, token=token+1 where collectionuid=? and expiredate>0 and expiredate<?";
+    private static final String SELECT_TOKEN =
+        "select token from collection_lock where collectionuid=? and ownerid=?";
+    private static final String RENEW_LOCK =
+        "update collection_lock set expiredate=? where collectionuid=? and ownerid=? and token=?";
+    private static final String RELEASE_LOCK =
+        "update collection_lock set expiredate=0 where collectionuid=? and ownerid=? and token=?";
+
+    // SQL state class of integrity constraint violations
+    private static final String SQLSTATE_INTEGRITY_VIOLATION = "23";
+
+    private DataSource dataSource;
+    private String nodeId = UUID.randomUUID().toString();
+    private long leaseTime = 5 * 60 * 1000;
+    private long pollInterval = 100;
+    private long renewInterval = 60 * 1000;
+    private int maxConnections = 2;
+    private Timer timer;
+
+    /**
+     * Idle connections of the lease pool, and the number open
+     */
+    private LinkedList<Connection> idle = new LinkedList<Connection>();
+    private int numConnections = 0;
+    private Set<Connection> manualCommit = new HashSet<Connection>();
+
+    /**
+     * Locks held by threads of this node, mapped by uid
+     */
+    private HashMap<String, HeldLock> held = new HashMap<String, HeldLock>();
+
+    private AtomicLong ownerCounter = new AtomicLong();
+
+    // lock wait statistics
+    private AtomicLong numAcquired = new AtomicLong();
+    private AtomicLong numTimeouts = new AtomicLong();
+    private AtomicLong numExpiredTaken = new AtomicLong();
+    private AtomicLong numRenewed = new AtomicLong();
+    private AtomicLong numLost = new AtomicLong();
+    private AtomicLong totalWaitTime = new AtomicLong();
+    private volatile long maxWaitTime = 0;
+
+    /**
+     * Starts renewing the leases held by threads of this node.
+     */
+    public void init() {
+        if (renewInterval <= 0)
+            return;
+        timer = new Timer("collection-lock-renewer", true);
+        timer.schedule(new TimerTask() {
+            public void run() {
+                try {
+                    renewLeases();
+                } catch (RuntimeException e) {
+                    log.error("error renewing collection locks", e);
+                }
+            }
+        }, renewInterval, renewInterval);
+    }
+
+    /**
+     * Stops renewing leases and closes the connections of the lease
+     * pool.
+     */
+    public void destroy() {
+        if (timer != null)
+            timer.cancel();
+        synchronized (idle) {
+            for (Connection conn : idle)
+                closeConnection(conn);
+            numConnections -= idle.size();
+            idle.clear();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.lock.LockManager#lockCollection(org.osaf.cosmo.model.CollectionItem)
+     */
+    public void lockCollection(CollectionItem collection) {
+        lockCollection(collection, -1);
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.lock.LockManager#lockCollection(org.osaf.cosmo.model.CollectionItem, long)
+     */
+    public boolean lockCollection(CollectionItem collection, long timeout) {
+        String uid = collection.getUid();
+
+        // re-entrant
+        synchronized (this) {
+            HeldLock lock = held.get(uid);
+            if (lock != null && lock.thread == Thread.currentThread()) {
+                lock.count++;
+                return true;
+            }
+        }
+
+        String ownerId = nodeId + "-" + Thread.currentThread().getId() + "-"
+                + ownerCounter.incrementAndGet();
+        long start = System.currentTimeMillis();
+
+        long token;
+        while ((token = acquireLease(uid, ownerId)) < 0) {
+            long waited = System.currentTimeMillis() - start;
+            if (timeout >= 0 && waited >= timeout) {
+                numTimeouts.incrementAndGet();
+                recordWait(waited);
+                return false;
+            }
+
+            long sleep = pollInterval;
+            if (timeout >= 0)
+                sleep = Math.min(sleep, timeout - waited);
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                throw new RuntimeException("thread interrupted, no lock acquired");
+            }
+        }
+
+        numAcquired.incrementAndGet();
+        recordWait(System.currentTimeMillis() - start);
+
+        synchronized (this) {
+            held.put(uid, new HeldLock(ownerId, token));
+        }
+
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.lock.LockManager#unlockCollection(org.osaf.cosmo.model.CollectionItem)
+     */
+    public void unlockCollection(CollectionItem collection) {
+        String uid = collection.getUid();
+        HeldLock lock = null;
+
+        synchronized (this) {
+            lock = held.get(uid);
+            if (lock == null || lock.thread != Thread.currentThread())
+                throw new RuntimeException("Current thread does not own lock");
+
+            if (--lock.count > 0)
+                return;
+
+            held.remove(uid);
+        }
+
+        if (!releaseLease(uid, lock) || lock.lost)
+            throw new RuntimeException("lock for collection " + uid
+                    + " expired before it was released");
+    }
+
+    /**
+     * Check if a collection is locked by any node.
+     * @param collection
+     * @return true if there is an unexpired lease on the collection
+     */
+    public boolean isLocked(CollectionItem collection) {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        boolean failed = true;
+        try {
+            conn = getConnection();
+            stmt = conn.prepareStatement(
+                    "select count(*) from collection_lock where collectionuid=? and expiredate>=?");
+            stmt.setString(1, collection.getUid());
+            stmt.setLong(2, System.currentTimeMillis());
+            ResultSet rs = stmt.executeQuery();
+            try {
+                boolean locked = rs.next() && rs.getInt(1) > 0;
+                failed = false;
+                return locked;
+            } finally {
+                rs.close();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("error checking lock", e);
+        } finally {
+            close(stmt, conn, failed);
+        }
+    }
+
+    /**
+     * Get the fencing token of a lock held by the current thread.
+     * Tokens of the same collection increase each time its lease is
+     * granted, so a writer can reject work of an owner whose lease
+     * has since been taken over.
+     * @param collection locked collection
+     * @return fencing token of the lease
+     * @throws RuntimeException if the current thread does not own
+     *         the lock
+     */
+    public long getFencingToken(CollectionItem collection) {
+        HeldLock lock = null;
+        synchronized (this) {
+            lock = held.get(collection.getUid());
+        }
+        if (lock == null || lock.thread != Thread.currentThread())
+            throw new RuntimeException("Current thread does not own lock");
+        return lock.token;
+    }
+
+    /**
+     * Attempt to take over a released lease row, to insert one, or to
+     * take over an expired one.
+     * @return the fencing token of the lease, or -1 if it is held by
+     *         another owner
+     */
+    private long acquireLease(String uid, String ownerId) {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        boolean failed = true;
+        long now = System.currentTimeMillis();
+
+        try {
+            conn = getConnection();
+
+            boolean acquired = takeLease(conn, uid, ownerId, now, false);
+
+            if (!acquired) {
+                try {
+                    stmt = conn.prepareStatement(INSERT_LOCK);
+                    stmt.setString(1, uid);
+                    stmt.setString(2, ownerId);
+                    stmt.setLong(3, now + leaseTime);
+                    stmt.executeUpdate();
+                    acquired = true;
+                } catch (SQLException e) {
+                    // only a row that already exists means contention,
+                    // in which case try to take it over if its lease
+                    // has expired
+                    if (!isIntegrityViolation(e))
+                        throw e;
+                    if (log.isDebugEnabled())
+                        log.debug("lock for " + uid + " exists: "
+                                + e.getMessage());
+                } finally {
+                    close(stmt, null, false);
+                    stmt = null;
+                }
+            }
+
+            if (!acquired && takeLease(conn, uid, ownerId, now, true)) {
+                log.warn("took over expired lock for collection " + uid);
+                numExpiredTaken.incrementAndGet();
+                acquired = true;
+            }
+
+            long token = -1;
+            if (acquired) {
+                stmt = conn.prepareStatement(SELECT_TOKEN);
+                stmt.setString(1, uid);
+                stmt.setString(2, ownerId);
+                ResultSet rs = stmt.executeQuery();
+                try {
+                    if (!rs.next())
+                        throw new RuntimeException("lock for collection "
+                                + uid + " lost while it was acquired");
+                    token = rs.getLong(1);
+                } finally {
+                    rs.close();
+                }
+            }
+
+            failed = false;
+            return token;
+        } catch (SQLException e) {
+            throw new RuntimeException("error acquiring lock", e);
+        } finally {
+            close(stmt, conn, failed);
+        }
+    }
+
+    /**
+     * Take over an existing lease row.
+     * @param expired true to take over an expired lease, false to
+     *        take over a released one
+     * @return true if the lease was taken
+     */
+    private boolean takeLease(Connection conn, String uid, String ownerId,
+            long now, boolean expired) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(
+                expired ? TAKE_EXPIRED_LOCK : TAKE_RELEASED_LOCK);
+        try {
+            stmt.setString(1, ownerId);
+            stmt.setLong(2, now + leaseTime);
+            stmt.setString(3, uid);
+            if (expired)
+                stmt.setLong(4, now);
+            return stmt.executeUpdate() == 1;
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Release a lease by expiring its row.  The row is kept so that
+     * the fencing token of the collection keeps increasing.
+     * @return false if the row was no longer owned by the given lock
+     */
+    private boolean releaseLease(String uid, HeldLock lock) {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        boolean failed = true;
+
+        try {
+            conn = getConnection();
+            stmt = conn.prepareStatement(RELEASE_LOCK);
+            stmt.setString(1, uid);
+            stmt.setString(2, lock.ownerId);
+            stmt.setLong(3, lock.token);
+            boolean released = stmt.executeUpdate() == 1;
+            failed = false;
+            return released;
+        } catch (SQLException e) {
+            throw new RuntimeException("error releasing lock", e);
+        } finally {
+            close(stmt, conn, failed);
+        }
+    }
+
+    /**
+     * Extend the leases held by threads of this node.  A lease that
+     * is no longer owned by its holder was taken over by another
+     * owner and is marked as lost.
+     */
+    void renewLeases() {
+        ArrayList<String> uids = new ArrayList<String>();
+        ArrayList<HeldLock> locks = new ArrayList<HeldLock>();
+        synchronized (this) {
+            for (String uid : held.keySet()) {
+                HeldLock lock = held.get(uid);
+                if (!lock.lost) {
+                    uids.add(uid);
+                    locks.add(lock);
+                }
+            }
+        }
+        if (uids.size() == 0)
+            return;
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        boolean failed = true;
+
+        try {
+            conn = getConnection();
+            stmt = conn.prepareStatement(RENEW_LOCK);
+            for (int i = 0; i < uids.size(); i++) {
+                HeldLock lock = locks.get(i);
+                stmt.setLong(1, System.currentTimeMillis() + leaseTime);
+                stmt.setString(2, uids.get(i));
+                stmt.setString(3, lock.ownerId);
+                stmt.setLong(4, lock.token);
+                if (stmt.executeUpdate() == 1) {
+                    numRenewed.incrementAndGet();
+                } else if (isHeld(uids.get(i), lock)) {
+                    log.error("lock for collection " + uids.get(i)
+                            + " was taken over before it was renewed");
+                    lock.lost = true;
+                    numLost.incrementAndGet();
+                }
+            }
+            failed = false;
+        } catch (SQLException e) {
+            throw new RuntimeException("error renewing locks", e);
+        } finally {
+            close(stmt, conn, failed);
+        }
+    }
+
+    private synchronized boolean isHeld(String uid, HeldLock lock) {
+        return held.get(uid) == lock;
+    }
+
+    private void recordWait(long waited) {
+        totalWaitTime.addAndGet(waited);
+        if (waited > maxWaitTime)
+            maxWaitTime = waited;
+    }
+
+    private static boolean isIntegrityViolation(SQLException e) {
+        String state = e.getSQLState();
+        return state != null
+            && state.startsWith(SQLSTATE_INTEGRITY_VIOLATION);
+    }
+
+    /**
+     * Take an auto-commit connection from the lease pool, waiting
+     * for one to be returned if <code>maxConnections</code> are in
+     * use.
+     */
+    private Connection getConnection() throws SQLException {
+        synchronized (idle) {
+            while (idle.isEmpty() && numConnections >= maxConnections) {
+                try {
+                    idle.wait();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException("thread interrupted waiting for lock connection");
+                }
+            }
+            if (!idle.isEmpty())
+                return idle.removeFirst();
+            numConnections++;
+        }
+
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            if (!conn.getAutoCommit()) {
+                conn.setAutoCommit(true);
+                synchronized (idle) {
+                    manualCommit.add(conn);
+                }
+            }
+            return conn;
+        } catch (SQLException e) {
+            if (conn != null)
+                closeConnection(conn);
+            synchronized (idle) {
+                numConnections--;
+                idle.notify();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Close a statement and return its connection to the lease pool.
+     * @param failed true if the connection failed, in which case it
+     *        is closed rather than used again
+     */
+    private void close(PreparedStatement stmt, Connection conn,
+                       boolean failed) {
+        try {
+            if (stmt != null)
+                stmt.close();
+        } catch (SQLException e) {
+        }
+        if (conn == null)
+            return;
+        if (failed)
+            closeConnection(conn);
+        synchronized (idle) {
+            if (failed)
+                numConnections--;
+            else
+                idle.addFirst(conn);
+            idle.notify();
+        }
+    }
+
+    private void closeConnection(Connection conn) {
+        boolean restore;
+        synchronized (idle) {
+            restore = manualCommit.remove(conn);
+        }
+        try {
+            // pooled connections go back with the mode they came with
+            if (restore)
+                conn.setAutoCommit(false);
+        } catch (SQLException e) {
+            log.warn("unable to restore auto-commit mode", e);
+        }
+        try {
+            conn.close();
+        } catch (SQLException e) {
+        }
+    }
+
+    /**
+     * @return number of locks acquired through the database
+     */
+    @ManagedAttribute
+    public long getNumAcquired() {
+        return numAcquired.get();
+    }
+
+    /**
+     * @return number of lock attempts that timed out
+     */
+    @ManagedAttribute
+    public long getNumTimeouts() {
+        return numTimeouts.get();
+    }
+
+    /**
+     * @return number of expired leases taken over from another owner
+     */
+    @ManagedAttribute
+    public long getNumExpiredTaken() {
+        return numExpiredTaken.get();
+    }
+
+    /**
+     * @return total time (milliseconds) spent waiting for locks
+     */
+    @ManagedAttribute
+    public long getTotalWaitTime() {
+        return totalWaitTime.get();
+    }
+
+    /**
+     * @return longest time (milliseconds) spent waiting for a lock
+     */
+    @ManagedAttribute
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * @return number of locks currently held by threads of this node
+     */
+    @ManagedAttribute
+    public synchronized int getNumLocksHeld() {
+        return held.size();
+    }
+
+    /**
+     * @return number of leases renewed
+     */
+    @ManagedAttribute
+    public long getNumRenewed() {
+        return numRenewed.get();
+    }
+
+    /**
+     * @return number of held leases that were taken over by another
+     *         owner before they could be renewed
+     */
+    @ManagedAttribute
+    public long getNumLost() {
+        return numLost.get();
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @param nodeId identifies this node in the lock table, defaults
+     *        to a random uuid
+     */
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    @ManagedAttribute
+    public long getLeaseTime() {
+        return leaseTime;
+    }
+
+    /**
+     * @param leaseTime time (milliseconds) after which a lock that 
+     *        has not been released may be taken by another owner
+     */
+    public void setLeaseTime(long leaseTime) {
+        this.leaseTime = leaseTime;
+    }
+
+    @ManagedAttribute
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * @param pollInterval time (milliseconds) to wait between 
+     *        attempts to acquire a lock
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    @ManagedAttribute
+    public long getRenewInterval() {
+        return renewInterval;
+    }
+
+    @ManagedAttribute
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @param maxConnections maximum number of connections used for
+     *        lease operations, which are kept open
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @param renewInterval time (milliseconds) between renewals of
+     *        the leases held by this node, well below the lease
+     *        time.  A value of 0 disables renewal.
+     */
+    public void setRenewInterval(long renewInterval) {
+        this.renewInterval = renewInterval;
+    }
+
+    /**
+     * Lock held by a thread of this node.
+     */
+    class HeldLock {
+        Thread thread = Thread.currentThread();
+        String ownerId;
+        long token;
+        int count = 1;
+        volatile boolean lost = false;
+
+        HeldLock(String ownerId, long token) {
+            this.ownerId = ownerId;
+            this.token = token;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.service.lock;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock acquisition counters plus wait and hold time histograms.
+ * Histogram buckets are bounded by {@link #BUCKET_BOUNDS} (milliseconds,
+ * inclusive upper bounds); the last bucket counts everything longer.
+ * All updates are lock-free.
+ */
+public class LockStatistics {
+
+    /**
+     * Upper bounds (milliseconds) of the histogram buckets.
+     */
+    public static final long[] BUCKET_BOUNDS =
+        new long[] { 1, 10, 100, 1000, 10000 };
+
+    private AtomicLong numAcquired = new AtomicLong();
+    private AtomicLong numContended = new AtomicLong();
+    private AtomicLong numTimeouts = new AtomicLong();
+    private AtomicLong totalWaitTime = new AtomicLong();
+    private AtomicLong maxWaitTime = new AtomicLong();
+    private AtomicLong totalHoldTime = new AtomicLong();
+    private AtomicLong maxHoldTime = new AtomicLong();
+    private AtomicLongArray waitHistogram =
+        new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+    private AtomicLongArray holdHistogram =
+        new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+    /**
+     * Record a lock attempt.
+     * @param waited milliseconds spent waiting for the lock
+     * @param contended true if the lock was held by another thread
+     *                  when the attempt started
+     * @param acquired false if the attempt timed out
+     */
+    public void recordWait(long waited, boolean contended, boolean acquired) {
+        if (acquired)
+            numAcquired.incrementAndGet();
+        else
+            numTimeouts.incrementAndGet();
+        if (contended)
+            numContended.incrementAndGet();
+        totalWaitTime.addAndGet(waited);
+        updateMax(maxWaitTime, waited);
+        waitHistogram.incrementAndGet(bucket(waited));
+    }
+
+    /**
+     * Record the time a lock was held before being released.
+     * @param held milliseconds the lock was held
+     */
+    public void recordHold(long held) {
+        totalHoldTime.addAndGet(held);
+        updateMax(maxHoldTime, held);
+        holdHistogram.incrementAndGet(bucket(held));
+    }
+
+    /**
+     * @return number of locks acquired
+     */
+    public long getNumAcquired() {
+        return numAcquired.get();
+    }
+
+    /**
+     * @return number of lock attempts that found the lock held
+     *         by another thread
+     */
+    public long getNumContended() {
+        return numContended.get();
+    }
+
+    /**
+     * @return number of lock attempts that timed out
+     */
+    public long getNumTimeouts() {
+        return numTimeouts.get();
+    }
+
+    /**
+     * @return total time (milliseconds) spent waiting for locks
+     */
+    public long getTotalWaitTime() {
+        return totalWaitTime.get();
+    }
+
+    /**
+     * @return longest time (milliseconds) spent waiting for a lock
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+    /**
+     * @return total time (milliseconds) locks were held
+     */
+    public long getTotalHoldTime() {
+        return totalHoldTime.get();
+    }
+
+    /**
+     * @return longest time (milliseconds) a lock was held
+     */
+    public long getMaxHoldTime() {
+        return maxHoldTime.get();
+    }
+
+    /**
+     * @return wait time counts, one per bucket
+     */
+    public long[] getWaitHistogram() {
+        return toArray(waitHistogram);
+    }
+
+    /**
+     * @return hold time counts, one per bucket
+     */
+    public long[] getHoldHistogram() {
+        return toArray(holdHistogram);
+    }
+
+    private static int bucket(long millis) {
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++)
+            if (millis <= BUCKET_BOUNDS[i])
+                return i;
+        return BUCKET_BOUNDS.length;
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current) {
+            if (max.compareAndSet(current, value))
+                return;
+            current = max.get();
+        }
+    }
+
+    private static long[] toArray(AtomicLongArray histogram) {
+        long[] counts = new long[histogram.length()];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = histogram.get(i);
+        return counts;
+    }
+}
@@ -15,15 +15,21 @@
  */
 package org.osaf.cosmo.service.lock;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.osaf.cosmo.model.CollectionItem;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
 
 /**
  * And implementation of <code>LockManager</code>
@@ -33,28 +39,51 @@ import org.osaf.cosmo.model.CollectionItem;
  * attempts to unlock something it doesn't own will
  * result in a RuntimeException.
  * 
- * Once a lock is released by a thread, it stays in
- * memory.  Unused locks are cleared from memory
- * after maxLocks are in memory to prevent memory
- * leaks.
+ * Locks are kept in a concurrent map and reference counted
+ * by the threads holding or waiting on them.  A lock is
+ * removed from memory as soon as its last reference is
+ * released.  Creating and releasing references is guarded by
+ * one of a fixed set of stripes chosen by collection uid, so
+ * unrelated collections do not serialize behind a single monitor.
+ * No more than maxLocks locks may be referenced at once.
+ * 
+ * Wait and hold times are recorded overall and, for collections
+ * that have seen contention, per collection.  Statistics are
+ * exposed over JMX.
  *
  * @see LockManager
  */
+@ManagedResource(objectName="cosmo:name=collectionLocks", description="Cosmo Collection Lock Statistics")
 public class SingleVMLockManager implements LockManager {
     private static final Log log =
         LogFactory.getLog(SingleVMLockManager.class);
 
+    private static final int NUM_STRIPES = 64;
+
     private int maxLocks = 10000;
+    private int maxTrackedCollections = 1000;
     
     /**
-     * Cache of locks, mapped by uid
+     * Locks currently referenced, mapped by uid
      */
-    protected HashMap<String, CollectionLock> locks = new HashMap<String, CollectionLock>();
+    protected ConcurrentHashMap<String, CollectionLock> locks =
+        new ConcurrentHashMap<String, CollectionLock>();
     
+    private Object[] stripes = new Object[NUM_STRIPES];
+
+    private LockStatistics statistics = new LockStatistics();
+    private ConcurrentHashMap<String, LockStatistics> collectionStatistics =
+        new ConcurrentHashMap<String, LockStatistics>();
+
+    public SingleVMLockManager() {
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new Object();
+    }
     
     /**
      * @return number of maximum locks allowed in memory
      */
+    @ManagedAttribute
     public int getMaxLocks() {
         return maxLocks;
     }
@@ -93,6 +122,25 @@ public class SingleVMLockManager implements LockManager {
         this.maxLocks = maxLocks;
     }
 
+    /**
+     * @return maximum number of collections to keep
+     *         statistics for
+     */
+    @ManagedAttribute
+    public int getMaxTrackedCollections() {
+        return maxTrackedCollections;
+    }
+
+    /**
+     * Set the maximum number of collections to keep statistics
+     * for.  Only collections whose lock was found held by another
+     * thread are tracked.
+     * @param maxTrackedCollections
+     */
+    public void setMaxTrackedCollections(int maxTrackedCollections) {
+        this.maxTrackedCollections = maxTrackedCollections;
+    }
+
     
     /* (non-Javadoc)
      * @see org.osaf.cosmo.service.LockService#lockCollection(org.osaf.cosmo.model.CollectionItem)
@@ -105,121 +153,304 @@ public class SingleVMLockManager implements LockManager {
      * @see org.osaf.cosmo.service.LockService#lockCollection(org.osaf.cosmo.model.CollectionItem, long)
      */
     public boolean lockCollection(CollectionItem collection, long timeout) {
-        
-        CollectionLock lock = null;
-        
-        synchronized (this) {
-            lock = locks.get(collection.getUid());
-            
-            // If lock is null, then we need to create one
-            if (lock == null) {
-                
-                // check locks to prevent memory leaks
-                checkAndCleanLocks();
-                
-                // create lock and add to map with uid as the key
-                lock = new CollectionLock();
-                locks.put(collection.getUid(), lock);
-            } 
-            
-            // mark lock as inUse, preventing thread running cleanup
-            // from removing it
-            lock.inUse = true;
-        }
-
+        String uid = collection.getUid();
+        CollectionLock lock = reference(uid);
         
         // Attempt to acquire the lock.
         // This will block until thread can acquire the lock, or
-        // until timeout milliseconds have passed if timeout is > 0
+        // until timeout milliseconds have passed if timeout is >= 0
+        boolean acquired = false;
+        boolean contended = false;
+        long start = System.currentTimeMillis();
         try {
-            if(timeout<0)
-                lock.lock();
-            else {
-                if(lock.tryLock(timeout, TimeUnit.MILLISECONDS)==false) 
-                    return false;
+            acquired = lock.tryLock();
+            if (!acquired) {
+                contended = true;
+                if(timeout<0) {
+                    lock.lockInterruptibly();
+                    acquired = true;
+                } else if (timeout > 0) {
+                    acquired = lock.tryLock(timeout, TimeUnit.MILLISECONDS);
+                }
             }
         } catch (InterruptedException e) {
             throw new RuntimeException("thread interrupted, no lock acquired");
         } finally {
-            // done calling lock(), so clear inUse flag
-            lock.inUse = false;
+            // a lock that was not acquired is no longer referenced
+            // by this thread
+            if (!acquired)
+                release(uid, lock);
         }
         
-        return true;
+        recordWait(uid, System.currentTimeMillis() - start, contended, acquired);
+        
+        if (acquired && lock.getHoldCount() == 1)
+            lock.acquiredAt = System.currentTimeMillis();
+        
+        return acquired;
     }
 
     /* (non-Javadoc)
      * @see org.osaf.cosmo.mc.LockManager#unnlockCollection(org.osaf.cosmo.model.CollectionItem)
      */
     public void unlockCollection(CollectionItem collection) {
+        String uid = collection.getUid();
+        CollectionLock lock = locks.get(uid);
         
-        synchronized(this) {
-            CollectionLock lock = locks.get(collection.getUid());
-            
-            // unlock if there is a lock to unlock
-            if(lock!=null) {
-                if(!lock.isHeldByCurrentThread())
-                    throw new RuntimeException("Current thread does not own lock");
-                lock.unlock();
-            }
-        }   
+        // unlock if there is a lock to unlock
+        if(lock==null)
+            return;
+        
+        if(!lock.isHeldByCurrentThread())
+            throw new RuntimeException("Current thread does not own lock");
+        
+        if (lock.getHoldCount() == 1)
+            recordHold(uid, System.currentTimeMillis() - lock.acquiredAt);
+        
+        lock.unlock();
+        release(uid, lock);
     }
     
     /**
      * Return the current number of locks in memory.
      * @return number of locks currently in memory
      */
+    @ManagedAttribute
     public int getNumLocksInMemory() {
         return locks.size();
     }
-    
+
     /**
-     * Verify that the maximum number of locks hasn't been reached.
-     * If the maximum number of locks has been reached, then
-     * cleanup unused locks to prevent memory leaks.
+     * @return statistics for all collections
      */
-    private void checkAndCleanLocks() {
+    public LockStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @param uid collection uid
+     * @return statistics for the collection, or null if the
+     *         collection has not seen contention
+     */
+    public LockStatistics getStatistics(String uid) {
+        return collectionStatistics.get(uid);
+    }
 
-        // First check to see if we have reached the maximum number
-        // of locks held in memory.
-        if (locks.size() >= maxLocks) {
+    @ManagedAttribute
+    public long getNumAcquired() {
+        return statistics.getNumAcquired();
+    }
+
+    @ManagedAttribute
+    public long getNumContended() {
+        return statistics.getNumContended();
+    }
+
+    @ManagedAttribute
+    public long getNumTimeouts() {
+        return statistics.getNumTimeouts();
+    }
+
+    @ManagedAttribute
+    public long getTotalWaitTime() {
+        return statistics.getTotalWaitTime();
+    }
+
+    @ManagedAttribute
+    public long getMaxWaitTime() {
+        return statistics.getMaxWaitTime();
+    }
+
+    @ManagedAttribute
+    public long getTotalHoldTime() {
+        return statistics.getTotalHoldTime();
+    }
+
+    @ManagedAttribute
+    public long getMaxHoldTime() {
+        return statistics.getMaxHoldTime();
+    }
 
-            log.info("max locks reached(" + maxLocks + ") cleaning...");
+    @ManagedAttribute
+    public long[] getHistogramBuckets() {
+        return LockStatistics.BUCKET_BOUNDS.clone();
+    }
+
+    @ManagedAttribute
+    public long[] getWaitHistogram() {
+        return statistics.getWaitHistogram();
+    }
+
+    @ManagedAttribute
+    public long[] getHoldHistogram() {
+        return statistics.getHoldHistogram();
+    }
+
+    @ManagedAttribute
+    public int getNumTrackedCollections() {
+        return collectionStatistics.size();
+    }
+
+    /**
+     * Describe the collections with the most lock timeouts,
+     * then the most contended acquisitions.
+     * @param max maximum number of collections to return
+     * @return one line per collection
+     */
+    @ManagedOperation
+    public String[] getMostContendedCollections(int max) {
+        List<Entry<String, LockStatistics>> entries =
+            new ArrayList<Entry<String, LockStatistics>>(collectionStatistics.entrySet());
+        Collections.sort(entries, new Comparator<Entry<String, LockStatistics>>() {
+            public int compare(Entry<String, LockStatistics> e1,
+                               Entry<String, LockStatistics> e2) {
+                LockStatistics s1 = e1.getValue();
+                LockStatistics s2 = e2.getValue();
+                if (s1.getNumTimeouts() != s2.getNumTimeouts())
+                    return s1.getNumTimeouts() > s2.getNumTimeouts() ? -1 : 1;
+                if (s1.getNumContended() != s2.getNumContended())
+                    return s1.getNumContended() > s2.getNumContended() ? -1 : 1;
+                return 0;
+            }
+        });
+        
+        int size = Math.min(max, entries.size());
+        String[] result = new String[size];
+        for (int i = 0; i < size; i++)
+            result[i] = describe(entries.get(i).getKey(), entries.get(i).getValue());
+        return result;
+    }
+
+    /**
+     * @param uid collection uid
+     * @return description of the collection's lock statistics
+     */
+    @ManagedOperation
+    public String getCollectionStatistics(String uid) {
+        LockStatistics stats = collectionStatistics.get(uid);
+        if (stats == null)
+            return null;
+        return describe(uid, stats);
+    }
+
+    /**
+     * Clear all statistics.
+     */
+    @ManagedOperation
+    public void resetStatistics() {
+        statistics = new LockStatistics();
+        collectionStatistics.clear();
+    }
+    
+    /**
+     * Find or create the lock for a uid and add a reference to it.
+     * If the maximum number of locks has been reached, then
+     * throw exception to prevent memory leaks.
+     */
+    private CollectionLock reference(String uid) {
+        synchronized (stripeFor(uid)) {
+            CollectionLock lock = locks.get(uid);
             
-            // If so, then cleanup locks
-            for (Iterator<Entry<String, CollectionLock>> it = 
-                    locks.entrySet().iterator(); it.hasNext();) {
-                Entry<String, CollectionLock> entry = it.next();
-                // remove the lock entry if its not currently held or in use
-                if (!entry.getValue().isLocked() && !entry.getValue().inUse)
-                    it.remove();
+            // If lock is null, then we need to create one
+            if (lock == null) {
+                if (locks.size() >= maxLocks) {
+                    log.warn("max locks reached(" + maxLocks + ")");
+                    throw new RuntimeException(
+                            "Maximum ammount of locks in memeory reached");
+                }
+                lock = new CollectionLock();
+                locks.put(uid, lock);
             }
+            
+            lock.refs++;
+            return lock;
+        }
+    }
 
-            // If every lock in memory is in use after cleanup, then throw 
-            // exception
-            if (locks.size() >= maxLocks)
-                throw new RuntimeException(
-                        "Maximum ammount of locks in memeory reached");
-        }   
+    /**
+     * Drop a reference to a lock, removing the lock from
+     * memory when no thread holds or waits on it.
+     */
+    private void release(String uid, CollectionLock lock) {
+        synchronized (stripeFor(uid)) {
+            if (--lock.refs == 0)
+                locks.remove(uid);
+        }
+    }
+
+    private Object stripeFor(String uid) {
+        return stripes[(uid.hashCode() & 0x7fffffff) % stripes.length];
+    }
+
+    private void recordWait(String uid, long waited, boolean contended,
+                            boolean acquired) {
+        statistics.recordWait(waited, contended, acquired);
+        if (!contended)
+            return;
+        
+        LockStatistics stats = collectionStatistics.get(uid);
+        if (stats == null) {
+            if (collectionStatistics.size() >= maxTrackedCollections)
+                return;
+            stats = new LockStatistics();
+            LockStatistics existing = collectionStatistics.putIfAbsent(uid, stats);
+            if (existing != null)
+                stats = existing;
+        }
+        stats.recordWait(waited, contended, acquired);
+    }
+
+    private void recordHold(String uid, long held) {
+        statistics.recordHold(held);
+        LockStatistics stats = collectionStatistics.get(uid);
+        if (stats != null)
+            stats.recordHold(held);
+    }
+
+    private String describe(String uid, LockStatistics stats) {
+        StringBuffer buf = new StringBuffer(uid);
+        buf.append(" contended=").append(stats.getNumContended());
+        buf.append(" timeouts=").append(stats.getNumTimeouts());
+        buf.append(" maxWait=").append(stats.getMaxWaitTime());
+        buf.append(" maxHold=").append(stats.getMaxHoldTime());
+        buf.append(" wait=").append(format(stats.getWaitHistogram()));
+        buf.append(" hold=").append(format(stats.getHoldHistogram()));
+        return buf.toString();
+    }
+
+    private String format(long[] histogram) {
+        StringBuffer buf = new StringBuffer("[");
+        for (int i = 0; i < histogram.length; i++) {
+            if (i > 0)
+                buf.append(",");
+            if (i < LockStatistics.BUCKET_BOUNDS.length)
+                buf.append("<=").append(LockStatistics.BUCKET_BOUNDS[i]);
+            else
+                buf.append(">").append(LockStatistics.BUCKET_BOUNDS[i - 1]);
+            buf.append(":").append(histogram[i]);
+        }
+        return buf.append("]").toString();
     }
     
     
     /**
-     * Subclass ReentrantLock and add boolean variable to
-     * prevent race condition where lock is removed from map
-     * by another thread running cleanup before being acquired 
-     * by current thread.  Unlikely, but technically possible.
+     * ReentrantLock carrying a count of the threads holding
+     * or waiting on it, and the time it was acquired by
+     * its current owner.
      */
     class CollectionLock extends ReentrantLock {
         
         /**
-         * Flag denoting that the lock is currently being
-         * used by lockCollection().  This is used to prevent
-         * a thread running cleanup from deleting a lock that
-         * isn't currently held, but about to be locked by
-         * another thread.
+         * Number of outstanding lockCollection() calls referencing
+         * this lock.  Guarded by the uid's stripe.
+         */
+        int refs = 0;
+
+        /**
+         * Time the current owner acquired the lock.  Only
+         * accessed by the owning thread.
          */
-        boolean inUse = false;
+        long acquiredAt = 0;
     }
 
    
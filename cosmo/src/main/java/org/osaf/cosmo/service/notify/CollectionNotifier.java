@@ -0,0 +1,59 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.service.notify;
+
+/**
+ * Lets clients wait for a collection to change instead of polling it.
+ * <p>
+ * Each change to a collection is published with the collection's uid
+ * and gets a version that is greater than the version of any earlier
+ * change.  A client reads the current version of a collection, checks
+ * the collection's state, and if there is nothing new waits for a
+ * version greater than the one it read.  Reading the version before
+ * checking the state makes sure no change is missed in between.
+ * <p>
+ * Versions are only meaningful to the notifier that issued them and
+ * are not persisted.
+ */
+public interface CollectionNotifier {
+
+    /**
+     * Publish a change to a collection, waking up any clients
+     * waiting for it.
+     *
+     * @param uid uid of the changed collection
+     */
+    public void publish(String uid);
+
+    /**
+     * @param uid collection uid
+     * @return version of the last change published for the collection
+     */
+    public long getVersion(String uid);
+
+    /**
+     * Wait until a change to a collection with a version greater than
+     * the given version is published, or the timeout passes.
+     *
+     * @param uid collection uid
+     * @param version version read before the collection was checked
+     * @param timeout maximum time to wait in milliseconds
+     * @return true if the collection has changed, false if the
+     *         timeout passed or the wait was refused because too many
+     *         clients are already waiting
+     */
+    public boolean await(String uid, long version, long timeout);
+}
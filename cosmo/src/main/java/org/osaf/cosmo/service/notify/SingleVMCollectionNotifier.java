@@ -0,0 +1,224 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.service.notify;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * An implementation of <code>CollectionNotifier</code> that only sees
+ * changes made within a single JVM.
+ * <p>
+ * The versions of the most recently changed <code>maxCollections</code>
+ * collections are remembered.  A collection whose version has been
+ * forgotten reports the highest forgotten version, so a client may
+ * be woken up without a change but never misses one.
+ * <p>
+ * Each waiting client holds a request thread, so no more than
+ * <code>maxWaiters</code> clients may wait at once; further waits
+ * return immediately.  Waiters are woken up only by changes to the
+ * collection they wait for.
+ *
+ * @see CollectionNotifier
+ */
+@ManagedResource(objectName="cosmo:name=collectionNotifier", description="Cosmo Collection Change Notifier")
+public class SingleVMCollectionNotifier implements CollectionNotifier {
+
+    private int maxCollections = 10000;
+    private int maxWaiters = 100;
+
+    private long sequence = 0;
+    private long forgottenVersion = 0;
+    private LinkedHashMap<String, Long> versions =
+        new LinkedHashMap<String, Long>();
+    private HashMap<String, Channel> channels =
+        new HashMap<String, Channel>();
+    private int waiters = 0;
+
+    private AtomicLong published = new AtomicLong();
+    private AtomicLong waits = new AtomicLong();
+    private AtomicLong changed = new AtomicLong();
+    private AtomicLong timedOut = new AtomicLong();
+    private AtomicLong refused = new AtomicLong();
+
+    public void publish(String uid) {
+        Channel channel = null;
+        long version;
+        synchronized (this) {
+            version = ++sequence;
+            // keep the map ordered by version
+            versions.remove(uid);
+            versions.put(uid, new Long(version));
+            if (versions.size() > maxCollections) {
+                Iterator<Map.Entry<String, Long>> it =
+                    versions.entrySet().iterator();
+                forgottenVersion = it.next().getValue().longValue();
+                it.remove();
+            }
+            channel = channels.get(uid);
+        }
+        published.incrementAndGet();
+
+        if (channel != null) {
+            synchronized (channel) {
+                if (version > channel.version)
+                    channel.version = version;
+                channel.notifyAll();
+            }
+        }
+    }
+
+    public synchronized long getVersion(String uid) {
+        Long version = versions.get(uid);
+        return version != null ? version.longValue() : forgottenVersion;
+    }
+
+    public boolean await(String uid, long version, long timeout) {
+        Channel channel = null;
+        synchronized (this) {
+            if (getVersion(uid) > version) {
+                changed.incrementAndGet();
+                return true;
+            }
+            if (waiters >= maxWaiters) {
+                refused.incrementAndGet();
+                return false;
+            }
+            channel = channels.get(uid);
+            if (channel == null) {
+                channel = new Channel(getVersion(uid));
+                channels.put(uid, channel);
+            }
+            channel.waiters++;
+            waiters++;
+        }
+        waits.incrementAndGet();
+
+        try {
+            long deadline = System.currentTimeMillis() + timeout;
+            synchronized (channel) {
+                long remaining = timeout;
+                while (channel.version <= version && remaining > 0) {
+                    channel.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                if (channel.version > version) {
+                    changed.incrementAndGet();
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                if (--channel.waiters == 0)
+                    channels.remove(uid);
+                waiters--;
+            }
+        }
+
+        timedOut.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return number of clients currently waiting
+     */
+    @ManagedAttribute
+    public synchronized int getWaiters() {
+        return waiters;
+    }
+
+    @ManagedAttribute
+    public int getMaxWaiters() {
+        return maxWaiters;
+    }
+
+    @ManagedAttribute
+    public synchronized int getTrackedCollections() {
+        return versions.size();
+    }
+
+    @ManagedAttribute
+    public long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * @return number of waits that blocked
+     */
+    @ManagedAttribute
+    public long getWaits() {
+        return waits.get();
+    }
+
+    /**
+     * @return number of waits that returned because of a change
+     */
+    @ManagedAttribute
+    public long getChanged() {
+        return changed.get();
+    }
+
+    @ManagedAttribute
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    /**
+     * @return number of waits refused because too many clients were
+     *         waiting
+     */
+    @ManagedAttribute
+    public long getRefused() {
+        return refused.get();
+    }
+
+    /**
+     * @param maxCollections number of collections whose versions are
+     *                       remembered
+     */
+    public void setMaxCollections(int maxCollections) {
+        this.maxCollections = maxCollections;
+    }
+
+    /**
+     * @param maxWaiters maximum number of clients waiting at once
+     */
+    public void setMaxWaiters(int maxWaiters) {
+        this.maxWaiters = maxWaiters;
+    }
+
+    /**
+     * Clients waiting for one collection.  The version is guarded
+     * by the channel's own monitor; the waiter count by the
+     * notifier's.
+     */
+    private static class Channel {
+        long version;
+        int waiters = 0;
+
+        Channel(long version) {
+            this.version = version;
+        }
+    }
+}
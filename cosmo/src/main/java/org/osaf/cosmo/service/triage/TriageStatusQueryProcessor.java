@@ -57,4 +57,32 @@ public interface TriageStatusQueryProcessor {
     public SortedSet<NoteItem>
         processTriageStatusQuery(NoteItem note, 
                                  TriageStatusQueryContext context);
+    
+    /**
+     * Update the triage index entries of the series a note belongs
+     * to, after the note was created, updated, added to or removed
+     * from a collection.  Does nothing if no triage index is used.
+     * @param note note or modification that changed
+     */
+    public void updateTriageIndex(NoteItem note);
+    
+    /**
+     * Update the triage index after a note was removed.
+     * @param note note or modification that was removed
+     */
+    public void removeFromTriageIndex(NoteItem note);
+    
+    /**
+     * Update the triage index after a collection was removed.
+     * @param collection collection that was removed
+     */
+    public void removeFromTriageIndex(CollectionItem collection);
+    
+    /**
+     * Evaluate the triage index entries of series that have expired
+     * and of notes that have not been indexed yet.
+     * @param maxSeries maximum number of series to evaluate
+     * @return number of series evaluated
+     */
+    public int refreshTriageIndex(int maxSeries);
 }
@@ -15,12 +15,15 @@
  */
 package org.osaf.cosmo.ui.admin;
 
+import java.io.PrintWriter;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import org.osaf.cosmo.metrics.MetricsRegistry;
 import org.osaf.cosmo.server.StatusSnapshot;
 import org.osaf.cosmo.ui.UIConstants;
 import org.springframework.web.servlet.ModelAndView;
@@ -36,6 +39,7 @@ public class StatusController extends MultiActionController {
     private String dumpView;
     private String viewView;
     private String gcView;
+    private MetricsRegistry metricsRegistry;
 
     /**
      * The request attribute where the status snapshot is stored.
@@ -83,6 +87,24 @@ public class StatusController extends MultiActionController {
         return new ModelAndView(gcView);
     }
 
+    /**
+     * Writes the metrics of service calls as plain text, one sample
+     * per line, for scraping by monitoring systems.
+     *
+     * @see MetricsRegistry#writeText(PrintWriter)
+     */
+    public ModelAndView metrics(HttpServletRequest request,
+                                HttpServletResponse response)
+        throws Exception {
+        response.setContentType("text/plain; charset=UTF-8");
+        PrintWriter writer = response.getWriter();
+        if (metricsRegistry != null)
+            metricsRegistry.writeText(writer);
+        writer.flush();
+
+        return null;
+    }
+
     /**
      * Takes a snapshot of the server status.
      */
@@ -102,4 +124,8 @@ public class StatusController extends MultiActionController {
 		this.viewView = viewView;
 	}
 
+	public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		this.metricsRegistry = metricsRegistry;
+	}
+
 }
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.webcal;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.fortuna.ical4j.data.FoldingWriter;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.PropertyList;
+import net.fortuna.ical4j.model.property.CalScale;
+import net.fortuna.ical4j.model.property.ProdId;
+import net.fortuna.ical4j.model.property.Version;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.CosmoConstants;
+import org.osaf.cosmo.calendar.EntityConverter;
+import org.osaf.cosmo.icalendar.ICalendarClientFilterManager;
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.ContentItem;
+import org.osaf.cosmo.service.ContentService;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Bounded, least-recently-used cache of the iCalendar
+ * representations of calendar collections, stored on disk.
+ * <p>
+ * A collection is rendered by loading its children a page at a
+ * time and writing each component to disk as soon as it has been
+ * converted, so memory use is bounded by the page size rather than
+ * the size of the collection.  The rendered file is kept until the
+ * entity tag of the collection changes, so repeated requests between
+ * changes are served straight from the file.
+ * <p>
+ * Separate files are kept for clients that have an iCalendar client
+ * filter, since the filter changes the rendered components.
+ *
+ * @see EntityConverter#convertCollection(CollectionItem)
+ */
+@ManagedResource(objectName="cosmo:name=webcalCache", description="Cosmo Webcal Cache")
+public class WebcalCache {
+    private static final Log log = LogFactory.getLog(WebcalCache.class);
+
+    private static final String CRLF = "\r\n";
+
+    private ContentService contentService;
+    private ICalendarClientFilterManager clientFilterManager;
+    private EntityConverter entityConverter = new EntityConverter(null);
+    private String cacheDir = System.getProperty("java.io.tmpdir")
+        + File.separator + "cosmo-webcal";
+    private int maxSize = 100;
+    private int pageSize = 100;
+
+    private File dir;
+    private LinkedHashMap<String, Entry> entries;
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+
+    public WebcalCache() {
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxSize) {
+                    evictions.incrementAndGet();
+                    eldest.getValue().file.delete();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Creates the cache directory and removes any files left behind
+     * by a previous run.
+     */
+    public void init() {
+        if (contentService == null)
+            throw new IllegalStateException("contentService must not be null");
+
+        dir = new File(cacheDir);
+        if (! dir.exists() && ! dir.mkdirs())
+            throw new IllegalStateException("unable to create webcal cache directory " + dir);
+        deleteFiles();
+    }
+
+    /**
+     * Removes all cached files.
+     */
+    public void destroy() {
+        clear();
+    }
+
+    /**
+     * Open the iCalendar representation of a calendar collection,
+     * rendering it first if it is not cached for the current entity
+     * tag of the collection.  The returned stream remains readable
+     * even if the entry is evicted while the stream is open.
+     *
+     * @param collection calendar collection
+     * @return stream positioned at the start of the rendered calendar
+     * @throws IOException if the calendar can't be written or read
+     */
+    public FileInputStream openCalendar(CollectionItem collection)
+        throws IOException {
+        String key = createKey(collection);
+        String etag = collection.getEntityTag();
+
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && etag != null && etag.equals(entry.etag)) {
+                hits.incrementAndGet();
+                return new FileInputStream(entry.file);
+            }
+        }
+
+        misses.incrementAndGet();
+        File file = render(collection);
+
+        synchronized (entries) {
+            Entry old = entries.put(key, new Entry(etag, file));
+            if (old != null)
+                old.file.delete();
+            return new FileInputStream(file);
+        }
+    }
+
+    /**
+     * Remove all cached calendars.
+     */
+    @ManagedOperation
+    public void clear() {
+        synchronized (entries) {
+            for (Entry entry : entries.values())
+                entry.file.delete();
+            entries.clear();
+        }
+    }
+
+    /**
+     * Clear hit, miss and eviction counts.
+     */
+    @ManagedOperation
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    @ManagedAttribute
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize maximum number of calendars to cache
+     */
+    @ManagedAttribute
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    @ManagedAttribute
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @ManagedAttribute
+    public long getHits() {
+        return hits.get();
+    }
+
+    @ManagedAttribute
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @ManagedAttribute
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @ManagedAttribute
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * @param cacheDir directory in which rendered calendars are stored
+     */
+    public void setCacheDir(String cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * @param pageSize number of items loaded from the database at once
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public void setContentService(ContentService contentService) {
+        this.contentService = contentService;
+    }
+
+    public void setClientFilterManager(
+            ICalendarClientFilterManager clientFilterManager) {
+        this.clientFilterManager = clientFilterManager;
+    }
+
+    /**
+     * Render a collection to a new file.  Components are spooled to a
+     * temporary file while the timezones they use are collected, so
+     * that the VTIMEZONEs can be written ahead of them.
+     */
+    private File render(CollectionItem collection) throws IOException {
+        long start = System.currentTimeMillis();
+        File file = File.createTempFile("webcal", ".ics", dir);
+        File body = File.createTempFile("webcal", ".tmp", dir);
+        try {
+            Map<String, Component> timezones = writeComponents(collection, body);
+
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                Writer writer = createWriter(out);
+                writer.write(Calendar.BEGIN + ':' + Calendar.VCALENDAR + CRLF);
+                writer.write(createCalendarProperties().toString());
+                for (Component timezone : timezones.values())
+                    writer.write(timezone.toString());
+                writer.flush();
+
+                FileChannel in = new FileInputStream(body).getChannel();
+                try {
+                    long position = 0;
+                    long size = in.size();
+                    while (position < size)
+                        position += in.transferTo(position, size - position,
+                                out.getChannel());
+                } finally {
+                    in.close();
+                }
+
+                writer.write(Calendar.END + ':' + Calendar.VCALENDAR + CRLF);
+                writer.flush();
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        } catch (RuntimeException e) {
+            file.delete();
+            throw e;
+        } finally {
+            body.delete();
+        }
+
+        if (log.isDebugEnabled())
+            log.debug("rendered collection " + collection.getUid() + " in "
+                      + (System.currentTimeMillis() - start) + " ms");
+        return file;
+    }
+
+    /**
+     * Write all components other than VTIMEZONEs of the children of
+     * a collection to a file.  Timezones are indexed by tzid so that
+     * each is only included once.
+     * @return VTIMEZONEs used by the components, indexed by tzid
+     */
+    private Map<String, Component> writeComponents(CollectionItem collection,
+                                                   File file)
+        throws IOException {
+        HashMap<String, Component> timezones = new HashMap<String, Component>();
+        Writer writer = createWriter(new FileOutputStream(file));
+        try {
+            String lastUid = null;
+            while (true) {
+                List<ContentItem> page =
+                    contentService.loadChildren(collection, lastUid, pageSize);
+
+                for (ContentItem item : page) {
+                    Calendar calendar = entityConverter.convertContent(item);
+                    // ignore items that can't be converted
+                    if (calendar == null)
+                        continue;
+
+                    // Filter if necessary so we play nicely with clients
+                    // that don't adhere to spec
+                    if (clientFilterManager != null)
+                        clientFilterManager.filterCalendar(calendar);
+
+                    for (Iterator<Component> i = calendar.getComponents().iterator();
+                         i.hasNext();) {
+                        Component comp = i.next();
+                        if (Component.VTIMEZONE.equals(comp.getName())) {
+                            Property tzId = comp.getProperties().getProperty(Property.TZID);
+                            if (! timezones.containsKey(tzId.getValue()))
+                                timezones.put(tzId.getValue(), comp);
+                        } else {
+                            writer.write(comp.toString());
+                        }
+                    }
+                }
+
+                if (! page.isEmpty()) {
+                    lastUid = page.get(page.size() - 1).getUid();
+                    contentService.evictItems(page);
+                }
+                if (page.size() < pageSize)
+                    break;
+            }
+        } finally {
+            writer.close();
+        }
+        return timezones;
+    }
+
+    private PropertyList createCalendarProperties() {
+        PropertyList properties = new PropertyList();
+        properties.add(new ProdId(CosmoConstants.PRODUCT_ID));
+        properties.add(Version.VERSION_2_0);
+        properties.add(CalScale.GREGORIAN);
+        return properties;
+    }
+
+    private Writer createWriter(OutputStream out) throws IOException {
+        return new FoldingWriter(new BufferedWriter(
+                new OutputStreamWriter(out, "UTF-8")));
+    }
+
+    private String createKey(CollectionItem collection) {
+        String client = clientFilterManager != null ?
+            clientFilterManager.getFilteredClient() : null;
+        return client != null ? collection.getUid() + ":" + client :
+            collection.getUid();
+    }
+
+    private void deleteFiles() {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith("webcal") && ! file.delete())
+                log.warn("unable to delete " + file);
+        }
+    }
+
+    private static class Entry {
+        String etag;
+        File file;
+
+        Entry(String etag, File file) {
+            this.etag = etag;
+            this.file = file;
+        }
+    }
+}
@@ -15,7 +15,11 @@
  */
 package org.osaf.cosmo.webcal;
 
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -49,11 +53,13 @@ public class WebcalServlet extends HttpServlet implements ICalendarConstants {
     private static final Log log = LogFactory.getLog(WebcalServlet.class);
     private static final String BEAN_CONTENT_SERVICE = "contentService";
     private static final String BEAN_CLIENT_FILTER_MANAGER = "iCalendarClientFilterManager";
+    private static final String BEAN_WEBCAL_CACHE = "webcalCache";
 
     
     private WebApplicationContext wac;
     private ContentService contentService;
     private ICalendarClientFilterManager clientFilterManager;
+    private WebcalCache webcalCache;
     private EntityConverter entityConverter = new EntityConverter(null);
 
     // HttpServlet methods
@@ -156,6 +162,12 @@ public class WebcalServlet extends HttpServlet implements ICalendarConstants {
         resp.setHeader("Content-Disposition",
                        "attachment; filename=\"" + filename + "\"");
 
+        // spool the rendered calendar from the cache if there is one
+        if (webcalCache != null) {
+            sendCalendar(collection, resp);
+            return;
+        }
+
         // get icalendar
         Calendar calendar = entityConverter.convertCollection(collection);
         
@@ -168,6 +180,29 @@ public class WebcalServlet extends HttpServlet implements ICalendarConstants {
         ICalendarOutputter.output(calendar, resp.getOutputStream());
     }
 
+    /**
+     * Copies the cached iCalendar file of a collection to the
+     * response, letting the file channel transfer the bytes.
+     */
+    protected void sendCalendar(CollectionItem collection,
+                                HttpServletResponse resp)
+        throws IOException {
+        FileInputStream in = webcalCache.openCalendar(collection);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            resp.setContentLength((int) size);
+
+            WritableByteChannel out =
+                Channels.newChannel(resp.getOutputStream());
+            long position = 0;
+            while (position < size)
+                position += channel.transferTo(position, size - position, out);
+        } finally {
+            in.close();
+        }
+    }
+
     protected EntityTag[] getIfNoneMatch(HttpServletRequest request) {
         try {
             return EntityTag.parseTags(request.getHeader("If-None-Match"));
@@ -200,6 +235,9 @@ public class WebcalServlet extends HttpServlet implements ICalendarConstants {
                 clientFilterManager = (ICalendarClientFilterManager) getBean(
                         BEAN_CLIENT_FILTER_MANAGER,
                         ICalendarClientFilterManager.class);
+            if (webcalCache == null && wac.containsBean(BEAN_WEBCAL_CACHE))
+                webcalCache = (WebcalCache)
+                    getBean(BEAN_WEBCAL_CACHE, WebcalCache.class);
         }
         
         if (contentService == null)
@@ -227,6 +265,14 @@ public class WebcalServlet extends HttpServlet implements ICalendarConstants {
         this.clientFilterManager = clientFilterManager;
     }
 
+    public WebcalCache getWebcalCache() {
+        return webcalCache;
+    }
+
+    public void setWebcalCache(WebcalCache webcalCache) {
+        this.webcalCache = webcalCache;
+    }
+
     // private methods
 
     private Object getBean(String name, Class clazz)
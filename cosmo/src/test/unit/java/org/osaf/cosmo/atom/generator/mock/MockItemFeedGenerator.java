@@ -15,6 +15,8 @@
  */
 package org.osaf.cosmo.atom.generator.mock;
 
+import java.util.List;
+
 import org.apache.abdera.model.Entry;
 import org.apache.abdera.model.Feed;
 import org.apache.commons.logging.Log;
@@ -22,6 +24,7 @@ import org.apache.commons.logging.LogFactory;
 import org.osaf.cosmo.atom.generator.ItemFeedGenerator;
 import org.osaf.cosmo.atom.generator.GeneratorException;
 import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.ItemChangeRecord;
 import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.filter.NoteItemFilter;
 import org.osaf.cosmo.server.ServiceLocator;
@@ -68,6 +71,21 @@ public class MockItemFeedGenerator implements ItemFeedGenerator {
         return factory.getAbdera().getFactory().newFeed();
     }
 
+    public Feed generateChangesFeed(CollectionItem collection,
+                                    List<ItemChangeRecord> changes,
+                                    long cursor,
+                                    int max)
+        throws GeneratorException {
+        if (factory.isFailureMode())
+            throw new GeneratorException("Failure mode");
+        Feed feed = factory.getAbdera().getFactory().newFeed();
+        for (ItemChangeRecord change : changes) {
+            Entry entry = feed.addEntry();
+            entry.setTitle(change.getItemUuid());
+        }
+        return feed;
+    }
+
     public Feed generateFeed(NoteItem item)
         throws GeneratorException {
         if (factory.isFailureMode())
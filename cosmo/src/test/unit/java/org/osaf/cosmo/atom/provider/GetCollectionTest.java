@@ -41,6 +41,33 @@ public class GetCollectionTest extends BaseItemCollectionAdapterTestCase {
         assertNotNull("Null last modified", res.getLastModified());
     }
 
+    public void testGetChangesFeed() throws Exception {
+        CollectionItem collection = helper.makeAndStoreDummyCollection();
+        MockCollectionRequestContext req = (MockCollectionRequestContext)
+            createRequestContext(collection);
+        req.setParameter("changes", "0");
+        req.setParameter("max", "10");
+
+        ResponseContext res = adapter.getFeed(req);
+        assertNotNull("Null response context", res);
+        assertEquals("Incorrect response status", 200, res.getStatus());
+    }
+
+    public void testInvalidChangesCursor() throws Exception {
+        CollectionItem collection = helper.makeAndStoreDummyCollection();
+        MockCollectionRequestContext req = (MockCollectionRequestContext)
+            createRequestContext(collection);
+        req.setParameter("changes", "yesterday");
+
+        ResponseContext res = adapter.getFeed(req);
+        assertNotNull("Null response context", res);
+        assertEquals("Incorrect response status", 400, res.getStatus());
+
+        req.setParameter("changes", "-1");
+        res = adapter.getFeed(req);
+        assertEquals("Incorrect response status", 400, res.getStatus());
+    }
+
     public void testUnsupportedProjection() throws Exception {
         CollectionItem collection = helper.makeAndStoreDummyCollection();
         RequestContext req = createRequestContext(collection);
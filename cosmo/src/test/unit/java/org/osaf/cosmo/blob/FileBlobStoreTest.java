@@ -0,0 +1,154 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.blob;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.osaf.cosmo.io.BufferedContent;
+
+/**
+ * Test FileBlobStore
+ */
+public class FileBlobStoreTest extends TestCase {
+
+    private File directory;
+    private FileBlobStore store;
+
+    protected void setUp() throws Exception {
+        directory = new File(System.getProperty("java.io.tmpdir"),
+                             "cosmo-blobtest-" + System.currentTimeMillis());
+        store = new FileBlobStore();
+        store.setDirectory(directory.getPath());
+        store.init();
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testPutAndRead() throws Exception {
+        byte[] bytes = createBytes(1024*100);
+        String id = store.put(createContent(bytes));
+
+        Assert.assertEquals(64, id.length());
+        Assert.assertEquals(bytes.length, store.getLength(id));
+        InputStream in = store.getInputStream(id);
+        Assert.assertTrue(IOUtils.contentEquals(new ByteArrayInputStream(bytes), in));
+        in.close();
+        Assert.assertEquals(1, store.getStored());
+    }
+
+    public void testDeduplication() throws Exception {
+        byte[] bytes = createBytes(1024);
+        String id1 = store.put(createContent(bytes));
+        String id2 = store.put(createContent(bytes));
+
+        Assert.assertEquals(id1, id2);
+        Assert.assertEquals(1, store.getStored());
+        Assert.assertEquals(1, store.getDeduplicated());
+        Assert.assertEquals(2, store.getReferences(id1));
+
+        String id3 = store.put(createContent(createBytes(1024)));
+        Assert.assertFalse(id1.equals(id3));
+    }
+
+    public void testRelease() throws Exception {
+        byte[] bytes = createBytes(1024);
+        String id = store.put(createContent(bytes));
+        store.put(createContent(bytes));
+
+        // still referenced once
+        store.release(id);
+        Assert.assertEquals(1, store.getReferences(id));
+        Assert.assertEquals(bytes.length, store.getLength(id));
+
+        store.release(id);
+        Assert.assertEquals(0, store.getReferences(id));
+        Assert.assertEquals(-1, store.getLength(id));
+        Assert.assertEquals(1, store.getRemoved());
+    }
+
+    public void testCreateDirectoryLazily() throws Exception {
+        Assert.assertFalse(directory.exists());
+        Assert.assertEquals(0, store.reconcile(new HashMap<String, Integer>(), 0));
+
+        store.put(createContent(createBytes(1024)));
+        Assert.assertTrue(directory.isDirectory());
+    }
+
+    public void testReconcile() throws Exception {
+        String leaked = store.put(createContent(createBytes(1024)));
+        String shared = store.put(createContent(createBytes(1024)));
+        String recent = store.put(createContent(createBytes(1024)));
+        age(leaked);
+        age(shared);
+
+        Map<String, Integer> references = new HashMap<String, Integer>();
+        references.put(shared, new Integer(3));
+        Assert.assertEquals(2, store.reconcile(references, 60 * 1000L));
+
+        // unreferenced blobs are removed, unless they changed recently
+        Assert.assertEquals(-1, store.getLength(leaked));
+        Assert.assertEquals(0, store.getReferences(leaked));
+        Assert.assertEquals(3, store.getReferences(shared));
+        Assert.assertEquals(1, store.getReferences(recent));
+        Assert.assertEquals(1, store.getRemoved());
+        Assert.assertEquals(2, store.getCorrected());
+
+        // counts that are already correct are left alone
+        age(shared);
+        Assert.assertEquals(0, store.reconcile(references, 60 * 1000L));
+    }
+
+    public void testInvalidId() throws Exception {
+        try {
+            store.getInputStream("../../etc/passwd");
+            Assert.fail("invalid id accepted");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    /**
+     * Make the reference count of a blob look like it last changed
+     * an hour ago.
+     */
+    private void age(String id) {
+        File dir = new File(new File(directory, id.substring(0, 2)),
+                            id.substring(2, 4));
+        long modified = System.currentTimeMillis() - 60 * 60 * 1000L;
+        new File(dir, id + ".refs").setLastModified(modified);
+        new File(dir, id).setLastModified(modified);
+    }
+
+    private byte[] createBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random().nextBytes(bytes);
+        return bytes;
+    }
+
+    private BufferedContent createContent(byte[] bytes) throws Exception {
+        return new BufferedContent(new ByteArrayInputStream(bytes), 1024*50);
+    }
+}
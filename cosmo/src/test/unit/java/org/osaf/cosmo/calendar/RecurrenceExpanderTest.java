@@ -16,16 +16,21 @@
 package org.osaf.cosmo.calendar;
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
 import net.fortuna.ical4j.data.CalendarBuilder;
 import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
 import net.fortuna.ical4j.model.Date;
 import net.fortuna.ical4j.model.DateTime;
 import net.fortuna.ical4j.model.TimeZone;
 import net.fortuna.ical4j.model.TimeZoneRegistry;
 import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
+import net.fortuna.ical4j.model.component.VEvent;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -151,6 +156,76 @@ public class RecurrenceExpanderTest extends TestCase {
         Assert.assertFalse(expander.isOccurrence(calendar, new DateTime("20070102T100001", ctz)));
     }
     
+    public void testOccurrenceListCache() throws Exception {
+        RecurrenceExpander expander = new RecurrenceExpander();
+        VEvent event = (VEvent) getCalendar("tz_recurring1.ics")
+                .getComponents().getComponent(Component.VEVENT);
+        List<Component> mods = new ArrayList<Component>();
+        
+        RecurrenceExpansionCache cache = new RecurrenceExpansionCache();
+        RecurrenceExpander.setExpansionCache(cache);
+        try {
+            OccurrenceList occurrences = expander.getOccurrenceList("event",
+                    "1", event, mods, new DateTime("20070104T000000Z"),
+                    new DateTime("20070110T000000Z"), null);
+            Assert.assertEquals(3, occurrences.size());
+            Assert.assertEquals("20070105T160000Z", occurrences.getRecurrenceId(0).toString());
+            Assert.assertEquals(1, cache.getMisses());
+            
+            // cached expansion is extended to the later occurrences
+            occurrences = expander.getOccurrenceList("event", "1", event, mods,
+                    new DateTime("20070106T000000Z"),
+                    new DateTime("20070120T000000Z"), null);
+            Assert.assertEquals(1, cache.getExtensions());
+            Assert.assertEquals(7, occurrences.size());
+            verifyOccurrences(expander.getOcurrences(event, mods,
+                    new DateTime("20070106T000000Z"),
+                    new DateTime("20070120T000000Z"), null), occurrences);
+            
+            // occurrence overlapping a point in time
+            occurrences = expander.getOccurrenceList("event", "1", event, mods,
+                    new DateTime("20070107T170000Z"),
+                    new DateTime("20070107T170000Z"), null);
+            Assert.assertEquals(1, cache.getHits());
+            Assert.assertEquals(1, occurrences.size());
+            Assert.assertEquals("20070107T160000Z", occurrences.getRecurrenceId(0).toString());
+            
+            // a different revision of the event is expanded again
+            VEvent other = (VEvent) getCalendar("tz_recurring3.ics")
+                    .getComponents().getComponent(Component.VEVENT);
+            occurrences = expander.getOccurrenceList("event", "2", other, mods,
+                    new DateTime("20070104T000000Z"),
+                    new DateTime("20070110T000000Z"), null);
+            Assert.assertEquals(2, cache.getMisses());
+            verifyOccurrences(expander.getOcurrences(other, mods,
+                    new DateTime("20070104T000000Z"),
+                    new DateTime("20070110T000000Z"), null), occurrences);
+            
+            // events without a revision are not cached
+            expander.getOccurrenceList("event", null, other, mods,
+                    new DateTime("20070104T000000Z"),
+                    new DateTime("20070110T000000Z"), null);
+            Assert.assertEquals(2, cache.getMisses());
+            Assert.assertEquals(1, cache.getHits());
+        } finally {
+            RecurrenceExpander.setExpansionCache(null);
+        }
+    }
+    
+    private void verifyOccurrences(InstanceList instances,
+                                   OccurrenceList occurrences) {
+        Assert.assertEquals(instances.size(), occurrences.size());
+        int i = 0;
+        for (Iterator<Instance> it = instances.values().iterator(); it.hasNext(); i++) {
+            Instance instance = it.next();
+            Assert.assertEquals(instance.getRid().toString(),
+                    occurrences.getRecurrenceId(i).toString());
+            Assert.assertEquals(instance.getStart().getTime(), occurrences.getStart(i));
+            Assert.assertEquals(instance.getEnd().getTime(), occurrences.getEnd(i));
+            Assert.assertEquals(instance.isOverridden(), occurrences.isOverridden(i));
+        }
+    }
+    
     protected Calendar getCalendar(String name) throws Exception {
         CalendarBuilder cb = new CalendarBuilder();
         InputStream in = getClass().getClassLoader().getResourceAsStream("expander/" + name);
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.calendar.query;
+
+import java.io.InputStream;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Period;
+
+/**
+ * Test CompiledCalendarFilter
+ */
+public class CompiledCalendarFilterTest extends TestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("ical4j.unfolding.relaxed", "true");
+        System.setProperty("ical4j.parsing.relaxed", "true");
+        System.setProperty("ical4j.validation.relaxed", "true");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        System.clearProperty("ical4j.unfolding.relaxed");
+        System.clearProperty("ical4j.parsing.relaxed");
+        System.clearProperty("ical4j.validation.relaxed");
+    }
+
+    public void testEvaluatePropFilter() throws Exception {
+        Calendar calendar = getCalendar("cal1.ics");
+
+        CalendarFilter filter = new CalendarFilter();
+        ComponentFilter compFilter = new ComponentFilter("VCALENDAR");
+        ComponentFilter eventFilter = new ComponentFilter("VEVENT");
+        filter.setFilter(compFilter);
+        compFilter.getComponentFilters().add(eventFilter);
+        PropertyFilter propFilter = new PropertyFilter("SUMMARY");
+        TextMatchFilter textFilter = new TextMatchFilter("Visible");
+        propFilter.setTextMatchFilter(textFilter);
+        eventFilter.getPropFilters().add(propFilter);
+
+        assertMatches(true, calendar, filter);
+
+        textFilter.setValue("ViSiBle");
+        textFilter.setCollation(TextMatchFilter.COLLATION_OCTET);
+        assertMatches(false, calendar, filter);
+
+        textFilter.setCollation(null);
+        assertMatches(true, calendar, filter);
+
+        textFilter.setValue("XXX");
+        textFilter.setNegateCondition(true);
+        assertMatches(true, calendar, filter);
+
+        propFilter.setTextMatchFilter(null);
+        propFilter.setName("RRULE");
+        assertMatches(false, calendar, filter);
+
+        propFilter.setIsNotDefinedFilter(new IsNotDefinedFilter());
+        assertMatches(true, calendar, filter);
+    }
+
+    public void testEvaluateParamFilter() throws Exception {
+        Calendar calendar = getCalendar("cal1.ics");
+
+        CalendarFilter filter = new CalendarFilter();
+        ComponentFilter compFilter = new ComponentFilter("VCALENDAR");
+        ComponentFilter eventFilter = new ComponentFilter("VEVENT");
+        filter.setFilter(compFilter);
+        compFilter.getComponentFilters().add(eventFilter);
+        PropertyFilter propFilter = new PropertyFilter("DTSTART");
+        ParamFilter paramFilter = new ParamFilter("VALUE");
+        TextMatchFilter textFilter = new TextMatchFilter("date-time");
+        paramFilter.setTextMatchFilter(textFilter);
+        propFilter.getParamFilters().add(paramFilter);
+        eventFilter.getPropFilters().add(propFilter);
+
+        assertMatches(true, calendar, filter);
+
+        textFilter.setValue("XXX");
+        assertMatches(false, calendar, filter);
+
+        paramFilter.setTextMatchFilter(null);
+        paramFilter.setName("BOGUS");
+        assertMatches(false, calendar, filter);
+
+        paramFilter.setIsNotDefinedFilter(new IsNotDefinedFilter());
+        assertMatches(true, calendar, filter);
+    }
+
+    public void testEvaluateTimeRangeFilter() throws Exception {
+        Calendar calendar = getCalendar("eventwithtimezone1.ics");
+
+        CalendarFilter filter = new CalendarFilter();
+        ComponentFilter compFilter = new ComponentFilter("VCALENDAR");
+        ComponentFilter eventFilter = new ComponentFilter("VEVENT");
+        filter.setFilter(compFilter);
+        compFilter.getComponentFilters().add(eventFilter);
+
+        TimeRangeFilter timeRangeFilter =
+            new TimeRangeFilter(new Period(new DateTime("20070514T115000Z"),
+                                           new DateTime("20070516T115000Z")));
+        eventFilter.setTimeRangeFilter(timeRangeFilter);
+
+        assertMatches(true, calendar, filter);
+
+        timeRangeFilter.setPeriod(new Period(new DateTime("20070515T205000Z"),
+                                             new DateTime("20070516T115000Z")));
+        assertMatches(false, calendar, filter);
+    }
+
+    public void testEvaluateVAlarmTimeRangeFilter() throws Exception {
+        Calendar calendar = getCalendar("event_with_alarm.ics");
+
+        CalendarFilter filter = new CalendarFilter();
+        ComponentFilter compFilter = new ComponentFilter("VCALENDAR");
+        filter.setFilter(compFilter);
+        ComponentFilter eventFilter = new ComponentFilter("VEVENT");
+        ComponentFilter alarmFilter = new ComponentFilter("VALARM");
+        compFilter.getComponentFilters().add(eventFilter);
+        eventFilter.getComponentFilters().add(alarmFilter);
+
+        TimeRangeFilter timeRangeFilter =
+            new TimeRangeFilter(new Period(new DateTime("20060101T220000Z"),
+                                           new DateTime("20060101T230000Z")));
+        alarmFilter.setTimeRangeFilter(timeRangeFilter);
+        assertMatches(true, calendar, filter);
+
+        timeRangeFilter.setPeriod(new Period(new DateTime("20060101T020000Z"),
+                                             new DateTime("20060101T030000Z")));
+        assertMatches(false, calendar, filter);
+    }
+
+    public void testCompiledFilterDoesNotChange() throws Exception {
+        Calendar calendar = getCalendar("cal1.ics");
+
+        CalendarFilter filter = new CalendarFilter();
+        ComponentFilter compFilter = new ComponentFilter("VCALENDAR");
+        ComponentFilter eventFilter = new ComponentFilter("VEVENT");
+        filter.setFilter(compFilter);
+        compFilter.getComponentFilters().add(eventFilter);
+        PropertyFilter propFilter = new PropertyFilter("SUMMARY");
+        TextMatchFilter textFilter = new TextMatchFilter("Visible");
+        propFilter.setTextMatchFilter(textFilter);
+        eventFilter.getPropFilters().add(propFilter);
+
+        CompiledCalendarFilter compiled = new CompiledCalendarFilter(filter);
+        textFilter.setValue("XXX");
+
+        Assert.assertTrue(compiled.evaluate(calendar));
+        Assert.assertFalse(new CompiledCalendarFilter(filter).evaluate(calendar));
+    }
+
+    /**
+     * Checks that the compiled filter and the evaluater agree.
+     */
+    private void assertMatches(boolean expected, Calendar calendar,
+                               CalendarFilter filter) {
+        Assert.assertEquals(expected,
+                new CalendarFilterEvaluater().evaluate(calendar, filter));
+        Assert.assertEquals(expected,
+                new CompiledCalendarFilter(filter).evaluate(calendar));
+    }
+
+    protected Calendar getCalendar(String name) throws Exception {
+        CalendarBuilder cb = new CalendarBuilder();
+        InputStream in = getClass().getClassLoader().getResourceAsStream(name);
+        if (in == null) {
+            throw new IllegalStateException("resource " + name + " not found");
+        }
+        Calendar calendar = cb.build(in);
+        return calendar;
+    }
+}
@@ -15,7 +15,9 @@
  */
 package org.osaf.cosmo.calendar.query.impl;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
@@ -61,6 +63,7 @@ public class StandardCalendarQueryProcessorTest extends TestCase {
     private MockDaoStorage storage;
     private TestHelper testHelper;
     private StandardCalendarQueryProcessor queryProcessor;
+    private User user;
 
     protected static final TimeZoneRegistry TIMEZONE_REGISTRY =
         TimeZoneRegistryFactory.getInstance().createRegistry();
@@ -82,7 +85,7 @@ public class StandardCalendarQueryProcessorTest extends TestCase {
         calendarDao = new MockCalendarDao(storage);
         queryProcessor.setCalendarDao(calendarDao);
      
-        User user = testHelper.makeDummyUser();
+        user = testHelper.makeDummyUser();
         CollectionItem root = contentDao.createRootItem(user);
         
         CollectionItem calendar = generateCalendar("testcalendar", user);
@@ -166,6 +169,55 @@ public class StandardCalendarQueryProcessorTest extends TestCase {
     }
     
     
+    public void testParallelFreeBusyQuery() throws Exception {
+        CollectionItem root = contentDao.getRootItem(user);
+        CollectionItem calendar = generateCalendar("testcalendar2", user);
+        calendar.setUid(CALENDAR_UID + "-2");
+        calendar.setName(calendar.getUid());
+        contentDao.createCollection(root, calendar);
+        ContentItem event = generateEvent("test1.ics", "eventwithtimezone1.ics", user);
+        event.setUid(CALENDAR_UID + "-2-1");
+        contentDao.createContent(calendar, event);
+        
+        Period period = new Period(new DateTime("20060101T051500Z"),
+                                   new DateTime("20070516T051500Z"));
+        
+        queryProcessor.setContentDao(contentDao);
+        VFreeBusy expected = queryProcessor.freeBusyQuery(user, period);
+        
+        StandardCalendarQueryProcessor parallelProcessor =
+            new StandardCalendarQueryProcessor();
+        parallelProcessor.setCalendarDao(calendarDao);
+        parallelProcessor.setContentDao(contentDao);
+        parallelProcessor.setFreeBusyThreads(2);
+        parallelProcessor.init();
+        try {
+            ArrayList<User> users = new ArrayList<User>();
+            users.add(user);
+            users.add(user);
+            List<VFreeBusy> vfbs = parallelProcessor.freeBusyQuery(users, period);
+            Assert.assertEquals(2, vfbs.size());
+            for (VFreeBusy vfb : vfbs) {
+                Assert.assertEquals(getPeriods(expected, FbType.BUSY),
+                                    getPeriods(vfb, FbType.BUSY));
+                Assert.assertEquals(getPeriods(expected, FbType.BUSY_TENTATIVE),
+                                    getPeriods(vfb, FbType.BUSY_TENTATIVE));
+                Assert.assertEquals(getPeriods(expected, FbType.BUSY_UNAVAILABLE),
+                                    getPeriods(vfb, FbType.BUSY_UNAVAILABLE));
+            }
+            
+            // calendars not computed in time are computed by the caller
+            parallelProcessor.setFreeBusyTimeout(0);
+            vfbs = parallelProcessor.freeBusyQuery(users, period);
+            Assert.assertEquals(2, vfbs.size());
+            for (VFreeBusy vfb : vfbs)
+                Assert.assertEquals(getPeriods(expected, FbType.BUSY),
+                                    getPeriods(vfb, FbType.BUSY));
+        } finally {
+            parallelProcessor.destroy();
+        }
+    }
+    
     private User getUser(UserDao userDao, String username) {
         return testHelper.makeDummyUser(username, username);
     }
@@ -206,6 +258,22 @@ public class StandardCalendarQueryProcessorTest extends TestCase {
         return fb;
     }
     
+    /**
+     * Returns the periods of the given type, treating a missing
+     * FBTYPE as BUSY.
+     */
+    private String getPeriods(VFreeBusy vfb, FbType fbtype) {
+        for(Iterator it = vfb.getProperties(Property.FREEBUSY).iterator();it.hasNext();) {
+            FreeBusy fb = (FreeBusy) it.next();
+            FbType type = (FbType) fb.getParameter(Parameter.FBTYPE);
+            if(type==null)
+                type = FbType.BUSY;
+            if(type.equals(fbtype))
+                return fb.getPeriods().toString();
+        }
+        return null;
+    }
+    
     private void verifyPeriods(VFreeBusy vfb, FbType fbtype, String periods) {
         PropertyList props = vfb.getProperties(Property.FREEBUSY);
         FreeBusy fb = null;
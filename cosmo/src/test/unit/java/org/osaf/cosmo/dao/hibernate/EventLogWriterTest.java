@@ -0,0 +1,288 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao.hibernate;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.osaf.cosmo.model.hibernate.HibEventLogEntry;
+
+/**
+ * Test EventLogWriter journal format, modes, and recovery.
+ */
+public class EventLogWriterTest extends TestCase {
+
+    public void testFormatParse() throws Exception {
+        HibEventLogEntry entry = createEntry();
+        entry.setStrval1("tab\there\nnewline \\N backslash");
+
+        String line = EventLogWriter.format(entry);
+        Assert.assertTrue(line.endsWith("\n"));
+        Assert.assertEquals(1, line.split("\n").length);
+
+        HibEventLogEntry parsed =
+            EventLogWriter.parse(line.substring(0, line.length() - 1));
+        Assert.assertEquals(entry.getDate(), parsed.getDate());
+        Assert.assertEquals("ItemAdded", parsed.getType());
+        Assert.assertEquals("user", parsed.getAuthType());
+        Assert.assertEquals(new Long(1), parsed.getAuthId());
+        Assert.assertEquals(new Long(2), parsed.getId1());
+        Assert.assertEquals(new Long(3), parsed.getId2());
+        Assert.assertNull(parsed.getId3());
+        Assert.assertEquals("uid", parsed.getUid1());
+        Assert.assertNull(parsed.getUid2());
+        Assert.assertEquals(entry.getStrval1(), parsed.getStrval1());
+        Assert.assertEquals("user@example.com", parsed.getStrval2());
+        Assert.assertNull(parsed.getStrval3());
+    }
+
+    public void testReadJournal() throws Exception {
+        File file = File.createTempFile("eventlog", "journal");
+        try {
+            Writer writer = new OutputStreamWriter(
+                    new FileOutputStream(file), "UTF-8");
+            writer.write(EventLogWriter.format(createEntry()));
+            writer.write(EventLogWriter.format(createEntry()));
+            // partly written entry
+            writer.write("1\tItemAdded\tuser");
+            writer.close();
+
+            List<HibEventLogEntry> entries = EventLogWriter.readJournal(file);
+            Assert.assertEquals(2, entries.size());
+            Assert.assertEquals("uid", entries.get(1).getUid1());
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testSyncMode() throws Exception {
+        EventLogWriter writer = new EventLogWriter();
+        writer.setMode(EventLogWriter.MODE_SYNC);
+        writer.init();
+        Assert.assertFalse(writer.isQueueing());
+
+        ArrayList<HibEventLogEntry> entries = new ArrayList<HibEventLogEntry>();
+        entries.add(createEntry());
+        Assert.assertEquals(1, writer.write(entries).size());
+        Assert.assertEquals(0, writer.getQueueDepth());
+        writer.destroy();
+    }
+
+    public void testUnknownMode() throws Exception {
+        EventLogWriter writer = new EventLogWriter();
+        writer.setMode("bogus");
+        try {
+            writer.init();
+            Assert.fail("unknown mode accepted");
+        } catch (IllegalStateException e) {}
+    }
+
+    public void testQueueFull() throws Exception {
+        File file = File.createTempFile("eventlog", "journal");
+        TestEventLogWriter writer = new TestEventLogWriter();
+        writer.setMode(EventLogWriter.MODE_JOURNAL);
+        writer.setJournalFile(file.getPath());
+        writer.setQueueCapacity(1);
+        writer.setBatchSize(1);
+        writer.setMaxWait(10);
+        writer.blockWriterThread = new CountDownLatch(1);
+        writer.init();
+        try {
+            // the writer thread holds the first entry and the queue
+            // the second, so the third is handed back
+            ArrayList<HibEventLogEntry> entries = new ArrayList<HibEventLogEntry>();
+            entries.add(createEntry());
+            Assert.assertEquals(0, writer.write(entries).size());
+            waitForQueueDepth(writer, 0);
+            Assert.assertEquals(0, writer.write(entries).size());
+            List<HibEventLogEntry> rest = writer.write(entries);
+            Assert.assertEquals(1, rest.size());
+            Assert.assertEquals(1, writer.getCallerWrites());
+            Assert.assertEquals(3, EventLogWriter.readJournal(file).size());
+
+            // an entry the caller can't write stays in the journal
+            // after the queued entries are written
+            writer.failCallerWrites = true;
+            Assert.assertFalse(writer.writeNow(rest));
+            writer.blockWriterThread.countDown();
+            writer.destroy();
+            Assert.assertEquals(2, writer.saved.size());
+            Assert.assertEquals(3, EventLogWriter.readJournal(file).size());
+        } finally {
+            writer.destroy();
+            file.delete();
+        }
+    }
+
+    public void testQueueFullWrittenByCaller() throws Exception {
+        File file = File.createTempFile("eventlog", "journal");
+        TestEventLogWriter writer = new TestEventLogWriter();
+        writer.setMode(EventLogWriter.MODE_JOURNAL);
+        writer.setJournalFile(file.getPath());
+        writer.setQueueCapacity(1);
+        writer.setBatchSize(1);
+        writer.setMaxWait(10);
+        writer.blockWriterThread = new CountDownLatch(1);
+        writer.init();
+        try {
+            ArrayList<HibEventLogEntry> entries = new ArrayList<HibEventLogEntry>();
+            entries.add(createEntry());
+            Assert.assertEquals(0, writer.write(entries).size());
+            waitForQueueDepth(writer, 0);
+            entries.add(createEntry());
+            List<HibEventLogEntry> rest = writer.write(entries);
+            Assert.assertEquals(1, rest.size());
+
+            // the journal is truncated once every entry is written
+            Assert.assertTrue(writer.writeNow(rest));
+            writer.blockWriterThread.countDown();
+            writer.destroy();
+            Assert.assertEquals(3, writer.saved.size());
+            Assert.assertEquals(0, EventLogWriter.readJournal(file).size());
+        } finally {
+            writer.destroy();
+            file.delete();
+        }
+    }
+
+    public void testReplayJournal() throws Exception {
+        File file = File.createTempFile("eventlog", "journal");
+        try {
+            Writer out = new OutputStreamWriter(
+                    new FileOutputStream(file), "UTF-8");
+            out.write(EventLogWriter.format(createEntry()));
+            out.write(EventLogWriter.format(createEntry()));
+            out.close();
+
+            TestEventLogWriter writer = new TestEventLogWriter();
+            writer.setMode(EventLogWriter.MODE_JOURNAL);
+            writer.setJournalFile(file.getPath());
+            writer.init();
+            writer.destroy();
+
+            Assert.assertEquals(2, writer.saved.size());
+            Assert.assertEquals("uid", writer.saved.get(0).getUid1());
+            Assert.assertEquals(0, EventLogWriter.readJournal(file).size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testFailedBatch() throws Exception {
+        File file = File.createTempFile("eventlog", "journal");
+        TestEventLogWriter writer = new TestEventLogWriter();
+        writer.setMode(EventLogWriter.MODE_JOURNAL);
+        writer.setJournalFile(file.getPath());
+        writer.setRetryDelay(10);
+        writer.failBatches = 1;
+        writer.init();
+        try {
+            ArrayList<HibEventLogEntry> entries = new ArrayList<HibEventLogEntry>();
+            entries.add(createEntry());
+            entries.add(createEntry());
+            Assert.assertEquals(0, writer.write(entries).size());
+
+            // the batch is retried until it is written
+            for (int i = 0; i < 500 && writer.getEntriesWritten() < 2; i++)
+                Thread.sleep(10);
+            Assert.assertEquals(2, writer.getEntriesWritten());
+            Assert.assertEquals(1, writer.getFailures());
+            writer.destroy();
+            Assert.assertEquals(0, EventLogWriter.readJournal(file).size());
+        } finally {
+            writer.destroy();
+            file.delete();
+        }
+    }
+
+    private void waitForQueueDepth(EventLogWriter writer, int depth)
+        throws InterruptedException {
+        for (int i = 0; i < 500 && writer.getQueueDepth() != depth; i++)
+            Thread.sleep(10);
+        Assert.assertEquals(depth, writer.getQueueDepth());
+    }
+
+    private HibEventLogEntry createEntry() {
+        HibEventLogEntry entry = new HibEventLogEntry();
+        entry.setDate(new Date(1199145600000L));
+        entry.setType("ItemAdded");
+        entry.setAuthType("user");
+        entry.setAuthId(new Long(1));
+        entry.setId1(new Long(2));
+        entry.setId2(new Long(3));
+        entry.setUid1("uid");
+        entry.setStrval2("user@example.com");
+        return entry;
+    }
+
+    /**
+     * Writer that saves entries to a list instead of the database.
+     */
+    private static class TestEventLogWriter extends EventLogWriter {
+        List<HibEventLogEntry> saved =
+            Collections.synchronizedList(new ArrayList<HibEventLogEntry>());
+        CountDownLatch blockWriterThread;
+        volatile boolean failCallerWrites = false;
+        volatile int failBatches = 0;
+
+        TestEventLogWriter() {
+            setSessionFactory((SessionFactory) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class[] { SessionFactory.class },
+                    new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method,
+                                             Object[] args) {
+                            throw new UnsupportedOperationException();
+                        }
+                    }));
+        }
+
+        protected void saveEntries(List<HibEventLogEntry> entries) {
+            boolean writerThread =
+                "event-log-writer".equals(Thread.currentThread().getName());
+            if (writerThread && blockWriterThread != null) {
+                try {
+                    blockWriterThread.await();
+                } catch (InterruptedException e) {
+                    throw new HibernateException("interrupted");
+                }
+            }
+            if (! writerThread && failCallerWrites)
+                throw new HibernateException("caller write failed");
+            if (failBatches > 0) {
+                failBatches--;
+                throw new HibernateException("batch failed");
+            }
+            saved.addAll(entries);
+        }
+    }
+
+}
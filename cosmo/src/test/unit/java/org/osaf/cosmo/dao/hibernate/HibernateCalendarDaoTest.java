@@ -17,12 +17,15 @@ package org.osaf.cosmo.dao.hibernate;
 
 import java.util.ArrayList;
 import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import junit.framework.Assert;
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.DateTime;
 import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.PeriodList;
 
 import org.osaf.cosmo.calendar.EntityConverter;
 import org.osaf.cosmo.calendar.query.CalendarFilter;
@@ -380,6 +383,168 @@ public class HibernateCalendarDaoTest extends AbstractHibernateDaoTestCase {
         verifyUidInSet(queryEvents, "test3uid:20200526T081500Z");
     }
 
+    public void testCalendarInstanceIndexQuerying() throws Exception {
+        CollectionItem calendar = generateCalendar("test", "testuser");
+        CollectionItem root = (CollectionItem) contentDao.getRootItem(getUser(userDao, "testuser"));
+        
+        calendar = contentDao.createCollection(root, calendar);
+
+        // infinite daily recurring event
+        NoteItem event = generateEvent("test3.ics", "eventwithtimezone3.ics", "testuser");
+        event.setUid("test3uid");
+        contentDao.createContent(calendar, event);
+        
+        clearSession();
+        
+        // occurrences around now should be materialized
+        NoteItem master = (NoteItem) contentDao.findItemByUid("test3uid");
+        HibEventStamp eventStamp = (HibEventStamp) master.getStamp(EventStamp.class);
+        Assert.assertTrue(eventStamp.getInstances().size() > 0);
+        Assert.assertNotNull(eventStamp.getTimeRangeIndex().getInstancesFrom());
+        // infinite event, so the window can't cover the whole series
+        Assert.assertTrue(eventStamp.getTimeRangeIndex().getInstancesUntil().longValue() < Long.MAX_VALUE);
+        
+        clearSession();
+        
+        // 3 days starting at midnight UTC a week from now, which is 
+        // inside the materialized window
+        long day = 24 * 60 * 60 * 1000L;
+        long start = ((System.currentTimeMillis() / day) + 7) * day;
+        DateTime rangeStart = new DateTime(start);
+        rangeStart.setUtc(true);
+        DateTime rangeEnd = new DateTime(start + (3 * day));
+        rangeEnd.setUtc(true);
+        
+        Set<ContentItem> queryEvents = calendarDao.findEvents(calendar, rangeStart, rangeEnd, false);
+        Assert.assertEquals(1, queryEvents.size());
+        verifyItemNameInSet(queryEvents, "test3.ics");
+        
+        // master plus an occurrence for each day
+        queryEvents = calendarDao.findEvents(calendar, rangeStart, rangeEnd, true);
+        Assert.assertEquals(4, queryEvents.size());
+        verifyItemNameInSet(queryEvents, "test3.ics");
+    }
+
+    public void testRefreshInstanceIndex() throws Exception {
+        CollectionItem calendar = generateCalendar("test", "testuser");
+        CollectionItem root = (CollectionItem) contentDao.getRootItem(getUser(userDao, "testuser"));
+        
+        calendar = contentDao.createCollection(root, calendar);
+
+        // infinite daily recurring event
+        NoteItem event = generateEvent("test3.ics", "eventwithtimezone3.ics", "testuser");
+        event.setUid("test3uid");
+        contentDao.createContent(calendar, event);
+        
+        clearSession();
+        
+        // pretend the event was indexed long ago, so that its window
+        // ended yesterday
+        long day = 24 * 60 * 60 * 1000L;
+        long now = System.currentTimeMillis();
+        NoteItem master = (NoteItem) contentDao.findItemByUid("test3uid");
+        HibEventStamp eventStamp = (HibEventStamp) master.getStamp(EventStamp.class);
+        session.createSQLQuery("update event_stamp set instancesuntil=:until, busyuntil=:until where stampid=:id")
+            .setParameter("until", new Long(now - day))
+            .setParameter("id", eventStamp.getId()).executeUpdate();
+        
+        clearSession();
+        
+        // a week from now is outside of the stale window, so the
+        // recurrence has to be expanded
+        long start = ((now / day) + 7) * day;
+        master = (NoteItem) contentDao.findItemByUid("test3uid");
+        eventStamp = (HibEventStamp) master.getStamp(EventStamp.class);
+        Assert.assertFalse(eventStamp.getTimeRangeIndex().hasInstancesFor(start, start + (3 * day)));
+        
+        clearSession();
+        
+        EventIndexRefresher refresher = new EventIndexRefresher();
+        List<HibEventStamp> refreshed = refresher.refreshBatch(session, now + (30 * day), -1);
+        Assert.assertEquals(1, refreshed.size());
+        session.flush();
+        
+        clearSession();
+        
+        // the window was recalculated around now
+        master = (NoteItem) contentDao.findItemByUid("test3uid");
+        eventStamp = (HibEventStamp) master.getStamp(EventStamp.class);
+        Assert.assertTrue(eventStamp.getTimeRangeIndex().hasInstancesFor(start, start + (3 * day)));
+        Assert.assertTrue(eventStamp.getTimeRangeIndex().getBusyUntil().longValue() > now + (30 * day));
+        Assert.assertTrue(eventStamp.getInstances().size() > 0);
+        
+        clearSession();
+        
+        // nothing is left to refresh
+        refreshed = refresher.refreshBatch(session, now + (30 * day), -1);
+        Assert.assertEquals(0, refreshed.size());
+        
+        DateTime rangeStart = new DateTime(start);
+        rangeStart.setUtc(true);
+        DateTime rangeEnd = new DateTime(start + (3 * day));
+        rangeEnd.setUtc(true);
+        Set<ContentItem> queryEvents = calendarDao.findEvents(calendar, rangeStart, rangeEnd, true);
+        Assert.assertEquals(4, queryEvents.size());
+    }
+
+    public void testFindBusyPeriods() throws Exception {
+        CollectionItem calendar = generateCalendar("test", "testuser");
+        CollectionItem root = (CollectionItem) contentDao.getRootItem(getUser(userDao, "testuser"));
+        
+        calendar = contentDao.createCollection(root, calendar);
+
+        for (int i = 1; i <= 3; i++) {
+            NoteItem event = generateEvent("test" + i + ".ics", "eventwithtimezone" + i + ".ics", "testuser");
+            event.setUid("test" + i + "uid");
+            contentDao.createContent(calendar, event);
+        }
+        
+        clearSession();
+        
+        // non-recurring event has all busy periods precomputed
+        NoteItem note = (NoteItem) contentDao.findItemByUid("test2uid");
+        HibEventStamp eventStamp = (HibEventStamp) note.getStamp(EventStamp.class);
+        Assert.assertEquals(1, eventStamp.getBusyPeriods().size());
+        Assert.assertEquals(Long.MIN_VALUE, eventStamp.getTimeRangeIndex().getBusyFrom().longValue());
+        Assert.assertEquals(Long.MAX_VALUE, eventStamp.getTimeRangeIndex().getBusyUntil().longValue());
+        
+        clearSession();
+        calendar = (CollectionItem) contentDao.findItemByUid(calendar.getUid());
+        
+        PeriodList busyPeriods = new PeriodList();
+        PeriodList busyTentativePeriods = new PeriodList();
+        Period period = new Period(new DateTime("20070501T000000Z"), new DateTime("20070502T000000Z"));
+        Set<ICalendarItem> results = calendarDao.findBusyPeriods(calendar, period, busyPeriods, busyTentativePeriods);
+        Assert.assertEquals(0, results.size());
+        Assert.assertEquals("20070501T093000Z/20070501T103000Z", busyPeriods.toString());
+        Assert.assertEquals(0, busyTentativePeriods.size());
+        
+        // recurring events occurring outside the precomputed window
+        // must be expanded
+        busyPeriods.clear();
+        period = new Period(new DateTime("20070507T051500Z"), new DateTime("20070516T051500Z"));
+        results = calendarDao.findBusyPeriods(calendar, period, busyPeriods, busyTentativePeriods);
+        Assert.assertEquals(2, results.size());
+        verifyItemNameInSet(new HashSet<ContentItem>(results), "test1.ics");
+        verifyItemNameInSet(new HashSet<ContentItem>(results), "test3.ics");
+        Assert.assertEquals(0, busyPeriods.size());
+        
+        // 3 days starting at midnight UTC a week from now, which is
+        // inside the precomputed window of the daily event
+        long day = 24 * 60 * 60 * 1000L;
+        long start = ((System.currentTimeMillis() / day) + 7) * day;
+        DateTime rangeStart = new DateTime(start);
+        rangeStart.setUtc(true);
+        DateTime rangeEnd = new DateTime(start + (3 * day));
+        rangeEnd.setUtc(true);
+        
+        period = new Period(rangeStart, rangeEnd);
+        results = calendarDao.findBusyPeriods(calendar, period, busyPeriods, busyTentativePeriods);
+        Assert.assertEquals(0, results.size());
+        Assert.assertEquals(3, busyPeriods.size());
+        Assert.assertEquals(0, busyTentativePeriods.size());
+    }
+
     private User getUser(UserDao userDao, String username) {
         return helper.getUser(userDao, contentDao, username);
     }
@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -37,6 +38,7 @@ import org.dom4j.io.DOMWriter;
 import org.hibernate.validator.InvalidStateException;
 import org.osaf.cosmo.calendar.util.CalendarUtils;
 import org.osaf.cosmo.dao.UserDao;
+import org.osaf.cosmo.hibernate.StatementCountingInterceptor;
 import org.osaf.cosmo.model.Attribute;
 import org.osaf.cosmo.model.AvailabilityItem;
 import org.osaf.cosmo.model.BooleanAttribute;
@@ -53,6 +55,7 @@ import org.osaf.cosmo.model.ICalendarAttribute;
 import org.osaf.cosmo.model.IcalUidInUseException;
 import org.osaf.cosmo.model.IntegerAttribute;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemMetadata;
 import org.osaf.cosmo.model.ItemNotFoundException;
 import org.osaf.cosmo.model.ItemTombstone;
 import org.osaf.cosmo.model.ModelValidationException;
@@ -141,6 +144,146 @@ public class HibernateContentDaoTest extends AbstractHibernateDaoTestCase {
         Assert.assertEquals(1, children.size());
     }
     
+    public void testFindItemsByUids() throws Exception {
+        User user = getUser(userDao, "testuser");
+        CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
+        
+        HashSet<String> uids = new HashSet<String>();
+        for (int i = 1; i <= 3; i++) {
+            ContentItem item = generateTestContent("test" + i, "testuser");
+            uids.add(contentDao.createContent(root, item).getUid());
+        }
+        
+        clearSession();
+        
+        uids.add("missing");
+        Set<Item> items = contentDao.findItemsByUids(uids);
+        Assert.assertEquals(3, items.size());
+        for (Item item : items)
+            Assert.assertTrue(uids.contains(item.getUid()));
+        
+        Assert.assertEquals(0, contentDao.findItemsByUids(new HashSet<String>()).size());
+    }
+    
+    public void testFindChildrenByNames() throws Exception {
+        User user = getUser(userDao, "testuser");
+        CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
+        
+        CollectionItem a = new HibCollectionItem();
+        a.setName("a");
+        a.setOwner(user);
+        a = contentDao.createCollection(root, a);
+        
+        for (int i = 1; i <= 3; i++)
+            contentDao.createContent(a, generateTestContent("test" + i, "testuser"));
+        contentDao.createContent(root, generateTestContent("test4", "testuser"));
+        
+        clearSession();
+        
+        a = (CollectionItem) contentDao.findItemByUid(a.getUid());
+        HashSet<String> names = new HashSet<String>();
+        names.add("test1");
+        names.add("test3");
+        names.add("test4");
+        names.add("missing");
+        Set<Item> items = contentDao.findChildrenByNames(a, names);
+        Assert.assertEquals(2, items.size());
+        for (Item item : items) {
+            Assert.assertTrue(item.getName().equals("test1") ||
+                              item.getName().equals("test3"));
+            Assert.assertEquals("customattributevalue",
+                    item.getAttributeValue("customattribute"));
+        }
+        
+        Assert.assertEquals(0, contentDao.findChildrenByNames(a, new HashSet<String>()).size());
+    }
+    
+    public void testFindChildrenByNamesStatementCount() throws Exception {
+        User user = getUser(userDao, "testuser");
+        CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
+        
+        CollectionItem a = new HibCollectionItem();
+        a.setName("a");
+        a.setOwner(user);
+        a = contentDao.createCollection(root, a);
+        
+        HashSet<String> names = new HashSet<String>();
+        for (int i = 1; i <= 20; i++) {
+            contentDao.createContent(a, generateTestContent("test" + i, "testuser"));
+            names.add("test" + i);
+        }
+        
+        clearSession();
+        
+        a = (CollectionItem) contentDao.findItemByUid(a.getUid());
+        HashSet<String> one = new HashSet<String>();
+        one.add("test1");
+        long start = StatementCountingInterceptor.getStatementCount();
+        Assert.assertEquals(1, contentDao.findChildrenByNames(a, one).size());
+        long oneCount = StatementCountingInterceptor.getStatementCount() - start;
+        
+        clearSession();
+        
+        // finding more children doesn't take more statements
+        a = (CollectionItem) contentDao.findItemByUid(a.getUid());
+        start = StatementCountingInterceptor.getStatementCount();
+        Assert.assertEquals(20, contentDao.findChildrenByNames(a, names).size());
+        long manyCount = StatementCountingInterceptor.getStatementCount() - start;
+        
+        Assert.assertTrue(oneCount > 0);
+        Assert.assertEquals(oneCount, manyCount);
+    }
+    
+    public void testContentDaoLoadChildrenPaged() throws Exception {
+        User user = getUser(userDao, "testuser");
+        CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
+        
+        CollectionItem a = new HibCollectionItem();
+        a.setName("a");
+        a.setOwner(user);
+        a = contentDao.createCollection(root, a);
+        
+        for (int i = 1; i <= 5; i++) {
+            ContentItem item = generateTestContent("test" + i, "testuser");
+            item.setUid("page" + i);
+            contentDao.createContent(a, item);
+        }
+        
+        clearSession();
+        
+        a = (CollectionItem) contentDao.findItemByUid(a.getUid());
+        long seq = a.getChangeSequence();
+        
+        List<ContentItem> page = contentDao.loadChildren(a, null, 2);
+        Assert.assertEquals(2, page.size());
+        Assert.assertEquals("page1", page.get(0).getUid());
+        Assert.assertEquals("page2", page.get(1).getUid());
+        
+        contentDao.evictItems(page);
+        
+        page = contentDao.loadChildren(a, "page2", 2);
+        Assert.assertEquals(2, page.size());
+        Assert.assertEquals("page3", page.get(0).getUid());
+        
+        page = contentDao.loadChildren(a, "page4", 2);
+        Assert.assertEquals(1, page.size());
+        Assert.assertEquals("page5", page.get(0).getUid());
+        
+        Assert.assertEquals(0, contentDao.loadChildren(a, "page5", 2).size());
+        
+        ContentItem item = (ContentItem) contentDao.findItemByUid("page4");
+        item.setDisplayName("changed");
+        contentDao.updateContent(item);
+        
+        clearSession();
+        
+        a = (CollectionItem) contentDao.findItemByUid(a.getUid());
+        page = contentDao.loadChangedChildren(a, seq, null, 2);
+        Assert.assertEquals(1, page.size());
+        Assert.assertEquals("page4", page.get(0).getUid());
+        Assert.assertEquals(0, contentDao.loadChangedChildren(a, seq, "page4", 2).size());
+    }
+    
     public void testContentDaoCreateContentDuplicateUid() throws Exception {
         User user = getUser(userDao, "testuser");
         CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
@@ -631,6 +774,47 @@ public class HibernateContentDaoTest extends AbstractHibernateDaoTestCase {
         Assert.assertNull(queryItem);
     }
 
+    public void testFindItemMetadata() throws Exception {
+        User user = getUser(userDao, "testuser");
+        CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
+
+        ContentItem item = generateTestContent();
+
+        ContentItem newItem = contentDao.createContent(root, item);
+
+        clearSession();
+
+        ItemMetadata metadata = contentDao.findItemMetadataByUid(newItem.getUid());
+        Assert.assertNotNull(metadata);
+        Assert.assertEquals(newItem.getUid(), metadata.getUid());
+        Assert.assertEquals(newItem.getEntityTag(), metadata.getEntityTag());
+        Assert.assertEquals(newItem.getModifiedDate(), metadata.getModifiedDate());
+        Assert.assertEquals(((HibItem) newItem).getVersion(), metadata.getVersion());
+        Assert.assertEquals("testuser", metadata.getOwnerUsername());
+
+        metadata = contentDao.findItemMetadataByPath("test", root.getUid());
+        Assert.assertNotNull(metadata);
+        Assert.assertEquals(newItem.getUid(), metadata.getUid());
+
+        Assert.assertNull(contentDao.findItemMetadataByPath("test/test", root.getUid()));
+        Assert.assertNull(contentDao.findItemMetadataByPath("bogus", root.getUid()));
+        Assert.assertNull(contentDao.findItemMetadataByUid("bogus"));
+
+        // paths below the home collection
+        metadata = contentDao.findItemMetadataByPath("/testuser/test");
+        Assert.assertNotNull(metadata);
+        Assert.assertEquals(newItem.getUid(), metadata.getUid());
+        Assert.assertEquals(newItem.getEntityTag(), metadata.getEntityTag());
+
+        metadata = contentDao.findItemMetadataByPath("/testuser");
+        Assert.assertNotNull(metadata);
+        Assert.assertEquals(root.getUid(), metadata.getUid());
+
+        Assert.assertNull(contentDao.findItemMetadataByPath("/testuser/bogus"));
+        Assert.assertNull(contentDao.findItemMetadataByPath("/testuser/test/test"));
+        Assert.assertNull(contentDao.findItemMetadataByPath("/bogus/test"));
+    }
+
     public void testDeleteContentByUid() throws Exception {
         User user = getUser(userDao, "testuser");
         CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
@@ -697,6 +881,116 @@ public class HibernateContentDaoTest extends AbstractHibernateDaoTestCase {
         Assert.assertEquals(root.getTombstones().size(), 0);
     }
 
+    public void testChangeHistory() throws Exception {
+        User user = getUser(userDao, "testuser");
+        CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
+        
+        CollectionItem a = new HibCollectionItem();
+        a.setName("a");
+        a.setOwner(user);
+
+        a = contentDao.createCollection(root, a);
+        
+        ContentItem item1 = generateTestContent("test1", "testuser");
+        ContentItem item2 = generateTestContent("test2", "testuser");
+        
+        item1 = contentDao.createContent(a, item1);
+        
+        clearSession();
+        
+        a = (CollectionItem) contentDao.findItemByUid(a.getUid());
+        long seq = a.getChangeSequence();
+        Assert.assertEquals(1, seq);
+        Assert.assertEquals(0, contentDao.getFirstChangeSequence(a));
+        
+        item2 = contentDao.createContent(a, item2);
+        
+        clearSession();
+        
+        a = (CollectionItem) contentDao.findItemByUid(a.getUid());
+        Assert.assertEquals(2, a.getChangeSequence());
+        
+        Set<ContentItem> changed = contentDao.loadChangedChildren(a, seq);
+        Assert.assertEquals(1, changed.size());
+        Assert.assertEquals(item2.getUid(), changed.iterator().next().getUid());
+        Assert.assertEquals(2, contentDao.loadChangedChildren(a, 0).size());
+        Assert.assertEquals(0, contentDao.findRemovedChildren(a, seq).size());
+        
+        item1 = (ContentItem) contentDao.findItemByUid(item1.getUid());
+        contentDao.removeContent(item1);
+        
+        clearSession();
+        
+        a = (CollectionItem) contentDao.findItemByUid(a.getUid());
+        Assert.assertEquals(3, a.getChangeSequence());
+        
+        changed = contentDao.loadChangedChildren(a, seq);
+        Assert.assertEquals(1, changed.size());
+        
+        List<ItemTombstone> removed = contentDao.findRemovedChildren(a, seq);
+        Assert.assertEquals(1, removed.size());
+        Assert.assertEquals(item1.getUid(), removed.get(0).getItemUid());
+        Assert.assertEquals(0, contentDao.findRemovedChildren(a, 3).size());
+        
+        // compacting the history invalidates earlier sequences
+        Assert.assertTrue(contentDao.compactChangeHistory(
+                new Date(System.currentTimeMillis() + 1000)) >= 3);
+        
+        clearSession();
+        
+        a = (CollectionItem) contentDao.findItemByUid(a.getUid());
+        Assert.assertEquals(3, contentDao.getFirstChangeSequence(a));
+        Assert.assertEquals(0, contentDao.findRemovedChildren(a, seq).size());
+        
+        // tombstones of attributes are not part of the change history
+        item2 = (ContentItem) contentDao.findItemByUid(item2.getUid());
+        item2.removeAttribute("customattribute");
+        contentDao.updateContent(item2);
+        
+        clearSession();
+        
+        contentDao.compactChangeHistory(new Date(System.currentTimeMillis() + 1000));
+        
+        clearSession();
+        
+        item2 = (ContentItem) contentDao.findItemByUid(item2.getUid());
+        Assert.assertEquals(1, item2.getTombstones().size());
+    }
+
+    public void testChangeSequenceDoesNotVersionCollection() throws Exception {
+        User user = getUser(userDao, "testuser");
+        CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
+        
+        CollectionItem a = new HibCollectionItem();
+        a.setName("a");
+        a.setOwner(user);
+
+        a = contentDao.createCollection(root, a);
+        ContentItem item1 = contentDao.createContent(a,
+                generateTestContent("test1", "testuser"));
+        
+        clearSession();
+        
+        a = (CollectionItem) contentDao.findItemByUid(a.getUid());
+        Integer version = a.getVersion();
+        Assert.assertEquals(1, a.getChangeSequence());
+        
+        clearSession();
+        
+        // recording a change of a child increments the sequence
+        // without making the collection dirty
+        item1 = (ContentItem) contentDao.findItemByUid(item1.getUid());
+        item1.setDisplayName("changed");
+        contentDao.updateContent(item1);
+        
+        clearSession();
+        
+        a = (CollectionItem) contentDao.findItemByUid(a.getUid());
+        Assert.assertEquals(2, a.getChangeSequence());
+        Assert.assertEquals(version, a.getVersion());
+        Assert.assertEquals(1, contentDao.loadChangedChildren(a, 1).size());
+    }
+
     public void testContentDaoCreateCollection() throws Exception {
         User user = getUser(userDao, "testuser2");
         CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
@@ -15,7 +15,12 @@
  */
 package org.osaf.cosmo.dao.hibernate;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -205,4 +210,156 @@ public class HibernateEventLogDaoTest extends AbstractHibernateDaoTestCase {
         method.invoke(bmo, id);
     }
 
+    public void testEventLogDaoCursorQuery() throws Exception {
+        ArrayList<EventLogEntry> entries = new ArrayList<EventLogEntry>();
+        for(int i=0;i<3;i++) {
+            ItemUpdatedEntry entry = new ItemUpdatedEntry(note, col1);
+            entry.setUser(user);
+            entries.add(entry);
+        }
+        ItemUpdatedEntry other = new ItemUpdatedEntry(note, col2);
+        other.setUser(user);
+        entries.add(other);
+        
+        eventLogDao.addEventLogEntries(entries);
+        
+        // changes that may not have committed yet are held back
+        Assert.assertEquals(0, eventLogDao.findChangesForCollection(col1, 0, 2).size());
+        
+        long commitLag = eventLogDao.getCommitLag();
+        eventLogDao.setCommitLag(-1000);
+        try {
+            verifyCursorQuery();
+        } finally {
+            eventLogDao.setCommitLag(commitLag);
+        }
+    }
+    
+    public void testCursorQueryHoldsBackByInsertDate() throws Exception {
+        long now = System.currentTimeMillis();
+        
+        // committed long ago
+        HibEventLogEntry committed = createEntry(new Date(now), new Date(now - 3600000));
+        // an old change written by the background writer just now
+        HibEventLogEntry inserted = createEntry(new Date(now - 3600000), new Date(now));
+        // committed long ago, but after an entry that may not be
+        HibEventLogEntry after = createEntry(new Date(now - 3600000), new Date(now - 3600000));
+        session.save(committed);
+        session.save(inserted);
+        session.save(after);
+        session.flush();
+        
+        // the cursor stops below the recently inserted entry
+        List<ItemChangeRecord> results = eventLogDao.findChangesForCollection(col1, 0, 10);
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(committed.getId().longValue(), results.get(0).getEntryId());
+        
+        long cursor = results.get(0).getEntryId();
+        Assert.assertEquals(0, eventLogDao.findChangesForCollection(col1, cursor, 10).size());
+        
+        inserted.setInsertDate(new Date(now - 3600000));
+        session.flush();
+        results = eventLogDao.findChangesForCollection(col1, cursor, 10);
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals(inserted.getId().longValue(), results.get(0).getEntryId());
+    }
+    
+    private HibEventLogEntry createEntry(Date date, Date insertDate) {
+        HibEventLogEntry entry = new HibEventLogEntry();
+        entry.setDate(date);
+        entry.setInsertDate(insertDate);
+        entry.setType("ItemUpdated");
+        entry.setAuthType("user");
+        entry.setAuthId(new Long(1));
+        entry.setId1(new Long(2));
+        entry.setId2(new Long(4));
+        entry.setUid1("uid3");
+        return entry;
+    }
+    
+    private void verifyCursorQuery() throws Exception {
+        List<ItemChangeRecord> results = eventLogDao.findChangesForCollection(col1, 0, 2);
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals("uid1", results.get(0).getCollectionUuid());
+        Assert.assertTrue(results.get(0).getEntryId() < results.get(1).getEntryId());
+        
+        // page after the last change seen
+        long cursor = results.get(1).getEntryId();
+        results = eventLogDao.findChangesForCollection(col1, cursor, 2);
+        Assert.assertEquals(1, results.size());
+        Assert.assertTrue(results.get(0).getEntryId() > cursor);
+        
+        cursor = results.get(0).getEntryId();
+        results = eventLogDao.findChangesForCollection(col1, cursor, 2);
+        Assert.assertEquals(0, results.size());
+        
+        results = eventLogDao.findChangesForCollection(col2, 0, 10);
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(ItemChangeRecord.Action.ITEM_CHANGED, results.get(0).getAction());
+     }
+    
+    public void testInsertEntriesBatch() throws Exception {
+        ArrayList<HibEventLogEntry> entries = new ArrayList<HibEventLogEntry>();
+        for(int i=0;i<50;i++) {
+            HibEventLogEntry entry = new HibEventLogEntry();
+            entry.setType("ItemUpdated");
+            entry.setAuthType("user");
+            entry.setAuthId(new Long(1));
+            entry.setId1(new Long(2));
+            entry.setId2(new Long(4));
+            entry.setUid1("uid3");
+            entry.setStrval1("note " + i);
+            entries.add(entry);
+        }
+        
+        final int[] statements = new int[2];
+        final Connection conn = session.connection();
+        Connection counting = (Connection) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[] { Connection.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        Object result = invokeTarget(conn, method, args);
+                        if(!method.getName().equals("prepareStatement"))
+                            return result;
+                        statements[0]++;
+                        final PreparedStatement stmt = (PreparedStatement) result;
+                        return Proxy.newProxyInstance(
+                                getClass().getClassLoader(),
+                                new Class[] { PreparedStatement.class },
+                                new InvocationHandler() {
+                                    public Object invoke(Object proxy,
+                                            Method method, Object[] args)
+                                            throws Throwable {
+                                        if(method.getName().startsWith("execute"))
+                                            statements[1]++;
+                                        return invokeTarget(stmt, method, args);
+                                    }
+                                });
+                    }
+                });
+        
+        // one statement prepared and executed for the whole batch
+        EventLogWriter.insertEntries(counting, entries);
+        Assert.assertEquals(1, statements[0]);
+        Assert.assertEquals(1, statements[1]);
+        
+        List<HibEventLogEntry> results =
+            session.createQuery("from HibEventLogEntry order by id").list();
+        Assert.assertEquals(50, results.size());
+        Assert.assertEquals("note 0", results.get(0).getStrval1());
+        Assert.assertEquals("note 49", results.get(49).getStrval1());
+        Assert.assertEquals(new Long(2), results.get(49).getId1());
+        Assert.assertNull(results.get(49).getId3());
+        Assert.assertEquals(entries.get(49).getDate(), results.get(49).getDate());
+    }
+    
+    private static Object invokeTarget(Object target, Method method,
+            Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
 }
@@ -22,6 +22,7 @@ import net.fortuna.ical4j.model.Period;
 
 import org.osaf.cosmo.calendar.query.CalendarFilter;
 import org.osaf.cosmo.calendar.query.ComponentFilter;
+import org.osaf.cosmo.calendar.query.IsNotDefinedFilter;
 import org.osaf.cosmo.calendar.query.PropertyFilter;
 import org.osaf.cosmo.calendar.query.TextMatchFilter;
 import org.osaf.cosmo.calendar.query.TimeRangeFilter;
@@ -138,6 +139,54 @@ public class CalendarFilterConverterTest extends TestCase {
         Assert.assertEquals(true, sf.isMissing());
     }
     
+    public void testGetFirstPassEventFilter() throws Exception {
+        CollectionItem calendar = new HibCollectionItem();
+        calendar.setUid("calendar");
+        CalendarFilter calFilter = new CalendarFilter();
+        ComponentFilter rootComp = new ComponentFilter();
+        rootComp.setName("VCALENDAR");
+        calFilter.setFilter(rootComp);
+        ComponentFilter eventComp = new ComponentFilter();
+        eventComp.setName("VEVENT");
+        rootComp.getComponentFilters().add(eventComp);
+        
+        Period period = new Period(new DateTime("20070101T100000Z"), new DateTime("20070201T100000Z"));
+        eventComp.setTimeRangeFilter(new TimeRangeFilter(period));
+        ComponentFilter alarmComp = new ComponentFilter();
+        alarmComp.setName("VALARM");
+        eventComp.getComponentFilters().add(alarmComp);
+        
+        try {
+            converter.translateToItemFilter(calendar, calFilter);
+            Assert.fail("shouldn't get here");
+        } catch(IllegalArgumentException e) {}
+        
+        // candidates are narrowed down by the time-range index only
+        ItemFilter itemFilter = converter.getFirstPassFilter(calendar, calFilter);
+        Assert.assertNotNull(itemFilter);
+        NoteItemFilter noteFilter = (NoteItemFilter) itemFilter;
+        Assert.assertEquals(calendar.getUid(), noteFilter.getParent().getUid());
+        Assert.assertEquals(1, noteFilter.getStampFilters().size());
+        EventStampFilter sf = (EventStampFilter) noteFilter.getStampFilter(EventStampFilter.class);
+        Assert.assertNotNull(sf);
+        Assert.assertEquals(sf.getPeriod().getStart().toString(), "20070101T100000Z");
+        Assert.assertFalse(sf.isExpandRecurringEvents());
+        Assert.assertEquals("false", noteFilter.getFilterProperty(
+                EventStampFilter.PROPERTY_DO_TIMERANGE_SECOND_PASS));
+        
+        // without a time-range, any event is a candidate
+        eventComp.setTimeRangeFilter(null);
+        noteFilter = (NoteItemFilter) converter.getFirstPassFilter(calendar, calFilter);
+        sf = (EventStampFilter) noteFilter.getStampFilter(EventStampFilter.class);
+        Assert.assertNotNull(sf);
+        Assert.assertNull(sf.getPeriod());
+        
+        // calendars without events match is-not-defined
+        eventComp.getComponentFilters().clear();
+        eventComp.setIsNotDefinedFilter(new IsNotDefinedFilter());
+        Assert.assertNull(converter.getFirstPassFilter(calendar, calFilter));
+    }
+    
     private void verifyFilterExpressionValue(FilterCriteria fc, Object value) {
         FilterExpression fe = (FilterExpression) fc;
         Assert.assertTrue(fe.getValue().equals(value));
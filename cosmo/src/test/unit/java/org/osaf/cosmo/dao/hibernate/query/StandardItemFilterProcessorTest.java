@@ -15,7 +15,10 @@
  */
 package org.osaf.cosmo.dao.hibernate.query;
 
+import java.io.File;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 
 import junit.framework.Assert;
 import net.fortuna.ical4j.model.DateTime;
@@ -25,8 +28,12 @@ import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
 
 import org.hibernate.Query;
 import org.osaf.cosmo.dao.hibernate.AbstractHibernateDaoTestCase;
+import org.osaf.cosmo.dao.hibernate.ContentDaoImpl;
+import org.osaf.cosmo.dao.hibernate.UserDaoImpl;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.EventStamp;
+import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.TriageStatus;
 import org.osaf.cosmo.model.filter.AttributeFilter;
 import org.osaf.cosmo.model.filter.ContentItemFilter;
@@ -35,9 +42,11 @@ import org.osaf.cosmo.model.filter.ItemFilter;
 import org.osaf.cosmo.model.filter.NoteItemFilter;
 import org.osaf.cosmo.model.filter.Restrictions;
 import org.osaf.cosmo.model.filter.StampFilter;
+import org.osaf.cosmo.model.filter.TextSearchFilter;
 import org.osaf.cosmo.model.hibernate.HibCollectionItem;
 import org.osaf.cosmo.model.hibernate.HibNoteItem;
 import org.osaf.cosmo.model.hibernate.HibQName;
+import org.osaf.cosmo.search.FileSearchIndex;
 
 
 /**
@@ -46,6 +55,8 @@ import org.osaf.cosmo.model.hibernate.HibQName;
 public class StandardItemFilterProcessorTest extends AbstractHibernateDaoTestCase {
 
     StandardItemFilterProcessor queryBuilder = new StandardItemFilterProcessor();
+    protected ContentDaoImpl contentDao = null;
+    protected UserDaoImpl userDao = null;
     TimeZoneRegistry registry =
         TimeZoneRegistryFactory.getInstance().createRegistry();
     
@@ -200,7 +211,11 @@ public class StandardItemFilterProcessorTest extends AbstractHibernateDaoTestCas
         filter.setParent(parent);
         filter.getStampFilters().add(eventFilter);
         Query query =  queryBuilder.buildQuery(session, filter);
-        Assert.assertEquals("select i from HibNoteItem i join i.parentDetails pd, HibBaseEventStamp es where pd.primaryKey.collection=:parent and es.item=i and ( (es.timeRangeIndex.isFloating=true and es.timeRangeIndex.startDate < '20070201T040000' and es.timeRangeIndex.endDate > '20070101T040000') or (es.timeRangeIndex.isFloating=false and es.timeRangeIndex.startDate < '20070201T100000Z' and es.timeRangeIndex.endDate > '20070101T100000Z') or (es.timeRangeIndex.startDate=es.timeRangeIndex.endDate and (es.timeRangeIndex.startDate='20070101T040000' or es.timeRangeIndex.startDate='20070101T100000Z')))", query.getQueryString());
+        Assert.assertEquals("select i from HibNoteItem i join i.parentDetails pd, HibBaseEventStamp es where pd.primaryKey.collection=:parent and es.item=i and es.timeRangeIndex.utcStart < :utcend and es.timeRangeIndex.utcEnd >= :utcstart and ( (es.timeRangeIndex.isFloating=false and (es.timeRangeIndex.utcEnd > :utcstart or es.timeRangeIndex.utcStart=es.timeRangeIndex.utcEnd)) or (es.timeRangeIndex.isFloating=true and es.timeRangeIndex.floatStart < :floatend and (es.timeRangeIndex.floatEnd > :floatstart or (es.timeRangeIndex.floatStart=es.timeRangeIndex.floatEnd and es.timeRangeIndex.floatStart=:floatstart))))", query.getQueryString());
+        
+        // 20070101T100000Z and 20070101T040000 (floating)
+        Assert.assertEquals(1167645600000L, eventFilter.getUTCStartTime());
+        Assert.assertEquals(1167624000000L, eventFilter.getFloatStartTime());
     }
     
     public void testBasicStampQuery() throws Exception {
@@ -227,4 +242,69 @@ public class StandardItemFilterProcessorTest extends AbstractHibernateDaoTestCas
         Assert.assertEquals("select i from HibNoteItem i where not exists (select a.id from HibAttribute a where a.item=i and a.qname=:param0)", query.getQueryString());
     }
 
+    public void testTextSearchWithIndex() throws Exception {
+        File indexFile = File.createTempFile("search", ".idx");
+        indexFile.delete();
+        FileSearchIndex index = new FileSearchIndex();
+        index.setIndexFile(indexFile.getPath());
+        index.setFlushInterval(0);
+        index.init();
+        
+        try {
+            CollectionItem root = (CollectionItem) contentDao.getRootItem(
+                    helper.getUser(userDao, contentDao, "testuser"));
+            
+            index.beginRebuild();
+            index.indexItem(createNote(root, "note1", "Buy milk", "at the store"));
+            index.indexItem(createNote(root, "note2", "Milk run", "buy bread"));
+            index.indexItem(createNote(root, "note3", "Dentist", "bring card"));
+            index.endRebuild();
+            clearSession();
+            
+            queryBuilder.setSearchIndex(index);
+            
+            // words of a phrase in another order don't match
+            TextSearchFilter filter = new TextSearchFilter();
+            filter.setParent(root);
+            filter.addTerm("buy milk");
+            verifyNames(queryBuilder.processFilter(session, filter), "note1");
+            
+            // a single word doesn't let every candidate of a phrase match
+            filter = new TextSearchFilter();
+            filter.setParent(root);
+            filter.addTerm("dentist");
+            filter.addTerm("buy milk");
+            verifyNames(queryBuilder.processFilter(session, filter), "note1", "note3");
+            
+            filter = new TextSearchFilter();
+            filter.setParent(root);
+            filter.addTerm("bread");
+            filter.addTerm("bring card");
+            verifyNames(queryBuilder.processFilter(session, filter), "note2", "note3");
+        } finally {
+            queryBuilder.setSearchIndex(null);
+            index.destroy();
+            indexFile.delete();
+        }
+    }
+    
+    private NoteItem createNote(CollectionItem parent, String name,
+            String displayName, String body) throws Exception {
+        NoteItem note = new HibNoteItem();
+        note.setName(name);
+        note.setDisplayName(displayName);
+        note.setBody(body);
+        note.setOwner(parent.getOwner());
+        return (NoteItem) contentDao.createContent(parent, note);
+    }
+    
+    private void verifyNames(Set<Item> items, String... names) {
+        HashSet<String> found = new HashSet<String>();
+        for(Item item: items)
+            found.add(item.getName());
+        Assert.assertEquals(names.length, found.size());
+        for(String name: names)
+            Assert.assertTrue(found.contains(name));
+    }
+
 }
@@ -20,6 +20,8 @@ import java.util.Set;
 
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.PeriodList;
 
 import org.osaf.cosmo.calendar.EntityConverter;
 import org.osaf.cosmo.calendar.query.CalendarFilter;
@@ -29,6 +31,8 @@ import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
 import org.osaf.cosmo.model.ICalendarItem;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.NoteItem;
+import org.osaf.cosmo.model.StampUtils;
 
 /**
  * Mock implementation of <code>CalendarDao</code> useful for testing.
@@ -103,6 +107,24 @@ public class MockCalendarDao extends MockItemDao implements CalendarDao {
     public Set<ContentItem> findEvents(CollectionItem collection, DateTime rangeStart, DateTime rangeEnd, boolean expandRecurringEvents) {
         throw new UnsupportedOperationException();
     }
+
+    /**
+     * Find busy periods.
+     * NOTE: This impl has no precomputed busy periods, so all master
+     * events in the collection are returned to be expanded.
+     */
+    public Set<ICalendarItem> findBusyPeriods(CollectionItem collection,
+            Period period, PeriodList busyPeriods,
+            PeriodList busyTentativePeriods) {
+        HashSet<ICalendarItem> results = new HashSet<ICalendarItem>();
+        for (Item child : collection.getChildren()) {
+            if (child instanceof NoteItem
+                    && ((NoteItem) child).getModifies() == null
+                    && StampUtils.getEventStamp(child) != null)
+                results.add((NoteItem) child);
+        }
+        return results;
+    }
     
     
 }
@@ -15,8 +15,14 @@
  */
 package org.osaf.cosmo.dao.mock;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -25,11 +31,13 @@ import org.osaf.cosmo.dao.ContentDao;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemTombstone;
 import org.osaf.cosmo.model.ModelValidationException;
 import org.osaf.cosmo.model.UidInUseException;
 import org.osaf.cosmo.model.User;
 import org.osaf.cosmo.model.mock.MockCollectionItem;
 import org.osaf.cosmo.model.mock.MockItem;
+import org.osaf.cosmo.model.mock.MockItemTombstone;
 import org.springframework.dao.ConcurrencyFailureException;
 
 /**
@@ -44,6 +52,9 @@ public class MockContentDao extends MockItemDao implements ContentDao {
 
     public static boolean THROW_CONCURRENT_EXCEPTION = false;
     
+    private HashMap<String, List<MockChange>> changes =
+        new HashMap<String, List<MockChange>>();
+    
     /**
      */
     public MockContentDao(MockDaoStorage storage) {
@@ -146,6 +157,7 @@ public class MockContentDao extends MockItemDao implements ContentDao {
         ((MockItem) content).addParent(parent);
         
         getStorage().storeItem((Item)content);
+        recordChange(parent, content, false);
 
         return content;
     } 
@@ -170,6 +182,9 @@ public class MockContentDao extends MockItemDao implements ContentDao {
             throw new UidInUseException(content.getUid(), "Uid " + content.getUid() + " already in use");
         
         getStorage().updateItem((Item) content);
+        
+        for(CollectionItem parent: content.getParents())
+            recordChange(parent, content, false);
 
         return content;
     }
@@ -203,6 +218,8 @@ public class MockContentDao extends MockItemDao implements ContentDao {
      *            content item to remove
      */
     public void removeContent(ContentItem content) {
+        for(CollectionItem parent: content.getParents())
+            recordChange(parent, content, true);
         removeItem(content);
     }
 
@@ -236,6 +253,9 @@ public class MockContentDao extends MockItemDao implements ContentDao {
             ((MockItem) content).addParent(parent);
           
         getStorage().storeItem((Item)content);
+        
+        for(CollectionItem parent: parents)
+            recordChange(parent, content, false);
 
         return content;
     }
@@ -275,4 +295,122 @@ public class MockContentDao extends MockItemDao implements ContentDao {
         return items;
     }
     
+    
+    @Override
+    public void addItemToCollection(Item item, CollectionItem collection) {
+        super.addItemToCollection(item, collection);
+        recordChange(collection, item, false);
+    }
+
+    @Override
+    public void removeItemFromCollection(Item item, CollectionItem collection) {
+        recordChange(collection, item, true);
+        super.removeItemFromCollection(item, collection);
+    }
+
+    public Set<ContentItem> loadChangedChildren(CollectionItem collection,
+            long sequence) {
+        HashSet<String> changed = new HashSet<String>();
+        for(MockChange change: getChanges(collection))
+            if(change.sequence > sequence)
+                changed.add(change.item.getUid());
+        
+        Set<ContentItem> items = new HashSet<ContentItem>();
+        for(Item item : collection.getChildren()) {
+            if(item instanceof ContentItem && changed.contains(item.getUid()))
+                items.add((ContentItem) item);
+        }
+        return items;
+    }
+    
+    public List<ContentItem> loadChildren(CollectionItem collection,
+            String afterUid, int maxResults) {
+        return page(loadChildren(collection, (Date) null), afterUid, maxResults);
+    }
+    
+    public List<Item> loadMembers(CollectionItem collection,
+            String afterUid, int maxResults) {
+        return page(collection.getChildren(), afterUid, maxResults);
+    }
+    
+    public List<ContentItem> loadChangedChildren(CollectionItem collection,
+            long sequence, String afterUid, int maxResults) {
+        return page(loadChangedChildren(collection, sequence), afterUid,
+                maxResults);
+    }
+    
+    public void evictItems(Collection<? extends Item> items) {
+        // nothing to evict, items are kept in storage
+    }
+    
+    private <T extends Item> List<T> page(Set<T> items, String afterUid,
+            int maxResults) {
+        ArrayList<T> sorted = new ArrayList<T>();
+        for(T item : items)
+            if(afterUid==null || item.getUid().compareTo(afterUid) > 0)
+                sorted.add(item);
+        Collections.sort(sorted, new Comparator<T>() {
+            public int compare(T i1, T i2) {
+                return i1.getUid().compareTo(i2.getUid());
+            }
+        });
+        if(sorted.size() > maxResults)
+            return new ArrayList<T>(sorted.subList(0, maxResults));
+        return sorted;
+    }
+    
+    public List<ItemTombstone> findRemovedChildren(CollectionItem collection,
+            long sequence) {
+        HashMap<String, ItemTombstone> tombstones = new HashMap<String, ItemTombstone>();
+        for(MockChange change: getChanges(collection)) {
+            if(change.sequence > sequence && change.removed 
+                    && collection.getChild(change.item.getUid())==null)
+                tombstones.put(change.item.getUid(), 
+                        new MockItemTombstone(collection, change.item));
+        }
+        return new ArrayList<ItemTombstone>(tombstones.values());
+    }
+    
+    public long getFirstChangeSequence(CollectionItem collection) {
+        List<MockChange> collectionChanges = getChanges(collection);
+        if(collectionChanges.size()==0)
+            return collection.getChangeSequence();
+        return collectionChanges.get(0).sequence - 1;
+    }
+    
+    public int compactChangeHistory(Date date) {
+        int count = 0;
+        for(List<MockChange> collectionChanges: changes.values()) {
+            while(collectionChanges.size() > 0
+                    && collectionChanges.get(0).date.before(date)) {
+                collectionChanges.remove(0);
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    private List<MockChange> getChanges(CollectionItem collection) {
+        List<MockChange> collectionChanges = changes.get(collection.getUid());
+        if(collectionChanges==null) {
+            collectionChanges = new ArrayList<MockChange>();
+            changes.put(collection.getUid(), collectionChanges);
+        }
+        return collectionChanges;
+    }
+    
+    private void recordChange(CollectionItem collection, Item item, boolean removed) {
+        MockChange change = new MockChange();
+        change.sequence = ((MockCollectionItem) collection).nextChangeSequence();
+        change.item = item;
+        change.removed = removed;
+        getChanges(collection).add(change);
+    }
+    
+    private static class MockChange {
+        long sequence;
+        Item item;
+        boolean removed;
+        Date date = new Date();
+    }
 }
@@ -27,6 +27,7 @@ import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
 import org.osaf.cosmo.model.Item;
 import org.osaf.cosmo.model.ItemChangeRecord;
+import org.osaf.cosmo.model.User;
 import org.osaf.cosmo.model.ItemChangeRecord.Action;
 import org.osaf.cosmo.model.event.EventLogEntry;
 import org.osaf.cosmo.model.event.ItemAddedEntry;
@@ -57,7 +58,8 @@ public class MockEventLogDao implements EventLogDao {
             CollectionItem collection, Date start, Date end) {
        ArrayList<ItemChangeRecord> records = new ArrayList<ItemChangeRecord>();
        
-       for(EventLogEntry entry: allEntries) {
+       for(int i=0; i<allEntries.size(); i++) {
+           EventLogEntry entry = allEntries.get(i);
            
            // match date
            if(entry.getDate().before(start) ||
@@ -70,28 +72,60 @@ public class MockEventLogDao implements EventLogDao {
            if(!collection.equals(itemEntry.getCollection()))
                continue;
            
-           
-           ItemChangeRecord record = new ItemChangeRecord();
-           record.setDate(entry.getDate());
-           
-           if(entry instanceof ItemAddedEntry) {
-               record.setAction(Action.ITEM_ADDED);
-           } else if(entry instanceof ItemRemovedEntry) {
-               record.setAction(Action.ITEM_REMOVED);
-           } else if(entry instanceof ItemUpdatedEntry) {
-               record.setAction(Action.ITEM_CHANGED);
-           } else {
-               throw new IllegalStateException("unrecognized entry type");
-           }
-           
-           record.setItemUuid(itemEntry.getItem().getUid());
-           record.setItemDisplayName(itemEntry.getItem().getDisplayName());
-           setModifiedBy(record, itemEntry);
-           records.add(record);
+           records.add(createRecord(itemEntry, i + 1));
        }
        
        return records;
     }
+    
+    public List<ItemChangeRecord> findChangesForCollection(
+            CollectionItem collection, long cursor, int maxResults) {
+        ArrayList<ItemChangeRecord> records = new ArrayList<ItemChangeRecord>();
+        
+        // entry ids are positions in the list, starting at 1
+        for(int i=(int) cursor; i<allEntries.size() && records.size()<maxResults; i++) {
+            ItemEntry itemEntry = (ItemEntry) allEntries.get(i);
+            if(collection.equals(itemEntry.getCollection()))
+                records.add(createRecord(itemEntry, i + 1));
+        }
+        
+        return records;
+    }
+    
+    public List<ItemChangeRecord> findChangesForUser(User user, long cursor,
+            int maxResults) {
+        ArrayList<ItemChangeRecord> records = new ArrayList<ItemChangeRecord>();
+        
+        for(int i=(int) cursor; i<allEntries.size() && records.size()<maxResults; i++) {
+            ItemEntry itemEntry = (ItemEntry) allEntries.get(i);
+            if(user.equals(itemEntry.getCollection().getOwner()))
+                records.add(createRecord(itemEntry, i + 1));
+        }
+        
+        return records;
+    }
+    
+    private ItemChangeRecord createRecord(ItemEntry entry, long entryId) {
+        ItemChangeRecord record = new ItemChangeRecord();
+        record.setDate(entry.getDate());
+        
+        if(entry instanceof ItemAddedEntry) {
+            record.setAction(Action.ITEM_ADDED);
+        } else if(entry instanceof ItemRemovedEntry) {
+            record.setAction(Action.ITEM_REMOVED);
+        } else if(entry instanceof ItemUpdatedEntry) {
+            record.setAction(Action.ITEM_CHANGED);
+        } else {
+            throw new IllegalStateException("unrecognized entry type");
+        }
+        
+        record.setItemUuid(entry.getItem().getUid());
+        record.setItemDisplayName(entry.getItem().getDisplayName());
+        record.setCollectionUuid(entry.getCollection().getUid());
+        record.setEntryId(entryId);
+        setModifiedBy(record, entry);
+        return record;
+    }
 
     private void setModifiedBy(ItemChangeRecord record, ItemEntry entry) {
         Item item = entry.getItem();
@@ -15,6 +15,7 @@
  */
 package org.osaf.cosmo.dao.mock;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Map;
@@ -28,6 +29,7 @@ import org.osaf.cosmo.model.Attribute;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.HomeCollectionItem;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemMetadata;
 import org.osaf.cosmo.model.ItemNotFoundException;
 import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.QName;
@@ -72,6 +74,16 @@ public class MockItemDao implements ItemDao {
         return storage.getItemByUid(uid);
     }
     
+    public Set<Item> findItemsByUids(Collection<String> uids) {
+        HashSet<Item> items = new HashSet<Item>();
+        for(String uid: uids) {
+            Item item = storage.getItemByUid(uid);
+            if(item!=null)
+                items.add(item);
+        }
+        return items;
+    }
+    
 
     /**
      * Find an item with the specified path. The return type will be one of
@@ -345,6 +357,45 @@ public class MockItemDao implements ItemDao {
         return null;
     }
 
+    public ItemMetadata findItemMetadataByUid(String uid) {
+        return toItemMetadata(findItemByUid(uid));
+    }
+
+    public ItemMetadata findItemMetadataByPath(String path) {
+        return toItemMetadata(findItemByPath(path));
+    }
+
+    public ItemMetadata findItemMetadataByPath(String path, String parentUid) {
+        Item parent = findItemByUid(parentUid);
+        if (! (parent instanceof CollectionItem))
+            return null;
+        for (Item child: ((CollectionItem) parent).getChildren()) {
+            if (child.getName().equals(path))
+                return toItemMetadata(child);
+        }
+        return null;
+    }
+
+    private ItemMetadata toItemMetadata(Item item) {
+        if (item == null)
+            return null;
+        if (item instanceof NoteItem && ((NoteItem) item).getModifies() != null)
+            return null;
+        return new ItemMetadata(item.getUid(), item.getEntityTag(),
+                item.getModifiedDate(), ((MockItem) item).getVersion(),
+                item.getOwner().getUsername());
+    }
+
+    public Set<Item> findChildrenByNames(CollectionItem parent,
+                                         Collection<String> names) {
+        HashSet<Item> items = new HashSet<Item>();
+        for(Item child: parent.getChildren()) {
+            if(names.contains(child.getName()))
+                items.add(child);
+        }
+        return items;
+    }
+
     public void removeItemByPath(String path) {
         removeItem(findItemByPath(path));
     }
@@ -15,12 +15,18 @@
  */
 package org.osaf.cosmo.dav.impl;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.apache.jackrabbit.webdav.property.DavProperty;
 
 import org.osaf.cosmo.dav.BaseDavTestCase;
+import org.osaf.cosmo.dav.DavResource;
 import org.osaf.cosmo.dav.ExtendedDavConstants;
 import org.osaf.cosmo.dav.caldav.report.FreeBusyReport;
 import org.osaf.cosmo.dav.caldav.report.MultigetReport;
@@ -110,6 +116,55 @@ public class DavCollectionBaseTest extends BaseDavTestCase
                    ! testHelper.getHomeCollection().isExcludeFreeBusyRollup());
     }
 
+    public void testFindMembers() throws Exception {
+        DavCalendarCollection dcc =
+            testHelper.initializeDavCalendarCollection("members");
+        DavEvent foo = testHelper.initializeDavEvent(dcc, "foo.ics");
+        CollectionItem sub = testHelper.
+            makeAndStoreDummyCollection(testHelper.getHomeCollection());
+
+        String base = dcc.getResourceLocator().getHref(false);
+        String other = testHelper.initializeHomeResource().
+            getResourceLocator().getHref(false) + "/" + sub.getName();
+        ArrayList<String> hrefs = new ArrayList<String>();
+        hrefs.add(base + "/foo.ics");
+        hrefs.add(base + "/bar.ics");
+        hrefs.add(base + "/fo%6f.ics");
+        hrefs.add(other);
+
+        HashSet<String> forbidden = new HashSet<String>();
+        Map<String, DavResource> members = dcc.findMembers(hrefs, forbidden);
+        assertEquals("wrong number of members", 3, members.size());
+        assertTrue("found forbidden members", forbidden.isEmpty());
+        assertEquals("wrong member for " + base + "/foo.ics", foo.getItem(),
+                     ((DavItemResource) members.get(base + "/foo.ics")).getItem());
+        assertEquals("wrong member for " + base + "/fo%6f.ics", foo.getItem(),
+                     ((DavItemResource) members.get(base + "/fo%6f.ics")).getItem());
+        assertNull("found missing member", members.get(base + "/bar.ics"));
+        assertEquals("wrong member for " + other, sub,
+                     ((DavItemResource) members.get(other)).getItem());
+    }
+
+    public void testGetPagedMembers() throws Exception {
+        DavCalendarCollection dcc =
+            testHelper.initializeDavCalendarCollection("paged");
+        HashSet<String> names = new HashSet<String>();
+        for (int i = 0; i < 5; i++) {
+            testHelper.initializeDavEvent(dcc, "event" + i + ".ics");
+            names.add("event" + i + ".ics");
+        }
+
+        int count = 0;
+        for (Iterator<DavResource> i = dcc.getPagedMembers(2); i.hasNext();) {
+            DavItemResource member = (DavItemResource) i.next();
+            assertTrue("unexpected member " + member.getItem().getName(),
+                       names.remove(member.getItem().getName()));
+            count++;
+        }
+        assertEquals("wrong number of members", 5, count);
+        assertTrue("members not found: " + names, names.isEmpty());
+    }
+
     public void testCaldavReportTypes() throws Exception {
         DavCollectionBase test = new DavCollectionBase(null, null, testHelper.getEntityFactory());
 
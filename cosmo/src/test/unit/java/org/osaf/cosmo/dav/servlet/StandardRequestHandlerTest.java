@@ -28,6 +28,8 @@ import org.osaf.cosmo.dav.DavTestContext;
 import org.osaf.cosmo.dav.DavResource;
 import org.osaf.cosmo.dav.NotModifiedException;
 import org.osaf.cosmo.dav.PreconditionFailedException;
+import org.osaf.cosmo.dav.impl.DavCalendarCollection;
+import org.osaf.cosmo.dav.impl.DavEvent;
 
 /**
  * Test class for {@link StandardRequestHandler}.
@@ -194,6 +196,118 @@ public class StandardRequestHandlerTest extends BaseDavTestCase {
         } catch (PreconditionFailedException e) {}
     }
 
+    public void testMetadataIfNoneMatchNotOk() throws Exception {
+        DavResource home = testHelper.initializeHomeResource();
+
+        DavTestContext ctx = createUidTestContext("GET",
+                testHelper.getHomeCollection().getUid());
+        ctx.getHttpRequest().addHeader("If-None-Match", home.getETag());
+
+        try {
+            createHandler().metadataPreconditions(ctx.getDavRequest(), ctx.getDavResponse());
+            fail("If-None-Match specific etag succeeded");
+        } catch (NotModifiedException e) {
+            // expected
+        }
+
+        String responseEtag = (String) ctx.getHttpResponse().getHeader("ETag");
+        assertEquals("Incorrect ETag header value", responseEtag, home.getETag());
+    }
+
+    public void testMetadataIfNoneMatchOk() throws Exception {
+        DavTestContext ctx = createUidTestContext("GET",
+                testHelper.getHomeCollection().getUid());
+        ctx.getHttpRequest().addHeader("If-None-Match", "\"aeiou\"");
+
+        createHandler().metadataPreconditions(ctx.getDavRequest(), ctx.getDavResponse());
+    }
+
+    public void testMetadataIfMatchMember() throws Exception {
+        DavCalendarCollection calendar =
+            testHelper.initializeDavCalendarCollection("calendar");
+        DavEvent event = testHelper.initializeDavEvent(calendar, "event");
+
+        DavTestContext ctx = createUidTestContext("PROPFIND",
+                calendar.getItem().getUid() + "/" + event.getItem().getName());
+        ctx.getHttpRequest().addHeader("If-Match", "\"aeiou\"");
+
+        try {
+            createHandler().metadataPreconditions(ctx.getDavRequest(), ctx.getDavResponse());
+            fail("If-Match bogus etag succeeded");
+        } catch (PreconditionFailedException e) {}
+
+        String responseEtag = (String) ctx.getHttpResponse().getHeader("ETag");
+        assertEquals("Incorrect ETag header value", responseEtag, event.getETag());
+    }
+
+    public void testMetadataHomePathIfNoneMatchNotOk() throws Exception {
+        DavCalendarCollection calendar =
+            testHelper.initializeDavCalendarCollection("calendar");
+        DavEvent event = testHelper.initializeDavEvent(calendar, "event");
+
+        DavTestContext ctx = createHomeTestContext("GET",
+                calendar.getItem().getName() + "/" + event.getItem().getName());
+        ctx.getHttpRequest().addHeader("If-None-Match", event.getETag());
+
+        try {
+            createHandler().metadataPreconditions(ctx.getDavRequest(), ctx.getDavResponse());
+            fail("If-None-Match specific etag succeeded");
+        } catch (NotModifiedException e) {
+            // expected
+        }
+
+        String responseEtag = (String) ctx.getHttpResponse().getHeader("ETag");
+        assertEquals("Incorrect ETag header value", responseEtag, event.getETag());
+    }
+
+    public void testMetadataHomePathIfNoneMatchOk() throws Exception {
+        DavCalendarCollection calendar =
+            testHelper.initializeDavCalendarCollection("calendar");
+
+        DavTestContext ctx = createHomeTestContext("GET",
+                calendar.getItem().getName());
+        ctx.getHttpRequest().addHeader("If-None-Match", "\"aeiou\"");
+
+        createHandler().metadataPreconditions(ctx.getDavRequest(), ctx.getDavResponse());
+    }
+
+    public void testMetadataUnsafeMethod() throws Exception {
+        DavResource home = testHelper.initializeHomeResource();
+
+        DavTestContext ctx = createUidTestContext("DELETE",
+                testHelper.getHomeCollection().getUid());
+        ctx.getHttpRequest().addHeader("If-None-Match", home.getETag());
+
+        // left to the preconditions of the resolved resource
+        createHandler().metadataPreconditions(ctx.getDavRequest(), ctx.getDavResponse());
+    }
+
+    private StandardRequestHandler createHandler() {
+        StandardRequestHandler handler = new StandardRequestHandler();
+        handler.setResourceFactory(testHelper.getResourceFactory());
+        handler.setResourceLocatorFactory(testHelper.getResourceLocatorFactory());
+        return handler;
+    }
+
+    private DavTestContext createUidTestContext(String method,
+                                                String path) {
+        DavTestContext ctx = testHelper.createTestContext();
+        ctx.getHttpRequest().setMethod(method);
+        ctx.getHttpRequest().setContextPath("/dav");
+        ctx.getHttpRequest().setRequestURI("/dav/collection/" + path);
+        return ctx;
+    }
+
+    private DavTestContext createHomeTestContext(String method,
+                                                 String path) {
+        DavTestContext ctx = testHelper.createTestContext();
+        ctx.getHttpRequest().setMethod(method);
+        ctx.getHttpRequest().setContextPath("/dav");
+        ctx.getHttpRequest().setRequestURI("/dav/" +
+                testHelper.getUser().getUsername() + "/" + path);
+        return ctx;
+    }
+
     private static String etags(EntityTag[] etags) {
         return StringUtils.join(etags, ", ");
     }
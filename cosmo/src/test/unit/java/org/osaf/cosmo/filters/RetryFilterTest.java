@@ -0,0 +1,238 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.filters;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.osaf.cosmo.MockHelper;
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.NoteItem;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Test RetryFilter
+ */
+public class RetryFilterTest extends TestCase {
+
+    private RetryFilter filter;
+
+    protected void setUp() throws Exception {
+        filter = new RetryFilter();
+        filter.setExceptions(new Class[] { ConcurrencyFailureException.class });
+        filter.setBackoffBase(1);
+        filter.setMaxBackoff(5);
+    }
+
+    public void testRetrySucceeds() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(createRequest("/dav/bcm/calendar/1.ics"), response,
+                        new FailingChain(2));
+
+        Assert.assertEquals(HttpServletResponse.SC_CREATED,
+                            response.getStatus());
+        Assert.assertEquals(2, filter.getRetries());
+        Assert.assertEquals(1, filter.getRetriedRequests());
+        Assert.assertEquals(0, filter.getRetryingRequests());
+    }
+
+    public void testMaxRetries() throws Exception {
+        filter.setMaxRetries(2);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(createRequest("/dav/bcm/calendar/1.ics"), response,
+                        new FailingChain(10));
+
+        Assert.assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                            response.getStatus());
+        Assert.assertEquals(1, filter.getExhaustedRequests());
+    }
+
+    public void testRetryBudgetSpent() throws Exception {
+        filter.setRetryBudget(1);
+
+        // the first request holds the only share of the budget
+        // while it is retried
+        final CountDownLatch retrying = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final FilterChain blockingChain = new FailingChain(1) {
+            protected void succeed(ServletResponse response)
+                throws IOException {
+                retrying.countDown();
+                try {
+                    done.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {}
+                super.succeed(response);
+            }
+        };
+        Thread first = new Thread() {
+            public void run() {
+                try {
+                    filter.doFilter(createRequest("/dav/bcm/calendar/1.ics"),
+                                    new MockHttpServletResponse(),
+                                    blockingChain);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        first.start();
+        Assert.assertTrue(retrying.await(10, TimeUnit.SECONDS));
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(createRequest("/dav/bcm/other/1.ics"), response,
+                        new FailingChain(1));
+
+        Assert.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                            response.getStatus());
+        Assert.assertNotNull(response.getHeader("Retry-After"));
+        Assert.assertEquals(1, filter.getBusyRequests());
+
+        done.countDown();
+        first.join();
+        Assert.assertEquals(0, filter.getRetryingRequests());
+    }
+
+    public void testAdmissionTimeout() throws Exception {
+        filter.setMaxAdmissionWait(10);
+
+        // the first request holds admission to the collection while
+        // it is retried
+        final CountDownLatch retrying = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final FilterChain blockingChain = new FailingChain(1) {
+            protected void succeed(ServletResponse response)
+                throws IOException {
+                retrying.countDown();
+                try {
+                    done.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {}
+                super.succeed(response);
+            }
+        };
+        Thread first = new Thread() {
+            public void run() {
+                try {
+                    filter.doFilter(createRequest("/dav/bcm/calendar/1.ics"),
+                                    new MockHttpServletResponse(),
+                                    blockingChain);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        first.start();
+        Assert.assertTrue(retrying.await(10, TimeUnit.SECONDS));
+
+        // a conflicting request to another collection is admitted
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(createRequest("/dav/bcm/other/1.ics"), response,
+                        new FailingChain(1));
+        Assert.assertEquals(HttpServletResponse.SC_CREATED,
+                            response.getStatus());
+
+        // but not one to the same collection
+        response = new MockHttpServletResponse();
+        filter.doFilter(createRequest("/dav/bcm/calendar/2.ics"), response,
+                        new FailingChain(1));
+        Assert.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                            response.getStatus());
+
+        done.countDown();
+        first.join();
+    }
+
+    public void testGetAdmissionKey() throws Exception {
+        MockHttpServletRequest request = createRequest("/dav/bcm/calendar/1.ics");
+        Assert.assertEquals("/dav/bcm/calendar",
+                            filter.getAdmissionKey(request));
+
+        request = createRequest("/mc/collection/f3a4");
+        request.setServletPath("/mc");
+        request.setPathInfo("/collection/f3a4");
+        Assert.assertEquals("f3a4", filter.getAdmissionKey(request));
+
+        request = createRequest("/atom/item/e5b6");
+        request.setServletPath("/atom");
+        request.setPathInfo("/item/e5b6");
+        Assert.assertEquals("e5b6", filter.getAdmissionKey(request));
+
+        request = createRequest("/dav/bcm/my%20calendar/2.ics");
+        Assert.assertEquals("/dav/bcm/my calendar",
+                            filter.getAdmissionKey(request));
+    }
+
+    public void testGetAdmissionKeyForItem() throws Exception {
+        MockHelper helper = new MockHelper();
+        CollectionItem collection = helper.makeAndStoreDummyCollection();
+        NoteItem item = helper.makeAndStoreDummyItem(collection);
+        filter.setContentService(helper.getContentService());
+
+        MockHttpServletRequest request =
+            createRequest("/atom/item/" + item.getUid());
+        request.setServletPath("/atom");
+        request.setPathInfo("/item/" + item.getUid());
+        Assert.assertEquals(collection.getUid(),
+                            filter.getAdmissionKey(request));
+
+        request = createRequest("/atom/item/e5b6");
+        request.setServletPath("/atom");
+        request.setPathInfo("/item/e5b6");
+        Assert.assertEquals("e5b6", filter.getAdmissionKey(request));
+    }
+
+    private MockHttpServletRequest createRequest(String uri) {
+        MockHttpServletRequest request =
+            new MockHttpServletRequest("PUT", uri);
+        request.setContent(new byte[0]);
+        return request;
+    }
+
+    /**
+     * Fails a number of times before succeeding.
+     */
+    private static class FailingChain implements FilterChain {
+        private int failures;
+
+        FailingChain(int failures) {
+            this.failures = failures;
+        }
+
+        public void doFilter(ServletRequest request, ServletResponse response)
+            throws IOException, ServletException {
+            if (failures-- > 0)
+                throw new ConcurrencyFailureException("conflict");
+            succeed(response);
+        }
+
+        protected void succeed(ServletResponse response)
+            throws IOException {
+            ((HttpServletResponse) response).
+                setStatus(HttpServletResponse.SC_CREATED);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.hibernate;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.osaf.cosmo.blob.FileBlobStore;
+import org.osaf.cosmo.io.BufferedContent;
+import org.osaf.cosmo.model.hibernate.HibContentData;
+
+/**
+ * Test BlobStoreInterceptor
+ */
+public class BlobStoreInterceptorTest extends TestCase {
+
+    private static final String[] PROPERTY_NAMES =
+        new String[] { "content", "blobId" };
+
+    private File directory;
+    private FileBlobStore store;
+    private BlobStoreInterceptor interceptor;
+
+    protected void setUp() throws Exception {
+        directory = new File(System.getProperty("java.io.tmpdir"),
+                             "cosmo-blobtest-" + System.currentTimeMillis());
+        store = new FileBlobStore();
+        store.setDirectory(directory.getPath());
+        store.init();
+
+        interceptor = new BlobStoreInterceptor();
+        interceptor.setBlobStore(store);
+        interceptor.setMinSize(1024);
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testSmallContent() throws Exception {
+        Object[] state = new Object[] { createContent(createBytes(100)), null };
+        Assert.assertFalse(interceptor.onSave(new HibContentData(), null,
+                state, PROPERTY_NAMES, null));
+        Assert.assertNull(state[1]);
+        Assert.assertEquals(0, store.getStored());
+    }
+
+    public void testUpdateContent() throws Exception {
+        HibContentData data = new HibContentData();
+        Object[] state = new Object[] { createContent(createBytes(2048)), null };
+        Assert.assertTrue(interceptor.onSave(data, null, state,
+                PROPERTY_NAMES, null));
+        String id1 = (String) state[1];
+        Assert.assertEquals(id1, data.getBlobId());
+        Assert.assertNull(state[0]);
+
+        // the previous blob is released once it is replaced
+        Object[] previousState = state;
+        state = new Object[] { createContent(createBytes(2048)), id1 };
+        Assert.assertTrue(interceptor.onFlushDirty(data, null, state,
+                previousState, PROPERTY_NAMES, null));
+        String id2 = (String) state[1];
+        Assert.assertFalse(id1.equals(id2));
+        Assert.assertEquals(-1, store.getLength(id1));
+        Assert.assertEquals(2048, store.getLength(id2));
+    }
+
+    public void testUpdateSameContent() throws Exception {
+        byte[] bytes = createBytes(2048);
+        HibContentData data = new HibContentData();
+        Object[] state = new Object[] { createContent(bytes), null };
+        interceptor.onSave(data, null, state, PROPERTY_NAMES, null);
+        String id = (String) state[1];
+
+        Object[] previousState = state;
+        state = new Object[] { createContent(bytes), id };
+        Assert.assertTrue(interceptor.onFlushDirty(data, null, state,
+                previousState, PROPERTY_NAMES, null));
+        Assert.assertEquals(id, state[1]);
+        Assert.assertEquals(2048, store.getLength(id));
+
+        // uploading the same bytes again keeps a single reference, so
+        // removing the content removes the blob
+        interceptor.onDelete(data, null, state, PROPERTY_NAMES, null);
+        Assert.assertEquals(-1, store.getLength(id));
+    }
+
+    private byte[] createBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random().nextBytes(bytes);
+        return bytes;
+    }
+
+    private BufferedContent createContent(byte[] bytes) throws Exception {
+        return new BufferedContent(new ByteArrayInputStream(bytes), 1024*50);
+    }
+}
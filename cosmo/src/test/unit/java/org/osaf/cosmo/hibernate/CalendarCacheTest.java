@@ -0,0 +1,111 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.hibernate;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.property.Method;
+
+import org.osaf.cosmo.calendar.util.CalendarUtils;
+import org.osaf.cosmo.model.hibernate.HibEventStamp;
+
+/**
+ * Test CalendarCache
+ */
+public class CalendarCacheTest extends TestCase {
+
+    private static final String ICS =
+        "BEGIN:VCALENDAR\r\n" +
+        "VERSION:2.0\r\n" +
+        "PRODID:-//test//test//EN\r\n" +
+        "BEGIN:VEVENT\r\n" +
+        "UID:1\r\n" +
+        "DTSTART:20080101T100000Z\r\n" +
+        "SUMMARY:test\r\n" +
+        "END:VEVENT\r\n" +
+        "END:VCALENDAR\r\n";
+
+    private static final String DIGEST = CalendarClobType.digest(ICS);
+
+    private CalendarCache cache = new CalendarCache();
+    private Object owner = new HibEventStamp();
+
+    public void testGetPut() throws Exception {
+        Long id = new Long(1);
+        Assert.assertNull(cache.get(owner, id, DIGEST));
+        Assert.assertEquals(1, cache.getMisses());
+
+        cache.put(owner, id, DIGEST, ICS.length(), CalendarUtils.parseCalendar(ICS));
+
+        Calendar calendar = cache.get(owner, id, DIGEST);
+        Assert.assertNotNull(calendar);
+        Assert.assertEquals(1, cache.getHits());
+
+        // changing a returned calendar doesn't change the cache
+        calendar.getProperties().add(Method.PUBLISH);
+        calendar = cache.get(owner, id, DIGEST);
+        Assert.assertNull(calendar.getProperty(Method.METHOD));
+
+        // different text for the same owner is a miss
+        Assert.assertNull(cache.get(owner, id,
+                CalendarClobType.digest(ICS.replace("test", "changed"))));
+        Assert.assertEquals(1, cache.getInvalidations());
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertEquals(0, cache.getBytes());
+    }
+
+    public void testInvalidate() throws Exception {
+        Long id = new Long(1);
+        cache.put(owner, id, DIGEST, ICS.length(), CalendarUtils.parseCalendar(ICS));
+        cache.invalidate(owner, id);
+        Assert.assertEquals(1, cache.getInvalidations());
+        Assert.assertNull(cache.get(owner, id, DIGEST));
+        Assert.assertEquals(0, cache.getBytes());
+    }
+
+    public void testEviction() throws Exception {
+        Calendar calendar = CalendarUtils.parseCalendar(ICS);
+        cache.put(owner, new Long(1), DIGEST, ICS.length(), calendar);
+        long size = cache.getBytes();
+        Assert.assertTrue(size > 0);
+
+        // room for two calendars
+        cache.setMaxBytes(2 * size);
+        cache.put(owner, new Long(2), DIGEST, ICS.length(), calendar);
+
+        // 1 is now the most recently used
+        Assert.assertNotNull(cache.get(owner, new Long(1), DIGEST));
+
+        cache.put(owner, new Long(3), DIGEST, ICS.length(), calendar);
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertEquals(2 * size, cache.getBytes());
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertNull(cache.get(owner, new Long(2), DIGEST));
+        Assert.assertNotNull(cache.get(owner, new Long(1), DIGEST));
+
+        // lowering the bound evicts right away
+        cache.setMaxBytes(size);
+        Assert.assertEquals(1, cache.getSize());
+        Assert.assertEquals(2, cache.getEvictions());
+        Assert.assertNotNull(cache.get(owner, new Long(1), DIGEST));
+
+        // a calendar larger than the cache is not cached
+        cache.put(owner, new Long(4), DIGEST, 2 * ICS.length(), calendar);
+        Assert.assertNull(cache.get(owner, new Long(4), DIGEST));
+        Assert.assertEquals(1, cache.getSize());
+    }
+}
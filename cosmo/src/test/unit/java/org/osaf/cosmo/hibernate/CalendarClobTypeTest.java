@@ -0,0 +1,137 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.hibernate;
+
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import net.fortuna.ical4j.model.Calendar;
+
+import org.osaf.cosmo.model.hibernate.BaseModelObject;
+import org.osaf.cosmo.model.hibernate.HibEventStamp;
+import org.springframework.jdbc.support.lob.DefaultLobHandler;
+
+/**
+ * Test that CalendarClobType uses the CalendarCache when hydrating
+ * calendars.
+ */
+public class CalendarClobTypeTest extends TestCase {
+
+    private static final String ICS =
+        "BEGIN:VCALENDAR\r\n" +
+        "VERSION:2.0\r\n" +
+        "PRODID:-//test//test//EN\r\n" +
+        "BEGIN:VEVENT\r\n" +
+        "UID:1\r\n" +
+        "DTSTART:20080101T100000Z\r\n" +
+        "SUMMARY:test\r\n" +
+        "END:VEVENT\r\n" +
+        "END:VCALENDAR\r\n";
+
+    private static final String[] COLUMNS =
+        new String[] { "icaldata3_0_", "icaldig4_0_" };
+
+    private CalendarClobType type =
+        new CalendarClobType(new DefaultLobHandler(), null);
+    private CalendarCache cache = new CalendarCache();
+    private HibEventStamp owner = new HibEventStamp();
+
+    private int textReads = 0;
+
+    @Override
+    protected void setUp() throws Exception {
+        Field id = BaseModelObject.class.getDeclaredField("id");
+        id.setAccessible(true);
+        id.set(owner, new Long(1));
+        CalendarClobType.setCalendarCache(cache);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        CalendarClobType.setCalendarCache(null);
+    }
+
+    public void testHitSkipsParsing() throws Exception {
+        String digest = CalendarClobType.digest(ICS);
+
+        // miss reads and parses the text
+        Calendar calendar = (Calendar) type.nullSafeGet(
+                createResultSet(ICS, digest), COLUMNS, owner);
+        Assert.assertNotNull(calendar);
+        Assert.assertEquals(1, textReads);
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(1, cache.getSize());
+
+        // hit only reads the digest
+        Calendar cached = (Calendar) type.nullSafeGet(
+                createResultSet(ICS, digest), COLUMNS, owner);
+        Assert.assertEquals(1, textReads);
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(calendar.toString(), cached.toString());
+        Assert.assertNotSame(calendar, cached);
+
+        // changed text has a different digest
+        String changed = ICS.replace("test", "changed");
+        cached = (Calendar) type.nullSafeGet(
+                createResultSet(changed, CalendarClobType.digest(changed)),
+                COLUMNS, owner);
+        Assert.assertEquals(2, textReads);
+        Assert.assertEquals(1, cache.getInvalidations());
+        Assert.assertTrue(cached.toString().indexOf("changed") >= 0);
+    }
+
+    public void testNoDigest() throws Exception {
+        // rows written before the digest was stored are not cached
+        Calendar calendar = (Calendar) type.nullSafeGet(
+                createResultSet(ICS, null), COLUMNS, owner);
+        Assert.assertNotNull(calendar);
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertEquals(0, cache.getMisses());
+    }
+
+    /**
+     * Create a result set with the text and digest columns, counting
+     * reads of the text.
+     */
+    private ResultSet createResultSet(final String ics, final String digest) {
+        return (ResultSet) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[] { ResultSet.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        if (args != null && COLUMNS[1].equals(args[0])
+                                && method.getName().equals("getString"))
+                            return digest;
+                        if (args != null && COLUMNS[0].equals(args[0])) {
+                            textReads++;
+                            if (method.getName().equals("getString"))
+                                return ics;
+                            if (method.getName().equals("getCharacterStream"))
+                                return new StringReader(ics);
+                        }
+                        if (method.getName().equals("wasNull"))
+                            return Boolean.FALSE;
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.http;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test ByteRange
+ */
+public class ByteRangeTest extends TestCase {
+
+    public void testParse() throws Exception {
+        ByteRange range = ByteRange.parse("bytes=0-499", 1000);
+        Assert.assertEquals(0, range.getFirst());
+        Assert.assertEquals(499, range.getLast());
+        Assert.assertEquals(500, range.getLength());
+        Assert.assertEquals("bytes 0-499/1000", range.getContentRange());
+
+        range = ByteRange.parse("bytes=500-", 1000);
+        Assert.assertEquals(500, range.getFirst());
+        Assert.assertEquals(999, range.getLast());
+
+        range = ByteRange.parse("bytes=-100", 1000);
+        Assert.assertEquals(900, range.getFirst());
+        Assert.assertEquals(999, range.getLast());
+
+        // ranges past the end are cut short
+        range = ByteRange.parse("bytes=900-2000", 1000);
+        Assert.assertEquals(100, range.getLength());
+        range = ByteRange.parse("bytes=-2000", 1000);
+        Assert.assertEquals(1000, range.getLength());
+    }
+
+    public void testIgnored() throws Exception {
+        Assert.assertNull(ByteRange.parse(null, 1000));
+        Assert.assertNull(ByteRange.parse("items=0-1", 1000));
+        Assert.assertNull(ByteRange.parse("bytes=0-1,5-6", 1000));
+        Assert.assertNull(ByteRange.parse("bytes=5-1", 1000));
+        Assert.assertNull(ByteRange.parse("bytes=a-b", 1000));
+    }
+
+    public void testUnsatisfiable() throws Exception {
+        ByteRange range = ByteRange.parse("bytes=1000-", 1000);
+        Assert.assertFalse(range.isSatisfiable());
+        Assert.assertEquals("bytes */1000", range.getContentRange());
+
+        range = ByteRange.parse("bytes=-0", 1000);
+        Assert.assertFalse(range.isSatisfiable());
+    }
+}
@@ -18,6 +18,7 @@ package org.osaf.cosmo.mc;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -237,6 +238,85 @@ public class StandardMorseCodeControllerTest extends TestCase {
         Assert.assertFalse(it.hasNext());
     }
     
+    public void testSubscribeStreamsInPages() throws Exception {
+        User user = testHelper.makeDummyUser("mcuser","password");
+        userService.createUser(user);
+        
+        HomeCollectionItem root = contentDao.getRootItem(user);
+        
+        CollectionItem collection = testHelper.makeDummyCollection(user);
+        collection.setUid("col1");
+        
+        contentDao.createCollection(root, collection);
+        
+        // generate a large collection
+        int numItems = 2000;
+        for (int i = 0; i < numItems; i++) {
+            NoteItem note = testHelper.makeDummyItem(user);
+            note.setUid("note" + i);
+            contentDao.createContent(collection, note);
+        }
+        
+        // buffered: every item is loaded before the first record
+        mcController.setStreamingPageSize(0);
+        Set<String> buffered = readUids(mcController.subscribeToCollection("col1"));
+        
+        // streaming: items are loaded a page at a time and evicted
+        // once translated
+        PageCountingContentService pagingService =
+            new PageCountingContentService();
+        pagingService.setCalendarDao(calendarDao);
+        pagingService.setContentDao(contentDao);
+        pagingService.setLockManager(lockManager);
+        pagingService.setTriageStatusQueryProcessor(new StandardTriageStatusQueryProcessor());
+        pagingService.init();
+        mcController.setContentService(pagingService);
+        mcController.setStreamingPageSize(7);
+        Set<String> streamed = readUids(mcController.subscribeToCollection("col1"));
+        
+        Assert.assertEquals(numItems, buffered.size());
+        Assert.assertEquals(buffered, streamed);
+        
+        // 285 full pages and a last page of 5 items
+        Assert.assertEquals(286, pagingService.pages);
+        Assert.assertEquals(7, pagingService.maxRetained);
+        Assert.assertEquals(0, pagingService.retained);
+    }
+    
+    /**
+     * Counts the pages of children loaded and the items retained
+     * until they are evicted.
+     */
+    private static class PageCountingContentService
+        extends StandardContentService {
+        int pages = 0;
+        int retained = 0;
+        int maxRetained = 0;
+        
+        public List<ContentItem> loadChildren(CollectionItem collection,
+                String afterUid, int maxResults) {
+            List<ContentItem> page =
+                super.loadChildren(collection, afterUid, maxResults);
+            pages++;
+            retained += page.size();
+            maxRetained = Math.max(maxRetained, retained);
+            return page;
+        }
+        
+        public void evictItems(Collection<? extends Item> items) {
+            retained -= items.size();
+            super.evictItems(items);
+        }
+    }
+    
+    private Set<String> readUids(SubRecords records) throws Exception {
+        HashSet<String> uids = new HashSet<String>();
+        EimRecordSetIterator it = records.getItemRecordSets();
+        while (it.hasNext())
+            uids.add(it.next().getUuid());
+        return uids;
+    }
+    
     public void testSync() throws Exception {
         User user = testHelper.makeDummyUser("mcuser","password");
         userService.createUser(user);
@@ -285,6 +365,48 @@ public class StandardMorseCodeControllerTest extends TestCase {
         Assert.assertFalse(it.hasNext());
     }
     
+    public void testSyncRemoved() throws Exception {
+        User user = testHelper.makeDummyUser("mcuser","password");
+        userService.createUser(user);
+        
+        HomeCollectionItem root = contentDao.getRootItem(user);
+        
+        CollectionItem collection = testHelper.makeDummyCollection(user);
+        collection.setUid("col1");
+        
+        contentService.createCollection(root, collection);
+        
+        NoteItem note = testHelper.makeDummyItem(user);
+        note.setUid("1");
+        
+        contentService.createContent(collection, note);
+        
+        SyncToken token1 = SyncToken.generate(collection);
+        Assert.assertTrue(token1.hasSequence());
+        Assert.assertEquals(token1.getSequence(),
+                SyncToken.deserialize(token1.serialize()).getSequence());
+        
+        contentService.removeContent(note);
+        
+        // Using token1, we should get a tombstone for item 1
+        SubRecords records = mcController.synchronizeCollection("col1", token1);
+        Assert.assertFalse(records.getItemRecordSets().hasNext());
+        
+        EimRecordSetIterator it = records.getTombstoneRecordSets();
+        Assert.assertTrue(it.hasNext());
+        Assert.assertEquals("1", it.next().getUuid());
+        Assert.assertFalse(it.hasNext());
+        
+        // A token without a change sequence requires a resubscribe
+        SyncToken legacy = SyncToken.deserialize(token1.getTimestamp() + "-"
+                + token1.getHash());
+        Assert.assertFalse(legacy.hasSequence());
+        try {
+            mcController.synchronizeCollection("col1", legacy);
+            Assert.fail("able to sync with legacy token");
+        } catch (SyncTokenException e) {}
+    }
+    
     /**
      * Test full cycle (publish->sync-->update) 
      * */
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.metrics;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.osaf.cosmo.hibernate.StatementCountingInterceptor;
+import org.springframework.aop.framework.ProxyFactory;
+
+/**
+ * Test MetricsRegistry and MetricsInterceptor
+ */
+public class MetricsRegistryTest extends TestCase {
+
+    private MetricsRegistry registry;
+    private TestService service;
+
+    protected void setUp() throws Exception {
+        registry = new MetricsRegistry();
+        MetricsInterceptor interceptor = new MetricsInterceptor();
+        interceptor.setMetricsRegistry(registry);
+
+        ProxyFactory factory = new ProxyFactory(new TestServiceImpl());
+        factory.addInterface(TestService.class);
+        factory.addAdvice(interceptor);
+        service = (TestService) factory.getProxy();
+    }
+
+    public void testCalls() throws Exception {
+        service.query(2);
+        service.query(1);
+        try {
+            service.fail();
+            Assert.fail("exception not thrown");
+        } catch (IllegalStateException e) {}
+
+        MethodMetrics query = registry.getMethodMetrics("TestService.query");
+        Assert.assertEquals(2, query.getCalls());
+        Assert.assertEquals(0, query.getErrors());
+        Assert.assertEquals(0, query.getInFlight());
+        Assert.assertEquals(3, query.getStatements());
+
+        MethodMetrics fail = registry.getMethodMetrics("TestService.fail");
+        Assert.assertEquals(1, fail.getCalls());
+        Assert.assertEquals(1, fail.getErrors());
+        Assert.assertEquals(0, fail.getInFlight());
+
+        Assert.assertEquals(2, registry.getAllMethodMetrics().size());
+        Assert.assertEquals("TestService.fail",
+                registry.getAllMethodMetrics().get(0).getName());
+
+        registry.reset();
+        Assert.assertEquals(0, query.getCalls());
+        Assert.assertEquals(0, query.getStatements());
+    }
+
+    public void testHistogram() throws Exception {
+        MethodMetrics metrics = registry.getMethodMetrics("test");
+        metrics.end(0, 0, false);
+        metrics.end(3, 0, false);
+        metrics.end(5, 0, false);
+        metrics.end(60000, 0, true);
+
+        long[] buckets = metrics.getBuckets();
+        Assert.assertEquals(1, buckets[0]);
+        Assert.assertEquals(0, buckets[1]);
+        Assert.assertEquals(2, buckets[2]);
+        Assert.assertEquals(60000, metrics.getMaxTime());
+        Assert.assertEquals(60008, metrics.getTotalTime());
+    }
+
+    public void testWriteText() throws Exception {
+        service.query(4);
+
+        StringWriter out = new StringWriter();
+        registry.writeText(new PrintWriter(out));
+        String text = out.toString();
+
+        Assert.assertTrue(text.indexOf(
+                "cosmo_service_calls_total{method=\"TestService.query\"} 1\n") >= 0);
+        Assert.assertTrue(text.indexOf(
+                "cosmo_service_statements_total{method=\"TestService.query\"} 4\n") >= 0);
+        Assert.assertTrue(text.indexOf(
+                "cosmo_service_latency_ms_bucket{method=\"TestService.query\",le=\"+Inf\"} 1\n") >= 0);
+        Assert.assertTrue(text.indexOf(
+                "cosmo_service_latency_ms_count{method=\"TestService.query\"} 1\n") >= 0);
+    }
+
+    public interface TestService {
+        public void query(int statements);
+        public void fail();
+    }
+
+    private static class TestServiceImpl implements TestService {
+        private StatementCountingInterceptor interceptor =
+            new StatementCountingInterceptor();
+
+        public void query(int statements) {
+            for (int i = 0; i < statements; i++)
+                interceptor.onPrepareStatement("select 1");
+        }
+
+        public void fail() {
+            throw new IllegalStateException();
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package org.osaf.cosmo.model;
 
 import java.io.FileInputStream;
+import java.util.Date;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
@@ -25,6 +26,7 @@ import net.fortuna.ical4j.model.DateList;
 import net.fortuna.ical4j.model.TimeZoneRegistry;
 import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
 
+import org.osaf.cosmo.model.mock.MockEventExceptionStamp;
 import org.osaf.cosmo.model.mock.MockEventStamp;
 import org.osaf.cosmo.model.mock.MockNoteItem;
 
@@ -52,6 +54,40 @@ public class EventStampTest extends TestCase {
         Assert.assertNotNull(exdates.getTimeZone());
     }
     
+    public void testEventRevision() throws Exception {
+        NoteItem master = new MockNoteItem();
+        MockEventStamp eventStamp = new MockEventStamp(master);
+        master.addStamp(eventStamp);
+        
+        // unsaved stamps have no revision
+        Assert.assertNull(StampUtils.getEventRevision(eventStamp));
+        
+        eventStamp.setModifiedDate(new Date(1000));
+        String revision = StampUtils.getEventRevision(eventStamp);
+        Assert.assertNotNull(revision);
+        Assert.assertEquals(revision, StampUtils.getEventRevision(eventStamp));
+        
+        // changing the master changes the revision
+        eventStamp.setModifiedDate(new Date(2000));
+        String changed = StampUtils.getEventRevision(eventStamp);
+        Assert.assertFalse(revision.equals(changed));
+        
+        // so do adding and changing modifications
+        NoteItem mod = new MockNoteItem();
+        MockEventExceptionStamp exceptionStamp = new MockEventExceptionStamp(mod);
+        mod.addStamp(exceptionStamp);
+        mod.setModifies(master);
+        master.addModification(mod);
+        Assert.assertNull(StampUtils.getEventRevision(eventStamp));
+        
+        exceptionStamp.setModifiedDate(new Date(3000));
+        revision = StampUtils.getEventRevision(eventStamp);
+        Assert.assertFalse(revision.equals(changed));
+        
+        exceptionStamp.setModifiedDate(new Date(4000));
+        Assert.assertFalse(revision.equals(StampUtils.getEventRevision(eventStamp)));
+    }
+    
     protected Calendar getCalendar(String name) throws Exception {
         CalendarBuilder cb = new CalendarBuilder();
         FileInputStream fis = new FileInputStream(baseDir + name);
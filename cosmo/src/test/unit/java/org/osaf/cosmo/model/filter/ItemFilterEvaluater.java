@@ -128,10 +128,25 @@ public class ItemFilterEvaluater {
         	if(!handleFilterCriteria(note.getReminderTime(), filter.getReminderTime()))
         	    return false;
         
+        if(filter instanceof TextSearchFilter)
+            if(!handleTextSearchFilter((TextSearchFilter) filter, note))
+                return false;
+        
         return true;
             
     }
     
+    private boolean handleTextSearchFilter(TextSearchFilter filter, NoteItem note) {
+        for(String term: filter.getTerms()) {
+            String lower = term.toLowerCase();
+            if(note.getDisplayName()!=null && note.getDisplayName().toLowerCase().indexOf(lower)!=-1)
+                return true;
+            if(note.getBody()!=null && note.getBody().toLowerCase().indexOf(lower)!=-1)
+                return true;
+        }
+        return false;
+    }
+    
     private boolean handleFilterCriteria(Object val, FilterCriteria criteria) {
        
         if(criteria instanceof EqualsExpression) {
@@ -15,6 +15,7 @@
  */
 package org.osaf.cosmo.model.hibernate;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import junit.framework.Assert;
@@ -132,6 +133,48 @@ public class EventStampInterceptorTest extends TestCase {
         Assert.assertEquals("20070213T084500", index.getStartDate());
         Assert.assertEquals("20070213T084500", index.getEndDate());
     }
+    
+    public void testModificationBusyPeriods() throws Exception {
+        
+        HibNoteItem master = new HibNoteItem();
+        HibEventStamp eventStamp = new HibEventStamp(master);
+        eventStamp.createCalendar();
+        eventStamp.setStartDate(new DateTime("20070212T074500"));
+        eventStamp.setEndDate(new DateTime("20070212T094500"));
+        eventStamp.setRecurrenceRules(EimValueConverter.toICalRecurs("FREQ=DAILY;"));
+        master.addStamp(eventStamp);
+        
+        HibNoteItem mod = new HibNoteItem();
+        mod.setModifies(master);
+        HibEventExceptionStamp eventExceptionStamp = new HibEventExceptionStamp(mod);
+        eventExceptionStamp.createCalendar();
+        eventExceptionStamp.setRecurrenceId(new DateTime("20070213T074500"));
+        eventExceptionStamp.setStartDate(new DateTime("20070213T084500"));
+        mod.addStamp(eventExceptionStamp);
+        master.addModification(mod);
+        
+        interceptor.calculateEventStampIndexes(eventStamp);
+        interceptor.calculateEventStampIndexes(eventExceptionStamp);
+        Assert.assertEquals(1, eventExceptionStamp.getBusyPeriods().size());
+        
+        // an unchanged master leaves its modifications alone
+        List<Object> entities = new ArrayList<Object>();
+        entities.add(eventStamp);
+        eventExceptionStamp.getBusyPeriods().clear();
+        interceptor.preFlush(entities.iterator());
+        Assert.assertEquals(0, eventExceptionStamp.getBusyPeriods().size());
+        
+        // cancelling the master cancels the modifications that
+        // inherit its status
+        interceptor.calculateEventStampIndexes(eventExceptionStamp);
+        eventStamp.setStatus("CANCELLED");
+        interceptor.preFlush(entities.iterator());
+        Assert.assertEquals(0, eventExceptionStamp.getBusyPeriods().size());
+        
+        eventStamp.setStatus(null);
+        interceptor.preFlush(entities.iterator());
+        Assert.assertEquals(1, eventExceptionStamp.getBusyPeriods().size());
+    }
    
     
     
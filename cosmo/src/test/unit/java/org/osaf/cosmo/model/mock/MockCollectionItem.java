@@ -47,6 +47,8 @@ public class MockCollectionItem extends MockItem implements CollectionItem {
 
     private Set<CollectionItemDetails> childDetails = new HashSet<CollectionItemDetails>(0);
     
+    private long changeSequence = 0;
+    
     
     public MockCollectionItem() {
     };
@@ -162,6 +164,17 @@ public class MockCollectionItem extends MockItem implements CollectionItem {
         return getVersion();
     }
     
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.model.CollectionItem#getChangeSequence()
+     */
+    public long getChangeSequence() {
+        return changeSequence;
+    }
+    
+    public long nextChangeSequence() {
+        return ++changeSequence;
+    }
+    
     public Item copy() {
         CollectionItem copy = new MockCollectionItem();
         copyToItem(copy);
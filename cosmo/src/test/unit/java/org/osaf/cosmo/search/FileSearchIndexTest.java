@@ -0,0 +1,191 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.search;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Set;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.osaf.cosmo.model.mock.MockCollectionItem;
+import org.osaf.cosmo.model.mock.MockEventStamp;
+import org.osaf.cosmo.model.mock.MockNoteItem;
+
+/**
+ * Test FileSearchIndex
+ */
+public class FileSearchIndexTest extends TestCase {
+
+    private File indexFile;
+    private FileSearchIndex index;
+    private MockCollectionItem collection1;
+    private MockCollectionItem collection2;
+
+    protected void setUp() throws Exception {
+        indexFile = File.createTempFile("search", ".idx");
+        indexFile.delete();
+
+        index = new FileSearchIndex();
+        index.setIndexFile(indexFile.getPath());
+        index.setFlushInterval(0);
+        index.init();
+
+        collection1 = new MockCollectionItem();
+        collection1.setUid("c1");
+        collection2 = new MockCollectionItem();
+        collection2.setUid("c2");
+    }
+
+    protected void tearDown() throws Exception {
+        index.destroy();
+        indexFile.delete();
+    }
+
+    public void testTokenize() throws Exception {
+        Assert.assertEquals(Arrays.asList(new String[] {"buy", "milk", "2", "l"}),
+                FileSearchIndex.tokenize("Buy MILK (2-l)!"));
+        Assert.assertEquals(0, FileSearchIndex.tokenize(" ,. ").size());
+        Assert.assertEquals(0, FileSearchIndex.tokenize(null).size());
+    }
+
+    public void testSearch() throws Exception {
+        Assert.assertFalse(index.isAvailable());
+        index.beginRebuild();
+        index.indexItem(createNote("1", "Buy milk", "at the store", collection1));
+        index.indexItem(createNote("2", "Dentist", "bring insurance card", collection1));
+        index.indexItem(createNote("3", "Milkshake", null, collection2));
+        index.endRebuild();
+        Assert.assertTrue(index.isAvailable());
+        Assert.assertEquals(3, index.getSize());
+
+        // prefixes of words match
+        verifyResults(index.search(Arrays.asList(new String[] {"milk"}), null), "1", "3");
+        verifyResults(index.search(Arrays.asList(new String[] {"milk"}), "c1"), "1");
+        verifyResults(index.search(Arrays.asList(new String[] {"INSUR"}), null), "2");
+
+        // all words of a phrase must be present
+        verifyResults(index.search(Arrays.asList(new String[] {"milk store"}), null), "1");
+        verifyResults(index.search(Arrays.asList(new String[] {"milk card"}), null));
+
+        // any term may match
+        verifyResults(index.search(Arrays.asList(new String[] {"dent", "shake", "milks"}), null), "2", "3");
+        verifyResults(index.search(Arrays.asList(new String[] {"ilk"}), null));
+    }
+
+    public void testUpdateAndRemove() throws Exception {
+        index.beginRebuild();
+        MockNoteItem note = createNote("1", "Buy milk", null, collection1);
+        index.indexItem(note);
+        index.endRebuild();
+
+        note.setDisplayName("Buy eggs");
+        note.addParent(collection2);
+        index.indexItem(note);
+        verifyResults(index.search(Arrays.asList(new String[] {"milk"}), null));
+        verifyResults(index.search(Arrays.asList(new String[] {"eggs"}), "c2"), "1");
+
+        // note still belongs to collection2
+        index.removeCollection("c1");
+        verifyResults(index.search(Arrays.asList(new String[] {"eggs"}), "c1"));
+        verifyResults(index.search(Arrays.asList(new String[] {"eggs"}), null), "1");
+
+        index.removeCollection("c2");
+        Assert.assertEquals(0, index.getSize());
+
+        index.indexItem(note);
+        index.removeItem("1");
+        verifyResults(index.search(Arrays.asList(new String[] {"eggs"}), null));
+    }
+
+    public void testEventText() throws Exception {
+        MockNoteItem note = createNote("1", "Meeting", null, collection1);
+        MockEventStamp event = new MockEventStamp(note);
+        event.createCalendar();
+        event.setLocation("Conference room");
+        event.setDescription("quarterly review");
+        note.addStamp(event);
+
+        index.indexItem(note);
+        verifyResults(index.search(Arrays.asList(new String[] {"conf"}), null), "1");
+        verifyResults(index.search(Arrays.asList(new String[] {"quarterly review"}), null), "1");
+    }
+
+    public void testPersist() throws Exception {
+        index.beginRebuild();
+        index.indexItem(createNote("1", "Buy milk", null, collection1));
+        index.endRebuild();
+        index.indexItem(createNote("2", "Dentist", null, collection2));
+        index.destroy();
+        Assert.assertTrue(indexFile.exists());
+
+        index = new FileSearchIndex();
+        index.setIndexFile(indexFile.getPath());
+        index.setFlushInterval(0);
+        index.init();
+        Assert.assertTrue(index.isAvailable());
+        Assert.assertEquals(2, index.getSize());
+        verifyResults(index.search(Arrays.asList(new String[] {"dentist"}), "c2"), "2");
+
+        // an interrupted rebuild leaves no index behind
+        index.beginRebuild();
+        Assert.assertFalse(indexFile.exists());
+    }
+
+    public void testRecoverBackup() throws Exception {
+        index.beginRebuild();
+        index.indexItem(createNote("1", "Buy milk", null, collection1));
+        index.endRebuild();
+        index.destroy();
+
+        // crash after the old index was moved aside and before the
+        // new one was renamed into place
+        File backupFile = new File(indexFile.getPath() + ".bak");
+        Assert.assertTrue(indexFile.renameTo(backupFile));
+
+        index = new FileSearchIndex();
+        index.setIndexFile(indexFile.getPath());
+        index.setFlushInterval(0);
+        index.init();
+        Assert.assertTrue(index.isAvailable());
+        Assert.assertEquals(1, index.getSize());
+        Assert.assertTrue(indexFile.exists());
+        Assert.assertFalse(backupFile.exists());
+
+        // flushing replaces the index file without leaving files behind
+        index.indexItem(createNote("2", "Dentist", null, collection2));
+        index.flush();
+        Assert.assertFalse(backupFile.exists());
+        Assert.assertFalse(new File(indexFile.getPath() + ".tmp").exists());
+    }
+
+    private MockNoteItem createNote(String uid, String title, String body,
+                                    MockCollectionItem parent) {
+        MockNoteItem note = new MockNoteItem();
+        note.setUid(uid);
+        note.setDisplayName(title);
+        note.setBody(body);
+        note.addParent(parent);
+        return note;
+    }
+
+    private void verifyResults(Set<String> results, String... uids) {
+        Assert.assertEquals(uids.length, results.size());
+        for (String uid : uids)
+            Assert.assertTrue(results.contains(uid));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.security;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test AuthenticationCache
+ */
+public class AuthenticationCacheTest extends TestCase {
+
+    private AuthenticationCache cache;
+
+    protected void setUp() throws Exception {
+        cache = new AuthenticationCache();
+    }
+
+    public void testKey() throws Exception {
+        Assert.assertEquals(AuthenticationCache.key("basic", "bcm", "pw"),
+                            AuthenticationCache.key("basic", "bcm", "pw"));
+        Assert.assertFalse(AuthenticationCache.key("basic", "bcm", "pw").
+                equals(AuthenticationCache.key("basic", "bcm", "pW")));
+        // parts are separated, not just concatenated
+        Assert.assertFalse(AuthenticationCache.key("basic", "ab", "c").
+                equals(AuthenticationCache.key("basic", "a", "bc")));
+    }
+
+    public void testGetPut() throws Exception {
+        String key = AuthenticationCache.key("basic", "bcm", "pw");
+        Assert.assertNull(cache.get(key));
+
+        cache.put(key, "bcm", "bcm");
+        Assert.assertEquals("bcm", cache.get(key));
+        Assert.assertEquals(1, cache.getSize());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(50.0, cache.getHitRate(), 0.001);
+
+        cache.remove(key);
+        Assert.assertNull(cache.get(key));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    public void testExpiry() throws Exception {
+        cache.setTimeToLive(-1);
+        String key = AuthenticationCache.key("basic", "bcm", "pw");
+        cache.put(key, "bcm", "bcm");
+
+        Assert.assertNull(cache.get(key));
+        Assert.assertEquals(1, cache.getExpired());
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    public void testInvalidate() throws Exception {
+        String key1 = AuthenticationCache.key("basic", "bcm", "pw");
+        String key2 = AuthenticationCache.key("wsse", "bcm", "nonce");
+        String key3 = AuthenticationCache.key("basic", "ixjonez", "pw");
+        cache.put(key1, "bcm", "bcm");
+        cache.put(key2, "bcm", "bcm");
+        cache.put(key3, "ixjonez", "ixjonez");
+
+        cache.invalidate("bcm");
+        Assert.assertNull(cache.get(key1));
+        Assert.assertNull(cache.get(key2));
+        Assert.assertEquals("ixjonez", cache.get(key3));
+        Assert.assertEquals(2, cache.getInvalidated());
+
+        cache.invalidate(null);
+        Assert.assertEquals(1, cache.getSize());
+    }
+
+    public void testMaxEntries() throws Exception {
+        cache.setMaxEntries(2);
+        String key1 = AuthenticationCache.key("1");
+        String key2 = AuthenticationCache.key("2");
+        String key3 = AuthenticationCache.key("3");
+        cache.put(key1, "1", "1");
+        cache.put(key2, "2", "2");
+
+        // key1 becomes the most recently used
+        Assert.assertNotNull(cache.get(key1));
+        cache.put(key3, "3", "3");
+
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertNotNull(cache.get(key1));
+        Assert.assertNull(cache.get(key2));
+        Assert.assertNotNull(cache.get(key3));
+    }
+
+    public void testClear() throws Exception {
+        cache.put(AuthenticationCache.key("1"), "1", "1");
+        cache.clear();
+        Assert.assertEquals(0, cache.getSize());
+    }
+}
@@ -15,7 +15,9 @@
  */
 package org.osaf.cosmo.service.impl;
 
+import java.util.HashSet;
 import java.util.Set;
+import java.util.TreeSet;
 
 import junit.framework.Assert;
 import net.fortuna.ical4j.model.DateTime;
@@ -24,6 +26,8 @@ import org.osaf.cosmo.calendar.util.CalendarUtils;
 import org.osaf.cosmo.dao.UserDao;
 import org.osaf.cosmo.dao.hibernate.AbstractHibernateDaoTestCase;
 import org.osaf.cosmo.dao.hibernate.ContentDaoImpl;
+import org.osaf.cosmo.dao.hibernate.ServerPropertyDaoImpl;
+import org.osaf.cosmo.dao.hibernate.TriageIndexDaoImpl;
 import org.osaf.cosmo.dao.hibernate.UserDaoImpl;
 import org.osaf.cosmo.model.CalendarCollectionStamp;
 import org.osaf.cosmo.model.CollectionItem;
@@ -47,6 +51,8 @@ public class HibernateTriageStatusQueryProcessorTest extends AbstractHibernateDa
 
     protected ContentDaoImpl contentDao = null;
     protected UserDaoImpl userDao = null;
+    protected TriageIndexDaoImpl triageIndexDao = null;
+    protected ServerPropertyDaoImpl serverPropertyDao = null;
     protected StandardTriageStatusQueryProcessor queryProcessor = null;
     
     protected final String CALENDAR_UID = "calendaruid";
@@ -191,6 +197,73 @@ public class HibernateTriageStatusQueryProcessorTest extends AbstractHibernateDa
         verifyItemInSet(results, "calendar2_3");
     }
     
+    public void testTriageIndexCollection() throws Exception {
+        CollectionItem calendar = (CollectionItem) contentDao.findItemByUid(CALENDAR_UID);
+        String[] labels = new String[] { null, TriageStatus.LABEL_NOW,
+                TriageStatus.LABEL_LATER, TriageStatus.LABEL_DONE };
+        DateTime[] dates = new DateTime[] { new DateTime("20070601T000000Z"),
+                new DateTime("20070601T083000Z") };
+        
+        Set<String> expected = new HashSet<String>();
+        for(DateTime date: dates)
+            for(String label: labels)
+                expected.add(label + " " + date + " " + getUids(queryProcessor
+                        .processTriageStatusQuery(calendar,
+                                new TriageStatusQueryContext(label, date, null))));
+        
+        queryProcessor.setTriageIndexDao(triageIndexDao);
+        queryProcessor.setServerPropertyDao(serverPropertyDao);
+        
+        // 2 notes and 3 events
+        Assert.assertEquals(5, queryProcessor.refreshTriageIndex(100));
+        Assert.assertEquals(0, queryProcessor.refreshTriageIndex(100));
+        
+        // results served by the index match the results of the queries
+        Set<String> results = new HashSet<String>();
+        for(DateTime date: dates)
+            for(String label: labels)
+                results.add(label + " " + date + " " + getUids(queryProcessor
+                        .processTriageStatusQuery(calendar,
+                                new TriageStatusQueryContext(label, date, null))));
+        Assert.assertEquals(expected, results);
+    }
+    
+    public void testUpdateTriageIndex() throws Exception {
+        CollectionItem calendar = (CollectionItem) contentDao.findItemByUid(CALENDAR_UID);
+        queryProcessor.setTriageIndexDao(triageIndexDao);
+        queryProcessor.setServerPropertyDao(serverPropertyDao);
+        queryProcessor.refreshTriageIndex(100);
+        
+        TriageStatusQueryContext context =
+            new TriageStatusQueryContext(TriageStatus.LABEL_LATER, new DateTime("20070601T000000Z"), null);
+        NoteItem note = (NoteItem) contentDao.findItemByUid(NOTE_UID + "later");
+        verifyItemInSet(queryProcessor.processTriageStatusQuery(calendar, context), note.getUid());
+        
+        queryProcessor.removeFromTriageIndex(note);
+        Set<NoteItem> later = queryProcessor.processTriageStatusQuery(calendar, context);
+        Assert.assertFalse(getUids(later).contains(note.getUid()));
+        
+        queryProcessor.updateTriageIndex(note);
+        verifyItemInSet(queryProcessor.processTriageStatusQuery(calendar, context), note.getUid());
+        
+        // a triage status change moves the note
+        note.getTriageStatus().setCode(TriageStatus.CODE_DONE);
+        note = (NoteItem) contentDao.updateContent(note);
+        queryProcessor.updateTriageIndex(note);
+        later = queryProcessor.processTriageStatusQuery(calendar, context);
+        Assert.assertFalse(getUids(later).contains(note.getUid()));
+        
+        context = new TriageStatusQueryContext(TriageStatus.LABEL_DONE, new DateTime("20070601T000000Z"), null);
+        verifyItemInSet(queryProcessor.processTriageStatusQuery(calendar, context), note.getUid());
+    }
+    
+    private Set<String> getUids(Set<NoteItem> items) {
+        Set<String> uids = new TreeSet<String>();
+        for(Item item: items)
+            uids.add(item.getUid());
+        return uids;
+    }
+    
     private User getUser(UserDao userDao, String username) {
         return helper.getUser(userDao, contentDao, username);
     }
@@ -112,6 +112,26 @@ public class StandardContentServiceTest extends TestCase {
         assertNull(item);
     }
 
+    /** */
+    public void testFindItemsByUids() throws Exception {
+        User user = testHelper.makeDummyUser();
+        CollectionItem rootCollection = contentDao.createRootItem(user);
+        ContentItem dummyContent = new MockNoteItem();
+        dummyContent.setName("foo");
+        dummyContent.setOwner(user);
+        dummyContent = contentDao.createContent(rootCollection, dummyContent);
+        
+        HashSet<String> uids = new HashSet<String>();
+        uids.add(dummyContent.getUid());
+        uids.add("missing");
+        uids.add("uid" + ModificationUid.RECURRENCEID_DELIMITER + "bogus");
+        
+        // missing items and bogus mod uids are ignored
+        Set<Item> items = service.findItemsByUids(uids);
+        assertEquals(1, items.size());
+        assertEquals(dummyContent, items.iterator().next());
+    }
+
     /** */
     public void testFindNonExistentItemByPath() throws Exception {
         String path = "/foo/bar/baz";
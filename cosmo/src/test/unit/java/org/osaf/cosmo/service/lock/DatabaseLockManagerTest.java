@@ -0,0 +1,274 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.service.lock;
+
+import javax.sql.DataSource;
+
+import junit.framework.Assert;
+
+import org.osaf.cosmo.dao.hibernate.AbstractSpringDaoTestCase;
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.hibernate.HibCollectionItem;
+
+/**
+ * Test DatabaseLockManager using two lock managers
+ * to simulate two nodes sharing the test database.
+ */
+public class DatabaseLockManagerTest extends AbstractSpringDaoTestCase {
+    
+    protected DataSource jdbcDataSource = null;
+    
+    DatabaseLockManager node1 = null;
+    DatabaseLockManager node2 = null;
+    
+    @Override
+    protected void onSetUpInTransaction() throws Exception {
+        node1 = new DatabaseLockManager();
+        node1.setDataSource(jdbcDataSource);
+        node1.setNodeId("node1");
+        node1.setPollInterval(10);
+        
+        node2 = new DatabaseLockManager();
+        node2.setDataSource(jdbcDataSource);
+        node2.setNodeId("node2");
+        node2.setPollInterval(10);
+    }
+    
+    @Override
+    protected void onTearDownInTransaction() throws Exception {
+        node1.destroy();
+        node2.destroy();
+    }
+    
+    public void testLockAcrossNodes() throws Exception {
+        CollectionItem col = new HibCollectionItem();
+        col.setUid("dblock1");
+        
+        Assert.assertTrue(node1.lockCollection(col, 0));
+        Assert.assertTrue(node1.isLocked(col));
+        Assert.assertTrue(node2.isLocked(col));
+        
+        // other node can't get lock
+        Assert.assertFalse(node2.lockCollection(col, 100));
+        Assert.assertEquals(1, node2.getNumTimeouts());
+        Assert.assertTrue(node2.getMaxWaitTime() >= 100);
+        
+        // lock is re-entrant for the owning thread
+        Assert.assertTrue(node1.lockCollection(col, 0));
+        node1.unlockCollection(col);
+        Assert.assertFalse(node2.lockCollection(col, 0));
+        
+        // other node can't unlock
+        try {
+            node2.unlockCollection(col);
+            Assert.fail("able to unlock something we don't own");
+        } catch (RuntimeException e) {}
+        
+        node1.unlockCollection(col);
+        Assert.assertFalse(node1.isLocked(col));
+        Assert.assertEquals(0, node1.getNumLocksHeld());
+        
+        Assert.assertTrue(node2.lockCollection(col, 0));
+        node2.unlockCollection(col);
+        
+        Assert.assertEquals(1, node1.getNumAcquired());
+        Assert.assertEquals(1, node2.getNumAcquired());
+    }
+    
+    public void testWaitForLock() throws Exception {
+        final CollectionItem col = new HibCollectionItem();
+        col.setUid("dblock2");
+        
+        Assert.assertTrue(node1.lockCollection(col, 0));
+        
+        LockTestThread t = new LockTestThread();
+        t.lockManager = node2;
+        t.collection = col;
+        t.start();
+        
+        Thread.sleep(200);
+        Assert.assertFalse(t.hasLock);
+        
+        node1.unlockCollection(col);
+        t.join(1000);
+        
+        Assert.assertTrue(t.hasLock);
+        Assert.assertFalse(node1.isLocked(col));
+    }
+    
+    public void testExpiredLease() throws Exception {
+        CollectionItem col = new HibCollectionItem();
+        col.setUid("dblock3");
+        
+        node1.setLeaseTime(50);
+        Assert.assertTrue(node1.lockCollection(col, 0));
+        
+        Thread.sleep(100);
+        
+        // lease expired, so other node can take it
+        Assert.assertTrue(node2.lockCollection(col, 0));
+        Assert.assertEquals(1, node2.getNumExpiredTaken());
+        
+        // original owner no longer holds the lease
+        try {
+            node1.unlockCollection(col);
+            Assert.fail("able to unlock expired lock");
+        } catch (RuntimeException e) {}
+        
+        node2.unlockCollection(col);
+        Assert.assertFalse(node2.isLocked(col));
+    }
+    
+    public void testRenewLease() throws Exception {
+        CollectionItem col = new HibCollectionItem();
+        col.setUid("dblock4");
+        
+        node1.setLeaseTime(200);
+        node1.setRenewInterval(50);
+        node1.init();
+        try {
+            Assert.assertTrue(node1.lockCollection(col, 0));
+            
+            Thread.sleep(400);
+            
+            // lease was renewed, so other node can't take it
+            Assert.assertFalse(node2.lockCollection(col, 0));
+            Assert.assertTrue(node1.getNumRenewed() > 0);
+            
+            node1.unlockCollection(col);
+            Assert.assertFalse(node1.isLocked(col));
+        } finally {
+            node1.destroy();
+        }
+    }
+    
+    public void testLostLease() throws Exception {
+        CollectionItem col = new HibCollectionItem();
+        col.setUid("dblock5");
+        
+        node1.setLeaseTime(50);
+        Assert.assertTrue(node1.lockCollection(col, 0));
+        
+        Thread.sleep(100);
+        Assert.assertTrue(node2.lockCollection(col, 0));
+        
+        // renewal finds the lease was taken over
+        node1.renewLeases();
+        Assert.assertEquals(1, node1.getNumLost());
+        Assert.assertTrue(node2.isLocked(col));
+        
+        try {
+            node1.unlockCollection(col);
+            Assert.fail("able to unlock lost lock");
+        } catch (RuntimeException e) {}
+        
+        node2.unlockCollection(col);
+    }
+    
+    public void testFencingToken() throws Exception {
+        CollectionItem col = new HibCollectionItem();
+        col.setUid("dblock6");
+        
+        Assert.assertTrue(node1.lockCollection(col, 0));
+        long token1 = node1.getFencingToken(col);
+        node1.unlockCollection(col);
+        
+        // released lease is granted again with a higher token
+        Assert.assertTrue(node2.lockCollection(col, 0));
+        long token2 = node2.getFencingToken(col);
+        Assert.assertTrue(token2 > token1);
+        
+        // only the owning thread has a token
+        try {
+            node1.getFencingToken(col);
+            Assert.fail("got token of lock we don't own");
+        } catch (RuntimeException e) {}
+        
+        node2.unlockCollection(col);
+        
+        // so is an expired one
+        node1.setLeaseTime(50);
+        Assert.assertTrue(node1.lockCollection(col, 0));
+        long token3 = node1.getFencingToken(col);
+        Assert.assertTrue(token3 > token2);
+        Thread.sleep(100);
+        Assert.assertTrue(node2.lockCollection(col, 0));
+        Assert.assertTrue(node2.getFencingToken(col) > token3);
+        
+        // the previous owner can't release the new owner's lease
+        try {
+            node1.unlockCollection(col);
+            Assert.fail("able to unlock with stale token");
+        } catch (RuntimeException e) {}
+        Assert.assertTrue(node2.isLocked(col));
+        
+        node2.unlockCollection(col);
+    }
+    
+    public void testInsertErrorIsNotContention() throws Exception {
+        CollectionItem col = new HibCollectionItem();
+        StringBuffer uid = new StringBuffer();
+        for (int i = 0; i < 300; i++)
+            uid.append('x');
+        col.setUid(uid.toString());
+        
+        // a uid too long for the table is an error, not a held lock
+        try {
+            node1.lockCollection(col, 100);
+            Assert.fail("able to lock with invalid uid");
+        } catch (RuntimeException e) {}
+        Assert.assertEquals(0, node1.getNumTimeouts());
+    }
+    
+    public void testSingleConnection() throws Exception {
+        CollectionItem col = new HibCollectionItem();
+        col.setUid("dblock7");
+        
+        node1.setMaxConnections(1);
+        node2.setMaxConnections(1);
+        
+        Assert.assertTrue(node1.lockCollection(col, 0));
+        
+        // the waiting thread polls over the same connection
+        LockTestThread t = new LockTestThread();
+        t.lockManager = node1;
+        t.collection = col;
+        t.start();
+        
+        Thread.sleep(100);
+        Assert.assertFalse(t.hasLock);
+        Assert.assertTrue(node1.isLocked(col));
+        
+        node1.unlockCollection(col);
+        t.join(1000);
+        
+        Assert.assertTrue(t.hasLock);
+        Assert.assertFalse(node2.isLocked(col));
+    }
+    
+    class LockTestThread extends Thread {
+        
+        DatabaseLockManager lockManager = null;
+        CollectionItem collection = null;
+        boolean hasLock = false;
+        
+        public void run() {
+            lockManager.lockCollection(collection);
+            hasLock = true;
+            lockManager.unlockCollection(collection);
+        }
+    }
+}
@@ -96,21 +96,29 @@ public class SingleVMLockManagerTest extends TestCase {
         
         // now we should be ok
         Assert.assertTrue(lockManager.lockCollection(col,100));
+        Assert.assertEquals(4, lockManager.getNumLocksInMemory());
         lockManager.unlockCollection(col);
         
-        Assert.assertEquals(4, lockManager.getNumLocksInMemory());
+        // unreferenced locks are removed as soon as they are released
+        Assert.assertEquals(3, lockManager.getNumLocksInMemory());
         
-        // this should trigger a clean
         col.setUid("5");
         Assert.assertTrue(lockManager.lockCollection(col,100));
         lockManager.unlockCollection(col);
-        Assert.assertEquals(4, lockManager.getNumLocksInMemory());
+        Assert.assertEquals(3, lockManager.getNumLocksInMemory());
         
-        // another clean
         col.setUid("6");
         Assert.assertTrue(lockManager.lockCollection(col,100));
         Assert.assertEquals(4, lockManager.getNumLocksInMemory());
         
+        // contention on 1 and 3 is tracked per collection, 
+        // uncontended 5 is not
+        Assert.assertEquals(1, lockManager.getStatistics("1").getNumTimeouts());
+        Assert.assertEquals(1, lockManager.getStatistics("3").getNumContended());
+        Assert.assertNull(lockManager.getStatistics("5"));
+        Assert.assertEquals(1, lockManager.getNumTimeouts());
+        Assert.assertEquals("1", lockManager.getMostContendedCollections(1)[0].split(" ")[0]);
+        
         // should not be able to unlock something we don't own
         col.setUid("1");
         try {
@@ -120,6 +128,26 @@ public class SingleVMLockManagerTest extends TestCase {
         }        
     }
     
+    public void testReentrantLockReleased() throws Exception {
+        CollectionItem col = new HibCollectionItem();
+        col.setUid("1");
+        
+        lockManager.lockCollection(col);
+        Assert.assertTrue(lockManager.lockCollection(col, 0));
+        Assert.assertEquals(1, lockManager.getNumLocksInMemory());
+        
+        lockManager.unlockCollection(col);
+        Assert.assertTrue(lockManager.isLocked(col));
+        lockManager.unlockCollection(col);
+        Assert.assertFalse(lockManager.isLocked(col));
+        Assert.assertEquals(0, lockManager.getNumLocksInMemory());
+        
+        Assert.assertEquals(2, lockManager.getNumAcquired());
+        Assert.assertEquals(1, lockManager.getStatistics().getHoldHistogram()[0]
+                + lockManager.getStatistics().getHoldHistogram()[1]
+                + lockManager.getStatistics().getHoldHistogram()[2]);
+    }
+    
     class LockTestThread extends Thread {
         
         String uid = null;
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.service.notify;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test SingleVMCollectionNotifier
+ */
+public class SingleVMCollectionNotifierTest extends TestCase {
+
+    SingleVMCollectionNotifier notifier = new SingleVMCollectionNotifier();
+
+    public void testAwaitAfterPublish() throws Exception {
+        long version = notifier.getVersion("1");
+        notifier.publish("1");
+        Assert.assertTrue(notifier.getVersion("1") > version);
+        Assert.assertTrue(notifier.await("1", version, 10000));
+        Assert.assertEquals(0, notifier.getWaits());
+    }
+
+    public void testAwaitTimeout() throws Exception {
+        long version = notifier.getVersion("1");
+        notifier.publish("2");
+        Assert.assertFalse(notifier.await("1", version, 100));
+        Assert.assertEquals(1, notifier.getTimedOut());
+        Assert.assertEquals(0, notifier.getWaiters());
+    }
+
+    public void testAwaitWokenByPublish() throws Exception {
+        WaitThread t = new WaitThread();
+        t.version = notifier.getVersion("1");
+        t.start();
+
+        Thread.sleep(200);
+        Assert.assertEquals(1, notifier.getWaiters());
+
+        // change to another collection doesn't wake the waiter
+        notifier.publish("2");
+        Thread.sleep(200);
+        Assert.assertTrue(t.isAlive());
+
+        notifier.publish("1");
+        t.join(10000);
+        Assert.assertFalse(t.isAlive());
+        Assert.assertTrue(t.result);
+        Assert.assertEquals(0, notifier.getWaiters());
+    }
+
+    public void testMaxWaiters() throws Exception {
+        notifier.setMaxWaiters(0);
+        Assert.assertFalse(notifier.await("1", notifier.getVersion("1"), 10000));
+        Assert.assertEquals(1, notifier.getRefused());
+    }
+
+    public void testForgottenVersion() throws Exception {
+        notifier.setMaxCollections(1);
+        long version = notifier.getVersion("1");
+        notifier.publish("1");
+        notifier.publish("2");
+        Assert.assertEquals(1, notifier.getTrackedCollections());
+        // forgotten collection still reports a change
+        Assert.assertTrue(notifier.getVersion("1") > version);
+    }
+
+    class WaitThread extends Thread {
+        long version;
+        boolean result = false;
+
+        public void run() {
+            result = notifier.await("1", version, 10000);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.webcal;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+
+import org.osaf.cosmo.TestHelper;
+import org.osaf.cosmo.calendar.util.CalendarUtils;
+import org.osaf.cosmo.dao.mock.MockCalendarDao;
+import org.osaf.cosmo.dao.mock.MockContentDao;
+import org.osaf.cosmo.dao.mock.MockDaoStorage;
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.EventStamp;
+import org.osaf.cosmo.model.NoteItem;
+import org.osaf.cosmo.model.User;
+import org.osaf.cosmo.model.mock.MockEntityFactory;
+import org.osaf.cosmo.service.impl.StandardContentService;
+import org.osaf.cosmo.service.impl.StandardTriageStatusQueryProcessor;
+import org.osaf.cosmo.service.lock.SingleVMLockManager;
+
+/**
+ * Test WebcalCache using mock data access objects.
+ */
+public class WebcalCacheTest extends TestCase {
+
+    private StandardContentService contentService;
+    private MockContentDao contentDao;
+    private MockEntityFactory factory;
+    private TestHelper testHelper;
+    private File cacheDir;
+    private WebcalCache cache;
+    private CollectionItem calendar;
+
+    protected void setUp() throws Exception {
+        testHelper = new TestHelper();
+        factory = new MockEntityFactory();
+        MockDaoStorage storage = new MockDaoStorage();
+        contentDao = new MockContentDao(storage);
+
+        contentService = new StandardContentService();
+        contentService.setCalendarDao(new MockCalendarDao(storage));
+        contentService.setContentDao(contentDao);
+        contentService.setLockManager(new SingleVMLockManager());
+        contentService.setTriageStatusQueryProcessor(new StandardTriageStatusQueryProcessor());
+        contentService.init();
+
+        cacheDir = File.createTempFile("webcal", "test");
+        cacheDir.delete();
+
+        cache = new WebcalCache();
+        cache.setContentService(contentService);
+        cache.setCacheDir(cacheDir.getPath());
+        // several pages of children
+        cache.setPageSize(2);
+        cache.init();
+
+        User user = testHelper.makeDummyUser();
+        CollectionItem root = contentDao.createRootItem(user);
+
+        calendar = factory.createCollection();
+        calendar.setOwner(user);
+        calendar.setUid("calendar");
+        calendar.setName("calendar");
+        calendar.addStamp(factory.createCalendarCollectionStamp(calendar));
+        contentDao.createCollection(root, calendar);
+
+        for (int i = 1; i <= 3; i++) {
+            NoteItem event = factory.createNote();
+            event.setUid("event" + i);
+            event.setName("event" + i + ".ics");
+            event.setOwner(user);
+            EventStamp evs = factory.createEventStamp(event);
+            event.addStamp(evs);
+            evs.setEventCalendar(CalendarUtils.parseCalendar(testHelper
+                    .getBytes("eventwithtimezone" + i + ".ics")));
+            contentDao.createContent(calendar, event);
+        }
+        calendar.setEntityTag("1");
+    }
+
+    protected void tearDown() throws Exception {
+        cache.destroy();
+        cacheDir.delete();
+    }
+
+    public void testRender() throws Exception {
+        Calendar rendered = readCalendar();
+
+        // one VTIMEZONE shared by all events, ahead of the events
+        Assert.assertEquals(1, rendered.getComponents(Component.VTIMEZONE).size());
+        Assert.assertEquals(3, rendered.getComponents(Component.VEVENT).size());
+        Assert.assertEquals(Component.VTIMEZONE,
+                ((Component) rendered.getComponents().get(0)).getName());
+        Assert.assertNotNull(rendered.getProductId());
+    }
+
+    public void testCaching() throws Exception {
+        readCalendar();
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(0, cache.getHits());
+
+        readCalendar();
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(1, cache.getHits());
+
+        // changed collections are rendered again
+        contentService.removeItem(contentDao.findItemByUid("event3"));
+        calendar.setEntityTag("2");
+        Calendar rendered = readCalendar();
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(2, rendered.getComponents(Component.VEVENT).size());
+        Assert.assertEquals(1, cache.getSize());
+        Assert.assertEquals(1, cacheDir.list().length);
+    }
+
+    private Calendar readCalendar() throws Exception {
+        FileInputStream in = cache.openCalendar(calendar);
+        try {
+            return new CalendarBuilder().build(in);
+        } finally {
+            in.close();
+        }
+    }
+}
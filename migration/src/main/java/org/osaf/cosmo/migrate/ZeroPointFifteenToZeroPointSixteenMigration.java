@@ -0,0 +1,182 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.migrate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Migration implementation that migrates Cosmo 0.15 (schema ver 160)
+ * to Cosmo 0.16 (schema ver 170)
+ *
+ * Supports MySQL5, Derby and PostgreSQL dialects.
+ * <p>
+ * Calculates the numeric time-range index columns of each event stamp
+ * from the existing string time-range index.  Event stamps are
+ * processed in batches of <code>batchSize</code> rows ordered by
+ * stamp id, so that memory use does not depend on the number of
+ * events.
+ */
+public class ZeroPointFifteenToZeroPointSixteenMigration extends AbstractMigration {
+
+    private static final Log log = LogFactory.getLog(ZeroPointFifteenToZeroPointSixteenMigration.class);
+
+    // must match HibEventTimeRangeIndex
+    private static final String TIME_INFINITY = "Z-TIME-INFINITY";
+    private static final long MAX_TZ_OFFSET = 14 * 60 * 60 * 1000L;
+
+    private int batchSize = 500;
+
+    @Override
+    public String getFromVersion() {
+        return "160";
+    }
+
+    @Override
+    public String getToVersion() {
+        return "170";
+    }
+
+    @Override
+    public Set<String> getSupportedDialects() {
+        HashSet<String> dialects = new HashSet<String>();
+        dialects.add("Derby");
+        dialects.add("MySQL5");
+        dialects.add("PostgreSQL");
+        return dialects;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize number of event stamps to read and update
+     *        at a time
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void migrateData(Connection conn, String dialect) throws Exception {
+        log.debug("starting migrateData()");
+        migrateTimeRangeIndexes(conn);
+    }
+
+    /**
+     * Calculate numeric time-range index for each event stamp row.
+     */
+    private void migrateTimeRangeIndexes(Connection conn) throws Exception {
+
+        PreparedStatement stmt = null;
+        PreparedStatement updateStmt = null;
+
+        long count = 0;
+        long lastId = -1;
+
+        log.debug("starting migrateTimeRangeIndexes()");
+
+        try {
+            stmt = conn.prepareStatement("select stampid, startdate, enddate, isfloating from event_stamp where stampid > ? and startdate is not null order by stampid");
+            stmt.setMaxRows(batchSize);
+            updateStmt = conn.prepareStatement("update event_stamp set utcstart=?, utcend=?, floatstart=?, floatend=? where stampid=?");
+
+            int rows = batchSize;
+            while(rows==batchSize) {
+                rows = 0;
+                stmt.setLong(1, lastId);
+                ResultSet rs = stmt.executeQuery();
+                try {
+                    while(rs.next()) {
+                        lastId = rs.getLong(1);
+                        String startDate = rs.getString(2);
+                        String endDate = rs.getString(3);
+                        boolean isFloating = rs.getBoolean(4);
+
+                        long start = 0;
+                        long end = 0;
+
+                        try {
+                            start = parse(startDate);
+                            end = parse(endDate);
+                        } catch (ParseException e) {
+                            log.error("error processing stampid " + lastId);
+                            throw e;
+                        }
+
+                        if(isFloating) {
+                            updateStmt.setLong(1, start - MAX_TZ_OFFSET);
+                            updateStmt.setLong(2, end < Long.MAX_VALUE - MAX_TZ_OFFSET ?
+                                    end + MAX_TZ_OFFSET : Long.MAX_VALUE);
+                            updateStmt.setLong(3, start);
+                            updateStmt.setLong(4, end);
+                        } else {
+                            updateStmt.setLong(1, start);
+                            updateStmt.setLong(2, end);
+                            updateStmt.setNull(3, Types.BIGINT);
+                            updateStmt.setNull(4, Types.BIGINT);
+                        }
+                        updateStmt.setLong(5, lastId);
+                        updateStmt.addBatch();
+                        rows++;
+                    }
+                } finally {
+                    close(rs);
+                }
+
+                if(rows > 0)
+                    updateStmt.executeBatch();
+
+                count += rows;
+                log.debug("processed " + count + " event stamps");
+            }
+        } finally {
+            close(stmt);
+            close(updateStmt);
+        }
+
+        log.debug("processed " + count + " event stamps");
+    }
+
+    /**
+     * Parse a time-range index String (20070101, 20070101T100000,
+     * 20070101T100000Z, Z-TIME-INFINITY) into milliseconds, treating
+     * floating times as UTC.
+     */
+    private long parse(String date) throws ParseException {
+        if(date==null || TIME_INFINITY.equals(date))
+            return Long.MAX_VALUE;
+
+        if(date.endsWith("Z"))
+            date = date.substring(0, date.length() - 1);
+
+        SimpleDateFormat format = new SimpleDateFormat(
+                date.length() > 8 ? "yyyyMMdd'T'HHmmss" : "yyyyMMdd");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        format.setLenient(false);
+        return format.parse(date).getTime();
+    }
+}
@@ -0,0 +1,48 @@
+# 160-to-170-MySQL5-pre.sql
+
+# event instance index
+alter table event_stamp add column instancesfrom bigint
+alter table event_stamp add column instancesuntil bigint
+create table event_instance (stampid bigint not null, recurrenceid varchar(16) not null, startdate varchar(16) not null, enddate varchar(16) not null, primary key (stampid, recurrenceid, startdate, enddate)) ENGINE=InnoDB
+alter table event_instance add constraint FK_EVENTINST_STAMP foreign key (stampid) references stamp (id)
+create index idx_inststartdt on event_instance (startdate)
+create index idx_instenddt on event_instance (enddate)
+
+# numeric time-range index
+alter table event_stamp add column utcstart bigint
+alter table event_stamp add column utcend bigint
+alter table event_stamp add column floatstart bigint
+alter table event_stamp add column floatend bigint
+create index idx_utcrange on event_stamp (utcstart, utcend, stampid)
+
+# collection change log
+alter table item add column changeseq bigint
+create table collection_change (id bigint not null auto_increment, collectionid bigint not null, changeseq bigint not null, itemuid varchar(255) not null, isremoved bit not null, changedate bigint not null, primary key (id), unique (collectionid, changeseq)) ENGINE=InnoDB
+alter table collection_change add constraint FK_CHANGE_COLLECTION foreign key (collectionid) references item (id)
+create index idx_changedate on collection_change (changedate)
+
+# collection locks
+create table collection_lock (collectionuid varchar(255) not null, ownerid varchar(255) not null, expiredate bigint not null, token bigint not null, primary key (collectionuid)) ENGINE=InnoDB
+
+# calendar cache digests
+alter table event_stamp add column icaldigest varchar(40)
+alter table attribute add column icaldigest varchar(40)
+
+# free-busy rollups
+alter table event_stamp add column busyfrom bigint
+alter table event_stamp add column busyuntil bigint
+create table busy_period (stampid bigint not null, recurrenceid varchar(16) not null, fbtype integer not null, starttime bigint not null, endtime bigint not null, primary key (stampid, recurrenceid, fbtype, starttime, endtime)) ENGINE=InnoDB
+alter table busy_period add constraint FK_BUSYPERIOD_STAMP foreign key (stampid) references stamp (id)
+
+# event log change feed
+alter table event_log add column insertdate bigint
+create index idx_eventlog_parent on event_log (id1, id)
+
+# external blob store
+alter table content_data add column blobid varchar(64)
+
+# triage index
+create table triage_index (id bigint not null auto_increment, collectionid bigint not null, masteruid varchar(255) not null, itemuid varchar(255) not null, recurrenceid varchar(16), triagecode integer, itemrank bigint not null, effectivedate bigint, isfloating bit not null, validfrom bigint not null, validuntil bigint not null, primary key (id)) ENGINE=InnoDB
+create index idx_triage_collection on triage_index (collectionid, triagecode, itemrank)
+create index idx_triage_master on triage_index (masteruid)
+create index idx_triage_validuntil on triage_index (validuntil)
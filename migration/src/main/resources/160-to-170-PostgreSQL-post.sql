@@ -0,0 +1,4 @@
+# 160-to-170-PostgresSQL-post.sql
+
+# update server version
+update server_properties SET propertyvalue='170' WHERE propertyname='cosmo.schemaVersion';
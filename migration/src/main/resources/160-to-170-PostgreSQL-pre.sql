@@ -0,0 +1,48 @@
+# 160-to-170-PostgresSQL-pre.sql
+
+# event instance index
+alter table event_stamp add column instancesfrom int8
+alter table event_stamp add column instancesuntil int8
+create table event_instance (stampid int8 not null, recurrenceid varchar(16) not null, startdate varchar(16) not null, enddate varchar(16) not null, primary key (stampid, recurrenceid, startdate, enddate))
+alter table event_instance add constraint FK_EVENTINST_STAMP foreign key (stampid) references stamp
+create index idx_inststartdt on event_instance (startdate)
+create index idx_instenddt on event_instance (enddate)
+
+# numeric time-range index
+alter table event_stamp add column utcstart int8
+alter table event_stamp add column utcend int8
+alter table event_stamp add column floatstart int8
+alter table event_stamp add column floatend int8
+create index idx_utcrange on event_stamp (utcstart, utcend, stampid)
+
+# collection change log
+alter table item add column changeseq int8
+create table collection_change (id int8 not null, collectionid int8 not null, changeseq int8 not null, itemuid varchar(255) not null, isremoved boolean not null, changedate int8 not null, primary key (id), unique (collectionid, changeseq))
+alter table collection_change add constraint FK_CHANGE_COLLECTION foreign key (collectionid) references item
+create index idx_changedate on collection_change (changedate)
+
+# collection locks
+create table collection_lock (collectionuid varchar(255) not null, ownerid varchar(255) not null, expiredate int8 not null, token int8 not null, primary key (collectionuid))
+
+# calendar cache digests
+alter table event_stamp add column icaldigest varchar(40)
+alter table attribute add column icaldigest varchar(40)
+
+# free-busy rollups
+alter table event_stamp add column busyfrom int8
+alter table event_stamp add column busyuntil int8
+create table busy_period (stampid int8 not null, recurrenceid varchar(16) not null, fbtype int4 not null, starttime int8 not null, endtime int8 not null, primary key (stampid, recurrenceid, fbtype, starttime, endtime))
+alter table busy_period add constraint FK_BUSYPERIOD_STAMP foreign key (stampid) references stamp
+
+# event log change feed
+alter table event_log add column insertdate int8
+create index idx_eventlog_parent on event_log (id1, id)
+
+# external blob store
+alter table content_data add column blobid varchar(64)
+
+# triage index
+create table triage_index (id int8 not null, collectionid int8 not null, masteruid varchar(255) not null, itemuid varchar(255) not null, recurrenceid varchar(16), triagecode int4, itemrank int8 not null, effectivedate int8, isfloating boolean not null, validfrom int8 not null, validuntil int8 not null, primary key (id))
+create index idx_triage_collection on triage_index (collectionid, triagecode, itemrank)
+create index idx_triage_master on triage_index (masteruid)
+create index idx_triage_validuntil on triage_index (validuntil)